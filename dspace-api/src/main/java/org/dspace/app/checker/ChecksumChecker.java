@@ -231,6 +231,7 @@ public final class ChecksumChecker
         checker.setDispatcher(dispatcher);
         checker.setCollector(logger);
         checker.process();
+        logger.summarize(checker);
         System.exit(0);
     }
 
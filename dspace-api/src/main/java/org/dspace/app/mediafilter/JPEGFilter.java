@@ -14,9 +14,15 @@ import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.dspace.core.ConfigurationManager;
 
@@ -27,7 +33,7 @@ import org.dspace.core.ConfigurationManager;
  *
  * @author Jason Sherman <jsherman@usao.edu>
  */
-public class JPEGFilter extends MediaFilter implements SelfRegisterInputFormats
+public class JPEGFilter extends MediaFilter implements SelfRegisterInputFormats, StreamingFormatFilter
 {
     public String getFilteredName(String oldFilename)
     {
@@ -68,14 +74,40 @@ public class JPEGFilter extends MediaFilter implements SelfRegisterInputFormats
     public InputStream getDestinationStream(InputStream source)
             throws Exception
     {
-        // read in bitstream's image
-        BufferedImage buf = ImageIO.read(source);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        if (!writeDestination(source, baos))
+        {
+            return null;
+        }
 
+        return new ByteArrayInputStream(baos.toByteArray());
+    }
+
+    /**
+     * @param source
+     *            source input stream
+     * @param destination
+     *            where to write the thumbnail
+     * 
+     * @return true if the thumbnail was written, false if the source is not
+     *         a readable image
+     */
+    public boolean writeDestination(InputStream source, OutputStream destination)
+            throws Exception
+    {
         // get config params
         float xmax = (float) ConfigurationManager
                 .getIntProperty("thumbnail.maxwidth");
         float ymax = (float) ConfigurationManager
                 .getIntProperty("thumbnail.maxheight");
+
+        // read in bitstream's image
+        BufferedImage buf = readImage(source, xmax, ymax);
+        if (buf == null)
+        {
+            return false;
+        }
         boolean blurring = (boolean) ConfigurationManager
                 .getBooleanProperty("thumbnail.blurring");
         boolean hqscaling = (boolean) ConfigurationManager
@@ -161,15 +193,65 @@ public class JPEGFilter extends MediaFilter implements SelfRegisterInputFormats
         Graphics2D g2d = thumbnail.createGraphics();
         g2d.drawImage(buf, 0, 0, (int) xsize, (int) ysize, null);
 
-        // now create an input stream for the thumbnail buffer and return it
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // now write the thumbnail buffer out
+        return ImageIO.write(thumbnail, "jpeg", destination);
+    }
 
-        ImageIO.write(thumbnail, "jpeg", baos);
+    /**
+     * Read an image that is to be scaled down to a thumbnail. Large images
+     * are subsampled as they are decoded, down to no less than twice the
+     * size of the thumbnail, so that a huge scan does not need to be held in
+     * memory at full resolution.
+     * 
+     * @param source
+     *            the image
+     * @param xmax
+     *            maximum width of the thumbnail
+     * @param ymax
+     *            maximum height of the thumbnail
+     * @return the image, or null if it could not be read
+     */
+    protected BufferedImage readImage(InputStream source, float xmax, float ymax)
+            throws IOException
+    {
+        ImageInputStream iis = ImageIO.createImageInputStream(source);
+        if (iis == null)
+        {
+            return null;
+        }
 
-        // now get the array
-        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+            {
+                return null;
+            }
 
-        return bais; // hope this gets written out before its garbage collected!
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(iis, true, true);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = (xmax > 0 && ymax > 0) ? (int) Math.min(reader.getWidth(0) / (2 * xmax),
+                        reader.getHeight(0) / (2 * ymax)) : 1;
+                if (step > 1)
+                {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+
+                return reader.read(0, param);
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        finally
+        {
+            iis.close();
+        }
     }
 
 
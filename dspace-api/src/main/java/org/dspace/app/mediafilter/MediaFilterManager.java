@@ -7,13 +7,36 @@
  */
 package org.dspace.app.mediafilter;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -51,8 +74,10 @@ import org.dspace.search.DSIndexer;
  * MFM: -v verbose outputs all extracted text to STDOUT; -f force forces all
  * bitstreams to be processed, even if they have been before; -n noindex does not
  * recreate index after processing bitstreams; -i [identifier] limits processing 
- * scope to a community, collection or item; and -m [max] limits processing to a
- * maximum number of items.
+ * scope to a community, collection or item; -m [max] limits processing to a
+ * maximum number of items; -t [threads] filters that many items at once; and
+ * -r [file] records the finished items in a file, so that an interrupted run
+ * can be resumed where it stopped.
  */
 public class MediaFilterManager
 {
@@ -79,9 +104,27 @@ public class MediaFilterManager
     
     static int max2Process = Integer.MAX_VALUE;  // maximum number items to process
     
-    static int processed = 0;   // number items processed
+    static AtomicInteger processed = new AtomicInteger();   // number items processed
     
-    private static Item currentItem = null;   // current item being processed
+    static int threads = 1;   // number of items filtered at once
+    
+    // current item being processed, by each worker
+    private static ThreadLocal<Item> currentItem = new ThreadLocal<Item>();
+    
+    private static MediaFilterPool pool = null;   // workers, if more than one
+    
+    private static Map<String, Semaphore> filterLimits = new HashMap<String, Semaphore>();
+    
+    private static File progressFile = null;   // record of finished items, to resume from
+    
+    private static Set<Integer> finishedItems = new HashSet<Integer>();
+    
+    private static PrintWriter progressLog = null;
+    
+    private static ExecutorService filterRunner = null;   // runs filters with a time budget
+    
+    // filters given up on for taking too long, which have not stopped yet
+    private static AtomicInteger runawayFilters = new AtomicInteger();
     
     private static FormatFilter[] filterClasses = null;
     
@@ -130,6 +173,10 @@ public class MediaFilterManager
         		"ONLY process bitstreams belonging to identifier");
         options.addOption("m", "maximum", true,
 				"process no more than maximum items");
+        options.addOption("t", "threads", true,
+                "number of items to filter at once");
+        options.addOption("r", "resume", true,
+                "record finished items in the given file, and skip the items already recorded there");
         options.addOption("h", "help", false, "help");
 
         //create a "plugin" option (to specify specific MediaFilter plugins to run)
@@ -209,6 +256,17 @@ public class MediaFilterManager
         	}
         }
 
+        threads = ConfigurationManager.getIntProperty(FILTER_PREFIX + ".threads", 1);
+        if (line.hasOption('t'))
+        {
+            threads = Integer.parseInt(line.getOptionValue('t'));
+        }
+        if (threads < 1)
+        {
+            System.out.println("Invalid number of threads '" + threads + "' - using 1");
+            threads = 1;
+        }
+
         String filterNames[] = null;
         if(line.hasOption('p'))
         {
@@ -285,6 +343,19 @@ public class MediaFilterManager
         	            (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""),
         	            Arrays.asList(formats.split(",[\\s]*")));
                 }
+
+                //Memory-hungry filters may be limited to fewer threads:
+                //  filter.<class-name>[.<plugin-name>].threads
+                int filterThreads = ConfigurationManager.getIntProperty(
+                    FILTER_PREFIX + "." + filterClassName + 
+                    (pluginName!=null ? "." + pluginName : "") +
+                    ".threads", 0);
+                if (filterThreads > 0 && filterThreads < threads)
+                {
+                    filterLimits.put(filterClassName + 
+                        (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""),
+                        new Semaphore(filterThreads));
+                }
             }//end if filter!=null
         }//end for
         
@@ -335,6 +406,12 @@ public class MediaFilterManager
             skipList = Arrays.asList(skipIds);
         }
         
+        if (line.hasOption('r'))
+        {
+            progressFile = new File(line.getOptionValue('r'));
+            loadProgress();
+        }
+
         Context c = null;
 
         try
@@ -344,32 +421,57 @@ public class MediaFilterManager
             // have to be super-user to do the filtering
             c.turnOffAuthorisationSystem();
 
-            // now apply the filters
-            if (identifier == null)
+            if (threads > 1)
             {
-            	applyFiltersAllItems(c);
+                pool = new MediaFilterPool(threads);
             }
-            else  // restrict application scope to identifier
+
+            // now apply the filters
+            try
             {
-            	DSpaceObject dso = HandleManager.resolveToObject(c, identifier);
-            	if (dso == null)
-            	{
-            		throw new IllegalArgumentException("Cannot resolve "
-                                + identifier + " to a DSpace object");
-            	}
+                if (identifier == null)
+                {
+                	applyFiltersAllItems(c);
+                }
+                else  // restrict application scope to identifier
+                {
+                	DSpaceObject dso = HandleManager.resolveToObject(c, identifier);
+                	if (dso == null)
+                	{
+                		throw new IllegalArgumentException("Cannot resolve "
+                                    + identifier + " to a DSpace object");
+                	}
             	
-            	switch (dso.getType())
-            	{
-            		case Constants.COMMUNITY:
-            						applyFiltersCommunity(c, (Community)dso);
-            						break;					
-            		case Constants.COLLECTION:
-            						applyFiltersCollection(c, (Collection)dso);
-            						break;						
-            		case Constants.ITEM:
-            						applyFiltersItem(c, (Item)dso);
-            						break;
-            	}
+                	switch (dso.getType())
+                	{
+                		case Constants.COMMUNITY:
+                						applyFiltersCommunity(c, (Community)dso);
+                						break;					
+                		case Constants.COLLECTION:
+                						applyFiltersCollection(c, (Collection)dso);
+                						break;						
+                		case Constants.ITEM:
+                						applyFiltersItem(c, (Item)dso);
+                						break;
+                	}
+                }
+            }
+            finally
+            {
+                // wait for the workers to finish the queued items
+                if (pool != null)
+                {
+                    MediaFilterPool workers = pool;
+                    pool = null;
+                    workers.finish();
+                }
+            }
+
+            // the run went all the way, so the next one starts afresh
+            if (progressFile != null && processed.get() < max2Process)
+            {
+                closeProgress();
+                progressFile.delete();
             }
           
             // update search index?
@@ -403,6 +505,7 @@ public class MediaFilterManager
             {
                 c.abort();
             }
+            closeProgress();
         }
         System.exit(status);
     }
@@ -426,7 +529,7 @@ public class MediaFilterManager
             ItemIterator i = Item.findAll(c);
             try
             {
-                while (i.hasNext() && processed < max2Process)
+                while (i.hasNext() && processed.get() < max2Process)
                 {
                     applyFiltersItem(c, i.next());
                 }
@@ -469,7 +572,7 @@ public class MediaFilterManager
             ItemIterator i = collection.getItems();
             try
             {
-                while (i.hasNext() && processed < max2Process)
+                while (i.hasNext() && processed.get() < max2Process)
                 {
                     applyFiltersItem(c, i.next());
                 }
@@ -486,24 +589,55 @@ public class MediaFilterManager
        
     public static void applyFiltersItem(Context c, Item item) throws Exception
     {
-        //only apply filters if item not in skip-list
-        if(!inSkipList(item.getHandle()))
+        //only apply filters if item not in skip-list, nor finished by
+        //the run being resumed
+        if(!inSkipList(item.getHandle()) && !isFinished(item.getID()))
         {
+          if (pool != null)
+          {
+              // the workers load the item again in their own context
+              pool.submit(item.getID());
+              item.decache();
+          }
+          else
+          {
+              filterAndCommit(c, item);
+          }
+        }  
+    }
+
+    /**
+     * Filter an item, and commit the results.
+     * 
+     * @param c
+     *            context to filter in; only this thread may use it
+     * @param item
+     *            item to filter
+     */
+    static void filterAndCommit(Context c, Item item) throws Exception
+    {
     	  //cache this item in MediaFilterManager
     	  //so it can be accessed by MediaFilters as necessary
-    	  currentItem = item;
+    	  currentItem.set(item);
     	
-          if (filterItem(c, item))
+          try
           {
-        	  // commit changes after each filtered item
-        	  c.commit();
-              // increment processed count
-              ++processed;
+              if (filterItem(c, item))
+              {
+            	  // commit changes after each filtered item
+            	  c.commit();
+                  // increment processed count
+                  processed.incrementAndGet();
+              }
+              markFinished(item.getID());
+
+              // clear item objects from context cache and internal cache
+              item.decache();
+          }
+          finally
+          {
+              currentItem.remove();
           }
-          // clear item objects from context cache and internal cache
-          item.decache();
-          currentItem = null;
-        }  
     }
 
     /**
@@ -756,30 +890,65 @@ public class MediaFilterManager
                 + " (item: " + item.getHandle() + ")");
         }
 
-        InputStream destStream = formatFilter.getDestinationStream(source.retrieve());
-        if (destStream == null)
+        // skip sources too large for the filter to cope with
+        long maxSize = ConfigurationManager.getLongProperty(
+                getFilterProperty(formatFilter, "maxInputSize"), 0);
+        if (maxSize > 0 && source.getSize() > maxSize)
         {
             if (!isQuiet)
             {
                 System.out.println("SKIPPED: bitstream " + source.getID()
-                        + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+                        + " (item: " + item.getHandle() + ") because it is larger than "
+                        + maxSize + " bytes");
             }
 
             return false;
         }
 
-        // create new bundle if needed
-        if (bundles.length < 1)
+        // some filters are limited to fewer threads, as they need a lot
+        // of memory until their result is stored
+        FilterPermit permit = new FilterPermit(filterLimits.get(getFilterKey(formatFilter)));
+
+        // streaming filters write their result to a temporary file
+        File tempFile = null;
+
+        Bitstream b;
+        try
         {
-            targetBundle = item.createBundle(formatFilter.getBundleName());
+            if (formatFilter instanceof StreamingFormatFilter)
+            {
+                tempFile = File.createTempFile("dspacefilter", ".tmp");
+                tempFile.deleteOnExit();
+            }
+
+            InputStream destStream = runFilter(formatFilter, source, item, tempFile, permit);
+            if (destStream == null)
+            {
+                return false;
+            }
+
+            // create new bundle if needed
+            if (bundles.length < 1)
+            {
+                targetBundle = item.createBundle(formatFilter.getBundleName());
+            }
+            else
+            {
+                // take the first match
+                targetBundle = bundles[0];
+            }
+
+            b = targetBundle.createBitstream(destStream);
         }
-        else
+        finally
         {
-            // take the first match
-            targetBundle = bundles[0];
-        }
+            permit.release();
 
-        Bitstream b = targetBundle.createBitstream(destStream);
+            if (tempFile != null)
+            {
+                tempFile.delete();
+            }
+        }
 
         // Now set the format and name of the bitstream
         b.setName(newName);
@@ -826,6 +995,230 @@ public class MediaFilterManager
         return true;
     }
     
+    /**
+     * Run a filter over a bitstream, within its time budget
+     * (filter.&lt;class-name&gt;[.&lt;plugin-name&gt;].timeout, in seconds).
+     * A filter that runs out of time or memory is given up on, so that one
+     * pathological bitstream does not stop the whole run.
+     * 
+     * @param formatFilter
+     *            the filter
+     * @param source
+     *            the bitstream to filter
+     * @param item
+     *            the item it belongs to
+     * @param tempFile
+     *            where a StreamingFormatFilter is to write its result
+     * @param permit
+     *            the filter's thread permit, which a filter given up on
+     *            keeps until it really stops
+     * @return the result of the filter, or null if the bitstream was skipped
+     */
+    private static InputStream runFilter(final FormatFilter formatFilter, Bitstream source,
+            final Item item, final File tempFile, final FilterPermit permit) throws Exception
+    {
+        int timeout = ConfigurationManager.getIntProperty(
+                getFilterProperty(formatFilter, "timeout"), 0);
+        final boolean timed = timeout > 0;
+        final AtomicBoolean over = new AtomicBoolean();
+
+        final InputStream sourceStream = source.retrieve();
+        Callable<InputStream> task = new Callable<InputStream>()
+        {
+            public InputStream call() throws Exception
+            {
+                // filters may ask for the item, from whichever thread runs them
+                Item previous = currentItem.get();
+                currentItem.set(item);
+                try
+                {
+                    if (tempFile == null)
+                    {
+                        return formatFilter.getDestinationStream(sourceStream);
+                    }
+
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+                    try
+                    {
+                        if (!((StreamingFormatFilter) formatFilter).writeDestination(sourceStream, out))
+                        {
+                            return null;
+                        }
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+
+                    return new FileInputStream(tempFile);
+                }
+                catch (OutOfMemoryError oome)
+                {
+                    log.error("Out of memory filtering with " + formatFilter.getClass().getName(), oome);
+                    throw new FilterBudgetException("it ran out of memory");
+                }
+                finally
+                {
+                    if (previous == null)
+                    {
+                        currentItem.remove();
+                    }
+                    else
+                    {
+                        currentItem.set(previous);
+                    }
+
+                    if (timed)
+                    {
+                        if (!over.compareAndSet(false, true))
+                        {
+                            // given up on, and only now stopped
+                            runawayFilters.decrementAndGet();
+                        }
+                        permit.release();
+                    }
+                }
+            }
+        };
+
+        InputStream destStream = null;
+        try
+        {
+            if (!timed)
+            {
+                destStream = task.call();
+            }
+            else
+            {
+                permit.share();
+                Future<InputStream> result = getFilterRunner().submit(task);
+                try
+                {
+                    destStream = result.get(timeout, TimeUnit.SECONDS);
+                }
+                catch (TimeoutException e)
+                {
+                    // the filter may not notice, but its result is discarded;
+                    // it keeps its permit, and the memory, until it stops
+                    result.cancel(true);
+                    runawayFilters.incrementAndGet();
+                    if (over.compareAndSet(false, true))
+                    {
+                        log.warn(runawayFilters.get() + " filter(s) given up on for taking too long are still running");
+                    }
+                    else
+                    {
+                        // it stopped after all
+                        runawayFilters.decrementAndGet();
+                    }
+                    throw new FilterBudgetException("it took longer than " + timeout + " seconds");
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof Exception)
+                    {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        }
+        catch (FilterBudgetException e)
+        {
+            if (!isQuiet)
+            {
+                System.out.println("SKIPPED: bitstream " + source.getID()
+                        + " (item: " + item.getHandle() + ") because " + e.getMessage());
+            }
+
+            return null;
+        }
+        finally
+        {
+            // a streaming filter has read all it needs by now
+            if (destStream == null || tempFile != null)
+            {
+                sourceStream.close();
+            }
+        }
+
+        if (destStream == null && !isQuiet)
+        {
+            System.out.println("SKIPPED: bitstream " + source.getID()
+                    + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+        }
+
+        return destStream;
+    }
+
+    /**
+     * Get the threads that run filters with a time budget.
+     */
+    private static synchronized ExecutorService getFilterRunner()
+    {
+        if (filterRunner == null)
+        {
+            filterRunner = Executors.newCachedThreadPool(new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    // filters that overrun must not keep the JVM alive
+                    Thread thread = new Thread(r, "media-filter-runner");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return filterRunner;
+    }
+
+    /**
+     * A permit to run a filter limited to fewer threads (a no-op for other
+     * filters), shared by the caller and a filter running with a time
+     * budget. It is given back once both are done with it, so that a filter
+     * given up on still counts against the limit until it really stops.
+     */
+    private static class FilterPermit
+    {
+        private final Semaphore limit;
+
+        private final AtomicInteger holders = new AtomicInteger(1);
+
+        FilterPermit(Semaphore limit) throws InterruptedException
+        {
+            this.limit = limit;
+            if (limit != null)
+            {
+                limit.acquire();
+            }
+        }
+
+        void share()
+        {
+            holders.incrementAndGet();
+        }
+
+        void release()
+        {
+            if (holders.decrementAndGet() == 0 && limit != null)
+            {
+                limit.release();
+            }
+        }
+    }
+
+    /**
+     * Thrown when a filter goes over its budget for a bitstream.
+     */
+    private static class FilterBudgetException extends Exception
+    {
+        FilterBudgetException(String reason)
+        {
+            super(reason);
+        }
+    }
+
     /**
      * Return the item that is currently being processed/filtered
      * by the MediaFilterManager.
@@ -838,7 +1231,108 @@ public class MediaFilterManager
      */
     public static Item getCurrentItem()
     {
-        return currentItem;
+        return currentItem.get();
+    }
+
+    /**
+     * Get the name of a setting of a filter in dspace.cfg:
+     * filter.&lt;class-name&gt;[.&lt;plugin-name&gt;].&lt;suffix&gt;
+     */
+    private static String getFilterProperty(FormatFilter formatFilter, String suffix)
+    {
+        String pluginName = null;
+        if (formatFilter instanceof SelfNamedPlugin)
+        {
+            pluginName = ((SelfNamedPlugin) formatFilter).getPluginInstanceName();
+        }
+
+        return FILTER_PREFIX + "." + formatFilter.getClass().getName() +
+                (pluginName!=null ? "." + pluginName : "") + "." + suffix;
+    }
+
+    /**
+     * Get the key of a filter in the maps of formats and limits.
+     */
+    private static String getFilterKey(FormatFilter formatFilter)
+    {
+        String pluginName = null;
+        if (formatFilter instanceof SelfNamedPlugin)
+        {
+            pluginName = ((SelfNamedPlugin) formatFilter).getPluginInstanceName();
+        }
+
+        return formatFilter.getClass().getName() +
+                (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : "");
+    }
+
+    /**
+     * Read the items finished by an interrupted run from the progress file,
+     * and open it to record the items this run finishes.
+     */
+    private static void loadProgress() throws IOException
+    {
+        if (progressFile.exists())
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(progressFile));
+            try
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    line = line.trim();
+                    if (line.length() > 0)
+                    {
+                        try
+                        {
+                            finishedItems.add(Integer.valueOf(line));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            // a line cut short when the run was interrupted
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+
+            if (!isQuiet)
+            {
+                System.out.println("RESUMING: skipping " + finishedItems.size()
+                        + " items already finished, as listed in " + progressFile);
+            }
+        }
+
+        progressLog = new PrintWriter(new FileWriter(progressFile, true));
+    }
+
+    private static synchronized boolean isFinished(int itemID)
+    {
+        return finishedItems.contains(Integer.valueOf(itemID));
+    }
+
+    /**
+     * Record that all the filters have been applied to an item, so that a
+     * resumed run can skip it.
+     */
+    private static synchronized void markFinished(int itemID)
+    {
+        if (progressLog != null)
+        {
+            progressLog.println(itemID);
+            progressLog.flush();
+        }
+    }
+
+    private static synchronized void closeProgress()
+    {
+        if (progressLog != null)
+        {
+            progressLog.close();
+            progressLog = null;
+        }
     }
     
     /**
@@ -0,0 +1,173 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+
+/**
+ * A pool of threads filtering items for the {@link MediaFilterManager}. Items
+ * are queued by ID; each worker has a Context of its own, in which it loads
+ * the items it takes and commits the bitstreams it creates for them.
+ * <P>
+ * An item is the unit of work, rather than a single bitstream and filter: the
+ * renditions of an item go into shared bundles, which workers in different
+ * transactions must not create or update at the same time.
+ *
+ * @version $Revision$
+ */
+class MediaFilterPool
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(MediaFilterPool.class);
+
+    /** Marks the end of the queue */
+    private static final Integer END = Integer.valueOf(-1);
+
+    /** IDs of the items waiting to be filtered */
+    private final BlockingQueue<Integer> queue;
+
+    private final Thread[] workers;
+
+    /** First error that stopped a worker */
+    private volatile Exception failure = null;
+
+    /**
+     * Start the workers.
+     *
+     * @param size
+     *            number of workers
+     */
+    MediaFilterPool(int size)
+    {
+        queue = new ArrayBlockingQueue<Integer>(size * 4);
+        workers = new Thread[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            workers[i] = new Thread(new Worker(), "media-filter-" + i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queue an item to be filtered, waiting for room in the queue.
+     *
+     * @param itemID
+     *            ID of the item
+     * @throws Exception
+     *             the error that stopped a worker, if any
+     */
+    void submit(int itemID) throws Exception
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        queue.put(Integer.valueOf(itemID));
+    }
+
+    /**
+     * Wait for all the queued items to be filtered, and stop the workers.
+     *
+     * @throws Exception
+     *             the error that stopped a worker, if any
+     */
+    void finish() throws Exception
+    {
+        for (int i = 0; i < workers.length; i++)
+        {
+            queue.put(END);
+        }
+
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            Context context = null;
+
+            try
+            {
+                context = new Context();
+
+                // have to be super-user to do the filtering
+                context.turnOffAuthorisationSystem();
+
+                Integer id = queue.take();
+                while (!END.equals(id))
+                {
+                    // keep taking items after a failure, so that the
+                    // submitter is not left waiting for room in the queue
+                    if (failure == null)
+                    {
+                        Item item = Item.find(context, id.intValue());
+                        if (item != null)
+                        {
+                            MediaFilterManager.filterAndCommit(context, item);
+                        }
+                    }
+
+                    id = queue.take();
+                }
+
+                context.complete();
+                context = null;
+            }
+            catch (Exception e)
+            {
+                log.error("Media filter worker stopped", e);
+                if (failure == null)
+                {
+                    failure = e;
+                }
+
+                // drain what is left until the end of the queue
+                drain();
+            }
+            finally
+            {
+                if (context != null)
+                {
+                    context.abort();
+                }
+            }
+        }
+
+        private void drain()
+        {
+            try
+            {
+                Integer id = queue.take();
+                while (!END.equals(id))
+                {
+                    id = queue.take();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
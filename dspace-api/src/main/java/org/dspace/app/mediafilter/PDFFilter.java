@@ -13,10 +13,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 
 import org.apache.log4j.Logger;
+import org.apache.pdfbox.io.RandomAccessFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.util.PDFTextStripper;
 import org.dspace.core.ConfigurationManager;
@@ -27,7 +29,7 @@ import org.dspace.core.ConfigurationManager;
  * instantiate filter - bitstream format doesn't exist
  *
  */
-public class PDFFilter extends MediaFilter
+public class PDFFilter extends MediaFilter implements StreamingFormatFilter
 {
 
     private static Logger log = Logger.getLogger(PDFFilter.class);
@@ -70,6 +72,69 @@ public class PDFFilter extends MediaFilter
      */
     public InputStream getDestinationStream(InputStream source)
             throws Exception
+    {
+        boolean useTemporaryFile = ConfigurationManager.getBooleanProperty("pdffilter.largepdfs", false);
+
+        File tempTextFile = null;
+        OutputStream out = null;
+
+        if (useTemporaryFile)
+        {
+            tempTextFile = File.createTempFile("dspacepdfextract" + source.hashCode(), ".txt");
+            tempTextFile.deleteOnExit();
+            out = new FileOutputStream(tempTextFile);
+        }
+        else
+        {
+            out = new ByteArrayOutputStream();
+        }
+
+        boolean written;
+        try
+        {
+            written = writeDestination(source, out);
+        }
+        finally
+        {
+            try
+            {
+                out.close();
+            }
+            catch(Exception e)
+            {
+               log.error("Error closing temporary extract file: " + e.getMessage(), e);
+            }
+        }
+
+        if (!written)
+        {
+            return null;
+        }
+        else if (useTemporaryFile)
+        {
+            return new FileInputStream(tempTextFile);
+        }
+        else
+        {
+            byte[] bytes = ((ByteArrayOutputStream) out).toByteArray();
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    /**
+     * Extract the text of a PDF, writing it out page by page. With
+     * pdffilter.largepdfs, the parsed document is also kept in a temporary
+     * scratch file rather than in memory.
+     *
+     * @param source
+     *            source input stream
+     * @param destination
+     *            where to write the text
+     *
+     * @return true if the text was extracted
+     */
+    public boolean writeDestination(InputStream source, OutputStream destination)
+            throws Exception
     {
         try
         {
@@ -79,26 +144,25 @@ public class PDFFilter extends MediaFilter
             // pass to filter, get string back
             PDFTextStripper pts = new PDFTextStripper();
             PDDocument pdfDoc = null;
-            Writer writer = null;
-            File tempTextFile = null;
-            ByteArrayOutputStream byteStream = null;
+            File scratchFile = null;
+            RandomAccessFile scratch = null;
+            Writer writer = new OutputStreamWriter(destination);
 
-            if (useTemporaryFile)
-            {
-                tempTextFile = File.createTempFile("dspacepdfextract" + source.hashCode(), ".txt");
-                tempTextFile.deleteOnExit();
-                writer = new OutputStreamWriter(new FileOutputStream(tempTextFile));
-            }
-            else
-            {
-                byteStream = new ByteArrayOutputStream();
-                writer = new OutputStreamWriter(byteStream);
-            }
-            
             try
             {
-                pdfDoc = PDDocument.load(source);
+                if (useTemporaryFile)
+                {
+                    scratchFile = File.createTempFile("dspacepdfscratch" + source.hashCode(), ".tmp");
+                    scratchFile.deleteOnExit();
+                    scratch = new RandomAccessFile(scratchFile, "rw");
+                    pdfDoc = PDDocument.load(source, scratch);
+                }
+                else
+                {
+                    pdfDoc = PDDocument.load(source);
+                }
                 pts.writeText(pdfDoc, writer);
+                writer.flush();
             }
             finally
             {
@@ -114,25 +178,21 @@ public class PDFFilter extends MediaFilter
                    log.error("Error closing PDF file: " + e.getMessage(), e);
                 }
 
-                try
+                if (scratch != null)
                 {
-                    writer.close();
-                }
-                catch(Exception e)
-                {
-                   log.error("Error closing temporary extract file: " + e.getMessage(), e);
+                    try
+                    {
+                        scratch.close();
+                    }
+                    catch(Exception e)
+                    {
+                       log.error("Error closing PDF scratch file: " + e.getMessage(), e);
+                    }
+                    scratchFile.delete();
                 }
             }
 
-            if (useTemporaryFile)
-            {
-                return new FileInputStream(tempTextFile);
-            }
-            else
-            {
-                byte[] bytes = byteStream.toByteArray();
-                return new ByteArrayInputStream(bytes);
-            }
+            return true;
         }
         catch (OutOfMemoryError oome)
         {
@@ -143,6 +203,6 @@ public class PDFFilter extends MediaFilter
             }
         }
 
-        return null;
+        return false;
     }
 }
@@ -0,0 +1,35 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A FormatFilter that can write its result out as it goes, rather than
+ * returning it as a stream. The MediaFilterManager prefers this to
+ * getDestinationStream(): the result is written to a temporary file and
+ * stored from there, so the filter need never hold all of it in memory.
+ */
+public interface StreamingFormatFilter extends FormatFilter
+{
+    /**
+     * Transform the source, writing the result out.
+     *
+     * @param source
+     *            input stream
+     * @param destination
+     *            where to write the result of the filter's transformation;
+     *            not to be closed by the filter
+     *
+     * @return true if the result was written, false if the source could not
+     *         be filtered
+     */
+    public boolean writeDestination(InputStream source, OutputStream destination)
+            throws Exception;
+}
@@ -9,13 +9,13 @@ package org.dspace.app.statistics;
 
 import org.apache.commons.lang.time.DateUtils;
 import org.dspace.core.ConfigurationManager;
+import org.dspace.core.ThreadSafeDateFormat;
 
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.io.File;
 import java.io.FilenameFilter;
-import java.text.SimpleDateFormat;
 import java.text.ParseException;
 
 /**
@@ -37,8 +37,8 @@ public class StatisticsLoader
     private static Pattern reportMonthlyPattern;
     private static Pattern reportGeneralPattern;
 
-    private static SimpleDateFormat monthlySDF;
-    private static SimpleDateFormat generalSDF;
+    private static ThreadSafeDateFormat monthlySDF;
+    private static ThreadSafeDateFormat generalSDF;
 
     // one time initialisation of the regex patterns and formatters we will use
     static
@@ -48,8 +48,8 @@ public class StatisticsLoader
         reportMonthlyPattern   = Pattern.compile("report-([0-9][0-9][0-9][0-9]-[0-9]+)\\.html");
         reportGeneralPattern   = Pattern.compile("report-general-([0-9]+-[0-9]+-[0-9]+)\\.html");
 
-        monthlySDF = new SimpleDateFormat("yyyy'-'M");
-        generalSDF = new SimpleDateFormat("yyyy'-'M'-'dd");
+        monthlySDF = new ThreadSafeDateFormat("yyyy'-'M");
+        generalSDF = new ThreadSafeDateFormat("yyyy'-'M'-'dd");
     }
 
     /**
@@ -296,7 +296,7 @@ public class StatisticsLoader
      * @param thisPattern
      * @param sdf
      */
-    private static StatsFile makeStatsFile(File thisFile, Pattern thisPattern, SimpleDateFormat sdf)
+    private static StatsFile makeStatsFile(File thisFile, Pattern thisPattern, ThreadSafeDateFormat sdf)
     {
         Matcher matcher = thisPattern.matcher(thisFile.getName());
         if (matcher.matches())
@@ -8,6 +8,7 @@
 package org.dspace.app.util;
 
 import org.dspace.core.ConfigurationManager;
+import org.dspace.statistics.SolrLogger;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.apache.log4j.Logger;
 
@@ -145,6 +146,21 @@ public class DSpaceContextListener implements ServletContextListener
     {
         webApp.deregister();
 
+        try
+        {
+            // Store the queued usage events, and stop the threads doing so
+            SolrLogger.shutdown();
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Failed to stop the usage event threads", e);
+        }
+        catch (LinkageError e)
+        {
+            // the statistics could not be set up, so there is nothing to stop
+            log.error("Failed to stop the usage event threads", e);
+        }
+
         try
         {
             // Remove the database pool
@@ -0,0 +1,525 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.core.Utils;
+
+/**
+ * A byte range of an HTTP <code>Range</code> request (RFC 7233), and the
+ * means to send the requested ranges of a bitstream to a client. Used by the
+ * bitstream download code of the web user interfaces, so that media players
+ * can seek and interrupted downloads can be resumed without the whole
+ * bitstream being read from the asset store again.
+ * <P>
+ * A single range is sent as is, with a <code>Content-Range</code> header set
+ * by the caller; several ranges are sent as a
+ * <code>multipart/byteranges</code> body. Bitstreams in a local asset store
+ * are read through a {@link FileChannel}, positioned directly at each range;
+ * others are read as a stream, skipping the bytes that are not wanted.
+ *
+ * @version $Revision$
+ */
+public class HttpRange
+{
+    /** Boundary between the parts of a multipart/byteranges body */
+    public static final String BOUNDARY = "DSPACE_BYTERANGES_BOUNDARY";
+
+    /** Requests with more ranges than this are answered in full */
+    private static final int MAX_RANGES = 64;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final long start;
+
+    private final long end;
+
+    public HttpRange(long start, long end)
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return position of the first byte of the range
+     */
+    public long getStart()
+    {
+        return start;
+    }
+
+    /**
+     * @return position of the last byte of the range (inclusive)
+     */
+    public long getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return number of bytes in the range
+     */
+    public long getLength()
+    {
+        return end - start + 1;
+    }
+
+    /**
+     * Get the value of the <code>Content-Range</code> header for this range.
+     *
+     * @param total
+     *            size of the whole entity
+     * @return e.g. "bytes 0-499/1234"
+     */
+    public String getContentRange(long total)
+    {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    public String toString()
+    {
+        return start + "-" + end;
+    }
+
+    /**
+     * Parse the value of a <code>Range</code> request header. Overlapping and
+     * adjacent ranges are merged, and the result is sorted by position.
+     *
+     * @param header
+     *            the header value, may be null
+     * @param total
+     *            size of the entity the ranges apply to
+     * @return the requested ranges; an empty list if none of them can be
+     *         satisfied (the request should be answered with a 416 status),
+     *         or null if the header is absent, malformed or should otherwise
+     *         be ignored (the entity should be sent in full)
+     */
+    public static List<HttpRange> parse(String header, long total)
+    {
+        if (header == null || total <= 0)
+        {
+            return null;
+        }
+
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6))
+        {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+
+        List<HttpRange> ranges = new ArrayList<HttpRange>();
+        for (String spec : specs)
+        {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+            {
+                return null;
+            }
+
+            long first;
+            long last;
+            try
+            {
+                if (dash == 0)
+                {
+                    // suffix range, the last N bytes
+                    long suffix = Long.parseLong(spec.substring(1).trim());
+                    if (suffix <= 0)
+                    {
+                        continue;
+                    }
+                    first = Math.max(0, total - suffix);
+                    last = total - 1;
+                }
+                else
+                {
+                    first = Long.parseLong(spec.substring(0, dash).trim());
+                    String lastSpec = spec.substring(dash + 1).trim();
+                    last = (lastSpec.length() == 0) ? total - 1 : Long.parseLong(lastSpec);
+                    if (first < 0 || last < first)
+                    {
+                        return null;
+                    }
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+
+            if (first >= total)
+            {
+                // unsatisfiable, but the others may be fine
+                continue;
+            }
+
+            ranges.add(new HttpRange(first, Math.min(last, total - 1)));
+        }
+
+        return merge(ranges);
+    }
+
+    /**
+     * Sort ranges by position and merge those that overlap or touch.
+     */
+    private static List<HttpRange> merge(List<HttpRange> ranges)
+    {
+        Collections.sort(ranges, new Comparator<HttpRange>()
+        {
+            public int compare(HttpRange a, HttpRange b)
+            {
+                return (a.start < b.start) ? -1 : ((a.start == b.start) ? 0 : 1);
+            }
+        });
+
+        List<HttpRange> merged = new ArrayList<HttpRange>();
+        HttpRange current = null;
+        for (HttpRange range : ranges)
+        {
+            if (current != null && range.start <= current.end + 1)
+            {
+                current = new HttpRange(current.start, Math.max(current.end, range.end));
+            }
+            else
+            {
+                if (current != null)
+                {
+                    merged.add(current);
+                }
+                current = range;
+            }
+        }
+        if (current != null)
+        {
+            merged.add(current);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Check whether a request is for the start of an entity: the whole of it,
+     * or ranges beginning with its first byte. The requests a media player
+     * makes to seek, or a client to resume a download, are not.
+     *
+     * @param ranges
+     *            the ranges requested, as returned by {@link #parse}
+     * @return true if the entity is being read from its start
+     */
+    public static boolean isFromStart(List<HttpRange> ranges)
+    {
+        return ranges == null || (!ranges.isEmpty() && ranges.get(0).getStart() == 0);
+    }
+
+    /**
+     * Get the content type of a response carrying the given ranges.
+     *
+     * @param ranges
+     *            the ranges to send, as returned by {@link #parse}
+     * @param mimeType
+     *            MIME type of the bitstream
+     * @return the content type of the response
+     */
+    public static String getContentType(List<HttpRange> ranges, String mimeType)
+    {
+        if (ranges.size() > 1)
+        {
+            return "multipart/byteranges; boundary=" + BOUNDARY;
+        }
+
+        return mimeType;
+    }
+
+    /**
+     * Get the length of a response carrying the given ranges.
+     *
+     * @param ranges
+     *            the ranges to send, as returned by {@link #parse}
+     * @param mimeType
+     *            MIME type of the bitstream
+     * @param total
+     *            size of the bitstream
+     * @return value for the <code>Content-Length</code> header
+     */
+    public static long getContentLength(List<HttpRange> ranges, String mimeType, long total)
+    {
+        if (ranges.size() == 1)
+        {
+            return ranges.get(0).getLength();
+        }
+
+        long length = 0;
+        for (HttpRange range : ranges)
+        {
+            length += partHeader(range, mimeType, total).length() + range.getLength();
+        }
+        return length + partTrailer().length();
+    }
+
+    /**
+     * Send the given ranges of a bitstream. The caller is responsible for the
+     * status and headers of the response, see {@link #getContentType},
+     * {@link #getContentLength} and {@link #getContentRange}.
+     *
+     * @param bitstream
+     *            the bitstream to send
+     * @param ranges
+     *            the ranges to send, as returned by {@link #parse}
+     * @param out
+     *            the response body
+     */
+    public static void send(Bitstream bitstream, List<HttpRange> ranges, OutputStream out)
+            throws IOException, SQLException, AuthorizeException
+    {
+        String mimeType = bitstream.getFormat().getMIMEType();
+        long total = bitstream.getSize();
+
+        FileChannel channel = bitstream.retrieveChannel();
+        if (channel != null)
+        {
+            try
+            {
+                send(channel, ranges, mimeType, total, out);
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        else
+        {
+            InputStream is = bitstream.retrieve();
+            try
+            {
+                send(is, ranges, mimeType, total, out);
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+    }
+
+    /**
+     * Send the given ranges of the bits read from a channel. The channel is
+     * positioned at each range in turn and its bytes transferred directly to
+     * the response. The channel is not closed.
+     *
+     * @param channel
+     *            the bits to send
+     * @param ranges
+     *            the ranges to send, as returned by {@link #parse}
+     * @param mimeType
+     *            MIME type of the bits
+     * @param total
+     *            size of the bits
+     * @param out
+     *            the response body
+     */
+    public static void send(FileChannel channel, List<HttpRange> ranges, String mimeType,
+            long total, OutputStream out) throws IOException
+    {
+        boolean multipart = ranges.size() > 1;
+        WritableByteChannel target = Channels.newChannel(out);
+        for (HttpRange range : ranges)
+        {
+            if (multipart)
+            {
+                writeAscii(out, partHeader(range, mimeType, total));
+            }
+
+            transfer(channel, range.start, range.getLength(), target);
+        }
+
+        if (multipart)
+        {
+            writeAscii(out, partTrailer());
+        }
+        out.flush();
+    }
+
+    /**
+     * Send the given ranges of the bits read from a stream, skipping the bytes
+     * in between. The stream is not closed.
+     *
+     * @param is
+     *            the bits to send
+     * @param ranges
+     *            the ranges to send, as returned by {@link #parse}
+     * @param mimeType
+     *            MIME type of the bits
+     * @param total
+     *            size of the bits
+     * @param out
+     *            the response body
+     */
+    public static void send(InputStream is, List<HttpRange> ranges, String mimeType,
+            long total, OutputStream out) throws IOException
+    {
+        boolean multipart = ranges.size() > 1;
+
+        // ranges are sorted and do not overlap, so one pass is enough
+        long position = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (HttpRange range : ranges)
+        {
+            if (multipart)
+            {
+                writeAscii(out, partHeader(range, mimeType, total));
+            }
+
+            skipFully(is, range.start - position);
+            copy(is, out, range.getLength(), buffer);
+            position = range.end + 1;
+        }
+
+        if (multipart)
+        {
+            writeAscii(out, partTrailer());
+        }
+        out.flush();
+    }
+
+    /**
+     * Send a whole bitstream, through its channel if it has one.
+     *
+     * @param bitstream
+     *            the bitstream to send
+     * @param out
+     *            the response body
+     */
+    public static void sendAll(Bitstream bitstream, OutputStream out)
+            throws IOException, SQLException, AuthorizeException
+    {
+        FileChannel channel = bitstream.retrieveChannel();
+        if (channel != null)
+        {
+            try
+            {
+                sendAll(channel, out);
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        else
+        {
+            InputStream is = bitstream.retrieve();
+            try
+            {
+                Utils.bufferedCopy(is, out);
+                out.flush();
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+    }
+
+    /**
+     * Send everything read from a channel. The channel is not closed.
+     *
+     * @param channel
+     *            the bits to send
+     * @param out
+     *            the response body
+     */
+    public static void sendAll(FileChannel channel, OutputStream out) throws IOException
+    {
+        transfer(channel, 0, channel.size(), Channels.newChannel(out));
+        out.flush();
+    }
+
+    private static void transfer(FileChannel channel, long position, long length,
+            WritableByteChannel target) throws IOException
+    {
+        long sent = 0;
+        while (sent < length)
+        {
+            long count = channel.transferTo(position + sent, length - sent, target);
+            if (count <= 0)
+            {
+                throw new IOException("Unexpected end of file at " + (position + sent));
+            }
+            sent += count;
+        }
+    }
+
+    private static String partHeader(HttpRange range, String mimeType, long total)
+    {
+        return "\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Type: " + mimeType + "\r\n"
+                + "Content-Range: " + range.getContentRange(total) + "\r\n"
+                + "\r\n";
+    }
+
+    private static String partTrailer()
+    {
+        return "\r\n--" + BOUNDARY + "--\r\n";
+    }
+
+    private static void writeAscii(OutputStream out, String s) throws IOException
+    {
+        out.write(s.getBytes("US-ASCII"));
+    }
+
+    private static void skipFully(InputStream is, long n) throws IOException
+    {
+        while (n > 0)
+        {
+            long skipped = is.skip(n);
+            if (skipped <= 0)
+            {
+                // skip() may give up early, make sure we are not at the end
+                if (is.read() < 0)
+                {
+                    throw new IOException("Unexpected end of stream");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void copy(InputStream is, OutputStream out, long n, byte[] buffer)
+            throws IOException
+    {
+        while (n > 0)
+        {
+            int count = is.read(buffer, 0, (int) Math.min(buffer.length, n));
+            if (count < 0)
+            {
+                throw new IOException("Unexpected end of stream");
+            }
+            out.write(buffer, 0, count);
+            n -= count;
+        }
+    }
+}
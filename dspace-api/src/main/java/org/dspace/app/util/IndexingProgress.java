@@ -0,0 +1,91 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counts the items indexed so far by the threads of a bulk indexer, and
+ * reports the throughput every given number of items.
+ *
+ * @version $Revision$
+ */
+public class IndexingProgress
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(IndexingProgress.class);
+
+    private final long start = System.currentTimeMillis();
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final long interval;
+
+    /**
+     * @param interval
+     *            number of items between reports
+     */
+    public IndexingProgress(long interval)
+    {
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * Count items as indexed, reporting if another interval has been passed.
+     *
+     * @param items
+     *            the number of items
+     */
+    public void add(int items)
+    {
+        long before = count.getAndAdd(items);
+        if (before / interval != (before + items) / interval)
+        {
+            report(before + items);
+        }
+    }
+
+    /**
+     * Report the number of items indexed so far, to the log. Override to
+     * report elsewhere.
+     *
+     * @param indexed
+     *            the number of items
+     */
+    protected void report(long indexed)
+    {
+        log.info("Indexed " + indexed + " items, " + getRate() + " items/s");
+    }
+
+    /**
+     * @return the number of items indexed so far
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the seconds since indexing started
+     */
+    public long getElapsedSeconds()
+    {
+        return (System.currentTimeMillis() - start) / 1000;
+    }
+
+    /**
+     * @return the mean number of items indexed per second
+     */
+    public long getRate()
+    {
+        long elapsed = System.currentTimeMillis() - start;
+        return elapsed > 0 ? count.get() * 1000 / elapsed : count.get();
+    }
+}
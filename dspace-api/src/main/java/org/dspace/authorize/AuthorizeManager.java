@@ -10,7 +10,10 @@ package org.dspace.authorize;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.dspace.content.*;
 import org.dspace.core.Constants;
@@ -38,6 +41,9 @@ import org.dspace.storage.rdbms.TableRowIterator;
  */
 public class AuthorizeManager
 {
+    /** Maximum number of resource IDs in a single IN (...) list */
+    private static final int MAX_IN_LIST = 500;
+
     /**
      * Utility method, checks that the current user of the given context can
      * perform all of the specified actions on the given object. An
@@ -242,10 +248,102 @@ public class AuthorizeManager
         return isAuthorized;
     }
 
+    /**
+     * Check whether the current user can perform the given action on each of
+     * the given objects. This is equivalent to calling
+     * {@link #authorizeActionBoolean(Context, DSpaceObject, int)} for each
+     * object, but the resource policies of all objects not already decided
+     * in this context are fetched with a handful of queries.
+     *
+     * @param c
+     *         DSpace context, containing current user
+     * @param objects
+     *         the objects; <code>null</code> entries are never authorized
+     * @param action
+     *         action being attempted, from
+     *         <code>org.dspace.core.Constants</code>
+     * @return for each object, in order, <code>true</code> if the current
+     *         user is authorized to perform the action on it
+     */
+    public static boolean[] authorizeActionBoolean(Context c, List<? extends DSpaceObject> objects,
+                                                   int action) throws SQLException
+    {
+        boolean[] results = new boolean[objects.size()];
+        EPerson e = c.getCurrentUser();
+
+        // decide what we can without going to the database
+        List<DSpaceObject> undecided = new ArrayList<DSpaceObject>();
+        for (int i = 0; i < results.length; i++)
+        {
+            DSpaceObject o = objects.get(i);
+            if (o == null)
+            {
+                results[i] = false;
+            }
+            else if (c.ignoreAuthorization())
+            {
+                results[i] = true;
+            }
+            else
+            {
+                Boolean cached = c.getCachedAuthorizationResult(o, action, e, true);
+                if (cached != null)
+                {
+                    results[i] = cached.booleanValue();
+                }
+                else
+                {
+                    undecided.add(o);
+                }
+            }
+        }
+
+        if (undecided.isEmpty())
+        {
+            return results;
+        }
+
+        Map<String, List<ResourcePolicy>> policies = getPoliciesActionFilter(c, undecided, action);
+        Map<String, Boolean> decisions = new HashMap<String, Boolean>();
+        for (DSpaceObject o : undecided)
+        {
+            // the same object may be listed twice
+            String key = policyKey(o.getType(), o.getID());
+            if (!decisions.containsKey(key))
+            {
+                List<ResourcePolicy> objectPolicies = policies.get(key);
+                if (objectPolicies == null)
+                {
+                    objectPolicies = new ArrayList<ResourcePolicy>();
+                }
+
+                boolean result = authorize(c, o, action, e, true, objectPolicies);
+                c.cacheAuthorizationResult(o, action, e, true, result);
+                decisions.put(key, Boolean.valueOf(result));
+            }
+        }
+
+        for (int i = 0; i < results.length; i++)
+        {
+            DSpaceObject o = objects.get(i);
+            if (o != null)
+            {
+                Boolean decision = decisions.get(policyKey(o.getType(), o.getID()));
+                if (decision != null)
+                {
+                    results[i] = decision.booleanValue();
+                }
+            }
+        }
+
+        return results;
+    }
+
     /**
      * Check to see if the given user can perform the given action on the given
      * object. Always returns true if the ignore authorization flat is set in
-     * the current context.
+     * the current context. Decisions are remembered for the lifetime of the
+     * context, see {@link Context#cacheAuthorizationResult}.
      *
      * @param c
      *         current context. User is irrelevant; "ignore authorization"
@@ -279,6 +377,32 @@ public class AuthorizeManager
             return true;
         }
 
+        // has this already been decided?
+        Boolean cached = c.getCachedAuthorizationResult(o, action, e, useInheritance);
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+
+        boolean result = authorize(c, o, action, e, useInheritance, null);
+        c.cacheAuthorizationResult(o, action, e, useInheritance, result);
+
+        return result;
+    }
+
+    /**
+     * Check to see if the given user can perform the given action on the given
+     * object, without consulting the ignore authorization flag or the
+     * decisions already made in the context.
+     *
+     * @param policies
+     *         the policies of the object for this action if already known,
+     *         or <code>null</code> to look them up
+     */
+    private static boolean authorize(Context c, DSpaceObject o, int action,
+                                     EPerson e, boolean useInheritance,
+                                     List<ResourcePolicy> policies) throws SQLException
+    {
         // is eperson set? if not, userid = 0 (anonymous)
         int userid = 0;
         if (e != null)
@@ -295,7 +419,12 @@ public class AuthorizeManager
             }
         }
 
-        for (ResourcePolicy rp : getPoliciesActionFilter(c, o, action))
+        if (policies == null)
+        {
+            policies = getPoliciesActionFilter(c, o, action);
+        }
+
+        for (ResourcePolicy rp : policies)
         {
             // check policies for date validity
             if (rp.isDateValid())
@@ -731,6 +860,99 @@ public class AuthorizeManager
         return policies;
     }
 
+    /**
+     * Return the policies matching the action for several objects at once,
+     * using one query per object type and block of IDs.
+     *
+     * @param c
+     *         context
+     * @param objects
+     *         DSpaceObjects policies relate to
+     * @param actionID
+     *         action (defined in class Constants)
+     * @return map from {@link #policyKey} of each object to its policies;
+     *         objects without policies have no entry
+     * @throws SQLException
+     *         if there's a database problem
+     */
+    private static Map<String, List<ResourcePolicy>> getPoliciesActionFilter(Context c,
+            List<DSpaceObject> objects, int actionID) throws SQLException
+    {
+        // collect the distinct IDs per object type
+        Map<Integer, List<Integer>> idsByType = new LinkedHashMap<Integer, List<Integer>>();
+        for (DSpaceObject o : objects)
+        {
+            List<Integer> ids = idsByType.get(o.getType());
+            if (ids == null)
+            {
+                ids = new ArrayList<Integer>();
+                idsByType.put(o.getType(), ids);
+            }
+            if (!ids.contains(o.getID()))
+            {
+                ids.add(o.getID());
+            }
+        }
+
+        Map<String, List<ResourcePolicy>> policies = new HashMap<String, List<ResourcePolicy>>();
+        for (Map.Entry<Integer, List<Integer>> entry : idsByType.entrySet())
+        {
+            List<Integer> ids = entry.getValue();
+            for (int start = 0; start < ids.size(); start += MAX_IN_LIST)
+            {
+                List<Integer> block = ids.subList(start, Math.min(start + MAX_IN_LIST, ids.size()));
+
+                StringBuilder query = new StringBuilder("SELECT * FROM resourcepolicy WHERE resource_type_id= ? " +
+                        "AND action_id= ? AND resource_id IN (");
+                List<Object> parameters = new ArrayList<Object>();
+                parameters.add(entry.getKey());
+                parameters.add(actionID);
+                for (int i = 0; i < block.size(); i++)
+                {
+                    query.append(i == 0 ? "?" : ", ?");
+                    parameters.add(block.get(i));
+                }
+                query.append(")");
+
+                TableRowIterator tri = DatabaseManager.queryTable(c, "resourcepolicy",
+                        query.toString(), parameters.toArray());
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+
+                        ResourcePolicy rp = (ResourcePolicy) c.fromCache(
+                                ResourcePolicy.class, row.getIntColumn("policy_id"));
+                        if (rp == null)
+                        {
+                            rp = new ResourcePolicy(c, row);
+                        }
+
+                        String key = policyKey(entry.getKey(), row.getIntColumn("resource_id"));
+                        List<ResourcePolicy> objectPolicies = policies.get(key);
+                        if (objectPolicies == null)
+                        {
+                            objectPolicies = new ArrayList<ResourcePolicy>();
+                            policies.put(key, objectPolicies);
+                        }
+                        objectPolicies.add(rp);
+                    }
+                } finally
+                {
+                    tri.close();
+                }
+            }
+        }
+
+        return policies;
+    }
+
+    private static String policyKey(int type, int id)
+    {
+        return type + "-" + id;
+    }
+
     /**
      * Add policies to an object to match those from a previous object
      *
@@ -76,6 +76,18 @@ public interface BrowseCreateDAO
 	 */
     public void insertIndex(String table, int itemID, Map<Integer, String> sortCols) throws BrowseException;
 
+    /**
+     * Insert the index records of several items into the given table at once,
+     * as when building the indexes afresh.  Unlike insertIndex, this does not
+     * look for existing records, so the items must not be in the table already.
+     *
+     * @param table		the browse table to insert the index in
+     * @param sortCols	for each item id, an Integer-String map of sort column
+     *                  numbers and values
+     * @throws BrowseException
+     */
+    public void insertIndexes(String table, Map<Integer, Map<Integer, String>> sortCols) throws BrowseException;
+
     /**
      * Updates an index record into the given table for the given item id.  The Map should contain
      * key value pairs representing the sort column integer representation and the normalised
@@ -160,6 +172,17 @@ public interface BrowseCreateDAO
      */
     public MappingResults updateDistinctMappings(String table, int itemID, Set<Integer> distinctIDs) throws BrowseException;
 
+    /**
+     * Map several items to their distinct records at once, as when building the
+     * indexes afresh.  Unlike updateDistinctMappings, this does not look for
+     * existing mappings, so the items must not be mapped already.
+     *
+     * @param table		 	the mapping table
+     * @param distinctIDs	for each item id, the ids of its distinct records
+     * @throws BrowseException
+     */
+    public void insertDistinctMappings(String table, Map<Integer, Set<Integer>> distinctIDs) throws BrowseException;
+
 	/**
 	 * Find out of a given table exists.
 	 * 
@@ -168,6 +191,18 @@ public interface BrowseCreateDAO
 	 * @throws BrowseException
 	 */
 	public boolean testTableExistence(String table) throws BrowseException;
+
+    /**
+     * Rename a table, along with its sequence and indexes, so that a table
+     * built alongside another can take its place once the other is dropped.
+     *
+     * @param table		the table to rename
+     * @param newName	the new name of the table
+     * @param execute	whether to execute the queries or not
+     * @return			the queries which rename the table and its resources
+     * @throws BrowseException
+     */
+    public String[] renameTable(String table, String newName, boolean execute) throws BrowseException;
 	
 	/**
 	 * Drop the given table name, and all other resources that are attached to it.  In normal
@@ -308,6 +343,16 @@ public interface BrowseCreateDAO
 	public String createCommunityView(String table, String view, boolean execute) throws BrowseException;
 
     public List<Integer> deleteMappingsByItemID(String mapTable, int itemID) throws BrowseException;
+
+    /**
+     * Find the items which have entries in the given item index table, but
+     * which no longer exist.
+     *
+     * @param table		the item index table
+     * @return			the IDs of the deleted items
+     * @throws BrowseException
+     */
+    public List<Integer> findDeletedItemIDs(String table) throws BrowseException;
 	
 	/**
 	 * Create the table which will hold the distinct metadata values that appear in multiple
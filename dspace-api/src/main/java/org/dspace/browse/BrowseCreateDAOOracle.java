@@ -292,6 +292,39 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
         return results;
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#insertDistinctMappings(java.lang.String, java.util.Map)
+     */
+    public void insertDistinctMappings(String table, Map<Integer, Set<Integer>> distinctIDs)
+        throws BrowseException
+    {
+        try
+        {
+            List<TableRow> rows = new ArrayList<TableRow>();
+            for (Map.Entry<Integer, Set<Integer>> item : distinctIDs.entrySet())
+            {
+                for (int distinctID : item.getValue())
+                {
+                    if (distinctID > -1)
+                    {
+                        TableRow row = DatabaseManager.row(table);
+                        row.setColumn("item_id", item.getKey().intValue());
+                        row.setColumn("distinct_id", distinctID);
+                        rows.add(row);
+                    }
+                }
+            }
+
+            DatabaseManager.insertBatch(context, table, rows);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            String msg = "problem inserting distinct mappings: table=" + table;
+            throw new BrowseException(msg, e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#createDistinctTable(java.lang.String, boolean)
      */
@@ -700,6 +733,37 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#insertIndexes(java.lang.String, java.util.Map)
+     */
+    public void insertIndexes(String table, Map<Integer, Map<Integer, String>> sortCols)
+        throws BrowseException
+    {
+        try
+        {
+            List<TableRow> rows = new ArrayList<TableRow>();
+            for (Map.Entry<Integer, Map<Integer, String>> item : sortCols.entrySet())
+            {
+                TableRow row = DatabaseManager.row(table);
+                row.setColumn("item_id", item.getKey().intValue());
+
+                for (Map.Entry<Integer, String> sortCol : item.getValue().entrySet())
+                {
+                    row.setColumn("sort_" + sortCol.getKey().toString(), utils.truncateSortValue(sortCol.getValue()));
+                }
+
+                rows.add(row);
+            }
+
+            DatabaseManager.insertBatch(context, table, rows);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#updateIndex(java.lang.String, int, java.util.Map)
      */
@@ -797,6 +861,35 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
         return distinctIds;
     }
 
+    public List<Integer> findDeletedItemIDs(String table) throws BrowseException
+    {
+        List<Integer> itemIds = new ArrayList<Integer>();
+        TableRowIterator tri = null;
+        try
+        {
+            tri = DatabaseManager.query(context, "SELECT item_id FROM " + table
+                    + " WHERE NOT EXISTS (SELECT 1 FROM item WHERE item.item_id=" + table + ".item_id)");
+            while (tri.hasNext())
+            {
+                itemIds.add(tri.next().getIntColumn("item_id"));
+            }
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        return itemIds;
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#pruneDistinct(java.lang.String, java.lang.String)
      */
@@ -954,6 +1047,58 @@ public class BrowseCreateDAOOracle implements BrowseCreateDAO
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameTable(java.lang.String, java.lang.String, boolean)
+     */
+    public String[] renameTable(String table, String newName, boolean execute) throws BrowseException
+    {
+        TableRowIterator tri = null;
+
+        try
+        {
+            ArrayList<String> array = new ArrayList<String>();
+
+            // the indexes are named after the table, see createDatabaseIndices
+            // and createMapIndices; the primary key has a system name
+            String prefix = table.toUpperCase();
+            tri = DatabaseManager.query(context, "SELECT index_name FROM user_indexes WHERE table_name = ?", prefix);
+            while (tri.hasNext())
+            {
+                String index = tri.next().getStringColumn("index_name");
+                if (index.startsWith(prefix))
+                {
+                    array.add("ALTER INDEX " + index + " RENAME TO " + newName + index.substring(prefix.length()));
+                }
+            }
+
+            array.add("RENAME " + table + " TO " + newName);
+            array.add("RENAME " + table + "_seq TO " + newName + "_seq");
+
+            String[] arr = new String[array.size()];
+            for (int i = 0; i < arr.length; i++)
+            {
+                if (execute)
+                {
+                    DatabaseManager.updateQuery(context, array.get(i));
+                }
+                arr[i] = array.get(i) + ";";
+            }
+            return arr;
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+    }
+
     /**
      * Get the definition of the value column - CLOB if the size is greater than 4000 bytes
      * otherwise a VARCHAR2.
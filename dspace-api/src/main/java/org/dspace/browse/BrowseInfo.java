@@ -514,12 +514,12 @@ public class BrowseInfo
     	try
     	{
     		BrowseItem[] bis = getBrowseItemResults();
-    		Item[] items = new Item[bis.length];
+    		int[] ids = new int[bis.length];
     		for (int i = 0; i < bis.length; i++)
     		{
-    			items[i] = Item.find(context, bis[i].getID());
+    			ids[i] = bis[i].getID();
     		}
-    		return items;
+    		return Item.findAll(context, ids);
     	}
     	catch (SQLException e)
     	{
@@ -13,6 +13,7 @@ import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.*;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.discovery.DiscoverResult;
 import org.dspace.handle.HandleManager;
 
 import java.sql.SQLException;
@@ -61,6 +62,9 @@ public class BrowseItem extends DSpaceObject
     /** item handle */
 	private String handle = null;
 
+    /** is all the metadata already held, see the index-only constructor and setMetadata */
+    private boolean fromIndex = false;
+
     /**
 	 * Construct a new browse item with the given context and the database id
 	 * 
@@ -78,6 +82,35 @@ public class BrowseItem extends DSpaceObject
         this.discoverable = discoverable;
     }
 
+	/**
+	 * Construct a new browse item from an index-only search result. The
+	 * Handle and the metadata are taken from the result, so the item can be
+	 * displayed without querying the database.
+	 *
+	 * @param context	the DSpace context
+	 * @param indexed	the search result
+	 */
+	public BrowseItem(Context context, DiscoverResult.IndexedObject indexed)
+	{
+		this(context, indexed.getID(), !indexed.isWithdrawn(), indexed.isWithdrawn(), indexed.isDiscoverable());
+		this.handle = indexed.getHandle();
+		this.metadata.addAll(indexed.getMetadata());
+		this.fromIndex = true;
+	}
+
+	/**
+	 * Hand the item all of its metadata, as read for a block of items at
+	 * once, so that getMetadata need not go back to the database.
+	 *
+	 * @param values	all the metadata values of the item
+	 */
+	void setMetadata(List<DCValue> values)
+	{
+		this.metadata.clear();
+		this.metadata.addAll(values);
+		this.fromIndex = true;
+	}
+
 	/**
 	 * Get String array of metadata values matching the given parameters
 	 * 
@@ -91,6 +124,20 @@ public class BrowseItem extends DSpaceObject
 	public DCValue[] getMetadata(String schema, String element, String qualifier, String lang)
 		throws SQLException
 	{
+        if (fromIndex)
+        {
+            // all the metadata there is has been handed to us
+            List<DCValue> values = new ArrayList<DCValue>();
+            for (DCValue dcv : metadata)
+            {
+                if (match(schema, element, qualifier, lang, dcv))
+                {
+                    values.add(dcv);
+                }
+            }
+            return values.toArray(new DCValue[values.size()]);
+        }
+
         try
         {
             BrowseItemDAO dao = BrowseDAOFactory.getItemInstance(context);
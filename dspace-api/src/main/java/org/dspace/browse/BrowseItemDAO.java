@@ -10,6 +10,8 @@ package org.dspace.browse;
 import org.dspace.content.DCValue;
 
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
 public interface BrowseItemDAO
 {
@@ -42,4 +44,16 @@ public interface BrowseItemDAO
      */
     public DCValue[] queryMetadata(int itemId, String schema, String element, String qualifier, String lang)
     	throws SQLException;
+
+    /**
+     * Get all the metadata of a block of items at once, rather than a field
+     * of one item at a time.  Used when building the browse indexes.
+     *
+     * @param itemIds   the ids of the items
+     * @return the metadata values of each item, in field and place order,
+     *         by item id; items without metadata are left out
+     * @throws SQLException
+     */
+    public Map<Integer, List<DCValue>> queryMetadata(List<Integer> itemIds)
+        throws SQLException;
 }
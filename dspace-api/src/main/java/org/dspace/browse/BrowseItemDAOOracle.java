@@ -16,7 +16,9 @@ import org.dspace.content.Item;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class BrowseItemDAOOracle implements BrowseItemDAO
 {
@@ -53,6 +55,16 @@ public class BrowseItemDAOOracle implements BrowseItemDAO
                                     " AND metadataschemaregistry.short_id = ? " +
                                     " ORDER BY metadatavalue.metadata_field_id, metadatavalue.place";
 
+    /** query to get all the metadata of a block of items, to be followed by the list of ids */
+    private String getAllMetadata = "SELECT metadatavalue.item_id, authority, confidence, text_value, text_lang, short_id, element, qualifier " +
+                                    "FROM metadatavalue, metadatafieldregistry, metadataschemaregistry " +
+                                    "WHERE metadatavalue.metadata_field_id = metadatafieldregistry.metadata_field_id " +
+                                    " AND metadatafieldregistry.metadata_schema_id=metadataschemaregistry.metadata_schema_id " +
+                                    " AND metadatavalue.item_id IN ";
+
+    /** most ids in one IN list */
+    private static final int MAX_IN_LIST = 1000;
+
     /** DSpace context */
 	private Context context;
 
@@ -145,4 +157,59 @@ public class BrowseItemDAOOracle implements BrowseItemDAO
         DCValue[] dcvs = new DCValue[values.size()];
         return values.toArray(dcvs);
     }
+
+    public Map<Integer, List<DCValue>> queryMetadata(List<Integer> itemIds)
+        throws SQLException
+    {
+        Map<Integer, List<DCValue>> values = new HashMap<Integer, List<DCValue>>();
+
+        for (int start = 0; start < itemIds.size(); start += MAX_IN_LIST)
+        {
+            List<Integer> ids = itemIds.subList(start, Math.min(start + MAX_IN_LIST, itemIds.size()));
+
+            StringBuilder query = new StringBuilder(getAllMetadata).append("(");
+            for (int i = 0; i < ids.size(); i++)
+            {
+                query.append((i == 0) ? "?" : ",?");
+            }
+            query.append(") ORDER BY metadatavalue.item_id, metadatavalue.metadata_field_id, metadatavalue.place");
+
+            TableRowIterator tri = null;
+            try
+            {
+                tri = DatabaseManager.query(context, query.toString(), ids.toArray());
+                while (tri.hasNext())
+                {
+                    TableRow tr = tri.next();
+                    Integer itemId = Integer.valueOf(tr.getIntColumn("item_id"));
+
+                    DCValue dcv = new DCValue();
+                    dcv.schema = tr.getStringColumn("short_id");
+                    dcv.element = tr.getStringColumn("element");
+                    dcv.qualifier = tr.getStringColumn("qualifier");
+                    dcv.language = tr.getStringColumn("text_lang");
+                    dcv.value = tr.getStringColumn("text_value");
+                    dcv.authority = tr.getStringColumn("authority");
+                    dcv.confidence = tr.getIntColumn("confidence");
+
+                    List<DCValue> itemValues = values.get(itemId);
+                    if (itemValues == null)
+                    {
+                        itemValues = new ArrayList<DCValue>();
+                        values.put(itemId, itemValues);
+                    }
+                    itemValues.add(dcv);
+                }
+            }
+            finally
+            {
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
+        }
+
+        return values;
+    }
 }
@@ -9,14 +9,18 @@ package org.dspace.browse;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,7 +34,10 @@ import org.dspace.content.DCValue;
 import org.dspace.content.Item;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.MetadataAuthorityManager;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
 import org.dspace.sort.SortOption;
 import org.dspace.sort.SortException;
 import org.dspace.sort.OrderFormat;
@@ -85,6 +92,18 @@ public class IndexBrowse
     
     /** the outputter class */
 	private BrowseOutput output;
+
+	/** suffix of the tables a rebuild writes to, until they replace the old ones */
+	private static final String REBUILD_SUFFIX = "_new";
+
+	/** most distinct values of an index remembered while building it */
+	private static final int DISTINCT_CACHE_SIZE = 50000;
+
+	/** marks the end of the blocks of items for an index writer */
+	private static final List<ItemMetadataProxy> END = new ArrayList<ItemMetadataProxy>();
+
+	/** the suffix of the tables being built, or null if they are built in place */
+	private String tableSuffix = null;
 	
     /**
      * Construct a new index browse.  If done this way, an internal
@@ -400,88 +419,8 @@ public class IndexBrowse
                 if (bis[i].isMetadataIndex())
                 {
                     log.debug("Indexing for item " + item.getID() + ", for index: " + bis[i].getTableName());
-                    Set<Integer> distIDSet = new HashSet<Integer>();
-
-                    // now index the new details - but only if it's archived and not withdrawn
-                    if (item.isArchived() && !item.isWithdrawn())
-                    {
-                        // get the metadata from the item
-                        for (int mdIdx = 0; mdIdx < bis[i].getMetadataCount(); mdIdx++)
-                        {
-                            String[] md = bis[i].getMdBits(mdIdx);
-                            DCValue[] values = item.getMetadata(md[0], md[1], md[2], Item.ANY);
-
-                            // if we have values to index on, then do so
-                            if (values != null && values.length > 0)
-                            {
-                                int minConfidence = MetadataAuthorityManager.getManager()
-                                        .getMinConfidence(values[0].schema, values[0].element, values[0].qualifier);
-
-                                for (DCValue value : values)
-                                {
-                                    // Ensure that there is a value to index before inserting it
-                                    if (StringUtils.isEmpty(value.value))
-                                    {
-                                        log.error("Null metadata value for item " + item.getID() + ", field: " +
-                                                value.schema + "." +
-                                                value.element +
-                                                (value.qualifier == null ? "" : "." + value.qualifier));
-                                    }
-                                    else
-                                    {
-                                        if (bis[i].isAuthorityIndex() &&
-                                                (value.authority == null || value.confidence < minConfidence))
-                                        {
-                                            // skip to next value in this authority field if value is not authoritative
-                                            log.debug("Skipping non-authoritative value: " + item.getID() + ", field=" + value.schema + "." + value.element + "." + value.qualifier + ", value=" + value.value + ", authority=" + value.authority + ", confidence=" + value.confidence + " (BAD AUTHORITY)");
-                                            continue;
-
-                                        }
-
-                                        // is there any valid (with appropriate confidence) authority key?
-                                        if (value.authority != null
-                                                && value.confidence >= minConfidence)
-                                        {
-                                            boolean isValueInVariants = false;
-
-                                            // Are there variants of this value
-                                            List<String> variants = ChoiceAuthorityManager.getManager()
-                                                    .getVariants(value.schema, value.element, value.qualifier,
-                                                            value.authority, value.language);
-
-                                            // If we have variants, index them
-                                            if (variants != null)
-                                            {
-                                                for (String var : variants)
-                                                {
-                                                    String nVal = OrderFormat.makeSortString(var, value.language, bis[i].getDataType());
-                                                    distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), var, value.authority, nVal));
-                                                    if (var.equals(value.value))
-                                                    {
-                                                        isValueInVariants = true;
-                                                    }
-                                                }
-                                            }
-
-                                            // If we didn't index the value as one of the variants, add it now
-                                            if (!isValueInVariants)
-                                            {
-                                                // get the normalised version of the value
-                                                String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                                distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, value.authority, nVal));
-                                            }
-                                        }
-                                        else // put it in the browse index as if it hasn't have an authority key
-                                        {
-                                            // get the normalised version of the value
-                                            String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                            distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, null, nVal));
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    Set<Integer> distIDSet = getDistinctIDs(bis[i], item,
+                            new DistinctValues(dao, bis[i].getDistinctTableName(), 0));
 
                     // Do we have any mappings?
                     if (distIDSet.isEmpty())
@@ -515,6 +454,106 @@ public class IndexBrowse
         }
     }
 
+    /**
+     * Get the ids of the distinct values of an item in a metadata index,
+     * adding the values which are not in the index yet.
+     *
+     * @param bi        the metadata index
+     * @param item      the item
+     * @param distinct  the distinct values of the index
+     * @return the ids, none if the item is not to be indexed
+     * @throws BrowseException
+     * @throws SQLException
+     */
+    private Set<Integer> getDistinctIDs(BrowseIndex bi, ItemMetadataProxy item, DistinctValues distinct)
+            throws BrowseException, SQLException
+    {
+        Set<Integer> distIDSet = new HashSet<Integer>();
+
+        // now index the new details - but only if it's archived and not withdrawn
+        if (item.isArchived() && !item.isWithdrawn())
+        {
+            // get the metadata from the item
+            for (int mdIdx = 0; mdIdx < bi.getMetadataCount(); mdIdx++)
+            {
+                String[] md = bi.getMdBits(mdIdx);
+                DCValue[] values = item.getMetadata(md[0], md[1], md[2], Item.ANY);
+
+                // if we have values to index on, then do so
+                if (values != null && values.length > 0)
+                {
+                    int minConfidence = MetadataAuthorityManager.getManager()
+                            .getMinConfidence(values[0].schema, values[0].element, values[0].qualifier);
+
+                    for (DCValue value : values)
+                    {
+                        // Ensure that there is a value to index before inserting it
+                        if (StringUtils.isEmpty(value.value))
+                        {
+                            log.error("Null metadata value for item " + item.getID() + ", field: " +
+                                    value.schema + "." +
+                                    value.element +
+                                    (value.qualifier == null ? "" : "." + value.qualifier));
+                        }
+                        else
+                        {
+                            if (bi.isAuthorityIndex() &&
+                                    (value.authority == null || value.confidence < minConfidence))
+                            {
+                                // skip to next value in this authority field if value is not authoritative
+                                log.debug("Skipping non-authoritative value: " + item.getID() + ", field=" + value.schema + "." + value.element + "." + value.qualifier + ", value=" + value.value + ", authority=" + value.authority + ", confidence=" + value.confidence + " (BAD AUTHORITY)");
+                                continue;
+
+                            }
+
+                            // is there any valid (with appropriate confidence) authority key?
+                            if (value.authority != null
+                                    && value.confidence >= minConfidence)
+                            {
+                                boolean isValueInVariants = false;
+
+                                // Are there variants of this value
+                                List<String> variants = ChoiceAuthorityManager.getManager()
+                                        .getVariants(value.schema, value.element, value.qualifier,
+                                                value.authority, value.language);
+
+                                // If we have variants, index them
+                                if (variants != null)
+                                {
+                                    for (String var : variants)
+                                    {
+                                        String nVal = OrderFormat.makeSortString(var, value.language, bi.getDataType());
+                                        distIDSet.add(distinct.getID(var, value.authority, nVal));
+                                        if (var.equals(value.value))
+                                        {
+                                            isValueInVariants = true;
+                                        }
+                                    }
+                                }
+
+                                // If we didn't index the value as one of the variants, add it now
+                                if (!isValueInVariants)
+                                {
+                                    // get the normalised version of the value
+                                    String nVal = OrderFormat.makeSortString(value.value, value.language, bi.getDataType());
+                                    distIDSet.add(distinct.getID(value.value, value.authority, nVal));
+                                }
+                            }
+                            else // put it in the browse index as if it hasn't have an authority key
+                            {
+                                // get the normalised version of the value
+                                String nVal = OrderFormat.makeSortString(value.value, value.language, bi.getDataType());
+                                distIDSet.add(distinct.getID(value.value, null, nVal));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return distIDSet;
+    }
+
     /**
      * Get the normalised values for each of the sort columns
      * @param item
@@ -679,7 +718,7 @@ public class IndexBrowse
 
             if (line.hasOption("i"))
             {
-                indexer.createIndex();
+                indexer.createIndex(false);
                 return;
             }
 
@@ -763,8 +802,16 @@ public class IndexBrowse
     {
         try
         {
-            // first, erase the existing indexes
-            clearDatabase();
+            // first, erase the existing indexes, or what is left of an
+            // earlier rebuild alongside them
+            if (tableSuffix == null)
+            {
+                clearDatabase();
+            }
+            else
+            {
+                dropNewTables();
+            }
 
             createItemTables();
 
@@ -802,98 +849,9 @@ public class IndexBrowse
     	try
     	{
     		output.message("Deleting old indices");
-    		
-    		// notice that we have to do this without reference to the BrowseIndex[]
-    		// because they do not necessarily reflect what currently exists in
-    		// the database
-    		
-    		int i = getStart();
-    		while (true)
-    		{
-    			String tableName = BrowseIndex.getTableName(i, false, false, false, false);
-                String distinctTableName = BrowseIndex.getTableName(i, false, false, true, false);
-    			String distinctMapName = BrowseIndex.getTableName(i, false, false, false, true);
-                String sequence = BrowseIndex.getSequenceName(i, false, false);
-                String mapSequence = BrowseIndex.getSequenceName(i, false, true);
-                String distinctSequence = BrowseIndex.getSequenceName(i, true, false);
 
-                // These views are no longer used, but as we are cleaning the database,
-                // they may exist and need to be removed
-                String colViewName = BrowseIndex.getTableName(i, false, true, false, false);
-                String comViewName = BrowseIndex.getTableName(i, true, false, false, false);
-                String distinctColViewName = BrowseIndex.getTableName(i, false, true, false, true);
-                String distinctComViewName = BrowseIndex.getTableName(i, true, false, false, true);
-
-    			output.message("Checking for " + tableName);
-    			if (dao.testTableExistence(tableName))
-    			{
-                    output.message("...found");
-                    
-                    output.message("Deleting old index and associated resources: " + tableName);
-    			    
-                    // prepare a statement which will delete the table and associated
-                    // resources
-                    String dropper = dao.dropIndexAndRelated(tableName, this.execute());
-                    String dropSeq = dao.dropSequence(sequence, this.execute());
-                    output.sql(dropper);
-                    output.sql(dropSeq);
-
-                    // These views are no longer used, but as we are cleaning the database,
-                    // they may exist and need to be removed
-                    String dropColView = dao.dropView( colViewName, this.execute() );
-                    String dropComView = dao.dropView( comViewName, this.execute() );
-                    output.sql(dropColView);
-                    output.sql(dropComView);
-    			}
-    			
-                // NOTE: we need a secondary context to check for the existance
-                // of the table, because if an SQLException is thrown, then
-                // the connection is aborted, and no more transaction stuff can be
-                // done.  Therefore we use a blank context to make the requests,
-                // not caring if it gets aborted or not
-                output.message("Checking for " + distinctTableName);
-                if (!dao.testTableExistence(distinctTableName))
-    			{
-                    if (i < bis.length || i < 10)
-                    {
-                        output.message("... doesn't exist; but will carry on as there may be something that conflicts");
-                    }
-                    else
-                    {
-        				output.message("... doesn't exist; no more tables to delete");
-        				break;
-                    }
-    			}
-                else
-                {
-        			output.message("...found");
-        			
-        			output.message("Deleting old index and associated resources: " + distinctTableName);
-        			
-    				// prepare statements that will delete the distinct value tables
-    				String dropDistinctTable = dao.dropIndexAndRelated(distinctTableName, this.execute());
-    				String dropMap = dao.dropIndexAndRelated(distinctMapName, this.execute());
-    				String dropDistinctMapSeq = dao.dropSequence(mapSequence, this.execute());
-    				String dropDistinctSeq = dao.dropSequence(distinctSequence, this.execute());
-                    output.sql(dropDistinctTable);
-                    output.sql(dropMap);
-                    output.sql(dropDistinctMapSeq);
-                    output.sql(dropDistinctSeq);
-
-                    // These views are no longer used, but as we are cleaning the database,
-                    // they may exist and need to be removed
-                    String dropDistinctColView = dao.dropView( distinctColViewName, this.execute() );
-                    String dropDistinctComView = dao.dropView( distinctComViewName, this.execute() );
-                    output.sql(dropDistinctColView);
-                    output.sql(dropDistinctComView);
-                }
-    			
-    			i++;
-    		}
+    		dropTables();
 
-            dropItemTables(BrowseIndex.getItemBrowseIndex());
-            dropItemTables(BrowseIndex.getWithdrawnBrowseIndex());
-            dropItemTables(BrowseIndex.getPrivateBrowseIndex());
     		if (execute())
     		{
     			context.commit();
@@ -906,6 +864,271 @@ public class IndexBrowse
     	}
 	}
 
+    /**
+     * drop all the existing browse tables, without committing
+     *
+     * @throws BrowseException
+     */
+    private void dropTables()
+        throws BrowseException
+    {
+    	// notice that we have to do this without reference to the BrowseIndex[]
+    	// because they do not necessarily reflect what currently exists in
+    	// the database
+    		
+    	int i = getStart();
+    	while (true)
+    	{
+    		String tableName = BrowseIndex.getTableName(i, false, false, false, false);
+            String distinctTableName = BrowseIndex.getTableName(i, false, false, true, false);
+    		String distinctMapName = BrowseIndex.getTableName(i, false, false, false, true);
+            String sequence = BrowseIndex.getSequenceName(i, false, false);
+            String mapSequence = BrowseIndex.getSequenceName(i, false, true);
+            String distinctSequence = BrowseIndex.getSequenceName(i, true, false);
+
+            // These views are no longer used, but as we are cleaning the database,
+            // they may exist and need to be removed
+            String colViewName = BrowseIndex.getTableName(i, false, true, false, false);
+            String comViewName = BrowseIndex.getTableName(i, true, false, false, false);
+            String distinctColViewName = BrowseIndex.getTableName(i, false, true, false, true);
+            String distinctComViewName = BrowseIndex.getTableName(i, true, false, false, true);
+
+    		output.message("Checking for " + tableName);
+    		if (dao.testTableExistence(tableName))
+    		{
+                output.message("...found");
+                    
+                output.message("Deleting old index and associated resources: " + tableName);
+    			    
+                // prepare a statement which will delete the table and associated
+                // resources
+                String dropper = dao.dropIndexAndRelated(tableName, this.execute());
+                String dropSeq = dao.dropSequence(sequence, this.execute());
+                output.sql(dropper);
+                output.sql(dropSeq);
+
+                // These views are no longer used, but as we are cleaning the database,
+                // they may exist and need to be removed
+                String dropColView = dao.dropView( colViewName, this.execute() );
+                String dropComView = dao.dropView( comViewName, this.execute() );
+                output.sql(dropColView);
+                output.sql(dropComView);
+    		}
+    			
+            // NOTE: we need a secondary context to check for the existance
+            // of the table, because if an SQLException is thrown, then
+            // the connection is aborted, and no more transaction stuff can be
+            // done.  Therefore we use a blank context to make the requests,
+            // not caring if it gets aborted or not
+            output.message("Checking for " + distinctTableName);
+            if (!dao.testTableExistence(distinctTableName))
+    		{
+                if (i < bis.length || i < 10)
+                {
+                    output.message("... doesn't exist; but will carry on as there may be something that conflicts");
+                }
+                else
+                {
+    				output.message("... doesn't exist; no more tables to delete");
+    				break;
+                }
+    		}
+            else
+            {
+    			output.message("...found");
+        			
+    			output.message("Deleting old index and associated resources: " + distinctTableName);
+        			
+    			// prepare statements that will delete the distinct value tables
+    			String dropDistinctTable = dao.dropIndexAndRelated(distinctTableName, this.execute());
+    			String dropMap = dao.dropIndexAndRelated(distinctMapName, this.execute());
+    			String dropDistinctMapSeq = dao.dropSequence(mapSequence, this.execute());
+    			String dropDistinctSeq = dao.dropSequence(distinctSequence, this.execute());
+                output.sql(dropDistinctTable);
+                output.sql(dropMap);
+                output.sql(dropDistinctMapSeq);
+                output.sql(dropDistinctSeq);
+
+                // These views are no longer used, but as we are cleaning the database,
+                // they may exist and need to be removed
+                String dropDistinctColView = dao.dropView( distinctColViewName, this.execute() );
+                String dropDistinctComView = dao.dropView( distinctComViewName, this.execute() );
+                output.sql(dropDistinctColView);
+                output.sql(dropDistinctComView);
+            }
+    			
+    		i++;
+    	}
+
+        dropItemTables(BrowseIndex.getItemBrowseIndex());
+        dropItemTables(BrowseIndex.getWithdrawnBrowseIndex());
+        dropItemTables(BrowseIndex.getPrivateBrowseIndex());
+	}
+
+    /**
+     * drop the tables left by a rebuild alongside the existing ones which
+     * did not get as far as replacing them
+     *
+     * @throws BrowseException
+     */
+    private void dropNewTables()
+        throws BrowseException, SQLException
+    {
+        for (String table : getTableNames())
+        {
+            String newTable = getBuildName(table);
+            if (dao.testTableExistence(newTable))
+            {
+                output.message("Deleting unfinished index: " + newTable);
+                output.sql(dao.dropIndexAndRelated(newTable, this.execute()));
+                output.sql(dao.dropSequence(newTable + "_seq", this.execute()));
+            }
+        }
+
+        if (execute())
+        {
+            context.commit();
+        }
+    }
+
+    /**
+     * replace the existing browse tables with those rebuilt alongside them.
+     * Where the database allows, this is done in one transaction, so that the
+     * browse goes from the old indexes to the new with nothing in between.
+     *
+     * @throws BrowseException
+     */
+    private void replaceTables()
+        throws BrowseException, SQLException
+    {
+        output.message("Replacing old indices with the rebuilt ones");
+
+        dropTables();
+
+        for (String table : getTableNames())
+        {
+            String[] renames = dao.renameTable(getBuildName(table), table, this.execute());
+            for (int i = 0; i < renames.length; i++)
+            {
+                output.sql(renames[i]);
+            }
+        }
+
+        if (execute())
+        {
+            context.commit();
+        }
+    }
+
+    /**
+     * bring the rebuilt tables, once they have replaced the old ones, up to
+     * date with the changes made while they were built: the browse consumer
+     * made those to the old tables.  Items modified since the build started
+     * are indexed again, and the entries of items deleted since are removed.
+     *
+     * @param since when the build started
+     * @throws BrowseException
+     * @throws SQLException
+     */
+    private void catchUp(Date since)
+        throws BrowseException, SQLException
+    {
+        List<Integer> modified = new ArrayList<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT item_id FROM item WHERE last_modified >= ?", new Timestamp(since.getTime()));
+        try
+        {
+            while (tri.hasNext())
+            {
+                modified.add(Integer.valueOf(tri.next().getIntColumn("item_id")));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        output.message("Indexing " + modified.size() + " items changed during the rebuild");
+
+        int batchSize = Math.max(1, ConfigurationManager.getIntProperty("browse.index.batch.size", 500));
+        for (int i = 0; i < modified.size(); i++)
+        {
+            Item item = Item.find(context, modified.get(i).intValue());
+            if (item != null)
+            {
+                indexItem(item);
+            }
+
+            if ((i + 1) % batchSize == 0)
+            {
+                context.commit();
+                context.clearCache();
+            }
+        }
+
+        Set<Integer> deleted = new HashSet<Integer>();
+        String[] tables = {
+                BrowseIndex.getItemBrowseIndex().getTableName(),
+                BrowseIndex.getWithdrawnBrowseIndex().getTableName(),
+                BrowseIndex.getPrivateBrowseIndex().getTableName() };
+        for (String table : tables)
+        {
+            if (dao.testTableExistence(table))
+            {
+                deleted.addAll(dao.findDeletedItemIDs(table));
+            }
+        }
+
+        for (Integer id : deleted)
+        {
+            itemRemoved(id.intValue());
+        }
+
+        if (!deleted.isEmpty())
+        {
+            output.message("Removed " + deleted.size() + " items deleted during the rebuild");
+        }
+
+        context.commit();
+    }
+
+    /**
+     * Get the names of all the tables an index build writes to, as they
+     * are named in use.
+     *
+     * @return the table names
+     */
+    private List<String> getTableNames()
+    {
+        List<String> tables = new ArrayList<String>();
+        tables.add(BrowseIndex.getItemBrowseIndex().getTableName());
+        tables.add(BrowseIndex.getWithdrawnBrowseIndex().getTableName());
+        tables.add(BrowseIndex.getPrivateBrowseIndex().getTableName());
+
+        for (int i = 0; i < bis.length; i++)
+        {
+            if (bis[i].isMetadataIndex())
+            {
+                tables.add(bis[i].getDistinctTableName());
+                tables.add(bis[i].getMapTableName());
+            }
+        }
+
+        return tables;
+    }
+
+    /**
+     * Get the name a table is built under: its own, or while rebuilding
+     * alongside the existing tables, a new one.
+     *
+     * @param table the name of the table in use
+     * @return the name to build it under
+     */
+    private String getBuildName(String table)
+    {
+        return (tableSuffix == null) ? table : table + tableSuffix;
+    }
+
     /**
      * drop the tables and related database entries for the internal
      * 'item' tables
@@ -978,9 +1201,9 @@ public class IndexBrowse
     private void createItemTables(BrowseIndex bix, List<Integer> sortCols)
             throws BrowseException
     {
-        String tableName = bix.getTableName();
+        String tableName = getBuildName(bix.getTableName());
 
-        String itemSeq   = dao.createSequence(bix.getSequenceName(false, false), this.execute());
+        String itemSeq   = dao.createSequence(tableName + "_seq", this.execute());
         String itemTable = dao.createPrimaryTable(tableName, sortCols, execute);
         String[] itemIndices = dao.createDatabaseIndices(tableName, sortCols, false, this.execute());
 
@@ -1006,10 +1229,10 @@ public class IndexBrowse
 			if (bi.isMetadataIndex())
 			{
 	            // if this is a single view, create the DISTINCT tables and views
-                String distinctTableName = bi.getDistinctTableName();
-				String distinctSeq = bi.getSequenceName(true, false);
-                String distinctMapName = bi.getMapTableName();
-				String mapSeq = bi.getSequenceName(false, true);
+                String distinctTableName = getBuildName(bi.getDistinctTableName());
+				String distinctSeq = distinctTableName + "_seq";
+                String distinctMapName = getBuildName(bi.getMapTableName());
+				String mapSeq = distinctMapName + "_seq";
 
 				// FIXME: at the moment we have not defined INDEXes for this data
 				// add this later when necessary
@@ -1072,7 +1295,14 @@ public class IndexBrowse
 	    else if (rebuild())
 	    {
 	    	output.message("Preparing browse tables");
-	    	
+
+	    	// the Solr browse keeps no tables of its own to rebuild alongside
+	    	if (!(dao instanceof SolrBrowseCreateDAO)
+	    	        && ConfigurationManager.getBooleanProperty("browse.index.rebuild.alongside", true))
+	    	{
+	    		tableSuffix = REBUILD_SUFFIX;
+	    	}
+
 	    	prepTables();
 	    	
 	    	output.message("Browse tables prepared");
@@ -1084,8 +1314,23 @@ public class IndexBrowse
 	    
 	    output.message("tables prepped (" + Long.toString(prep) + " ms, " + Long.toString(prepinit) + " ms)");
 	    
-	    int count = createIndex();
-	    
+	    // the browse consumer goes on changing the old tables while the new
+	    // ones are built, so anything changed from here on is indexed again
+	    Date buildStart = new Date();
+
+	    int count = createIndex(rebuild());
+
+	    if (tableSuffix != null)
+	    {
+	    	replaceTables();
+	    	tableSuffix = null;
+
+	    	if (execute())
+	    	{
+	    		catchUp(buildStart);
+	    	}
+	    }
+
 	    context.complete();
 	    
 	    Date endDate = new Date();
@@ -1108,14 +1353,21 @@ public class IndexBrowse
 	}
 
     /**
-     * create the indices for all the items
+     * create the indices for all the items.  The items are taken in blocks,
+     * whose metadata is read at once and whose index entries are committed
+     * together.
      * 
-     * @return
+     * @param fresh whether the tables have just been made, and are empty, in
+     *              which case the entries are written in batches, by as many
+     *              threads as are configured
+     * @return the number of items indexed
      * @throws BrowseException
      */
-    private int createIndex()
+    private int createIndex(boolean fresh)
     	throws BrowseException
     {
+    	IndexWriter[] writers = null;
+
     	try
     	{
     		// first, pre-prepare the known metadata fields that we want to query
@@ -1129,19 +1381,66 @@ public class IndexBrowse
             BrowseItemDAO biDao = BrowseDAOFactory.getItemInstance(context);
             BrowseItem[] items = biDao.findAll();
 
-    		// go through every item id, grab the relevant metadata
-    		// and write it into the database
-    		
-    		for (int j = 0; j < items.length; j++)
+            int batchSize = Math.max(1, ConfigurationManager.getIntProperty("browse.index.batch.size", 500));
+            if (fresh)
+            {
+                writers = startWriters();
+            }
+
+    		// go through the items a block at a time, grab the relevant
+    		// metadata and write it into the database
+    		for (int start = 0; start < items.length; start += batchSize)
     		{
-                // Creating the indexes from scracth, so treat each item as if it's new
-                indexItem(new ItemMetadataProxy(items[j].getID(), items[j]), true);
-    			
-    			// after each item we commit the context and clear the cache
-    			context.commit();
-    			context.clearCache();
+                int end = Math.min(start + batchSize, items.length);
+
+                List<Integer> ids = new ArrayList<Integer>(end - start);
+                for (int j = start; j < end; j++)
+                {
+                    ids.add(Integer.valueOf(items[j].getID()));
+                }
+                Map<Integer, List<DCValue>> metadata = biDao.queryMetadata(ids);
+
+                List<ItemMetadataProxy> block = new ArrayList<ItemMetadataProxy>(end - start);
+                for (int j = start; j < end; j++)
+                {
+                    List<DCValue> values = metadata.get(Integer.valueOf(items[j].getID()));
+                    items[j].setMetadata((values != null) ? values : new ArrayList<DCValue>());
+                    block.add(new ItemMetadataProxy(items[j].getID(), items[j]));
+
+                    // only the block holds on to the item and its metadata now
+                    items[j] = null;
+                }
+
+                if (writers != null)
+                {
+                    for (IndexWriter writer : writers)
+                    {
+                        writer.submit(block);
+                    }
+                }
+                else
+                {
+                    for (ItemMetadataProxy item : block)
+                    {
+                        // Creating the indexes from scratch, so treat each item as if it's new
+                        indexItem(item, true);
+                    }
+
+                    // after each block we commit the context and clear the cache
+                    context.commit();
+                    context.clearCache();
+                }
     		}
-            
+
+            if (writers != null)
+            {
+                for (IndexWriter writer : writers)
+                {
+                    writer.finish();
+                }
+                writers = null;
+            }
+
             // Make sure the deletes are written back
             context.commit();
     		
@@ -1152,8 +1451,77 @@ public class IndexBrowse
     		log.error("caught exception: ", e);
     		throw new BrowseException(e);
     	}
+    	finally
+    	{
+    	    if (writers != null)
+    	    {
+    	        // something went wrong, stop the writers where they are
+    	        for (IndexWriter writer : writers)
+    	        {
+    	            writer.stop();
+    	        }
+    	    }
+    	}
     }
-    
+
+    /**
+     * Set up the writers of freshly made tables.  The item indexes, and each
+     * of the metadata indexes, are shared out between as many writers as there
+     * are threads configured.  A single writer writes in this thread and
+     * Context; otherwise each writer has a thread and a Context of its own.
+     *
+     * @return the writers
+     * @throws BrowseException
+     * @throws SQLException
+     */
+    private IndexWriter[] startWriters()
+        throws BrowseException, SQLException
+    {
+        List<BrowseIndex> metadataIndexes = new ArrayList<BrowseIndex>();
+        for (int i = 0; i < bis.length; i++)
+        {
+            if (bis[i].isMetadataIndex())
+            {
+                metadataIndexes.add(bis[i]);
+            }
+        }
+
+        // one for the item indexes, and one for each metadata index at most
+        int threads = ConfigurationManager.getIntProperty("browse.index.threads", 1);
+        threads = Math.max(1, Math.min(threads, metadataIndexes.size() + 1));
+
+        IndexWriter[] writers = new IndexWriter[threads];
+        for (int w = 0; w < threads; w++)
+        {
+            if (threads == 1)
+            {
+                writers[w] = new IndexWriter(context, dao, true);
+            }
+            else
+            {
+                Context writerContext = new Context();
+                writerContext.turnOffAuthorisationSystem();
+                writers[w] = new IndexWriter(writerContext,
+                        BrowseDAOFactory.getCreateInstance(writerContext), w == 0);
+            }
+        }
+
+        for (int i = 0; i < metadataIndexes.size(); i++)
+        {
+            writers[(i + 1) % threads].addIndex(metadataIndexes.get(i));
+        }
+
+        if (threads > 1)
+        {
+            for (int w = 0; w < threads; w++)
+            {
+                writers[w].start("browse-index-" + w);
+            }
+        }
+
+        return writers;
+    }
+
     /**
      * Currently does nothing
      *
@@ -1283,4 +1651,269 @@ public class IndexBrowse
         
         
 	}
+
+	// private inner class
+	//	 Looks up the ids of the distinct values of a metadata index.  While
+	//	 an index is built afresh, with no other writer, the values seen are
+	//	 remembered rather than queried for again.
+	private static class DistinctValues
+	{
+	    private final BrowseCreateDAO dao;
+	    private final String table;
+	    private final Map<String, Integer> cache;
+	    private final boolean caseInsensitive;
+
+	    DistinctValues(BrowseCreateDAO dao, String table, final int cacheSize)
+	    {
+	        this.dao = dao;
+	        this.table = table;
+	        this.caseInsensitive = ConfigurationManager.getBooleanProperty("webui.browse.metadata.case-insensitive", false);
+
+	        if (cacheSize > 0)
+	        {
+	            this.cache = new LinkedHashMap<String, Integer>(16, 0.75f, true)
+	            {
+	                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+	                {
+	                    return size() > cacheSize;
+	                }
+	            };
+	        }
+	        else
+	        {
+	            this.cache = null;
+	        }
+	    }
+
+	    int getID(String value, String authority, String sortValue)
+	        throws BrowseException
+	    {
+	        if (cache == null)
+	        {
+	            return dao.getDistinctID(table, value, authority, sortValue);
+	        }
+
+	        // matched the way the DAO matches them, see getDistinctID
+	        String key = ((authority == null) ? "-" : authority.length() + ":" + authority)
+	                + (caseInsensitive ? value.toUpperCase() : value);
+
+	        Integer id = cache.get(key);
+	        if (id == null)
+	        {
+	            id = Integer.valueOf(dao.getDistinctID(table, value, authority, sortValue));
+	            cache.put(key, id);
+	        }
+	        return id.intValue();
+	    }
+	}
+
+	// private inner class
+	//	 Writes blocks of items into freshly made tables: those of the metadata
+	//	 indexes it is given and, if asked, those of the item indexes.  A writer
+	//	 either writes as it is handed each block, or has a thread of its own
+	//	 taking the blocks from a queue.
+	private class IndexWriter implements Runnable
+	{
+	    private final Context context;
+	    private final BrowseCreateDAO dao;
+	    private final boolean itemIndexes;
+
+	    /** the metadata indexes of this writer, and their distinct values */
+	    private final Map<BrowseIndex, DistinctValues> indexes = new LinkedHashMap<BrowseIndex, DistinctValues>();
+
+	    private BlockingQueue<List<ItemMetadataProxy>> queue = null;
+	    private Thread thread = null;
+
+	    /** the error that stopped the thread */
+	    private volatile Exception failure = null;
+
+	    IndexWriter(Context context, BrowseCreateDAO dao, boolean itemIndexes)
+	    {
+	        this.context = context;
+	        this.dao = dao;
+	        this.itemIndexes = itemIndexes;
+	    }
+
+	    void addIndex(BrowseIndex bi)
+	    {
+	        indexes.put(bi, new DistinctValues(dao, getBuildName(bi.getDistinctTableName()), DISTINCT_CACHE_SIZE));
+	    }
+
+	    void start(String name)
+	    {
+	        queue = new ArrayBlockingQueue<List<ItemMetadataProxy>>(2);
+	        thread = new Thread(this, name);
+	        thread.start();
+	    }
+
+	    /**
+	     * Write a block of items, or queue it for the thread to write.
+	     */
+	    void submit(List<ItemMetadataProxy> block)
+	        throws BrowseException, SQLException
+	    {
+	        if (thread == null)
+	        {
+	            write(block);
+	            return;
+	        }
+
+	        checkFailure();
+	        try
+	        {
+	            queue.put(block);
+	        }
+	        catch (InterruptedException e)
+	        {
+	            Thread.currentThread().interrupt();
+	            throw new BrowseException(e);
+	        }
+	    }
+
+	    /**
+	     * Wait for the queued blocks to be written.
+	     */
+	    void finish()
+	        throws BrowseException
+	    {
+	        stop();
+	        checkFailure();
+	    }
+
+	    /**
+	     * Stop the thread, once it has got through the blocks queued.
+	     */
+	    void stop()
+	    {
+	        if (thread == null)
+	        {
+	            return;
+	        }
+
+	        try
+	        {
+	            queue.put(END);
+	            thread.join();
+	        }
+	        catch (InterruptedException e)
+	        {
+	            Thread.currentThread().interrupt();
+	        }
+	        thread = null;
+	    }
+
+	    private void checkFailure()
+	        throws BrowseException
+	    {
+	        if (failure instanceof BrowseException)
+	        {
+	            throw (BrowseException) failure;
+	        }
+	        else if (failure != null)
+	        {
+	            throw new BrowseException(failure);
+	        }
+	    }
+
+	    public void run()
+	    {
+	        try
+	        {
+	            List<ItemMetadataProxy> block = queue.take();
+	            while (block != END)
+	            {
+	                write(block);
+	                block = queue.take();
+	            }
+
+	            context.complete();
+	        }
+	        catch (Exception e)
+	        {
+	            log.error("Browse index writer stopped", e);
+	            failure = e;
+
+	            // take what is left until the end, so that nobody waits on the queue
+	            try
+	            {
+	                while (queue.take() != END)
+	                {
+	                    // discard
+	                }
+	            }
+	            catch (InterruptedException ie)
+	            {
+	                Thread.currentThread().interrupt();
+	            }
+	        }
+	        finally
+	        {
+	            if (context.isValid())
+	            {
+	                context.abort();
+	            }
+	        }
+	    }
+
+	    /**
+	     * Write the index entries of a block of items, as in indexItem, and
+	     * commit them.
+	     */
+	    private void write(List<ItemMetadataProxy> block)
+	        throws BrowseException, SQLException
+	    {
+	        if (itemIndexes)
+	        {
+	            Map<Integer, Map<Integer, String>> archived = new HashMap<Integer, Map<Integer, String>>();
+	            Map<Integer, Map<Integer, String>> withdrawn = new HashMap<Integer, Map<Integer, String>>();
+	            Map<Integer, Map<Integer, String>> hidden = new HashMap<Integer, Map<Integer, String>>();
+
+	            for (ItemMetadataProxy item : block)
+	            {
+	                Integer id = Integer.valueOf(item.getID());
+	                Map<Integer, String> sortMap = getSortValues(item, new HashMap<String, DCValue>());
+
+	                if (item.isArchived() && item.isDiscoverable())
+	                {
+	                    archived.put(id, sortMap);
+	                    dao.updateCommunityMappings(item.getID());
+	                }
+	                else
+	                {
+	                    if (!item.isDiscoverable())
+	                    {
+	                        hidden.put(id, sortMap);
+	                    }
+	                    else if (item.isWithdrawn())
+	                    {
+	                        withdrawn.put(id, sortMap);
+	                    }
+	                    dao.deleteCommunityMappings(item.getID());
+	                }
+	            }
+
+	            dao.insertIndexes(getBuildName(BrowseIndex.getItemBrowseIndex().getTableName()), archived);
+	            dao.insertIndexes(getBuildName(BrowseIndex.getWithdrawnBrowseIndex().getTableName()), withdrawn);
+	            dao.insertIndexes(getBuildName(BrowseIndex.getPrivateBrowseIndex().getTableName()), hidden);
+	        }
+
+	        for (Map.Entry<BrowseIndex, DistinctValues> index : indexes.entrySet())
+	        {
+	            Map<Integer, Set<Integer>> mappings = new HashMap<Integer, Set<Integer>>();
+	            for (ItemMetadataProxy item : block)
+	            {
+	                Set<Integer> distinctIDs = getDistinctIDs(index.getKey(), item, index.getValue());
+	                if (!distinctIDs.isEmpty())
+	                {
+	                    mappings.put(Integer.valueOf(item.getID()), distinctIDs);
+	                }
+	            }
+
+	            dao.insertDistinctMappings(getBuildName(index.getKey().getMapTableName()), mappings);
+	        }
+
+	        context.commit();
+	        context.clearCache();
+	    }
+	}
 }
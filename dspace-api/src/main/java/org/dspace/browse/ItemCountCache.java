@@ -0,0 +1,784 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * JVM-wide item counts of every collection and community, kept current by
+ * {@link ItemCountConsumer} as content changes, so that
+ * {@link ItemCounter#getCount} is a map lookup rather than a count of the
+ * database or a read of a table last filled by [dspace]/bin/itemcounter.
+ * <P>
+ * The counts are made on first use with a single grouped count of the
+ * archived, non-withdrawn items of each collection; a community counts the
+ * items of its collections and, recursively, of its sub-communities, as
+ * {@link org.dspace.content.Community#countItems} does. After that the
+ * collections touched by a transaction committed in this JVM are counted
+ * again, and the difference is carried up to the communities above them.
+ * Changes made by other processes (other web applications, command line
+ * imports) are not seen by the consumer, so all the counts are also made
+ * again once they are a persist interval old.
+ * <P>
+ * Readers take no lock: the counts are replaced whole, as an immutable
+ * snapshot, whenever they change. While one thread makes all the counts
+ * again, the others go on reading the old ones.
+ * <P>
+ * Changed counts are written back to the collection_item_count and
+ * community_item_count tables at most once per persist interval, so that
+ * the database-backed {@link ItemCountDAO}s, and other processes, see them
+ * without the itemcounter having to be run.
+ * <P>
+ * Configuration (dspace.cfg):
+ * <ul>
+ * <li><code>webui.strengths.live</code> - keep the counts in memory (default
+ * false); the itemcount consumer must be configured as well</li>
+ * <li><code>webui.strengths.live.persist</code> - how often changed counts are
+ * written to the database, and all the counts made again, in seconds
+ * (default 300; 0 to never write them, they are then made again every 300
+ * seconds)</li>
+ * </ul>
+ *
+ * @version $Revision$
+ */
+public class ItemCountCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemCountCache.class);
+
+    /** Items counted per collection */
+    private static final String COUNT_ITEMS = "SELECT collection2item.collection_id, count(*) AS num"
+            + " FROM collection2item, item"
+            + " WHERE collection2item.item_id = item.item_id"
+            + " AND item.in_archive = '1' AND item.withdrawn = '0'";
+
+    /** Age at which the counts are made again if they are never written */
+    private static final long DEFAULT_RELOAD = 300 * 1000L;
+
+    /** The shared instance */
+    private static ItemCountCache instance = null;
+
+    /** Whether the counts are kept at all */
+    private final boolean enabled;
+
+    /** Minimum time between writes to the database, in milliseconds */
+    private final long persistInterval;
+
+    /** Age at which all the counts are made again, in milliseconds */
+    private final long reloadInterval;
+
+    /** The counts as last made; null until they are first made */
+    private volatile Counts counts = null;
+
+    /** Whether a thread is making all the counts again */
+    private final AtomicBoolean reloading = new AtomicBoolean();
+
+    /** Held while the counts are first made, which all readers wait for */
+    private final Object firstLoad = new Object();
+
+    /** Which communities hold what. Guarded by "this". */
+    private Structure structure = null;
+
+    /**
+     * Collections counted again since all the counts began to be made
+     * again, or null if they are not being made. Guarded by "this".
+     */
+    private Set<Integer> updatedDuringReload = null;
+
+    /** Whether the structure changed while all the counts were being made. Guarded by "this". */
+    private boolean structureChangedDuringReload = false;
+
+    /** Counts changed since they were last written. Guarded by "this". */
+    private Set<Integer> dirtyCollections = new HashSet<Integer>();
+    private Set<Integer> dirtyCommunities = new HashSet<Integer>();
+
+    /** When the counts were last written */
+    private long lastPersisted = System.currentTimeMillis();
+
+    /**
+     * Get the shared counts, configuring them on first use.
+     *
+     * @return the item count cache
+     */
+    public static synchronized ItemCountCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new ItemCountCache(
+                    ConfigurationManager.getBooleanProperty("webui.strengths.live", false),
+                    ConfigurationManager.getIntProperty("webui.strengths.live.persist", 300) * 1000L);
+        }
+
+        return instance;
+    }
+
+    ItemCountCache(boolean enabled, long persistInterval)
+    {
+        this.enabled = enabled;
+        this.persistInterval = persistInterval;
+        this.reloadInterval = persistInterval > 0 ? persistInterval : DEFAULT_RELOAD;
+    }
+
+    /**
+     * @return true if counts are kept in memory
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Get the number of items in a collection or community.
+     *
+     * @param context
+     *            DSpace context, used to make the counts on first use
+     * @param dso
+     *            the collection or community
+     * @return the number of archived, non-withdrawn items in it
+     * @throws ItemCountException
+     */
+    public int getCount(Context context, DSpaceObject dso)
+        throws ItemCountException
+    {
+        Counts current = load(context);
+
+        Integer count = null;
+        if (dso.getType() == Constants.COLLECTION)
+        {
+            count = current.collections.get(Integer.valueOf(dso.getID()));
+        }
+        else if (dso.getType() == Constants.COMMUNITY)
+        {
+            count = current.communities.get(Integer.valueOf(dso.getID()));
+        }
+
+        return count == null ? 0 : count.intValue();
+    }
+
+    /**
+     * Get the collections an item is mapped to.
+     *
+     * @param context
+     *            DSpace context
+     * @param itemID
+     *            ID of the item
+     * @return IDs of the collections
+     * @throws SQLException
+     */
+    public static List<Integer> getCollectionIDs(Context context, int itemID)
+        throws SQLException
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT collection_id FROM collection2item WHERE item_id = ?", itemID);
+        try
+        {
+            while (tri.hasNext())
+            {
+                ids.add(Integer.valueOf(tri.next().getIntColumn("collection_id")));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Count the items of the given collections again, and carry the changes
+     * up to the communities. If communities or collections were created,
+     * moved or deleted, all the community counts are made again from the
+     * collection counts.
+     *
+     * @param context
+     *            DSpace context
+     * @param collectionIDs
+     *            collections whose items may have changed
+     * @param structureChanged
+     *            whether the community hierarchy may have changed
+     * @throws ItemCountException
+     */
+    public synchronized void update(Context context, Set<Integer> collectionIDs, boolean structureChanged)
+        throws ItemCountException
+    {
+        Counts current = counts;
+        if (!enabled || current == null)
+        {
+            // nothing to keep up to date yet; the first lookup counts afresh
+            return;
+        }
+
+        try
+        {
+            Map<Integer, Integer> made = new HashMap<Integer, Integer>(current.collections);
+            for (Integer id : collectionIDs)
+            {
+                made.put(id, Integer.valueOf(countCollection(context, id.intValue())));
+            }
+
+            if (structureChanged)
+            {
+                structure = readStructure(context);
+                // drops the counts of deleted collections
+                made.keySet().retainAll(structure.collections);
+            }
+
+            if (updatedDuringReload != null)
+            {
+                updatedDuringReload.addAll(collectionIDs);
+                structureChangedDuringReload |= structureChanged;
+            }
+
+            counts = makeCounts(structure, made, current, current.madeAt);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new ItemCountException(e);
+        }
+    }
+
+    /**
+     * Write the changed counts to the database, if the persist interval has
+     * passed since they were last written.
+     */
+    public void persistIfDue()
+    {
+        if (persistInterval > 0
+                && System.currentTimeMillis() - lastPersisted >= persistInterval)
+        {
+            try
+            {
+                persist();
+            }
+            catch (ItemCountException e)
+            {
+                log.warn("Unable to write item counts, will try again later", e);
+            }
+        }
+    }
+
+    /**
+     * Write the changed counts to the database, in a context of their own.
+     *
+     * @throws ItemCountException
+     */
+    public void persist()
+        throws ItemCountException
+    {
+        Map<Integer, Integer> colls = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> comms = new HashMap<Integer, Integer>();
+
+        synchronized (this)
+        {
+            lastPersisted = System.currentTimeMillis();
+            Counts current = counts;
+            if (current == null)
+            {
+                return;
+            }
+            for (Integer id : dirtyCollections)
+            {
+                colls.put(id, current.collections.get(id));
+            }
+            for (Integer id : dirtyCommunities)
+            {
+                comms.put(id, current.communities.get(id));
+            }
+            dirtyCollections = new HashSet<Integer>();
+            dirtyCommunities = new HashSet<Integer>();
+        }
+
+        if (colls.isEmpty() && comms.isEmpty())
+        {
+            return;
+        }
+
+        Context context = null;
+        try
+        {
+            context = new Context();
+            write(context, "collection_item_count", "collection_id", colls);
+            write(context, "community_item_count", "community_id", comms);
+            context.complete();
+            context = null;
+
+            log.debug("Wrote " + colls.size() + " collection and " + comms.size() + " community item counts");
+        }
+        catch (SQLException e)
+        {
+            // have another go next time, unless the container has gone
+            synchronized (this)
+            {
+                Counts current = counts;
+                for (Integer id : colls.keySet())
+                {
+                    if (current.collections.containsKey(id))
+                    {
+                        dirtyCollections.add(id);
+                    }
+                }
+                for (Integer id : comms.keySet())
+                {
+                    if (current.communities.containsKey(id))
+                    {
+                        dirtyCommunities.add(id);
+                    }
+                }
+            }
+            log.error("caught exception: ", e);
+            throw new ItemCountException(e);
+        }
+        finally
+        {
+            if (context != null)
+            {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * Forget the count of a collection or community that is being deleted,
+     * and remove its row from the count tables in the deleting transaction,
+     * so that the row does not stand in the way of the delete.
+     *
+     * @param context
+     *            DSpace context deleting the container
+     * @param dso
+     *            the collection or community
+     * @throws ItemCountException
+     */
+    public void remove(Context context, DSpaceObject dso)
+        throws ItemCountException
+    {
+        Integer id = Integer.valueOf(dso.getID());
+        String table;
+        String column;
+
+        synchronized (this)
+        {
+            Counts current = counts;
+            if (dso.getType() == Constants.COLLECTION)
+            {
+                if (current != null && current.collections.containsKey(id))
+                {
+                    Map<Integer, Integer> colls = new HashMap<Integer, Integer>(current.collections);
+                    colls.remove(id);
+                    counts = new Counts(colls, current.communities, current.madeAt);
+                }
+                dirtyCollections.remove(id);
+                table = "collection_item_count";
+                column = "collection_id";
+            }
+            else if (dso.getType() == Constants.COMMUNITY)
+            {
+                if (current != null && current.communities.containsKey(id))
+                {
+                    Map<Integer, Integer> comms = new HashMap<Integer, Integer>(current.communities);
+                    comms.remove(id);
+                    counts = new Counts(current.collections, comms, current.madeAt);
+                }
+                dirtyCommunities.remove(id);
+                table = "community_item_count";
+                column = "community_id";
+            }
+            else
+            {
+                throw new ItemCountException("We can only delete count of items from Communities or Collections");
+            }
+        }
+
+        try
+        {
+            DatabaseManager.updateQuery(context,
+                    "DELETE FROM " + table + " WHERE " + column + " = ?", id);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new ItemCountException(e);
+        }
+    }
+
+    /**
+     * Get the counts, making them all again if they are a reload interval
+     * old. Only the first time do readers wait for them; after that, one
+     * reader makes them again while the others use the old ones.
+     */
+    private Counts load(Context context)
+        throws ItemCountException
+    {
+        Counts current = counts;
+        if (current == null)
+        {
+            synchronized (firstLoad)
+            {
+                current = counts;
+                if (current == null)
+                {
+                    current = reload(context);
+                }
+            }
+        }
+        else if (System.currentTimeMillis() - current.madeAt >= reloadInterval
+                && reloading.compareAndSet(false, true))
+        {
+            try
+            {
+                current = reload(context);
+            }
+            finally
+            {
+                reloading.set(false);
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Make all the counts, reading the database without holding the lock.
+     * Collections counted again by {@link #update} meanwhile keep those
+     * counts. Only counts that differ from those held are written to the
+     * database afterwards.
+     *
+     * @return the new counts
+     */
+    private Counts reload(Context context)
+        throws ItemCountException
+    {
+        long now = System.currentTimeMillis();
+        synchronized (this)
+        {
+            updatedDuringReload = new HashSet<Integer>();
+            structureChangedDuringReload = false;
+        }
+
+        Structure read;
+        Map<Integer, Integer> made = new HashMap<Integer, Integer>();
+        try
+        {
+            read = readStructure(context);
+
+            TableRowIterator tri = DatabaseManager.query(context,
+                    COUNT_ITEMS + " GROUP BY collection2item.collection_id");
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    made.put(Integer.valueOf(row.getIntColumn("collection_id")),
+                            Integer.valueOf((int) row.getLongColumn("num")));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+        catch (SQLException e)
+        {
+            synchronized (this)
+            {
+                updatedDuringReload = null;
+            }
+            log.error("caught exception: ", e);
+            throw new ItemCountException(e);
+        }
+
+        Counts result;
+        synchronized (this)
+        {
+            Counts current = counts;
+            if (structureChangedDuringReload && structure != null)
+            {
+                // what update() read is newer
+                read = structure;
+            }
+            if (current != null)
+            {
+                for (Integer id : updatedDuringReload)
+                {
+                    Integer count = current.collections.get(id);
+                    if (count != null)
+                    {
+                        made.put(id, count);
+                    }
+                }
+            }
+            updatedDuringReload = null;
+
+            // the grouped count holds only collections with items, and may
+            // hold collections deleted since the structure was read
+            made.keySet().retainAll(read.collections);
+            structure = read;
+            result = makeCounts(read, made, current, now);
+            counts = result;
+        }
+
+        log.info("Counted the items of " + result.collections.size() + " collections and "
+                + result.communities.size() + " communities");
+        return result;
+    }
+
+    /**
+     * Make the counts of every collection and community, and mark those
+     * that differ from the old ones as changed. Guarded by "this".
+     *
+     * @param structure
+     *            which communities hold what
+     * @param made
+     *            the counts of the collections; those missing count 0
+     * @param old
+     *            the counts held until now, or null
+     * @param madeAt
+     *            when the collection counts were made in full
+     */
+    private Counts makeCounts(Structure structure, Map<Integer, Integer> made, Counts old, long madeAt)
+    {
+        Map<Integer, Integer> colls = new HashMap<Integer, Integer>(made);
+        for (Integer id : structure.collections)
+        {
+            if (!colls.containsKey(id))
+            {
+                colls.put(id, Integer.valueOf(0));
+            }
+        }
+
+        Map<Integer, Integer> comms = new HashMap<Integer, Integer>();
+        for (Integer id : structure.communities)
+        {
+            comms.put(id, Integer.valueOf(0));
+        }
+        for (Map.Entry<Integer, Integer> entry : colls.entrySet())
+        {
+            addTo(structure, comms, structure.collectionParents.get(entry.getKey()),
+                    entry.getValue().intValue(), new HashSet<Integer>());
+        }
+
+        markChanged(dirtyCollections, colls, old == null ? null : old.collections);
+        markChanged(dirtyCommunities, comms, old == null ? null : old.communities);
+
+        return new Counts(colls, comms, madeAt);
+    }
+
+    private static void markChanged(Set<Integer> dirty, Map<Integer, Integer> counts, Map<Integer, Integer> old)
+    {
+        dirty.retainAll(counts.keySet());
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet())
+        {
+            if (old == null || !entry.getValue().equals(old.get(entry.getKey())))
+            {
+                dirty.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Read which collections and sub-communities each community holds.
+     */
+    private static Structure readStructure(Context context) throws SQLException
+    {
+        Map<Integer, List<Integer>> colls = new HashMap<Integer, List<Integer>>();
+        Map<Integer, List<Integer>> comms = new HashMap<Integer, List<Integer>>();
+        Set<Integer> all = new HashSet<Integer>();
+
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT community_id, collection_id FROM community2collection");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                all.add(Integer.valueOf(row.getIntColumn("community_id")));
+                addParent(colls, row.getIntColumn("collection_id"), row.getIntColumn("community_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        tri = DatabaseManager.query(context,
+                "SELECT parent_comm_id, child_comm_id FROM community2community");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                all.add(Integer.valueOf(row.getIntColumn("parent_comm_id")));
+                all.add(Integer.valueOf(row.getIntColumn("child_comm_id")));
+                addParent(comms, row.getIntColumn("child_comm_id"), row.getIntColumn("parent_comm_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        tri = DatabaseManager.query(context, "SELECT community_id FROM community");
+        try
+        {
+            while (tri.hasNext())
+            {
+                all.add(Integer.valueOf(tri.next().getIntColumn("community_id")));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        Set<Integer> allCollections = new HashSet<Integer>();
+        tri = DatabaseManager.query(context, "SELECT collection_id FROM collection");
+        try
+        {
+            while (tri.hasNext())
+            {
+                allCollections.add(Integer.valueOf(tri.next().getIntColumn("collection_id")));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        return new Structure(colls, comms, allCollections, all);
+    }
+
+    private static void addParent(Map<Integer, List<Integer>> parents, int child, int parent)
+    {
+        Integer key = Integer.valueOf(child);
+        List<Integer> list = parents.get(key);
+        if (list == null)
+        {
+            list = new ArrayList<Integer>(1);
+            parents.put(key, list);
+        }
+        list.add(Integer.valueOf(parent));
+    }
+
+    /**
+     * Add a collection's count to the communities holding it, and to their
+     * ancestors; a community is reached only once, even by way of two paths.
+     */
+    private static void addTo(Structure structure, Map<Integer, Integer> sums, List<Integer> parents,
+            int count, Set<Integer> seen)
+    {
+        if (parents == null)
+        {
+            return;
+        }
+
+        for (Integer id : parents)
+        {
+            if (seen.add(id))
+            {
+                Integer old = sums.get(id);
+                sums.put(id, Integer.valueOf((old == null ? 0 : old.intValue()) + count));
+                addTo(structure, sums, structure.communityParents.get(id), count, seen);
+            }
+        }
+    }
+
+    private int countCollection(Context context, int collectionID) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                COUNT_ITEMS + " AND collection2item.collection_id = ? GROUP BY collection2item.collection_id",
+                collectionID);
+
+        return row == null ? 0 : (int) row.getLongColumn("num");
+    }
+
+    private static void write(Context context, String table, String column, Map<Integer, Integer> counts)
+        throws SQLException
+    {
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet())
+        {
+            if (entry.getValue() == null)
+            {
+                // the container has gone, see remove()
+                continue;
+            }
+
+            int updated = DatabaseManager.updateQuery(context,
+                    "UPDATE " + table + " SET count = ? WHERE " + column + " = ?",
+                    entry.getValue(), entry.getKey());
+            if (updated == 0)
+            {
+                DatabaseManager.updateQuery(context,
+                        "INSERT INTO " + table + " (" + column + ", count) VALUES (?, ?)",
+                        entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Item counts of every collection and community, never changed once made.
+     */
+    private static class Counts
+    {
+        final Map<Integer, Integer> collections;
+
+        final Map<Integer, Integer> communities;
+
+        /** When the collection counts were last made in full */
+        final long madeAt;
+
+        Counts(Map<Integer, Integer> collections, Map<Integer, Integer> communities, long madeAt)
+        {
+            this.collections = collections;
+            this.communities = communities;
+            this.madeAt = madeAt;
+        }
+    }
+
+    /**
+     * Which collections and sub-communities each community holds.
+     */
+    private static class Structure
+    {
+        /** Communities holding each collection */
+        final Map<Integer, List<Integer>> collectionParents;
+
+        /** Parents of each sub-community */
+        final Map<Integer, List<Integer>> communityParents;
+
+        final Set<Integer> collections;
+
+        final Set<Integer> communities;
+
+        Structure(Map<Integer, List<Integer>> collectionParents, Map<Integer, List<Integer>> communityParents,
+                Set<Integer> collections, Set<Integer> communities)
+        {
+            this.collectionParents = collectionParents;
+            this.communityParents = communityParents;
+            this.collections = collections;
+            this.communities = communities;
+        }
+    }
+}
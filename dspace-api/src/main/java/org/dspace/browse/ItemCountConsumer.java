@@ -0,0 +1,138 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Consumer that keeps the shared {@link ItemCountCache} up to date. The
+ * collections of installed or modified (e.g. withdrawn, reinstated) items,
+ * and the collections items are added to or removed from, are counted again
+ * once the transaction has been committed; changes to the community
+ * hierarchy make the community counts be summed again.
+ *
+ * Recommended filter: Community|Collection|Item+Install|Modify|Add|Remove|Delete
+ *
+ * @version $Revision$
+ */
+public class ItemCountConsumer implements Consumer
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(ItemCountConsumer.class);
+
+    /** Collections whose items changed */
+    private Set<Integer> collections = null;
+
+    /** Items whose state may have changed */
+    private Set<Integer> items = null;
+
+    /** Whether communities or collections were added, moved or deleted */
+    private boolean structureChanged = false;
+
+    public void initialize() throws Exception
+    {
+
+    }
+
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        if (!ItemCountCache.getInstance().isEnabled())
+        {
+            return;
+        }
+
+        if (collections == null)
+        {
+            collections = new HashSet<Integer>();
+            items = new HashSet<Integer>();
+        }
+
+        int st = event.getSubjectType();
+        int et = event.getEventType();
+
+        switch (st)
+        {
+            case Constants.ITEM:
+                // a deleted item has been removed from its collections already
+                if (et == Event.INSTALL || et == Event.MODIFY)
+                {
+                    items.add(Integer.valueOf(event.getSubjectID()));
+                }
+                break;
+
+            case Constants.COLLECTION:
+                if ((et == Event.ADD || et == Event.REMOVE)
+                        && event.getObjectType() == Constants.ITEM)
+                {
+                    collections.add(Integer.valueOf(event.getSubjectID()));
+                }
+                else if (et == Event.DELETE)
+                {
+                    structureChanged = true;
+                }
+                break;
+
+            case Constants.COMMUNITY:
+                if (et == Event.ADD || et == Event.REMOVE || et == Event.DELETE)
+                {
+                    structureChanged = true;
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+        if (collections == null)
+        {
+            return;
+        }
+
+        try
+        {
+            for (Integer id : items)
+            {
+                collections.addAll(ItemCountCache.getCollectionIDs(ctx, id.intValue()));
+            }
+
+            if (!collections.isEmpty() || structureChanged)
+            {
+                ItemCountCache cache = ItemCountCache.getInstance();
+                cache.update(ctx, collections, structureChanged);
+                cache.persistIfDue();
+
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Counted the items of " + collections.size() + " collections again"
+                            + (structureChanged ? ", and summed the communities" : ""));
+                }
+            }
+        }
+        finally
+        {
+            collections = null;
+            items = null;
+            structureChanged = false;
+        }
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+
+    }
+}
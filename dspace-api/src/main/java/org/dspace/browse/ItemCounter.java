@@ -28,6 +28,10 @@ import java.sql.SQLException;
  * the data cache is not being used, this class will return direct
  * real time counts of content.
  * 
+ * If webui.strengths.live is set, counts are instead served from the
+ * {@link ItemCountCache}, which the itemcount event consumer keeps current,
+ * and the command line run is no longer needed.
+ * 
  * @author Richard Jones
  *
  */
@@ -99,7 +103,9 @@ public class ItemCounter
 	
 	/**
 	 * Get the count of the items in the given container.  If the configuration
-	 * value webui.strengths.cache is equal to 'true' this will return the
+	 * value webui.strengths.live is equal to 'true' this will return the
+	 * count held in memory by the ItemCountCache.  Otherwise, if
+	 * webui.strengths.cache is equal to 'true' this will return the
 	 * cached value if it exists.  If it is equal to 'false' it will count
 	 * the number of items in the container in real time.
 	 * 
@@ -110,6 +116,12 @@ public class ItemCounter
 	public int getCount(DSpaceObject dso)
 		throws ItemCountException
 	{
+		ItemCountCache live = ItemCountCache.getInstance();
+		if (live.isEnabled())
+		{
+			return live.getCount(context, dso);
+		}
+		
 		boolean useCache = ConfigurationManager.getBooleanProperty(
 				"webui.strengths.cache", true);
 		
@@ -152,6 +164,12 @@ public class ItemCounter
 		throws ItemCountException
 	{
 		dao.remove(dso);
+		
+		ItemCountCache live = ItemCountCache.getInstance();
+		if (live.isEnabled())
+		{
+			live.remove(context, dso);
+		}
 	}
 	
 	/**
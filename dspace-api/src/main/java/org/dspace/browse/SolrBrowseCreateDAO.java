@@ -377,6 +377,17 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
     	dbCreateDAO.deleteCommunityMappings(itemID);
     }
 
+    @Override
+    public void insertIndexes(String table,
+            Map<Integer, Map<Integer, String>> sortCols) throws BrowseException
+    {
+        // see insertIndex
+        for (Integer itemID : sortCols.keySet())
+        {
+            dbCreateDAO.deleteCommunityMappings(itemID.intValue());
+        }
+    }
+
     @Override
     public boolean updateIndex(String table, int itemID, Map sortCols)
             throws BrowseException
@@ -502,12 +513,25 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
         };
     }
 
+    @Override
+    public void insertDistinctMappings(String table,
+            Map<Integer, Set<Integer>> distinctIDs) throws BrowseException
+    {
+    }
+
     @Override
     public boolean testTableExistence(String table) throws BrowseException
     {
         return dbCreateDAO.testTableExistence(table);
     }
 
+    @Override
+    public String[] renameTable(String table, String newName, boolean execute)
+            throws BrowseException
+    {
+        return new String[] { INFO_NOSQL_TO_RUN };
+    }
+
     @Override
     public List<Integer> deleteMappingsByItemID(String mapTable, int itemID)
             throws BrowseException
@@ -515,6 +539,13 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
         return new ArrayList<Integer>();
     }
 
+    @Override
+    public List<Integer> findDeletedItemIDs(String table)
+            throws BrowseException
+    {
+        return new ArrayList<Integer>();
+    }
+
     @Override
     public void pruneExcess(String table, boolean withdrawn)
             throws BrowseException
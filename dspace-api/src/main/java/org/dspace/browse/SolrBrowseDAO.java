@@ -178,6 +178,7 @@ public class SolrBrowseDAO implements BrowseDAO
                 // filter on item to be sure to don't include any other object
                 // indexed in the Discovery Search core
                 query.addFilterQueries("search.resourcetype:" + Constants.ITEM);
+                query.setIndexOnly(isIndexOnly());
                 if (orderField != null)
                 {
                     query.setSortField("bi_" + orderField + "_sort",
@@ -197,6 +198,16 @@ public class SolrBrowseDAO implements BrowseDAO
         return sResponse;
     }
 
+    /**
+     * Should the browse items be built from the metadata stored in the index
+     * (discovery.index.projection) rather than loaded from the database?
+     */
+    private boolean isIndexOnly()
+    {
+        return dspace.getConfigurationService().getPropertyAsType(
+                "discovery.results.index-only", false);
+    }
+
     private void addStatusFilter(DiscoverQuery query)
     {
         if (itemsWithdrawn)
@@ -288,10 +299,12 @@ public class SolrBrowseDAO implements BrowseDAO
         DiscoverResult resp = getSolrResponse();
 
         List<BrowseItem> bitems = new ArrayList<BrowseItem>();
+        for (DiscoverResult.IndexedObject indexedObject : resp.getIndexedObjects())
+        {
+            bitems.add(new BrowseItem(context, indexedObject));
+        }
         for (DSpaceObject solrDoc : resp.getDspaceObjects())
         {
-            // FIXME introduce project, don't retrieve Item immediately when
-            // processing the query...
             Item item = (Item) solrDoc;
             BrowseItem bitem = new BrowseItem(context, item.getID(),
                     item.isArchived(), item.isWithdrawn(), item.isDiscoverable());
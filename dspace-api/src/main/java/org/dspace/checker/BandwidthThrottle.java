@@ -0,0 +1,123 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * <p>
+ * Limits the rate at which the checksum checker reads from the asset stores,
+ * so that a long checking run does not starve the repository of I/O. The
+ * limit is shared by all the threads reading through the same throttle.
+ * </p>
+ *
+ * <p>
+ * Reads are paced rather than cut off: each read reserves the time its bytes
+ * take at the configured rate, and waits until the reads before it have had
+ * theirs.
+ * </p>
+ */
+public class BandwidthThrottle
+{
+    /** Maximum bytes per second, 0 for no limit */
+    private final long bytesPerSecond;
+
+    /** Time (System.nanoTime) at which the next bytes may be read */
+    private long nextFree = 0L;
+
+    /**
+     * Creates a throttle.
+     *
+     * @param bytesPerSecond
+     *            the maximum rate, 0 or less for no limit
+     */
+    public BandwidthThrottle(long bytesPerSecond)
+    {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Waits until the given number of bytes may be read.
+     *
+     * @param bytes
+     *            number of bytes about to be read, or just read
+     * @throws InterruptedIOException
+     *             if the thread is interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException
+    {
+        if (bytesPerSecond <= 0 || bytes <= 0)
+        {
+            return;
+        }
+
+        long wait;
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+            if (nextFree - now < 0)
+            {
+                // Idle time is not saved up for later bursts
+                nextFree = now;
+            }
+            wait = nextFree - now;
+            nextFree += bytes * 1000000000L / bytesPerSecond;
+        }
+
+        if (wait > 0)
+        {
+            try
+            {
+                Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling");
+            }
+        }
+    }
+
+    /**
+     * Wraps a stream so that reading from it is throttled.
+     *
+     * @param in
+     *            the stream
+     * @return the throttled stream
+     */
+    public InputStream wrap(InputStream in)
+    {
+        if (bytesPerSecond <= 0)
+        {
+            return in;
+        }
+
+        return new FilterInputStream(in)
+        {
+            public int read() throws IOException
+            {
+                int b = super.read();
+                if (b != -1)
+                {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                int count = super.read(b, off, len);
+                acquire(count);
+                return count;
+            }
+        };
+    }
+}
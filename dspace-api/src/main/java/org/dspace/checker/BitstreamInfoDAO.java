@@ -137,6 +137,15 @@ public final class BitstreamInfoDAO extends DAOSupport
         + "order by trunc(last_process_end_date, 'mi'), "
         + "bitstream_id " + "ASC) WHERE rownum=1";
     
+    /**
+     * Selects a page of bitstreams in order of last processing end date,
+     * following on from a given bitstream of that order. The clauses that
+     * complete it are added by {@link #getOldestBitstreams}.
+     */
+    private static final String GET_OLDEST_BITSTREAMS = "select bitstream_id, last_process_end_date "
+            + "from most_recent_checksum "
+            + "where to_be_processed = ";
+
     /** SQL query to retrieve bitstreams for a given item. */
     private static final String ITEM_BITSTREAMS = "SELECT b2b.bitstream_id "
             + "FROM bundle2bitstream b2b, item2bundle i2b WHERE "
@@ -191,18 +200,7 @@ public final class BitstreamInfoDAO extends DAOSupport
         {
             conn = DatabaseManager.getConnection();
             stmt = conn.prepareStatement(UPDATE_CHECKSUM);
-            stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
-                    .getCalculatedChecksum() : "");
-            stmt.setString(2, info.getStoredChecksum());
-            stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
-                    .getChecksumCheckResult()));
-            stmt.setBoolean(4, info.getToBeProcessed());
-            stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
-                    .getTime()));
-            stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
-                    .getTime()));
-            stmt.setString(7, info.getChecksumCheckResult());
-            stmt.setInt(8, info.getBitstreamId());
+            setUpdateParameters(stmt, info);
             stmt.executeUpdate();
             conn.commit();
         }
@@ -217,6 +215,65 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Updates most_recent_checksum with the latest checksums and results of
+     * several bitstreams, and adds them to checksum_history, in a single
+     * transaction.
+     * 
+     * @param infos
+     *            The BitstreamInfos to record.
+     */
+    public void updateWithHistory(List<BitstreamInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            stmt = conn.prepareStatement(UPDATE_CHECKSUM);
+            for (BitstreamInfo info : infos)
+            {
+                setUpdateParameters(stmt, info);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+
+            checksumHistoryDAO.insertHistory(infos, conn);
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem updating checksum rows. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem updating checksum rows. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, BitstreamInfo info) throws SQLException
+    {
+        stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
+                .getCalculatedChecksum() : "");
+        stmt.setString(2, info.getStoredChecksum());
+        stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
+                .getChecksumCheckResult()));
+        stmt.setBoolean(4, info.getToBeProcessed());
+        stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
+                .getTime()));
+        stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
+                .getTime()));
+        stmt.setString(7, info.getChecksumCheckResult());
+        stmt.setInt(8, info.getBitstreamId());
+    }
+
     /**
      * Find a bitstream by its id.
      * 
@@ -478,6 +535,96 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Get a page of the bitstreams in the most recent checksum table, oldest
+     * first, that come after a given bitstream in that order. Paging through
+     * them this way never returns a bitstream twice, even while the results
+     * of the bitstreams already returned are still being checked.
+     * 
+     * @param lessThanDate
+     *            only return bitstreams last processed before this date, or
+     *            null for all of them
+     * @param afterDate
+     *            last process end date of the bitstream to follow on from, or
+     *            null to start with the oldest one
+     * @param afterId
+     *            id of the bitstream to follow on from
+     * @param limit
+     *            maximum number of bitstreams to return
+     * @return the bitstreams, with their id and last process end date
+     */
+    public List<BitstreamInfo> getOldestBitstreams(Timestamp lessThanDate,
+            Timestamp afterDate, int afterId, int limit)
+    {
+        List<BitstreamInfo> infos = new ArrayList<BitstreamInfo>();
+        boolean oracle = "oracle".equals(ConfigurationManager.getProperty("db.name"));
+
+        StringBuilder query = new StringBuilder(GET_OLDEST_BITSTREAMS);
+        query.append(oracle ? "1 " : "true ");
+        if (lessThanDate != null)
+        {
+            query.append("and last_process_start_date < ? ");
+        }
+        if (afterDate != null)
+        {
+            query.append("and (last_process_end_date > ? "
+                    + "or (last_process_end_date = ? and bitstream_id > ?)) ");
+        }
+        query.append("order by last_process_end_date, bitstream_id");
+
+        String sql;
+        if (oracle)
+        {
+            sql = "SELECT * FROM (" + query + ") WHERE rownum <= ?";
+        }
+        else
+        {
+            sql = query + " LIMIT ?";
+        }
+
+        Connection conn = null;
+        PreparedStatement prepStmt = null;
+        ResultSet rs = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            prepStmt = conn.prepareStatement(sql);
+
+            int index = 1;
+            if (lessThanDate != null)
+            {
+                prepStmt.setTimestamp(index++, lessThanDate);
+            }
+            if (afterDate != null)
+            {
+                prepStmt.setTimestamp(index++, afterDate);
+                prepStmt.setTimestamp(index++, afterDate);
+                prepStmt.setInt(index++, afterId);
+            }
+            prepStmt.setInt(index, limit);
+
+            rs = prepStmt.executeQuery();
+            while (rs.next())
+            {
+                BitstreamInfo info = new BitstreamInfo(rs.getInt(1));
+                info.setProcessEndDate(rs.getTimestamp(2));
+                infos.add(info);
+            }
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem with get oldest bitstreams " + e.getMessage(), e);
+            throw new IllegalStateException("Oldest bitstreams error. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(prepStmt, conn, rs);
+        }
+
+        return infos;
+    }
+
     /**
      * Get the bitstream ids for a given Item
      * 
@@ -9,14 +9,23 @@ package org.dspace.checker;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
-import org.dspace.core.Utils;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.storage.bitstore.MultiDigest;
 
 /**
  * <p>
@@ -25,6 +34,14 @@ import org.dspace.core.Utils;
  * against the last calculated checksum for that bitstream.
  * </p>
  * 
+ * <p>
+ * Bitstreams are checked by <code>checker.workers</code> threads at once,
+ * at most <code>checker.workers.store.N</code> of them reading from asset
+ * store N, and all of them together reading no more than
+ * <code>checker.throttle.bytes-per-second</code>. Results are written to the
+ * database <code>checker.batch.size</code> at a time.
+ * </p>
+ * 
  * @author Jim Downing
  * @author Grace Carpenter
  * @author Nathan Sarr
@@ -41,19 +58,38 @@ public final class CheckerCommand
     /** Default digest algorithm (MD5). */
     private static final String DEFAULT_DIGEST_ALGORITHM = "MD5";
 
-    /** 4 Meg byte array for reading file. */
-    private int BYTE_ARRAY_SIZE = 4 * 1024;
-
     /** BitstreamInfoDAO dependency. */
     private BitstreamInfoDAO bitstreamInfoDAO = null;
 
     /** BitstreamDAO dependency. */
     private BitstreamDAO bitstreamDAO = null;
 
-    /**
-     * Checksum history Data access object
-     */
-    private ChecksumHistoryDAO checksumHistoryDAO = null;
+    /** Number of bitstreams checked at once, set by checker.workers. */
+    private int workers = 1;
+
+    /** Number of results written to the database at once. */
+    private int batchSize = 1;
+
+    /** Limit on the rate at which bitstreams are read. */
+    private BandwidthThrottle throttle = null;
+
+    /** Limits on the number of bitstreams read at once, by asset store. */
+    private final Map<Integer, Semaphore> storeLimits = new HashMap<Integer, Semaphore>();
+
+    /** Results waiting to be written to the database. */
+    private final List<BitstreamInfo> results = new ArrayList<BitstreamInfo>();
+
+    /** Number of bitstreams processed by this run. */
+    private final AtomicInteger bitstreamCount = new AtomicInteger();
+
+    /** Number of bytes read by this run. */
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /** Duration of this run, in milliseconds. */
+    private long processTime = 0L;
+
+    /** First error that stopped this run. */
+    private volatile RuntimeException failure = null;
 
     /** start time for current process. */
     private Date processStartDate = null;
@@ -78,7 +114,11 @@ public final class CheckerCommand
     {
         bitstreamInfoDAO = new BitstreamInfoDAO();
         bitstreamDAO = new BitstreamDAO();
-        checksumHistoryDAO = new ChecksumHistoryDAO();
+
+        workers = Math.max(ConfigurationManager.getIntProperty("checker.workers", 1), 1);
+        batchSize = Math.max(ConfigurationManager.getIntProperty("checker.batch.size", 100), 1);
+        throttle = new BandwidthThrottle(
+                ConfigurationManager.getLongProperty("checker.throttle.bytes-per-second", 0));
     }
 
     /**
@@ -111,20 +151,95 @@ public final class CheckerCommand
         // bitstream table - this always done.
         bitstreamInfoDAO.updateMissingBitstreams();
 
-        int id = dispatcher.next();
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
 
-        while (id != BitstreamDispatcher.SENTINEL)
+        // Keep a few bitstreams queued for each worker, no more: the
+        // dispatcher decides when to stop
+        final Semaphore queued = new Semaphore(workers * 2);
+
+        try
         {
-            LOG.debug("Processing bitstream id = " + id);
-            BitstreamInfo info = checkBitstream(id);
+            int id = dispatcher.next();
 
-            if (reportVerbose
-                    || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+            while (id != BitstreamDispatcher.SENTINEL && failure == null)
             {
-                collector.collect(info);
+                final int bitstreamId = id;
+                queued.acquireUninterruptibly();
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            LOG.debug("Processing bitstream id = " + bitstreamId);
+                            BitstreamInfo info = checkBitstream(bitstreamId);
+
+                            if (reportVerbose
+                                    || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+                            {
+                                synchronized (collector)
+                                {
+                                    collector.collect(info);
+                                }
+                            }
+                        }
+                        catch (RuntimeException e)
+                        {
+                            LOG.error("Checking bitstream ID " + bitstreamId + " failed", e);
+                            failure = e;
+                        }
+                        finally
+                        {
+                            queued.release();
+                        }
+                    }
+                });
+
+                if (failure == null)
+                {
+                    id = dispatcher.next();
+                }
             }
+        }
+        finally
+        {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+
+        // record the results still waiting for a batch
+        flushResults();
+        processTime = System.currentTimeMillis() - start;
+
+        LOG.info("Checked " + bitstreamCount.get() + " bitstreams, "
+                + byteCount.get() + " bytes in " + processTime + " ms ("
+                + getThroughput() + " bytes/s) with " + workers + " workers");
 
-            id = dispatcher.next();
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    private void awaitTermination(ExecutorService executor)
+    {
+        boolean interrupted = false;
+        while (!executor.isTerminated())
+        {
+            try
+            {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -174,13 +289,13 @@ public final class CheckerCommand
     }
 
     /**
-     * Digest the stream and get the checksum value.
+     * Digest the stream and get the checksum value. Reading the stream counts
+     * towards the bandwidth limit of the checker.
      * 
      * @param stream
      *            InputStream to digest.
      * @param algorithm
      *            the algorithm to use when digesting.
-     * @todo Document the algorithm parameter
      * @return digest
      * 
      * @throws java.security.NoSuchAlgorithmException
@@ -192,19 +307,18 @@ public final class CheckerCommand
     private String digestStream(InputStream stream, String algorithm)
             throws java.security.NoSuchAlgorithmException, java.io.IOException
     {
-        // create the digest stream
-        DigestInputStream dStream = new DigestInputStream(stream, MessageDigest
-                .getInstance(algorithm));
+        MultiDigest digest = new MultiDigest(algorithm);
 
-        byte[] bytes = new byte[BYTE_ARRAY_SIZE];
-
-        // make sure all the data is read by the digester
-        int bytesRead = -1;
-        do {
-            bytesRead = dStream.read(bytes, 0, BYTE_ARRAY_SIZE);
-        } while (bytesRead != -1);
+        try
+        {
+            byteCount.addAndGet(digest.copy(throttle.wrap(stream), null));
+        }
+        finally
+        {
+            stream.close();
+        }
 
-        return Utils.toHex(dStream.getMessageDigest().digest());
+        return digest.getDigest(algorithm);
     }
 
     /**
@@ -250,8 +364,7 @@ public final class CheckerCommand
         info.setProcessStartDate(new Date());
         info.setProcessEndDate(new Date());
         info.setToBeProcessed(false);
-        bitstreamInfoDAO.update(info);
-        checksumHistoryDAO.insertHistory(info);
+        recordResult(info);
     }
 
     /**
@@ -297,6 +410,9 @@ public final class CheckerCommand
             info.setChecksumAlgorithm(DEFAULT_DIGEST_ALGORITHM);
         }
 
+        Semaphore storeLimit = getStoreLimit(info.getStoreNumber());
+        storeLimit.acquireUninterruptibly();
+
         try
         {
             InputStream bitstream = bitstreamDAO.getBitstream(info
@@ -342,14 +458,82 @@ public final class CheckerCommand
         }
         finally
         {
+            storeLimit.release();
             info.setProcessEndDate(new Date());
 
             // record new checksum and comparison result in db
-            bitstreamInfoDAO.update(info);
-            checksumHistoryDAO.insertHistory(info);
+            recordResult(info);
         }
     }
 
+    /**
+     * Get the semaphore limiting the number of bitstreams read from an asset
+     * store at once, set by <code>checker.workers.store.N</code>.
+     * 
+     * @param storeNumber
+     *            the asset store number
+     * @return the semaphore
+     */
+    private Semaphore getStoreLimit(int storeNumber)
+    {
+        synchronized (storeLimits)
+        {
+            Semaphore limit = storeLimits.get(Integer.valueOf(storeNumber));
+            if (limit == null)
+            {
+                int permits = ConfigurationManager.getIntProperty("checker.workers.store."
+                        + storeNumber, workers);
+                limit = new Semaphore(Math.max(permits, 1));
+                storeLimits.put(Integer.valueOf(storeNumber), limit);
+            }
+            return limit;
+        }
+    }
+
+    /**
+     * Record the result of checking a bitstream in most_recent_checksum and
+     * checksum_history. Results are written in batches of
+     * <code>checker.batch.size</code>.
+     * 
+     * @param info
+     *            the checked bitstream
+     */
+    private void recordResult(BitstreamInfo info)
+    {
+        bitstreamCount.incrementAndGet();
+
+        List<BitstreamInfo> batch = null;
+        synchronized (results)
+        {
+            results.add(info);
+            if (results.size() >= batchSize)
+            {
+                batch = new ArrayList<BitstreamInfo>(results);
+                results.clear();
+            }
+        }
+
+        if (batch != null)
+        {
+            bitstreamInfoDAO.updateWithHistory(batch);
+        }
+    }
+
+    /**
+     * Write the results not yet recorded.
+     */
+    private void flushResults()
+    {
+        List<BitstreamInfo> batch;
+        synchronized (results)
+        {
+            batch = new ArrayList<BitstreamInfo>(results);
+            results.clear();
+        }
+
+        bitstreamInfoDAO.updateWithHistory(batch);
+    }
+
     /**
      * Get dispatcher being used by this run of the checker.
      * 
@@ -433,4 +617,44 @@ public final class CheckerCommand
     {
         this.reportVerbose = reportVerbose;
     }
+
+    /**
+     * Get the number of bitstreams processed by the last run.
+     * 
+     * @return the number of bitstreams
+     */
+    public int getBitstreamCount()
+    {
+        return bitstreamCount.get();
+    }
+
+    /**
+     * Get the number of bytes read by the last run.
+     * 
+     * @return the number of bytes
+     */
+    public long getByteCount()
+    {
+        return byteCount.get();
+    }
+
+    /**
+     * Get the duration of the last run.
+     * 
+     * @return the duration in milliseconds
+     */
+    public long getProcessTime()
+    {
+        return processTime;
+    }
+
+    /**
+     * Get the rate at which the last run read bitstreams.
+     * 
+     * @return the rate in bytes per second
+     */
+    public long getThroughput()
+    {
+        return (processTime > 0) ? byteCount.get() * 1000L / processTime : 0L;
+    }
 }
@@ -12,6 +12,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -139,6 +140,48 @@ public class ChecksumHistoryDAO extends DAOSupport
         }
     }
 
+    /**
+     * Adds the results of several bitstreams to the history, as part of the
+     * caller's transaction.
+     * 
+     * @param infos
+     *            the checked bitstreams
+     * @param conn
+     *            the connection to use; not committed
+     */
+    protected void insertHistory(List<BitstreamInfo> infos, Connection conn) throws SQLException
+    {
+        PreparedStatement stmt = null;
+
+        try
+        {
+            if ("oracle".equals(ConfigurationManager.getProperty("db.name")))
+            {
+                stmt = conn.prepareStatement(INSERT_HISTORY_ORACLE);
+            }
+            else
+            {
+                stmt = conn.prepareStatement(INSERT_HISTORY);
+            }
+
+            for (BitstreamInfo info : infos)
+            {
+                stmt.setInt(1, info.getBitstreamId());
+                stmt.setTimestamp(2, new java.sql.Timestamp(info.getProcessStartDate().getTime()));
+                stmt.setTimestamp(3, new java.sql.Timestamp(info.getProcessEndDate().getTime()));
+                stmt.setString(4, info.getStoredChecksum());
+                stmt.setString(5, info.getCalculatedChecksum());
+                stmt.setString(6, info.getChecksumCheckResult());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        finally
+        {
+            cleanup(stmt);
+        }
+    }
+
     /**
      * Deletes the bitstream from the bitstream_history table if it exist.
      * 
@@ -7,11 +7,11 @@
  */
 package org.dspace.checker;
 
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.apache.log4j.Logger;
 import org.dspace.core.I18nUtil;
+import org.dspace.core.ThreadSafeDateFormat;
 
 /**
  * <p>
@@ -35,7 +35,7 @@ public class ResultsLogger implements ChecksumResultsCollector
     /**
      * Utility date format.
      */
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat(
+    private static final ThreadSafeDateFormat DATE_FORMAT = new ThreadSafeDateFormat(
             "MM/dd/yyyy hh:mm:ss");
 
     /**
@@ -116,4 +116,20 @@ public class ResultsLogger implements ChecksumResultsCollector
                 + resultDAO.getChecksumCheckStr(info.getChecksumCheckResult()));
         LOG.info("\n\n");
     }
+
+    /**
+     * Log how much a checker run did, and how fast.
+     * 
+     * @param checker
+     *            the checker, once it has run
+     */
+    public void summarize(CheckerCommand checker)
+    {
+        LOG.info("******************************************************");
+        LOG.info(msg("run-bitstreams") + ": " + checker.getBitstreamCount());
+        LOG.info(msg("run-bytes") + ": " + checker.getByteCount());
+        LOG.info(msg("run-duration") + ": " + (checker.getProcessTime() / 1000L));
+        LOG.info(msg("run-throughput") + ": " + checker.getThroughput());
+        LOG.info("\n\n");
+    }
 }
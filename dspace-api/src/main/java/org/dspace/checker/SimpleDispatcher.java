@@ -7,7 +7,11 @@
  */
 package org.dspace.checker;
 
+import java.sql.Timestamp;
 import java.util.Date;
+import java.util.LinkedList;
+
+import org.dspace.core.ConfigurationManager;
 
 /**
  * An implementation of the selection strategy that selects bitstreams in the
@@ -36,6 +40,18 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     private BitstreamInfoDAO bitstreamInfoDAO;
 
+    /** Number of bitstreams fetched from the database at a time */
+    private static final int PAGE_SIZE = Math.max(ConfigurationManager.getIntProperty("checker.batch.size", 100), 1);
+
+    /** Bitstreams fetched but not dispatched yet */
+    private LinkedList<BitstreamInfo> page = new LinkedList<BitstreamInfo>();
+
+    /** Last process end date of the last bitstream dispatched */
+    private Timestamp lastDate = null;
+
+    /** Id of the last bitstream dispatched */
+    private int lastId = SENTINEL;
+
     /**
      * Creates a new SimpleDispatcher.
      * 
@@ -60,23 +76,48 @@ public class SimpleDispatcher implements BitstreamDispatcher
     }
 
     /**
-     * Selects the next candidate bitstream.
+     * Selects the next candidate bitstream, fetching them from the database a
+     * page at a time. The position in the order is kept here rather than taken
+     * from the database, so that bitstreams whose results are still being
+     * checked (see {@link CheckerCommand}) are not dispatched again.
      * 
      * @see org.dspace.checker.BitstreamDispatcher#next()
      */
     public synchronized int next()
     {
-        // should process loop infinitely through the
-        // bitstreams in most_recent_checksum table?
-        if (!loopContinuously && (processStartTime != null))
+        if (page.isEmpty())
         {
-            return bitstreamInfoDAO.getOldestBitstream(new java.sql.Timestamp(
-                    processStartTime.getTime()));
+            fetchPage();
+
+            // should process loop infinitely through the
+            // bitstreams in most_recent_checksum table?
+            if (page.isEmpty() && loopContinuously && lastDate != null)
+            {
+                lastDate = null;
+                fetchPage();
+            }
+
+            if (page.isEmpty())
+            {
+                return SENTINEL;
+            }
         }
-        else
+
+        BitstreamInfo info = page.removeFirst();
+        lastDate = new Timestamp(info.getProcessEndDate().getTime());
+        lastId = info.getBitstreamId();
+
+        return lastId;
+    }
+
+    private void fetchPage()
+    {
+        Timestamp lessThanDate = null;
+        if (!loopContinuously && (processStartTime != null))
         {
-            return bitstreamInfoDAO.getOldestBitstream();
+            lessThanDate = new Timestamp(processStartTime.getTime());
         }
 
+        page.addAll(bitstreamInfoDAO.getOldestBitstreams(lessThanDate, lastDate, lastId, PAGE_SIZE));
     }
 }
@@ -9,6 +9,7 @@ package org.dspace.content;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -383,6 +384,37 @@ public class Bitstream extends DSpaceObject
         return bRow.getStringColumn("checksum_algorithm");
     }
 
+    /**
+     * Get the stronger checksum of the content of the bitstream, worked out
+     * along with the MD5 one when the bitstream was stored
+     * 
+     * @return the checksum, or null if there is none
+     */
+    public String getStrongChecksum()
+    {
+        if (!bRow.hasColumn("strong_checksum") || bRow.isColumnNull("strong_checksum"))
+        {
+            return null;
+        }
+
+        return bRow.getStringColumn("strong_checksum");
+    }
+
+    /**
+     * Get the algorithm used to calculate the stronger checksum
+     * 
+     * @return the algorithm, e.g. "SHA-256", or null if there is none
+     */
+    public String getStrongChecksumAlgorithm()
+    {
+        if (!bRow.hasColumn("strong_checksum_algorithm") || bRow.isColumnNull("strong_checksum_algorithm"))
+        {
+            return null;
+        }
+
+        return bRow.getStringColumn("strong_checksum_algorithm");
+    }
+
     /**
      * Get the size of the bitstream
      * 
@@ -604,6 +636,26 @@ public class Bitstream extends DSpaceObject
                 .getIntColumn("bitstream_id"));
     }
 
+    /**
+     * Open a channel on the bits of this bitstream, if it is held in a local
+     * asset store. Unlike {@link #retrieve()}, a channel can be read from any
+     * position without reading the bits that come before it.
+     * 
+     * @return a channel on the bits, or null if the bitstream is held in a
+     *         store that cannot provide one
+     * @throws IOException
+     * @throws SQLException
+     * @throws AuthorizeException
+     */
+    public FileChannel retrieveChannel() throws IOException, SQLException,
+            AuthorizeException
+    {
+        AuthorizeManager.authorizeAction(bContext, this, Constants.READ);
+
+        return BitstreamStorageManager.retrieveChannel(bContext, bRow
+                .getIntColumn("bitstream_id"));
+    }
+
     /**
      * Get the bundles this bitstream appears in
      * 
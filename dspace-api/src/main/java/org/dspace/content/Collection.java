@@ -430,6 +430,44 @@ public class Collection extends DSpaceObject
         return new ItemIterator(ourContext, rows);
     }
 
+    /**
+     * Get the in_archive items in this collection following a given item, in
+     * ascending order of item ID. Unlike {@link #getItems(Integer, Integer)}
+     * the cost of fetching a page does not grow with its position in the
+     * collection, so this is the preferred way of walking a large collection:
+     * pass the ID of the last item of one page as <code>afterItemID</code> to
+     * get the next.
+     *
+     * @param afterItemID only items with a greater ID are returned, use -1
+     *                    to start at the beginning of the collection
+     * @param limit Max number of results in set
+     * @return an iterator over the items in the collection.
+     * @throws SQLException
+     */
+    public ItemIterator getItemsAfter(int afterItemID, int limit) throws SQLException
+    {
+        String myQuery = "SELECT item.* FROM item, collection2item WHERE "
+                + "item.item_id=collection2item.item_id AND "
+                + "collection2item.collection_id= ? "
+                + "AND item.in_archive='1' AND item.item_id > ? "
+                + "ORDER BY item.item_id";
+
+        TableRowIterator rows;
+        if (DatabaseManager.isOracle())
+        {
+            rows = DatabaseManager.queryTable(ourContext, "item",
+                    "SELECT * FROM (" + myQuery + ") WHERE ROWNUM <= ?",
+                    getID(), afterItemID, limit);
+        }
+        else
+        {
+            rows = DatabaseManager.queryTable(ourContext, "item",
+                    myQuery + " LIMIT ?", getID(), afterItemID, limit);
+        }
+
+        return new ItemIterator(ourContext, rows);
+    }
+
     /**
      * Get all the items in this collection. The order is indeterminate.
      *
@@ -8,11 +8,10 @@
 package org.dspace.content;
 
 import java.text.DateFormatSymbols;
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
 import java.util.*;
 
 import org.apache.log4j.Logger;
+import org.dspace.core.ThreadSafeDateFormat;
 
 // FIXME: Not very robust - assumes dates will always be valid
 
@@ -53,25 +52,25 @@ public class DCDate
     DateGran granularity = null;
 
     // Full ISO 8601 is e.g. "2009-07-16T13:59:21Z"
-    private final SimpleDateFormat fullIso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private static final ThreadSafeDateFormat fullIso = new ThreadSafeDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", utcZone);
 
     // without Z
-    private final SimpleDateFormat fullIso2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    private static final ThreadSafeDateFormat fullIso2 = new ThreadSafeDateFormat("yyyy-MM-dd'T'HH:mm:ss", utcZone);
 
     // without seconds
-    private final SimpleDateFormat fullIso3 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm");
+    private static final ThreadSafeDateFormat fullIso3 = new ThreadSafeDateFormat("yyyy-MM-dd'T'HH:mm", utcZone);
 
     // without minutes
-    private final SimpleDateFormat fullIso4 = new SimpleDateFormat("yyyy-MM-dd'T'HH");
+    private static final ThreadSafeDateFormat fullIso4 = new ThreadSafeDateFormat("yyyy-MM-dd'T'HH", utcZone);
 
     // Date-only ISO 8601 is e.g. "2009-07-16"
-    private final SimpleDateFormat dateIso = new SimpleDateFormat("yyyy-MM-dd");
+    private static final ThreadSafeDateFormat dateIso = new ThreadSafeDateFormat("yyyy-MM-dd", utcZone);
 
     // Year-Month-only ISO 8601 is e.g. "2009-07"
-    private final SimpleDateFormat yearMonthIso = new SimpleDateFormat("yyyy-MM");
+    private static final ThreadSafeDateFormat yearMonthIso = new ThreadSafeDateFormat("yyyy-MM", utcZone);
 
     // just year, "2009"
-    private final SimpleDateFormat yearIso = new SimpleDateFormat("yyyy");
+    private static final ThreadSafeDateFormat yearIso = new ThreadSafeDateFormat("yyyy", utcZone);
     
     private static Map<Locale, DateFormatSymbols> dfsLocaleMap = new HashMap<Locale, DateFormatSymbols>();
 
@@ -83,8 +82,6 @@ public class DCDate
      */
     public DCDate(Date date)
     {
-        setUTCForFormatting();
-
         if (date == null)
         {
             return;
@@ -121,8 +118,6 @@ public class DCDate
      */
     public DCDate(int yyyy, int mm, int dd, int hh, int mn, int ss)
     {
-        setUTCForFormatting();
-
         // default values
         int lyear = 0;
         int lhours = 0;
@@ -187,8 +182,6 @@ public class DCDate
      */
     public DCDate(String fromDC)
     {
-        setUTCForFormatting();
-
         // An empty date is OK
         if ((fromDC == null) || fromDC.equals(""))
         {
@@ -260,32 +253,10 @@ public class DCDate
         }
     }
 
-    /**
-     * Set all the formatters to use UTC. SimpleDateFormat is not thread-safe which
-     * is why they are not static variables initialised once.
-     */
-    private void setUTCForFormatting()
-    {
-        fullIso.setTimeZone(utcZone);
-        fullIso2.setTimeZone(utcZone);
-        fullIso3.setTimeZone(utcZone);
-        fullIso4.setTimeZone(utcZone);
-        dateIso.setTimeZone(utcZone);
-        yearMonthIso.setTimeZone(utcZone);
-        yearIso.setTimeZone(utcZone);
-    }
-
     // Attempt to parse, swallowing errors; return null for failure.
-    private synchronized Date tryParse(SimpleDateFormat sdf,  String source)
+    private Date tryParse(ThreadSafeDateFormat sdf,  String source)
     {
-        try
-        {
-            return sdf.parse(source);
-        }
-        catch (ParseException pe)
-        {
-            return null;
-        }
+        return sdf.parseOrNull(source);
     }
     
     /**
@@ -15,8 +15,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.commons.lang.StringUtils;
@@ -82,6 +84,9 @@ public class Item extends DSpaceObject
     /** The bundles in this item - kept in sync with DB */
     private List<Bundle> bundles;
 
+    /** Maximum number of item IDs in a single IN (...) list */
+    private static final int MAX_IN_LIST = 500;
+
     /** The Dublin Core metadata - inner class for lazy loading */
     MetadataCache dublinCore = new MetadataCache();
 
@@ -124,6 +129,31 @@ public class Item extends DSpaceObject
         context.cache(this, row.getIntColumn("item_id"));
     }
 
+    /**
+     * Construct an item with the given table row and Handle, which have both
+     * been read already by {@link #findAll(Context, int[])}.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param handle
+     *            the Handle of the item, or null if it has none
+     */
+    private Item(Context context, TableRow row, String handle)
+    {
+        ourContext = context;
+        itemRow = row;
+        dublinCoreChanged = false;
+        modified = false;
+        clearDetails();
+
+        this.handle = handle;
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("item_id"));
+    }
+
     private TableRowIterator retrieveMetadata() throws SQLException
     {
         return DatabaseManager.queryTable(ourContext, "MetadataValue",
@@ -175,6 +205,125 @@ public class Item extends DSpaceObject
         return new Item(context, row);
     }
 
+    /**
+     * Get many items from the database at once, e.g. to show a page of search
+     * or browse results. Rather than querying once per item for its row, its
+     * Handle and its metadata, the rows, Handles and metadata of all items not
+     * yet in the context cache are read with a few queries. The items are put
+     * in the context cache, so later calls to {@link #find} for them are free.
+     *
+     * @param context
+     *            DSpace context object
+     * @param ids
+     *            Internal IDs of the items
+     * @return the items, in the same order as <code>ids</code>. Entries for
+     *         invalid IDs are null.
+     * @throws SQLException
+     */
+    public static Item[] findAll(Context context, int[] ids) throws SQLException
+    {
+        Item[] items = new Item[ids.length];
+        Map<Integer, Item> found = new HashMap<Integer, Item>();
+        Set<Integer> notCached = new LinkedHashSet<Integer>();
+
+        for (int id : ids)
+        {
+            Item fromCache = (Item) context.fromCache(Item.class, id);
+            if (fromCache != null)
+            {
+                found.put(id, fromCache);
+            }
+            else
+            {
+                notCached.add(id);
+            }
+        }
+
+        List<Integer> toLoad = new ArrayList<Integer>(notCached);
+
+        if (!toLoad.isEmpty())
+        {
+            Map<Integer, String> handles = HandleManager.findHandles(context, Constants.ITEM, toLoad);
+            Map<Integer, List<DCValue>> metadata = new HashMap<Integer, List<DCValue>>();
+
+            for (int start = 0; start < toLoad.size(); start += MAX_IN_LIST)
+            {
+                List<Integer> block = toLoad.subList(start, Math.min(start + MAX_IN_LIST, toLoad.size()));
+                String inList = inList(block.size());
+                Object[] parameters = block.toArray();
+
+                TableRowIterator tri = DatabaseManager.queryTable(context, "item",
+                        "SELECT * FROM item WHERE item_id IN (" + inList + ")", parameters);
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        int id = row.getIntColumn("item_id");
+                        found.put(id, new Item(context, row, handles.get(id)));
+                        metadata.put(id, new ArrayList<DCValue>());
+                    }
+                }
+                finally
+                {
+                    tri.close();
+                }
+
+                tri = DatabaseManager.queryTable(context, "MetadataValue",
+                        "SELECT * FROM MetadataValue WHERE item_id IN (" + inList + ") " +
+                        "ORDER BY item_id, metadata_field_id, place", parameters);
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
+                        List<DCValue> values = metadata.get(row.getIntColumn("item_id"));
+                        DCValue dcv = makeDCValue(context, row);
+                        if (values != null && dcv != null)
+                        {
+                            values.add(dcv);
+                        }
+                    }
+                }
+                finally
+                {
+                    tri.close();
+                }
+            }
+
+            for (Map.Entry<Integer, List<DCValue>> entry : metadata.entrySet())
+            {
+                found.get(entry.getKey()).dublinCore.set(entry.getValue());
+            }
+        }
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            items[i] = found.get(ids[i]);
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug(LogManager.getHeader(context, "find_items", "requested="
+                    + ids.length + ",loaded=" + toLoad.size()));
+        }
+
+        return items;
+    }
+
+    /**
+     * @return a list of n placeholders, for an IN (...) clause
+     */
+    private static String inList(int n)
+    {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < n; i++)
+        {
+            list.append(i == 0 ? "?" : ", ?");
+        }
+        return list.toString();
+    }
+
     /**
      * Create a new item, with a new internal ID. This method is not public,
      * since items need to be created as workspace items. Authorisation is the
@@ -225,7 +374,42 @@ public class Item extends DSpaceObject
 
         return new ItemIterator(context, rows);
     }
-    
+
+    /**
+     * Get the items in the archive following a given item, in ascending order
+     * of item ID. Only items with the "in archive" flag set are included. This
+     * allows the archive to be walked in pages whose cost does not depend on
+     * how far into the archive they are.
+     *
+     * @param context
+     *            DSpace context object
+     * @param afterItemID
+     *            only items with a greater ID are returned, use -1 to start at
+     *            the beginning
+     * @param limit
+     *            maximum number of items returned
+     * @return an iterator over the items
+     */
+    public static ItemIterator findAllAfter(Context context, int afterItemID, int limit)
+            throws SQLException
+    {
+        String myQuery = "SELECT * FROM item WHERE in_archive='1' AND item_id > ? ORDER BY item_id";
+
+        TableRowIterator rows;
+        if (DatabaseManager.isOracle())
+        {
+            rows = DatabaseManager.queryTable(context, "item",
+                    "SELECT * FROM (" + myQuery + ") WHERE ROWNUM <= ?", afterItemID, limit);
+        }
+        else
+        {
+            rows = DatabaseManager.queryTable(context, "item",
+                    myQuery + " LIMIT ?", afterItemID, limit);
+        }
+
+        return new ItemIterator(context, rows);
+    }
+
     /**
      * Get all "final" items in the archive, both archived ("in archive" flag) or
      * withdrawn items are included. The order of the list is indeterminate.
@@ -2757,6 +2941,49 @@ public class Item extends DSpaceObject
         dublinCoreChanged = true;
     }
 
+    /**
+     * Make a DCValue out of a row of the MetadataValue table.
+     *
+     * @param c
+     *            DSpace context object
+     * @param resultRow
+     *            the metadata value row
+     * @return the DCValue, or null if its field or schema cannot be found
+     * @throws SQLException
+     */
+    private static DCValue makeDCValue(Context c, TableRow resultRow) throws SQLException
+    {
+        // Get the associated metadata field and schema information
+        int fieldID = resultRow.getIntColumn("metadata_field_id");
+        MetadataField field = MetadataField.find(c, fieldID);
+
+        if (field == null)
+        {
+            log.error("Loading item - cannot find metadata field " + fieldID);
+            return null;
+        }
+
+        MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
+        if (schema == null)
+        {
+            log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
+            return null;
+        }
+
+        // Make a DCValue object
+        DCValue dcv = new DCValue();
+        dcv.element = field.getElement();
+        dcv.qualifier = field.getQualifier();
+        dcv.value = resultRow.getStringColumn("text_value");
+        dcv.language = resultRow.getStringColumn("text_lang");
+        //dcv.namespace = schema.getNamespace();
+        dcv.schema = schema.getName();
+        dcv.authority = resultRow.getStringColumn("authority");
+        dcv.confidence = resultRow.getIntColumn("confidence");
+
+        return dcv;
+    }
+
     class MetadataCache
     {
         List<DCValue> metadata = null;
@@ -2776,39 +3003,10 @@ public class Item extends DSpaceObject
                     {
                         while (tri.hasNext())
                         {
-                            TableRow resultRow = tri.next();
-
-                            // Get the associated metadata field and schema information
-                            int fieldID = resultRow.getIntColumn("metadata_field_id");
-                            MetadataField field = MetadataField.find(c, fieldID);
-
-                            if (field == null)
-                            {
-                                log.error("Loading item - cannot find metadata field " + fieldID);
-                            }
-                            else
+                            DCValue dcv = makeDCValue(c, tri.next());
+                            if (dcv != null)
                             {
-                                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
-                                if (schema == null)
-                                {
-                                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
-                                }
-                                else
-                                {
-                                    // Make a DCValue object
-                                    DCValue dcv = new DCValue();
-                                    dcv.element = field.getElement();
-                                    dcv.qualifier = field.getQualifier();
-                                    dcv.value = resultRow.getStringColumn("text_value");
-                                    dcv.language = resultRow.getStringColumn("text_lang");
-                                    //dcv.namespace = schema.getNamespace();
-                                    dcv.schema = schema.getName();
-                                    dcv.authority = resultRow.getStringColumn("authority");
-                                    dcv.confidence = resultRow.getIntColumn("confidence");
-
-                                    // Add it to the list
-                                    metadata.add(dcv);
-                                }
+                                metadata.add(dcv);
                             }
                         }
                     }
@@ -12,6 +12,7 @@ import java.sql.SQLException;
 import java.util.*;
 
 import org.apache.log4j.Logger;
+import org.dspace.content.DSpaceObject;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.dspace.event.Dispatcher;
@@ -71,9 +72,18 @@ public class Context
     /** Object cache for this context */
     private Map<String, Object> objectCache;
 
+    /** Authorization decisions made in this context */
+    private Map<String, Boolean> authorizedActionsCache;
+
     /** Group IDs of special groups user is a member of */
     private List<Integer> specialGroups;
 
+    /**
+     * Sorted IDs of all groups the current user is a member of, directly,
+     * through other groups or as special groups; null if not yet known
+     */
+    private int[] groupMemberships = null;
+
     /** Content events */
     private LinkedList<Event> events = null;
 
@@ -83,6 +93,9 @@ public class Context
     /** options */
     private short options = 0;
 
+    /** Whether this context has written to the database since the last commit */
+    private boolean pendingWrites = false;
+
     /**
      * Construct a new context object with default options. A database connection is opened.
      * No user is authenticated.
@@ -127,6 +140,7 @@ public class Context
         ignoreAuth = false;
 
         objectCache = new HashMap<String, Object>();
+        authorizedActionsCache = new HashMap<String, Boolean>();
         specialGroups = new ArrayList<Integer>();
 
         authStateChangeHistory = new Stack<Boolean>();
@@ -154,6 +168,7 @@ public class Context
     public void setCurrentUser(EPerson user)
     {
         currentUser = user;
+        groupMemberships = null;
     }
 
     /**
@@ -369,12 +384,15 @@ public class Context
                 }
 
                 dispatcher = EventManager.getDispatcher(dispName);
+                dispatcher.prepare(this);
                 connection.commit();
+                pendingWrites = false;
                 dispatcher.dispatch(this);
             }
             else
             {
                 connection.commit();
+                pendingWrites = false;
             }
 
         }
@@ -494,10 +512,38 @@ public class Context
             }
             connection = null;
             events = null;
+            pendingWrites = false;
             clearCache();
         }
     }
 
+    /**
+     * Record that this context has written to the database. Until the
+     * transaction is committed or aborted, rows are read from the database
+     * rather than from the shared
+     * {@link org.dspace.storage.rdbms.TableRowCache}, which only ever holds
+     * committed data.
+     */
+    public void setPendingWrites()
+    {
+        pendingWrites = true;
+
+        // policies, group memberships or parents may have changed
+        clearAuthorizedActionsCache();
+        groupMemberships = null;
+    }
+
+    /**
+     * Find out if this context has written to the database since it was last
+     * committed.
+     * 
+     * @return <code>true</code> if there are uncommitted writes
+     */
+    public boolean hasPendingWrites()
+    {
+        return pendingWrites;
+    }
+
     /**
      * 
      * Find out if this context is valid. Returns <code>false</code> if this
@@ -579,6 +625,7 @@ public class Context
     public void clearCache()
     {
         objectCache.clear();
+        clearAuthorizedActionsCache();
     }
 
     /**
@@ -597,6 +644,90 @@ public class Context
         return objectCache.size();
     }
 
+    /**
+     * Get a previously recorded authorization decision.
+     * 
+     * @param o
+     *            the object the action is attempted on
+     * @param action
+     *            ID of the action, from <code>org.dspace.core.Constants</code>
+     * @param e
+     *            the user attempting the action, or <code>null</code> for
+     *            anonymous
+     * @param useInheritance
+     *            whether ADMIN rights on parent objects were taken into account
+     * @return the recorded decision, or <code>null</code> if none is recorded
+     */
+    public Boolean getCachedAuthorizationResult(DSpaceObject o, int action,
+            EPerson e, boolean useInheritance)
+    {
+        return authorizedActionsCache.get(authorizationKey(o, action, e, useInheritance));
+    }
+
+    /**
+     * Record an authorization decision for the lifetime of this context. The
+     * decisions are discarded as soon as anything is written to the database
+     * using this context, or when the special groups change.
+     * 
+     * @param o
+     *            the object the action is attempted on
+     * @param action
+     *            ID of the action, from <code>org.dspace.core.Constants</code>
+     * @param e
+     *            the user attempting the action, or <code>null</code> for
+     *            anonymous
+     * @param useInheritance
+     *            whether ADMIN rights on parent objects were taken into account
+     * @param result
+     *            the decision
+     */
+    public void cacheAuthorizationResult(DSpaceObject o, int action, EPerson e,
+            boolean useInheritance, boolean result)
+    {
+        authorizedActionsCache.put(authorizationKey(o, action, e, useInheritance),
+                Boolean.valueOf(result));
+    }
+
+    /**
+     * Forget all recorded authorization decisions.
+     */
+    public void clearAuthorizedActionsCache()
+    {
+        authorizedActionsCache.clear();
+    }
+
+    private String authorizationKey(DSpaceObject o, int action, EPerson e,
+            boolean useInheritance)
+    {
+        return (e == null ? -1 : e.getID()) + "-" + o.getType() + "-" + o.getID()
+                + "-" + action + "-" + useInheritance;
+    }
+
+    /**
+     * Get the group memberships of the current user recorded by
+     * {@link #cacheGroupMemberships}.
+     * 
+     * @return sorted IDs of all groups the current user is a member of, or
+     *         <code>null</code> if they are not known yet
+     */
+    public int[] getCachedGroupMemberships()
+    {
+        return groupMemberships;
+    }
+
+    /**
+     * Record the group memberships of the current user. They are forgotten
+     * when the current user or special groups change, or anything is written
+     * to the database using this context.
+     * 
+     * @param groupIDs
+     *            sorted IDs of all groups the current user is a member of
+     */
+    public void cacheGroupMemberships(int[] groupIDs)
+    {
+        groupMemberships = groupIDs;
+    }
+
     /**
      * set membership in a special group
      * 
@@ -606,6 +737,8 @@ public class Context
     public void setSpecialGroup(int groupID)
     {
         specialGroups.add(Integer.valueOf(groupID));
+        clearAuthorizedActionsCache();
+        groupMemberships = null;
 
         // System.out.println("Added " + groupID);
     }
@@ -0,0 +1,160 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A date format that can be kept in a static field and used by any number of
+ * threads at once. SimpleDateFormat is not thread-safe, so each thread
+ * formats and parses with an instance of its own, made the first time the
+ * thread uses the format; no lock is taken and no format is made per call.
+ * <P>
+ * Formatting and parsing behave exactly as SimpleDateFormat does with the
+ * same pattern, locale and time zone.
+ *
+ * @version $Revision$
+ */
+public class ThreadSafeDateFormat
+{
+    private final String pattern;
+
+    private final Locale locale;
+
+    private final TimeZone zone;
+
+    /** Each thread's own instance */
+    private final ThreadLocal<SimpleDateFormat> formats = new ThreadLocal<SimpleDateFormat>()
+    {
+        @Override
+        protected SimpleDateFormat initialValue()
+        {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, locale);
+            if (zone != null)
+            {
+                format.setTimeZone(zone);
+            }
+            return format;
+        }
+    };
+
+    /**
+     * Make a format for the default locale and time zone.
+     *
+     * @param pattern
+     *            SimpleDateFormat pattern
+     */
+    public ThreadSafeDateFormat(String pattern)
+    {
+        this(pattern, Locale.getDefault(), null);
+    }
+
+    /**
+     * Make a format for the default locale and the given time zone.
+     *
+     * @param pattern
+     *            SimpleDateFormat pattern
+     * @param zone
+     *            time zone to format and parse in
+     */
+    public ThreadSafeDateFormat(String pattern, TimeZone zone)
+    {
+        this(pattern, Locale.getDefault(), zone);
+    }
+
+    /**
+     * Make a format for the given locale and time zone.
+     *
+     * @param pattern
+     *            SimpleDateFormat pattern
+     * @param locale
+     *            locale whose symbols are used
+     * @param zone
+     *            time zone to format and parse in, or null for the default
+     */
+    public ThreadSafeDateFormat(String pattern, Locale locale, TimeZone zone)
+    {
+        this.pattern = pattern;
+        this.locale = locale;
+        this.zone = zone == null ? null : (TimeZone) zone.clone();
+
+        // fail now, rather than on first use, if the pattern is wrong
+        new SimpleDateFormat(pattern, locale);
+    }
+
+    /**
+     * Format a date.
+     *
+     * @param date
+     *            the date
+     * @return the formatted date
+     */
+    public String format(Date date)
+    {
+        return formats.get().format(date);
+    }
+
+    /**
+     * Parse a date from the beginning of a string, as
+     * SimpleDateFormat.parse(String) does.
+     *
+     * @param source
+     *            the string
+     * @return the date
+     * @throws ParseException
+     *             if the beginning of the string cannot be parsed
+     */
+    public Date parse(String source) throws ParseException
+    {
+        return formats.get().parse(source);
+    }
+
+    /**
+     * Parse a date from a string, starting at the given position, without
+     * throwing an exception on failure.
+     *
+     * @param source
+     *            the string
+     * @param pos
+     *            where to start; updated to the end of the date parsed, or
+     *            left alone and given an error index on failure
+     * @return the date, or null if none could be parsed
+     */
+    public Date parse(String source, ParsePosition pos)
+    {
+        return formats.get().parse(source, pos);
+    }
+
+    /**
+     * Parse a date from the beginning of a string.
+     *
+     * @param source
+     *            the string
+     * @return the date, or null if the beginning of the string cannot be
+     *         parsed
+     */
+    public Date parseOrNull(String source)
+    {
+        ParsePosition pos = new ParsePosition(0);
+        Date date = formats.get().parse(source, pos);
+        return pos.getIndex() == 0 ? null : date;
+    }
+
+    /**
+     * @return the pattern of this format
+     */
+    public String toPattern()
+    {
+        return pattern;
+    }
+}
@@ -22,10 +22,7 @@ import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Date;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import com.coverity.security.Escape;
 import org.apache.log4j.Logger;
 
@@ -62,29 +59,27 @@ public final class Utils
     private static VMID vmid = new VMID();
 
     // for parseISO8601Date
-    private static SimpleDateFormat parseFmt[]  =
+    private static final ThreadSafeDateFormat parseFmt[]  =
     {
         // first try at parsing, has milliseconds (note General time zone)
-        new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss.SSSz"),
+        new ThreadSafeDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss.SSSz"),
 
         // second try at parsing, no milliseconds (note General time zone)
-        new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ssz"),
+        new ThreadSafeDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ssz"),
 
 
         // finally, try without any timezone (defaults to current TZ)
-        new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss.SSS"),
+        new ThreadSafeDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss.SSS"),
 
-        new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss")
+        new ThreadSafeDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss")
     };
 
     // for formatISO8601Date
     // output canonical format (note RFC22 time zone, easier to hack)
-    private static SimpleDateFormat outFmtSecond = new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ssZ");
+    private static final ThreadSafeDateFormat outFmtSecond = new ThreadSafeDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ssZ");
 
     // output format with millsecond precision
-    private static SimpleDateFormat outFmtMillisec = new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss.SSSZ");
-
-    private static Calendar outCal = GregorianCalendar.getInstance();
+    private static final ThreadSafeDateFormat outFmtMillisec = new ThreadSafeDateFormat("yyyy'-'MM'-'dd'T'HH':'mm':'ss.SSSZ");
 
     /** Private Constructor */
     private Utils()
@@ -346,13 +341,13 @@ public final class Utils
     /**
      * Translates timestamp from an ISO 8601-standard format, which
      * is commonly used in XML and RDF documents.
-     * This method is synchronized because it depends on a non-reentrant
-     * static DateFormat (more efficient than creating a new one each call).
+     * Safe to call from any number of threads at once; each thread parses
+     * with formats of its own.
      *
      * @param s the input string
      * @return Date object, or null if there is a problem translating.
      */
-    public static synchronized Date parseISO8601Date(String s)
+    public static Date parseISO8601Date(String s)
     {
         // attempt to normalize the timezone to something we can parse;
         // SimpleDateFormat can't handle "Z"
@@ -368,40 +363,38 @@ public final class Utils
             s = s.substring(0, s.length() - 6) + "GMT" + s.substring(s.length() - 6);
         }
 
-        // try to parse without milliseconds
-        ParseException lastError = null;
+        // try each format in turn; a failed attempt is cheap, as it does
+        // not throw
+        int errorIndex = 0;
         for (int i = 0; i < parseFmt.length; ++i)
         {
-            try
-            {
-                return parseFmt[i].parse(s);
-            }
-            catch (ParseException e)
+            ParsePosition pos = new ParsePosition(0);
+            Date result = parseFmt[i].parse(s, pos);
+            if (pos.getIndex() != 0)
             {
-                lastError = e;
+                return result;
             }
+            errorIndex = pos.getErrorIndex();
         }
-        if (lastError != null)
-        {
-            log.error("Error parsing date:", lastError);
-        }
+        log.error("Error parsing date:",
+                new ParseException("Unparseable date: \"" + s + "\"", errorIndex));
         return null;
     }
 
     /**
      * Convert a Date to String in the ISO 8601 standard format.
      * The RFC822 timezone is almost right, still need to insert ":".
-     * This method is synchronized because it depends on a non-reentrant
-     * static DateFormat (more efficient than creating a new one each call).
+     * Safe to call from any number of threads at once; each thread formats
+     * with formats of its own.
      *
      * @param d the input Date
      * @return String containing formatted date.
      */
-    public static synchronized String formatISO8601Date(Date d)
+    public static String formatISO8601Date(Date d)
     {
         String result;
-        outCal.setTime(d);
-        if (outCal.get(Calendar.MILLISECOND) == 0)
+        // whole seconds, before or after the epoch
+        if (d.getTime() % 1000 == 0)
         {
             result = outFmtSecond.format(d);
         }
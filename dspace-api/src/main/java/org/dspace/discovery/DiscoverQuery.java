@@ -23,6 +23,7 @@ public class DiscoverQuery {
     private int DSpaceObjectFilter = -1;
     private List<String> fieldPresentQueries;
     private boolean spellCheck;
+    private boolean indexOnly;
 
     private int start = 0;
     private int maxResults = -1;
@@ -273,4 +274,18 @@ public class DiscoverQuery {
     public void setSpellCheck(boolean spellCheck) {
         this.spellCheck = spellCheck;
     }
+
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    /**
+     * Return the items found as {@link DiscoverResult.IndexedObject}s built
+     * from the stored fields of the index, instead of loading them from the
+     * database. Communities and collections are always loaded.
+     * @param indexOnly whether to build the items from the index only
+     */
+    public void setIndexOnly(boolean indexOnly) {
+        this.indexOnly = indexOnly;
+    }
 }
@@ -7,7 +7,10 @@
  */
 package org.dspace.discovery;
 
+import org.dspace.content.DCValue;
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Constants;
 
 import java.util.*;
 
@@ -21,6 +24,8 @@ public class DiscoverResult {
     private long totalSearchResults;
     private int start;
     private List<DSpaceObject> dspaceObjects;
+    /** The items found by an index-only query, see {@link DiscoverQuery#setIndexOnly(boolean)} */
+    private List<IndexedObject> indexedObjects;
     private Map<String, List<FacetResult>> facetResults;
     /** A map that contains all the documents sougth after, the key is a string representation of the DSpace object */
     private Map<String, List<SearchDocument>> searchDocuments;
@@ -32,6 +37,7 @@ public class DiscoverResult {
 
     public DiscoverResult() {
         dspaceObjects = new ArrayList<DSpaceObject>();
+        indexedObjects = new ArrayList<IndexedObject>();
         facetResults = new LinkedHashMap<String, List<FacetResult>>();
         searchDocuments = new LinkedHashMap<String, List<SearchDocument>>();
         highlightedResults = new HashMap<String, DSpaceObjectHighlightResult>();
@@ -46,6 +52,19 @@ public class DiscoverResult {
         return dspaceObjects;
     }
 
+    public void addIndexedObject(IndexedObject indexedObject){
+        this.indexedObjects.add(indexedObject);
+    }
+
+    /**
+     * Returns the items of an index-only query, in the order they were found.
+     * Any communities and collections found are in {@link #getDspaceObjects()}.
+     * @return the items, built from the stored fields of the index
+     */
+    public List<IndexedObject> getIndexedObjects() {
+        return indexedObjects;
+    }
+
     public long getTotalSearchResults() {
         return totalSearchResults;
     }
@@ -206,6 +225,108 @@ public class DiscoverResult {
         }
     }
 
+    /**
+     * An item found by an index-only query. It is built from the fields stored
+     * in the index alone, so that result lists can be rendered without loading
+     * the items from the database. Only the metadata fields listed in
+     * discovery.index.projection are available.
+     */
+    public static final class IndexedObject{
+        private int id;
+        private String handle;
+        private boolean withdrawn;
+        private boolean discoverable;
+        private Date lastIndexed;
+        private List<DCValue> metadata;
+        private DSpaceObjectHighlightResult highlightedResults;
+        private SearchDocument searchDocument;
+
+        public IndexedObject(int id, String handle, boolean withdrawn, boolean discoverable, Date lastIndexed) {
+            this.id = id;
+            this.handle = handle;
+            this.withdrawn = withdrawn;
+            this.discoverable = discoverable;
+            this.lastIndexed = lastIndexed;
+            this.metadata = new ArrayList<DCValue>();
+        }
+
+        public int getType() {
+            return Constants.ITEM;
+        }
+
+        public int getID() {
+            return id;
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+
+        public boolean isWithdrawn() {
+            return withdrawn;
+        }
+
+        public boolean isDiscoverable() {
+            return discoverable;
+        }
+
+        /**
+         * @return when the item was last indexed, e.g. for cache validity
+         */
+        public Date getLastIndexed() {
+            return lastIndexed;
+        }
+
+        public void addMetadata(DCValue value) {
+            metadata.add(value);
+        }
+
+        /**
+         * @return all the stored metadata values of the item
+         */
+        public List<DCValue> getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * Get the stored metadata values matching the given schema, element
+         * and qualifier, in the manner of {@link Item#getMetadata(String, String, String, String)}.
+         * @param schema the schema, or Item.ANY
+         * @param element the element, or Item.ANY
+         * @param qualifier the qualifier, Item.ANY, or null for unqualified values
+         * @return the matching values
+         */
+        public DCValue[] getMetadata(String schema, String element, String qualifier) {
+            List<DCValue> values = new ArrayList<DCValue>();
+            for (DCValue dcv : metadata)
+            {
+                if ((Item.ANY.equals(schema) || schema.equals(dcv.schema))
+                        && (Item.ANY.equals(element) || element.equals(dcv.element))
+                        && (Item.ANY.equals(qualifier) || (qualifier == null ? dcv.qualifier == null : qualifier.equals(dcv.qualifier))))
+                {
+                    values.add(dcv);
+                }
+            }
+            return values.toArray(new DCValue[values.size()]);
+        }
+
+        public DSpaceObjectHighlightResult getHighlightedResults() {
+            return highlightedResults;
+        }
+
+        public void setHighlightedResults(DSpaceObjectHighlightResult highlightedResults) {
+            this.highlightedResults = highlightedResults;
+        }
+
+        public SearchDocument getSearchDocument() {
+            return searchDocument;
+        }
+
+        public void setSearchDocument(SearchDocument searchDocument) {
+            this.searchDocument = searchDocument;
+        }
+    }
+
     /**
      * This class contains values from the fields searched for in DiscoveryQuery.java
      */
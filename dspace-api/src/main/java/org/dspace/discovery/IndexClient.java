@@ -106,6 +106,8 @@ public class IndexClient {
 
         IndexingService indexer = dspace.getServiceManager().getServiceByName(IndexingService.class.getName(),IndexingService.class);
 
+        long start = System.currentTimeMillis();
+
         if (line.hasOption("r")) {
             log.info("Removing " + line.getOptionValue("r") + " from Index");
             indexer.unIndexContent(context, line.getOptionValue("r"));
@@ -128,7 +130,7 @@ public class IndexClient {
             checkRebuildSpellCheck(line, indexer);
         }
 
-        log.info("Done with indexing");
+        log.info("Done with indexing in " + (System.currentTimeMillis() - start) / 1000 + "s");
 	}
 
     /**
@@ -181,7 +181,7 @@ public class IndexEventConsumer implements Consumer {
 
             for (String hdl : handlesToDelete) {
                 try {
-                    indexer.unIndexContent(ctx, hdl, true);
+                    indexer.unIndexContent(ctx, hdl, false);
                     if (log.isDebugEnabled())
                     {
                         log.debug("UN-Indexed Item, handle=" + hdl);
@@ -193,6 +193,17 @@ public class IndexEventConsumer implements Consumer {
 
             }
 
+            // commit all of the above at once, rather than per object
+            if (!objectsToUpdate.isEmpty() || !handlesToDelete.isEmpty())
+            {
+                try {
+                    indexer.commit();
+                }
+                catch (Exception e) {
+                    log.error("Failed while committing the index: ", e);
+                }
+            }
+
         }
 
         // "free" the resources
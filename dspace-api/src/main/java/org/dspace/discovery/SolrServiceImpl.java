@@ -27,6 +27,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -46,7 +51,6 @@ import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
-import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
 import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
@@ -57,6 +61,8 @@ import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.*;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.extraction.ExtractingParams;
+import org.dspace.app.util.IndexingProgress;
+import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Bitstream;
 import org.dspace.content.Bundle;
 import org.dspace.content.Collection;
@@ -64,7 +70,6 @@ import org.dspace.content.Community;
 import org.dspace.content.DCValue;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
-import org.dspace.content.ItemIterator;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.Choices;
 import org.dspace.content.authority.MetadataAuthorityManager;
@@ -86,6 +91,8 @@ import org.dspace.discovery.configuration.DiscoverySortConfiguration;
 import org.dspace.discovery.configuration.DiscoverySortFieldConfiguration;
 import org.dspace.discovery.configuration.HierarchicalSidebarFacetConfiguration;
 import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
 import org.dspace.utils.DSpace;
 import org.springframework.stereotype.Service;
 
@@ -129,6 +136,13 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     private HttpSolrServer solr = null;
 
+    /**
+     * Documents and deletions collected by the current thread while
+     * (re)building the index, see {@link #updateIndex(Context, boolean)}.
+     * When not set, documents are written to Solr one at a time.
+     */
+    private final ThreadLocal<IndexingBatch> currentBatch = new ThreadLocal<IndexingBatch>();
+
 
     protected HttpSolrServer getSolr()
     {
@@ -308,6 +322,13 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             throws SQLException, IOException {
 
         try {
+            IndexingBatch batch = currentBatch.get();
+            if (batch != null && !commit)
+            {
+                batch.deleteHandle(handle);
+                return;
+            }
+
             if(getSolr() != null){
                 getSolr().deleteByQuery("handle:\"" + handle + "\"");
                 if(commit)
@@ -379,20 +400,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
     public void updateIndex(Context context, boolean force)
     {
         try {
-            ItemIterator items = null;
-            try {
-                for (items = Item.findAllUnfiltered(context); items.hasNext();)
-                {
-                    Item item = items.next();
-                    indexContent(context, item, force);
-                    item.decache();
-                }
-            } finally {
-                if (items != null)
-                {
-                    items.close();
-                }
-            }
+            updateItemIndex(context, force);
 
             Collection[] collections = Collection.findAll(context);
             for (Collection collection : collections)
@@ -420,6 +428,192 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Index all items, using a pool of worker threads
+     * (<code>discovery.index.threads</code>, default 1), each with its own
+     * Context. The item IDs are handed out in blocks of
+     * <code>discovery.index.batch.size</code> (default 100); the documents of
+     * a block are sent to Solr in a single request. At most two blocks per
+     * worker are queued, so the workers are never outrun by the item query.
+     *
+     * @param context the dspace context
+     * @param force whether or not to force the reindexing
+     */
+    protected void updateItemIndex(Context context, boolean force)
+            throws SQLException, InterruptedException
+    {
+        int threads = Math.max(1, new DSpace().getConfigurationService()
+                .getPropertyAsType("discovery.index.threads", 1));
+        int batchSize = Math.max(1, new DSpace().getConfigurationService()
+                .getPropertyAsType("discovery.index.batch.size", 100));
+
+        // make sure the server is set up before the workers share it
+        getSolr();
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Semaphore queued = new Semaphore(threads * 2);
+        IndexingProgress progress = new IndexingProgress(batchSize * threads * 10);
+
+        log.info("Indexing items with " + threads + " thread(s), batches of " + batchSize);
+
+        TableRowIterator tri = null;
+        try {
+            tri = DatabaseManager.query(context, "SELECT item_id FROM item WHERE in_archive='1' OR withdrawn='1' ORDER BY item_id");
+
+            List<Integer> ids = new ArrayList<Integer>(batchSize);
+            while (tri.hasNext())
+            {
+                ids.add(tri.next().getIntColumn("item_id"));
+                if (ids.size() == batchSize)
+                {
+                    queued.acquire();
+                    workers.execute(new ItemIndexingTask(ids, force, context.ignoreAuthorization(), queued, progress));
+                    ids = new ArrayList<Integer>(batchSize);
+                }
+            }
+
+            if (!ids.isEmpty())
+            {
+                queued.acquire();
+                workers.execute(new ItemIndexingTask(ids, force, context.ignoreAuthorization(), queued, progress));
+            }
+        } finally {
+            if (tri != null)
+            {
+                tri.close();
+            }
+
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        log.info("Indexed " + progress.getCount() + " items in "
+                + progress.getElapsedSeconds() + "s (" + progress.getRate() + " items/s)");
+    }
+
+    /**
+     * Send the documents and deletions collected in a batch to Solr.
+     *
+     * @param batch the batch to write
+     */
+    protected void writeBatch(IndexingBatch batch) throws IOException
+    {
+        try {
+            if (getSolr() != null)
+            {
+                if (!batch.getHandlesToDelete().isEmpty())
+                {
+                    StringBuilder query = new StringBuilder("handle:(");
+                    for (int i = 0; i < batch.getHandlesToDelete().size(); i++)
+                    {
+                        query.append(i == 0 ? "\"" : " OR \"")
+                                .append(batch.getHandlesToDelete().get(i)).append("\"");
+                    }
+                    query.append(")");
+                    getSolr().deleteByQuery(query.toString());
+                }
+
+                if (!batch.getDocuments().isEmpty())
+                {
+                    getSolr().add(batch.getDocuments());
+                }
+            }
+        } catch (SolrServerException e)
+        {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Indexes a block of items in its own Context, writing the documents to
+     * Solr in one batch.
+     */
+    private class ItemIndexingTask implements Runnable
+    {
+        private final List<Integer> itemIDs;
+        private final boolean force;
+        private final boolean ignoreAuthorization;
+        private final Semaphore queued;
+        private final IndexingProgress progress;
+
+        ItemIndexingTask(List<Integer> itemIDs, boolean force, boolean ignoreAuthorization,
+                Semaphore queued, IndexingProgress progress)
+        {
+            this.itemIDs = itemIDs;
+            this.force = force;
+            this.ignoreAuthorization = ignoreAuthorization;
+            this.queued = queued;
+            this.progress = progress;
+        }
+
+        public void run()
+        {
+            Context context = null;
+            IndexingBatch batch = new IndexingBatch();
+            currentBatch.set(batch);
+            try {
+                context = new Context();
+                if (ignoreAuthorization)
+                {
+                    context.turnOffAuthorisationSystem();
+                }
+
+                for (Integer id : itemIDs)
+                {
+                    Item item = Item.find(context, id);
+                    if (item != null)
+                    {
+                        indexContent(context, item, force);
+                        item.decache();
+                    }
+                }
+
+                writeBatch(batch);
+            } catch (Exception e)
+            {
+                log.error("Error while indexing items " + itemIDs.get(0) + " to "
+                        + itemIDs.get(itemIDs.size() - 1) + ": " + e.getMessage(), e);
+            } finally {
+                currentBatch.remove();
+                if (context != null && context.isValid())
+                {
+                    context.abort();
+                }
+                queued.release();
+                progress.add(itemIDs.size());
+            }
+        }
+    }
+
+    /**
+     * Documents and deletions waiting to be sent to Solr.
+     */
+    protected static class IndexingBatch
+    {
+        private final List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>();
+        private final List<String> handlesToDelete = new ArrayList<String>();
+
+        public void add(SolrInputDocument doc)
+        {
+            documents.add(doc);
+        }
+
+        public void deleteHandle(String handle)
+        {
+            handlesToDelete.add(handle);
+        }
+
+        public List<SolrInputDocument> getDocuments()
+        {
+            return documents;
+        }
+
+        public List<String> getHandlesToDelete()
+        {
+            return handlesToDelete;
+        }
+    }
+
     /**
      * Iterates over all documents in the Lucene index and verifies they are in
      * database, if not, they are removed.
@@ -713,12 +907,18 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     req.setParam(ExtractingParams.UNKNOWN_FIELD_PREFIX, "attr_");
                     req.setParam(ExtractingParams.MAP_PREFIX + "content", "fulltext");
                     req.setParam(ExtractingParams.EXTRACT_FORMAT, "text");
-                    req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
+                    // No commit here: the caller commits once it is done,
+                    // or Solr does within the configured time
+                    req.setCommitWithin(getCommitWithin());
                     req.process(getSolr());
                 }
+                else if (currentBatch.get() != null)
+                {
+                    currentBatch.get().add(doc);
+                }
                 else
                 {
-                    getSolr().add(doc);
+                    getSolr().add(doc, getCommitWithin());
                 }
             }
         } catch (SolrServerException e)
@@ -727,6 +927,60 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Should the full text of items be extracted by Solr (Solr Cell / Tika)
+     * from the bitstreams of the TEXT bundle? If not, the bitstreams are read
+     * as plain text, which is what the media filters store in that bundle,
+     * and added to the document like any other field.
+     *
+     * @return true if full text is sent to /update/extract
+     */
+    protected boolean isFullTextExtraction()
+    {
+        return new DSpace().getConfigurationService()
+                .getPropertyAsType("discovery.index.fulltext.extract", false);
+    }
+
+    /**
+     * @return the number of milliseconds within which Solr should commit
+     *         documents written outside of a full (re)index, or -1 to leave
+     *         this to the autoCommit settings of the core
+     */
+    protected int getCommitWithin()
+    {
+        return new DSpace().getConfigurationService()
+                .getPropertyAsType("discovery.index.commitWithin", -1);
+    }
+
+    /**
+     * Read the contents of a TEXT bundle bitstream. The media filters write
+     * their output in the platform default encoding, so it is read back the
+     * same way.
+     *
+     * @param bitstream the extracted text bitstream
+     * @return the text
+     */
+    protected String readFullText(Bitstream bitstream)
+            throws IOException, SQLException, AuthorizeException
+    {
+        Reader reader = new InputStreamReader(bitstream.retrieve());
+        try
+        {
+            StringBuilder text = new StringBuilder((int) Math.min(bitstream.getSize(), 1024 * 1024));
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1)
+            {
+                text.append(buffer, 0, read);
+            }
+            return text.toString();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
     /**
      * Build a solr document for a DSpace Community.
      *
@@ -1365,7 +1619,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     {
                         try {
 
-                            streams.add(new BitstreamContentStream(myBitstream));
+                            if (isFullTextExtraction())
+                            {
+                                streams.add(new BitstreamContentStream(myBitstream));
+                            }
+                            else
+                            {
+                                doc.addField("fulltext", readFullText(myBitstream));
+                            }
 
                             log.debug("  Added BitStream: "
                                     + myBitstream.getStoreNumber() + "	"
@@ -1374,9 +1635,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
                         } catch (Exception e)
                         {
-                            // this will never happen, but compiler is now
-                            // happy.
-                            log.trace(e.getMessage(), e);
+                            log.error("Unable to read full text of bitstream "
+                                    + myBitstream.getID(), e);
                         }
                     }
                 }
@@ -1606,6 +1866,17 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             solrQuery.setParam("spellcheck", Boolean.TRUE);
         }
 
+        if(discoveryQuery.isIndexOnly())
+        {
+            // Only fetch the fields the results are built from, not e.g. the full text
+            solrQuery.setFields("search.resourcetype", "search.resourceid", "handle",
+                    "withdrawn", "discoverable", LAST_INDEXED_FIELD, "*_stored");
+            for (String searchField : discoveryQuery.getSearchFields())
+            {
+                solrQuery.addField(searchField);
+            }
+        }
+
         if (!includeUnDiscoverable)
         {
         	solrQuery.addFilterQuery("NOT(withdrawn:true)");
@@ -1777,9 +2048,22 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             result.setMaxResults(query.getMaxResults());
             result.setTotalSearchResults(solrQueryResponse.getResults().getNumFound());
 
+            if (!query.isIndexOnly())
+            {
+                // Load the items of this page at once, findDSpaceObject then
+                // gets them from the context cache
+                loadItems(context, solrQueryResponse.getResults());
+            }
+
             List<String> searchFields = query.getSearchFields();
             for (SolrDocument doc : solrQueryResponse.getResults())
             {
+                if (query.isIndexOnly() && Integer.valueOf(Constants.ITEM).equals(doc.getFirstValue("search.resourcetype")))
+                {
+                    result.addIndexedObject(toIndexedObject(doc, searchFields, solrQueryResponse.getHighlighting()));
+                    continue;
+                }
+
                 DSpaceObject dso = findDSpaceObject(context, doc);
 
                 if(dso != null)
@@ -1808,14 +2092,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     Map<String, List<String>> highlightedFields = solrQueryResponse.getHighlighting().get(dso.getType() + "-" + dso.getID());
                     if(MapUtils.isNotEmpty(highlightedFields))
                     {
-                        //We need to remove all the "_hl" appendix strings from our keys
-                        Map<String, List<String>> resultMap = new HashMap<String, List<String>>();
-                        for(String key : highlightedFields.keySet())
-                        {
-                            resultMap.put(key.substring(0, key.lastIndexOf("_hl")), highlightedFields.get(key));
-                        }
-
-                        result.addHighlightedResult(dso, new DiscoverResult.DSpaceObjectHighlightResult(dso, resultMap));
+                        result.addHighlightedResult(dso, new DiscoverResult.DSpaceObjectHighlightResult(dso, toHighlightResults(highlightedFields)));
                     }
                 }
             }
@@ -1898,6 +2175,116 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         return result;
     }
 
+    /**
+     * Build an index-only search result for an item from the fields stored in
+     * its document. The metadata values come from the "_stored" projection
+     * fields, see discovery.index.projection.
+     *
+     * @param doc the item document
+     * @param searchFields the search fields requested by the query
+     * @param highlighting the highlighting of the response, may be null
+     * @return the search result
+     */
+    protected DiscoverResult.IndexedObject toIndexedObject(SolrDocument doc, List<String> searchFields,
+            Map<String, Map<String, List<String>>> highlighting) {
+        Integer id = (Integer) doc.getFirstValue("search.resourceid");
+
+        DiscoverResult.IndexedObject indexedObject = new DiscoverResult.IndexedObject(id,
+                (String) doc.getFirstValue("handle"),
+                "true".equals(String.valueOf(doc.getFirstValue("withdrawn"))),
+                !"false".equals(String.valueOf(doc.getFirstValue("discoverable"))),
+                (Date) doc.getFirstValue(LAST_INDEXED_FIELD));
+
+        for (String fieldName : doc.getFieldNames())
+        {
+            if (!fieldName.endsWith("_stored"))
+            {
+                continue;
+            }
+
+            String[] field = fieldName.substring(0, fieldName.length() - "_stored".length()).split("\\.", 3);
+            for (Object storedValue : doc.getFieldValues(fieldName))
+            {
+                // value, prefered label, variants, authority and language
+                String[] parts = String.valueOf(storedValue).split(Pattern.quote(STORE_SEPARATOR), -1);
+
+                DCValue dcv = new DCValue();
+                dcv.schema = field[0];
+                dcv.element = field.length > 1 ? field[1] : null;
+                dcv.qualifier = field.length > 2 ? field[2] : null;
+                dcv.value = parts[0];
+                dcv.authority = parts.length > 3 && !"null".equals(parts[3]) ? parts[3] : null;
+                dcv.language = parts.length > 4 && !"null".equals(parts[4]) ? parts[4] : null;
+                indexedObject.addMetadata(dcv);
+            }
+        }
+
+        DiscoverResult.SearchDocument searchDocument = new DiscoverResult.SearchDocument();
+        for (String field : searchFields)
+        {
+            List<String> valuesAsString = new ArrayList<String>();
+            if (doc.getFieldValues(field) != null)
+            {
+                for (Object o : doc.getFieldValues(field))
+                {
+                    valuesAsString.add(String.valueOf(o));
+                }
+            }
+            searchDocument.addSearchField(field, valuesAsString.toArray(new String[valuesAsString.size()]));
+        }
+        indexedObject.setSearchDocument(searchDocument);
+
+        if (highlighting != null)
+        {
+            Map<String, List<String>> highlightedFields = highlighting.get(Constants.ITEM + "-" + id);
+            if (MapUtils.isNotEmpty(highlightedFields))
+            {
+                indexedObject.setHighlightedResults(new DiscoverResult.DSpaceObjectHighlightResult(null, toHighlightResults(highlightedFields)));
+            }
+        }
+
+        return indexedObject;
+    }
+
+    /**
+     * Strip the "_hl" suffix of the highlighted fields of a document.
+     */
+    protected Map<String, List<String>> toHighlightResults(Map<String, List<String>> highlightedFields) {
+        //We need to remove all the "_hl" appendix strings from our keys
+        Map<String, List<String>> resultMap = new HashMap<String, List<String>>();
+        for(String key : highlightedFields.keySet())
+        {
+            resultMap.put(key.substring(0, key.lastIndexOf("_hl")), highlightedFields.get(key));
+        }
+        return resultMap;
+    }
+
+    /**
+     * Load all items among the given search results into the context cache
+     * with a few queries, see {@link Item#findAll(Context, int[])}.
+     *
+     * @param context the dspace context
+     * @param docs the search results
+     * @throws SQLException
+     */
+    protected static void loadItems(Context context, SolrDocumentList docs) throws SQLException {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (SolrDocument doc : docs)
+        {
+            Integer type = (Integer) doc.getFirstValue("search.resourcetype");
+            Integer id = (Integer) doc.getFirstValue("search.resourceid");
+            if (type != null && type == Constants.ITEM && id != null)
+            {
+                ids.add(id);
+            }
+        }
+
+        if (!ids.isEmpty())
+        {
+            Item.findAll(context, ArrayUtils.toPrimitive(ids.toArray(new Integer[ids.size()])));
+        }
+    }
+
     protected static DSpaceObject findDSpaceObject(Context context, SolrDocument doc) throws SQLException {
 
         Integer type = (Integer) doc.getFirstValue("search.resourcetype");
@@ -2092,6 +2479,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             if(mltResults != null && mltResults.get(item.getType() + "-" + item.getID()) != null)
             {
                 SolrDocumentList relatedDocs = (SolrDocumentList) mltResults.get(item.getType() + "-" + item.getID());
+                loadItems(context, relatedDocs);
                 for (Object relatedDoc : relatedDocs)
                 {
                     SolrDocument relatedDocument = (SolrDocument) relatedDoc;
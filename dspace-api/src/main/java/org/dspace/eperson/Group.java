@@ -9,9 +9,11 @@ package org.dspace.eperson;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,6 +56,9 @@ public class Group extends DSpaceObject
     /** ID of Administrator Group */
     public static final int ADMIN_ID = 1;
 
+    /** Maximum number of group IDs in a single IN (...) list */
+    private static final int MAX_IN_LIST = 500;
+
     /** Our context */
     private Context myContext;
 
@@ -380,9 +385,38 @@ public class Group extends DSpaceObject
             return true;
         }
 
-        EPerson currentuser = c.getCurrentUser();
+        return Arrays.binarySearch(currentUserGroupIDs(c), groupid) >= 0;
+    }
+
+    /**
+     * Get the IDs of all groups the current user is a member of, computing
+     * them only once per context.
+     * 
+     * @param c
+     *            context
+     * @return sorted array of group IDs
+     * @throws SQLException
+     */
+    private static int[] currentUserGroupIDs(Context c) throws SQLException
+    {
+        int[] groupIDs = c.getCachedGroupMemberships();
+
+        if (groupIDs == null)
+        {
+            Set<Integer> memberships = findMemberGroupIDs(c, c.getCurrentUser());
+
+            groupIDs = new int[memberships.size()];
+            int idx = 0;
+            for (Integer groupID : memberships)
+            {
+                groupIDs[idx++] = groupID.intValue();
+            }
+            Arrays.sort(groupIDs);
+
+            c.cacheGroupMemberships(groupIDs);
+        }
 
-        return epersonInGroup(c, groupid, currentuser);
+        return groupIDs;
     }
 
     /**
@@ -419,6 +453,33 @@ public class Group extends DSpaceObject
      */
     public static Set<Integer> allMemberGroupIDs(Context c, EPerson e)
             throws SQLException
+    {
+        EPerson currentUser = c.getCurrentUser();
+        if ((currentUser == null && e == null)
+                || (currentUser != null && e != null && currentUser.getID() == e.getID()))
+        {
+            Set<Integer> groupIDs = new HashSet<Integer>();
+            for (int groupID : currentUserGroupIDs(c))
+            {
+                groupIDs.add(Integer.valueOf(groupID));
+            }
+
+            return groupIDs;
+        }
+
+        return findMemberGroupIDs(c, e);
+    }
+
+    /**
+     * Query the database for all of the group memberships of an eperson.
+     * 
+     * @param c
+     * @param e
+     * @return Set of Integer groupIDs
+     * @throws SQLException
+     */
+    private static Set<Integer> findMemberGroupIDs(Context c, EPerson e)
+            throws SQLException
     {
         Set<Integer> groupIDs = new HashSet<Integer>();
         
@@ -661,14 +722,6 @@ public class Group extends DSpaceObject
         return epeopleIDs;
     }
 
-    private static boolean epersonInGroup(Context c, int groupID, EPerson e)
-            throws SQLException
-    {
-        Set<Integer> groupIDs = Group.allMemberGroupIDs(c, e);
-
-        return groupIDs.contains(Integer.valueOf(groupID));
-    }
-
     /**
      * find the group by its ID
      * 
@@ -1010,6 +1063,9 @@ public class Group extends DSpaceObject
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_group_id= ? ",
                 getID());
 
+        // groups containing this one may lose descendants reached through it
+        Set<Integer> ancestors = findAncestorIDs(myContext, getID());
+
         // remove any group2groupcache entries
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM group2groupcache WHERE parent_id= ? OR child_id= ? ",
@@ -1020,6 +1076,8 @@ public class Group extends DSpaceObject
                 "DELETE FROM group2group WHERE parent_id= ? OR child_id= ? ",
                 getID(),getID());
 
+        updateGroupCache(myContext, ancestors);
+
         // don't forget the new table
         deleteEpersonGroup2WorkspaceItem();
 
@@ -1215,43 +1273,37 @@ public class Group extends DSpaceObject
     }
 
     /**
-     * Regenerate the group cache AKA the group2groupcache table in the database -
-     * meant to be called when a group is added or removed from another group
+     * Update the group cache AKA the group2groupcache table in the database -
+     * meant to be called when a group is added or removed from another group.
+     * Only the rows of this group and of the groups containing it can change,
+     * so only those are recomputed, however many groups there are.
      * 
      */
     private void rethinkGroupCache() throws SQLException
     {
-        // read in the group2group table
-        TableRowIterator tri = DatabaseManager.queryTable(myContext, "group2group",
-                "SELECT * FROM group2group");
+        Set<Integer> affected = findAncestorIDs(myContext, getID());
+        affected.add(Integer.valueOf(getID()));
+
+        updateGroupCache(myContext, affected);
+    }
+
+    /**
+     * Get the IDs of all groups which (directly or indirectly) contain the
+     * given group, according to the group2groupcache table.
+     */
+    private static Set<Integer> findAncestorIDs(Context c, int groupID)
+            throws SQLException
+    {
+        Set<Integer> ancestors = new HashSet<Integer>();
 
-        Map<Integer,Set<Integer>> parents = new HashMap<Integer,Set<Integer>>();
+        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
+                "SELECT * FROM group2groupcache WHERE child_id= ? ", groupID);
 
         try
         {
             while (tri.hasNext())
             {
-                TableRow row = (TableRow) tri.next();
-
-                Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
-                Integer childID = Integer.valueOf(row.getIntColumn("child_id"));
-
-                // if parent doesn't have an entry, create one
-                if (!parents.containsKey(parentID))
-                {
-                    Set<Integer> children = new HashSet<Integer>();
-
-                    // add child id to the list
-                    children.add(childID);
-                    parents.put(parentID, children);
-                }
-                else
-                {
-                    // parent has an entry, now add the child to the parent's record
-                    // of children
-                    Set<Integer> children =  parents.get(parentID);
-                    children.add(childID);
-                }
+                ancestors.add(Integer.valueOf(tri.next().getIntColumn("parent_id")));
             }
         }
         finally
@@ -1263,76 +1315,201 @@ public class Group extends DSpaceObject
             }
         }
 
-        // now parents is a hash of all of the IDs of groups that are parents
-        // and each hash entry is a hash of all of the IDs of children of those
-        // parent groups
-        // so now to establish all parent,child relationships we can iterate
-        // through the parents hash
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
+        return ancestors;
+    }
+
+    /**
+     * Recompute the group2groupcache rows of the given groups, which must
+     * include every group whose descendants may have changed, and write out
+     * only the rows which differ.
+     * 
+     * @param c
+     *            context
+     * @param affected
+     *            IDs of the groups whose rows must be recomputed
+     */
+    private static void updateGroupCache(Context c, Set<Integer> affected)
+            throws SQLException
+    {
+        if (affected.isEmpty())
         {
-            Set<Integer> myChildren = getChildren(parents, parent.getKey());
-            parent.getValue().addAll(myChildren);
+            return;
         }
 
-        // empty out group2groupcache table
-        DatabaseManager.updateQuery(myContext,
-                "DELETE FROM group2groupcache WHERE id >= 0");
+        // direct children of the affected groups
+        Map<Integer, Set<Integer>> children = readPairs(c, "group2group", affected);
 
-        // write out new one
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
+        // the other children cannot reach any affected group, so their
+        // cached descendants are still correct
+        Set<Integer> unaffected = new HashSet<Integer>();
+        for (Set<Integer> childIDs : children.values())
         {
-            int parentID = parent.getKey().intValue();
+            for (Integer childID : childIDs)
+            {
+                if (!affected.contains(childID))
+                {
+                    unaffected.add(childID);
+                }
+            }
+        }
+        Map<Integer, Set<Integer>> cached = readPairs(c, "group2groupcache", unaffected);
 
-            for (Integer child : parent.getValue())
+        Map<Integer, Set<Integer>> descendants = computeDescendants(affected, children, cached);
+        Map<Integer, Set<Integer>> current = readPairs(c, "group2groupcache", affected);
+
+        List<Object[]> removed = new ArrayList<Object[]>();
+        List<TableRow> added = new ArrayList<TableRow>();
+        for (Integer parentID : affected)
+        {
+            Set<Integer> wanted = descendants.get(parentID);
+            Set<Integer> existing = current.get(parentID);
+            if (existing == null)
             {
-                TableRow row = DatabaseManager.row("group2groupcache");
+                existing = new HashSet<Integer>();
+            }
 
-                row.setColumn("parent_id", parentID);
-                row.setColumn("child_id", child);
+            for (Integer childID : existing)
+            {
+                if (!wanted.contains(childID))
+                {
+                    removed.add(new Object[] { parentID, childID });
+                }
+            }
 
-                DatabaseManager.insert(myContext, row);
+            for (Integer childID : wanted)
+            {
+                if (!existing.contains(childID))
+                {
+                    TableRow row = DatabaseManager.row("group2groupcache");
+                    row.setColumn("parent_id", parentID.intValue());
+                    row.setColumn("child_id", childID.intValue());
+                    added.add(row);
+                }
             }
         }
+
+        DatabaseManager.updateQueryBatch(c,
+                "DELETE FROM group2groupcache WHERE parent_id= ? AND child_id= ? ",
+                removed);
+        DatabaseManager.insertBatch(c, "group2groupcache", added);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug(LogManager.getHeader(c, "update_group_cache", "groups="
+                    + affected.size() + ",removed=" + removed.size()
+                    + ",added=" + added.size()));
+        }
     }
 
     /**
-     * Used recursively to generate a map of ALL of the children of the given
-     * parent
+     * Read the (parent_id, child_id) rows of group2group or group2groupcache
+     * for the given parents.
      * 
-     * @param parents
-     *            Map of parent,child relationships
-     * @param parent
-     *            the parent you're interested in
-     * @return Map whose keys are all of the children of a parent
+     * @return map of parent ID to the set of its child IDs; parents without
+     *         rows have no entry
      */
-    private Set<Integer> getChildren(Map<Integer,Set<Integer>> parents, Integer parent)
+    private static Map<Integer, Set<Integer>> readPairs(Context c, String table,
+            Set<Integer> parentIDs) throws SQLException
     {
-        Set<Integer> myChildren = new HashSet<Integer>();
+        Map<Integer, Set<Integer>> pairs = new HashMap<Integer, Set<Integer>>();
+        List<Integer> ids = new ArrayList<Integer>(parentIDs);
 
-        // degenerate case, this parent has no children
-        if (!parents.containsKey(parent))
+        for (int start = 0; start < ids.size(); start += MAX_IN_LIST)
         {
-            return myChildren;
+            List<Integer> block = ids.subList(start, Math.min(start + MAX_IN_LIST, ids.size()));
+
+            StringBuilder query = new StringBuilder("SELECT * FROM ").append(table)
+                    .append(" WHERE parent_id IN (");
+            for (int i = 0; i < block.size(); i++)
+            {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+
+            TableRowIterator tri = DatabaseManager.queryTable(c, table,
+                    query.toString(), block.toArray());
+
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+
+                    Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
+                    Set<Integer> childIDs = pairs.get(parentID);
+                    if (childIDs == null)
+                    {
+                        childIDs = new HashSet<Integer>();
+                        pairs.put(parentID, childIDs);
+                    }
+                    childIDs.add(Integer.valueOf(row.getIntColumn("child_id")));
+                }
+            }
+            finally
+            {
+                // close the TableRowIterator to free up resources
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
         }
 
-        // got this far, so we must have children
-        Set<Integer> children =  parents.get(parent);
+        return pairs;
+    }
 
-        // now iterate over all of the children
-        Iterator<Integer> i = children.iterator();
+    /**
+     * Compute all (direct and indirect) descendants of the affected groups.
+     * 
+     * @param affected
+     *            IDs of the groups to compute descendants for
+     * @param children
+     *            direct children of the affected groups
+     * @param cached
+     *            all descendants of the direct children which are not
+     *            themselves affected
+     * @return map of each affected group ID to the set of its descendants;
+     *         a group only descends from itself if there is a cycle
+     */
+    static Map<Integer, Set<Integer>> computeDescendants(Set<Integer> affected,
+            Map<Integer, Set<Integer>> children, Map<Integer, Set<Integer>> cached)
+    {
+        Map<Integer, Set<Integer>> descendants = new HashMap<Integer, Set<Integer>>();
 
-        while (i.hasNext())
+        for (Integer groupID : affected)
         {
-            Integer childID = i.next();
+            Set<Integer> found = new HashSet<Integer>();
+            LinkedList<Integer> queue = new LinkedList<Integer>();
+            addAll(queue, children.get(groupID));
 
-            // add this child's ID to our return set
-            myChildren.add(childID);
+            while (!queue.isEmpty())
+            {
+                Integer next = queue.removeFirst();
+                if (found.add(next))
+                {
+                    if (affected.contains(next))
+                    {
+                        addAll(queue, children.get(next));
+                    }
+                    else if (cached.containsKey(next))
+                    {
+                        found.addAll(cached.get(next));
+                    }
+                }
+            }
 
-            // and now its children
-            myChildren.addAll(getChildren(parents, childID));
+            descendants.put(groupID, found);
         }
 
-        return myChildren;
+        return descendants;
+    }
+
+    private static void addAll(LinkedList<Integer> queue, Set<Integer> ids)
+    {
+        if (ids != null)
+        {
+            queue.addAll(ids);
+        }
     }
     
     public DSpaceObject getParentObject() throws SQLException
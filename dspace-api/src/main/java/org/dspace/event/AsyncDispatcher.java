@@ -0,0 +1,165 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+
+/**
+ * AsyncDispatcher delivers events to some of its consumers asynchronously:
+ * the events they are interested in are written to the {@link EventQueue}
+ * as part of the transaction that produced them, and handed to the
+ * consumers by background workers once it is committed, so that committing
+ * does not wait for e.g. the search index to be updated. The other
+ * consumers get their events synchronously, as from the
+ * {@link BasicDispatcher}.
+ * <P>
+ * Which consumers are asynchronous is configured per dispatcher, e.g.
+ *
+ * <pre>
+ *  event.dispatcher.default.class = org.dspace.event.AsyncDispatcher
+ *  event.dispatcher.default.async = discovery, itemcount
+ * </pre>
+ *
+ * If the events cannot be queued, the transaction is not committed, so that
+ * no change is ever left without its events.
+ *
+ * @version $Revision$
+ */
+public class AsyncDispatcher extends BasicDispatcher
+{
+    /** Names of the consumers delivered to from the queue */
+    private final Set<String> asyncNames = new HashSet<String>();
+
+    /** Profiles of the asynchronous consumers, by name */
+    private final Map<String, ConsumerProfile> queued = new LinkedHashMap<String, ConsumerProfile>();
+
+    /** Whether the transaction being committed queued events */
+    private boolean pending = false;
+
+    public AsyncDispatcher(String name)
+    {
+        super(name);
+
+        String async = ConfigurationManager.getProperty("event.dispatcher." + name + ".async");
+        if (async != null)
+        {
+            for (String consumer : async.split(","))
+            {
+                if (consumer.trim().length() > 0)
+                {
+                    asyncNames.add(consumer.trim());
+                }
+            }
+        }
+    }
+
+    public void addConsumerProfile(ConsumerProfile cp)
+            throws IllegalArgumentException
+    {
+        if (!asyncNames.contains(cp.getName()))
+        {
+            super.addConsumerProfile(cp);
+            return;
+        }
+
+        if (queued.containsKey(cp.getName()) || consumers.containsKey(cp.getName()))
+        {
+            throw new IllegalArgumentException(
+                    "This dispatcher already has a consumer named \""
+                            + cp.getName() + "\"");
+        }
+
+        queued.put(cp.getName(), cp);
+        EventQueue.startWorker(cp.getName());
+    }
+
+    /**
+     * Queue the events for the asynchronous consumers, in the transaction
+     * that is about to be committed, so that they are stored if and only if
+     * the changes they describe are. If they cannot be queued, the
+     * transaction is not committed either.
+     *
+     * @param ctx
+     *            the execution context
+     * @throws SQLException
+     */
+    public void prepare(Context ctx) throws SQLException
+    {
+        pending = false;
+        if (!ctx.hasEvents())
+        {
+            return;
+        }
+
+        coalesce(ctx);
+
+        if (!queued.isEmpty())
+        {
+            String tid = "TX" + Utils.generateKey();
+            Map<String, List<Event>> byConsumer = new LinkedHashMap<String, List<Event>>();
+
+            for (Event event : ctx.getEvents())
+            {
+                event.setDispatcher(getIdentifier());
+                event.setTransactionID(tid);
+
+                for (ConsumerProfile cp : queued.values())
+                {
+                    if (event.pass(cp.getFilters()))
+                    {
+                        List<Event> events = byConsumer.get(cp.getName());
+                        if (events == null)
+                        {
+                            events = new ArrayList<Event>();
+                            byConsumer.put(cp.getName(), events);
+                        }
+                        events.add(event);
+                    }
+                }
+            }
+
+            if (!byConsumer.isEmpty())
+            {
+                EventQueue.enqueue(ctx, byConsumer);
+                pending = true;
+            }
+        }
+    }
+
+    /**
+     * Wake the workers for the events queued by {@link #prepare}, now that
+     * they are committed, then deliver the events to the synchronous
+     * consumers.
+     *
+     * @param ctx
+     *            the execution context
+     */
+    public void dispatch(Context ctx)
+    {
+        if (pending)
+        {
+            pending = false;
+            EventQueue.wakeWorkers();
+        }
+
+        if (ctx.hasEvents())
+        {
+            dispatchEvents(ctx);
+        }
+    }
+}
@@ -67,6 +67,22 @@ public class BasicDispatcher extends Dispatcher
      *            the execution context
      */
     public void dispatch(Context ctx)
+    {
+        if (!consumers.isEmpty() && ctx.hasEvents())
+        {
+            coalesce(ctx);
+            dispatchEvents(ctx);
+        }
+    }
+
+    /**
+     * Deliver the events of this Context, as they are, to the configured
+     * consumers.
+     * 
+     * @param ctx
+     *            the execution context
+     */
+    protected void dispatchEvents(Context ctx)
     {
         if (!consumers.isEmpty())
         {
@@ -91,7 +107,10 @@ public class BasicDispatcher extends Dispatcher
             {
                 Event event = ctx.pollEvent();
                 event.setDispatcher(getIdentifier());
-                event.setTransactionID(tid);
+                if (event.getTransactionID() == null)
+                {
+                    event.setTransactionID(tid);
+                }
 
                 if (log.isDebugEnabled())
                 {
@@ -7,10 +7,17 @@
  */
 package org.dspace.event;
 
+import java.sql.SQLException;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 
 /**
@@ -23,6 +30,9 @@ import org.dspace.core.Context;
  */
 public abstract class Dispatcher
 {
+    /** log4j category */
+    private static Logger log = Logger.getLogger(Dispatcher.class);
+
     protected String name;
 
     /** unique identifier of this dispatcher - cached hash of its text Name */
@@ -33,11 +43,87 @@ public abstract class Dispatcher
      */
     protected Map<String, ConsumerProfile> consumers = new LinkedHashMap<String, ConsumerProfile>();
 
+    /** Whether repeated modifications of an object are delivered once */
+    protected boolean coalesce;
+
+    /** Events added to contexts, before coalescing, in this JVM */
+    private static final AtomicLong rawEvents = new AtomicLong();
+
+    /** Events handed on to consumers, after coalescing, in this JVM */
+    private static final AtomicLong deliveredEvents = new AtomicLong();
+
     protected Dispatcher(String name)
     {
         super();
         this.name = name;
         this.identifier = name.hashCode();
+        this.coalesce = ConfigurationManager.getBooleanProperty(
+                "event.dispatcher." + name + ".coalesce", true);
+    }
+
+    /**
+     * @return the number of events dispatched, before coalescing
+     */
+    public static long getRawEventCount()
+    {
+        return rawEvents.get();
+    }
+
+    /**
+     * @return the number of events handed on to consumers, after coalescing
+     */
+    public static long getDeliveredEventCount()
+    {
+        return deliveredEvents.get();
+    }
+
+    /**
+     * Coalesce the events of a context before they are handed on: of the
+     * MODIFY, and of the MODIFY_METADATA, events of one object only the first
+     * is kept, with the details of the others folded into it. Other kinds of
+     * event are left alone, as their order matters (e.g. an ADD and a REMOVE
+     * of the same item).
+     *
+     * @param ctx
+     *            the context whose events are about to be dispatched
+     */
+    protected void coalesce(Context ctx)
+    {
+        List<Event> events = ctx.getEvents();
+        int raw = events.size();
+
+        if (coalesce && raw > 1)
+        {
+            Map<String, Event> first = new HashMap<String, Event>();
+            for (Iterator<Event> i = events.iterator(); i.hasNext();)
+            {
+                Event event = i.next();
+                if (event.getEventType() == Event.MODIFY
+                        || event.getEventType() == Event.MODIFY_METADATA)
+                {
+                    String key = event.getEventType() + ":" + event.getSubjectType()
+                            + ":" + event.getSubjectID();
+                    Event kept = first.get(key);
+                    if (kept == null)
+                    {
+                        first.put(key, event);
+                    }
+                    else
+                    {
+                        kept.mergeDetail(event.getDetail());
+                        i.remove();
+                    }
+                }
+            }
+        }
+
+        rawEvents.addAndGet(raw);
+        deliveredEvents.addAndGet(events.size());
+
+        if (log.isDebugEnabled() && events.size() < raw)
+        {
+            log.debug("Coalesced " + raw + " events into " + events.size());
+        }
     }
 
     public Collection getConsumers()
@@ -62,6 +148,21 @@ public abstract class Dispatcher
     public abstract void addConsumerProfile(ConsumerProfile cp)
             throws IllegalArgumentException;
 
+    /**
+     * Called with the events of a Context before its transaction is
+     * committed. Anything written to the database here is committed, or
+     * rolled back, together with the changes the events describe. Does
+     * nothing by default.
+     * 
+     * @param ctx
+     *            the execution context object
+     * @throws SQLException
+     *             if the transaction must not be committed
+     */
+    public void prepare(Context ctx) throws SQLException
+    {
+    }
+
     /**
      * Dispatch all events added to this Context according to configured
      * consumers.
@@ -9,10 +9,13 @@ package org.dspace.event;
 
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.log4j.Logger;
@@ -490,6 +493,17 @@ public class Event implements Serializable
         return timeStamp;
     }
 
+    /**
+     * Restore the time stamp of an event read back from the event queue.
+     *
+     * @param timeStamp
+     *            milliseconds since the epoch at which the event occurred
+     */
+    void setTimeStamp(long timeStamp)
+    {
+        this.timeStamp = timeStamp;
+    }
+
     /**
      * @return hashcode identifier of name of Dispatcher which first dispatched
      *         this event. (Needed by asynch dispatch code.)
@@ -507,6 +521,42 @@ public class Event implements Serializable
         return detail;
     }
 
+    /**
+     * Fold the detail of a like event into this one's, when the two are
+     * coalesced. Details are lists separated by ", ", as built by
+     * DSpaceObject.addDetails; each entry is kept once.
+     *
+     * @param other
+     *            detail of the event folded into this one
+     */
+    void mergeDetail(String other)
+    {
+        if (other == null || other.equals(detail))
+        {
+            return;
+        }
+
+        if (detail == null)
+        {
+            detail = other;
+            return;
+        }
+
+        Set<String> entries = new LinkedHashSet<String>(Arrays.asList(detail.split(", ")));
+        entries.addAll(Arrays.asList(other.split(", ")));
+
+        StringBuilder merged = new StringBuilder();
+        for (String entry : entries)
+        {
+            if (merged.length() > 0)
+            {
+                merged.append(", ");
+            }
+            merged.append(entry);
+        }
+        detail = merged.toString();
+    }
+
     /**
      * @return value of transactionID element of the event.
      */
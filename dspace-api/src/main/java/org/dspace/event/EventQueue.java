@@ -0,0 +1,740 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+import org.dspace.eperson.EPerson;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Durable queue of the events the {@link AsyncDispatcher} hands to its
+ * asynchronous consumers. Events are kept in the eventqueue table, one row
+ * per event and consumer, until the consumer has processed them.
+ * <P>
+ * Each consumer has a worker thread of its own, which takes the consumer's
+ * events in the order they were queued, a committed transaction at a time,
+ * and calls end() on the consumer after each transaction, as the
+ * synchronous dispatcher does. A transaction whose delivery fails is tried
+ * again later; after the configured number of attempts its events are left
+ * in the table for inspection, and the worker carries on with the next.
+ * <P>
+ * Workers are woken as soon as this JVM queues events, and look for events
+ * queued by other processes every poll interval. When several processes
+ * run workers, only one at a time delivers a given consumer's events: a
+ * worker first takes the consumer's lease in the eventqueue_lease table,
+ * with a conditional update, renews it before each transaction it delivers
+ * and gives it up when the queue is empty. A lease not renewed in time,
+ * e.g. because its process stopped, may be taken by another process once
+ * it expires. Delivery is at least once: the transaction being delivered
+ * when a process stops is delivered again. The clocks of the processes
+ * should be kept in step, as leases are timed by them.
+ * <P>
+ * Configuration (dspace.cfg):
+ * <ul>
+ * <li><code>event.queue.workers</code> - run workers in this process (default true)</li>
+ * <li><code>event.queue.poll</code> - seconds between looks at the queue (default 10)</li>
+ * <li><code>event.queue.batch.size</code> - events read at a time (default 100)</li>
+ * <li><code>event.queue.attempts</code> - attempts to deliver a transaction (default 5)</li>
+ * <li><code>event.queue.retry.delay</code> - seconds to wait after a failure,
+ * times the attempts so far (default 30)</li>
+ * <li><code>event.queue.lease</code> - seconds a worker holds a consumer's
+ * lease without renewing it, longer than delivering a transaction takes
+ * (default 300)</li>
+ * </ul>
+ * <P>
+ * Run from the command line, it shows the depth and lag of each consumer's
+ * queue, or delivers everything queued and exits.
+ *
+ * @version $Revision$
+ */
+public class EventQueue
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(EventQueue.class);
+
+    private static final String TABLE = "eventqueue";
+
+    private static final String LEASE_TABLE = "eventqueue_lease";
+
+    /** Workers started in this JVM, by consumer name */
+    private static final Map<String, Worker> workers = new HashMap<String, Worker>();
+
+    /** Notified when events have been queued */
+    private static final Object signal = new Object();
+
+    /** Prevents instantiation */
+    private EventQueue()
+    {
+    }
+
+    /**
+     * Queue events for asynchronous consumers, in the transaction of the
+     * context that produced them. They are committed or rolled back with
+     * it; the caller wakes the workers once it is committed.
+     *
+     * @param ctx
+     *            the context the events are being committed in
+     * @param byConsumer
+     *            events, by name of the consumer they are for
+     * @throws SQLException
+     */
+    static void enqueue(Context ctx, Map<String, List<Event>> byConsumer)
+        throws SQLException
+    {
+        int eperson = ctx.getCurrentUser() == null ? -1 : ctx.getCurrentUser().getID();
+        List<TableRow> rows = new ArrayList<TableRow>();
+
+        for (Map.Entry<String, List<Event>> entry : byConsumer.entrySet())
+        {
+            for (Event event : entry.getValue())
+            {
+                TableRow row = DatabaseManager.row(TABLE);
+                row.setColumn("consumer", entry.getKey());
+                row.setColumn("transaction_id", event.getTransactionID());
+                row.setColumn("event_type", event.getEventType());
+                row.setColumn("subject_type", event.getSubjectType());
+                row.setColumn("subject_id", event.getSubjectID());
+                row.setColumn("object_type", event.getObjectType());
+                row.setColumn("object_id", event.getObjectID());
+                row.setColumn("detail", event.getDetail());
+                row.setColumn("eperson_id", eperson);
+                row.setColumn("queued", new Date(event.getTimeStamp()));
+                row.setColumn("attempts", 0);
+                rows.add(row);
+            }
+        }
+
+        DatabaseManager.insertBatch(ctx, TABLE, rows);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Queued " + rows.size() + " events for " + byConsumer.keySet());
+        }
+    }
+
+    /**
+     * Wake the workers of this JVM, to deliver newly committed events.
+     */
+    static void wakeWorkers()
+    {
+        synchronized (signal)
+        {
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * Start the worker delivering a consumer's queued events, unless it is
+     * running already or workers are turned off in this process.
+     *
+     * @param consumer
+     *            name of the consumer
+     */
+    static void startWorker(String consumer)
+    {
+        if (!ConfigurationManager.getBooleanProperty("event.queue.workers", true))
+        {
+            return;
+        }
+
+        synchronized (workers)
+        {
+            if (!workers.containsKey(consumer))
+            {
+                Worker worker = new Worker(consumer);
+                Thread thread = new Thread(worker, "event-queue-" + consumer);
+                thread.setDaemon(true);
+                thread.start();
+                workers.put(consumer, worker);
+            }
+        }
+    }
+
+    /**
+     * Get the state of each consumer's queue.
+     *
+     * @param ctx
+     *            DSpace context
+     * @return the state of the queues, by consumer name
+     * @throws SQLException
+     */
+    public static Map<String, Status> getStatus(Context ctx)
+        throws SQLException
+    {
+        int attempts = ConfigurationManager.getIntProperty("event.queue.attempts", 5);
+        long now = System.currentTimeMillis();
+        Map<String, Status> status = new TreeMap<String, Status>();
+
+        TableRowIterator tri = DatabaseManager.query(ctx,
+                "SELECT consumer, count(*) AS depth, min(queued) AS oldest FROM " + TABLE
+                        + " WHERE attempts < ? GROUP BY consumer", attempts);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Status s = getStatus(status, row.getStringColumn("consumer"));
+                s.depth = row.getLongColumn("depth");
+                Date oldest = row.getDateColumn("oldest");
+                s.lag = oldest == null ? 0 : now - oldest.getTime();
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        tri = DatabaseManager.query(ctx,
+                "SELECT consumer, count(*) AS failed FROM " + TABLE
+                        + " WHERE attempts >= ? GROUP BY consumer", attempts);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                getStatus(status, row.getStringColumn("consumer")).failed = row.getLongColumn("failed");
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        tri = DatabaseManager.query(ctx,
+                "SELECT consumer, owner, lease_until FROM " + LEASE_TABLE);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Date until = row.getDateColumn("lease_until");
+                if (until != null && until.getTime() > now)
+                {
+                    getStatus(status, row.getStringColumn("consumer")).owner = row.getStringColumn("owner");
+                }
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        synchronized (workers)
+        {
+            for (Worker worker : workers.values())
+            {
+                Status s = getStatus(status, worker.name);
+                s.delivered = worker.delivered.get();
+                s.retried = worker.retried.get();
+            }
+        }
+
+        return status;
+    }
+
+    private static Status getStatus(Map<String, Status> status, String consumer)
+    {
+        Status s = status.get(consumer);
+        if (s == null)
+        {
+            s = new Status(consumer);
+            status.put(consumer, s);
+        }
+        return s;
+    }
+
+    /**
+     * Command line interface: show the state of the queues, or deliver
+     * everything queued.
+     *
+     * @param argv
+     *            command line arguments
+     * @throws Exception
+     */
+    public static void main(String[] argv) throws Exception
+    {
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+        options.addOption("d", "drain", false,
+                "deliver all the queued events of the given consumers, then exit");
+        options.addOption("c", "consumer", true,
+                "consumer whose events to deliver (may be repeated)");
+        options.addOption("h", "help", false, "help");
+        CommandLine line = parser.parse(options, argv);
+
+        if (line.hasOption('h') || (line.hasOption('d') && !line.hasOption('c')))
+        {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("EventQueue [-d -c consumer ...]\n", options);
+            System.exit(line.hasOption('h') ? 0 : 1);
+        }
+
+        if (line.hasOption('d'))
+        {
+            for (String consumer : line.getOptionValues('c'))
+            {
+                Worker worker = new Worker(consumer);
+                int count = worker.drain();
+                System.out.println(consumer + ": delivered " + count + " events");
+            }
+        }
+
+        Context ctx = new Context();
+        try
+        {
+            for (Status s : getStatus(ctx).values())
+            {
+                System.out.println(s);
+            }
+        }
+        finally
+        {
+            ctx.abort();
+        }
+    }
+
+    /**
+     * The state of one consumer's queue.
+     */
+    public static class Status
+    {
+        private final String consumer;
+        private long depth = 0;
+        private long lag = 0;
+        private long failed = 0;
+        private long delivered = 0;
+        private long retried = 0;
+        private String owner = null;
+
+        Status(String consumer)
+        {
+            this.consumer = consumer;
+        }
+
+        /** @return the name of the consumer */
+        public String getConsumer()
+        {
+            return consumer;
+        }
+
+        /** @return the number of events waiting to be delivered */
+        public long getDepth()
+        {
+            return depth;
+        }
+
+        /** @return the age of the oldest waiting event, in milliseconds */
+        public long getLag()
+        {
+            return lag;
+        }
+
+        /** @return the number of events given up on */
+        public long getFailed()
+        {
+            return failed;
+        }
+
+        /** @return the number of events delivered by this process */
+        public long getDelivered()
+        {
+            return delivered;
+        }
+
+        /** @return the number of failed deliveries in this process */
+        public long getRetried()
+        {
+            return retried;
+        }
+
+        /** @return the worker delivering the events, or null if none is */
+        public String getOwner()
+        {
+            return owner;
+        }
+
+        public String toString()
+        {
+            return consumer + ": depth=" + depth + ", lag=" + (lag / 1000) + "s, failed=" + failed
+                    + ", delivered=" + delivered + ", retried=" + retried
+                    + (owner == null ? "" : ", delivered by " + owner);
+        }
+    }
+
+    /**
+     * Delivers the queued events of one consumer.
+     */
+    private static class Worker implements Runnable
+    {
+        private final String name;
+
+        private final long poll = ConfigurationManager.getIntProperty("event.queue.poll", 10) * 1000L;
+        private final int batchSize = ConfigurationManager.getIntProperty("event.queue.batch.size", 100);
+        private final int attempts = ConfigurationManager.getIntProperty("event.queue.attempts", 5);
+        private final long retryDelay = ConfigurationManager.getIntProperty("event.queue.retry.delay", 30) * 1000L;
+        private final long lease = ConfigurationManager.getIntProperty("event.queue.lease", 300) * 1000L;
+
+        /** Identifies this worker as the holder of the lease */
+        private final String owner;
+
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong retried = new AtomicLong();
+
+        /** Our own instance of the consumer, made afresh after a failure */
+        private Consumer consumer = null;
+
+        Worker(String name)
+        {
+            this.name = name;
+            String process = ManagementFactory.getRuntimeMXBean().getName();
+            if (process.length() > 80)
+            {
+                process = process.substring(0, 80);
+            }
+            this.owner = process + "/" + Utils.generateHexKey();
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                long wait = poll;
+                try
+                {
+                    int failures = deliverBatch();
+                    if (failures > 0)
+                    {
+                        wait = retryDelay * failures;
+                    }
+                    else if (failures == 0)
+                    {
+                        // a full batch, there may be more
+                        continue;
+                    }
+                }
+                catch (Exception e)
+                {
+                    log.error("Event queue worker for \"" + name + "\" failed", e);
+                }
+
+                try
+                {
+                    synchronized (signal)
+                    {
+                        signal.wait(wait);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Deliver everything queued, and return.
+         *
+         * @return the number of events delivered
+         */
+        int drain() throws Exception
+        {
+            long before = delivered.get();
+            while (deliverBatch() == 0)
+            {
+                // keep going while batches are full
+            }
+            return (int) (delivered.get() - before);
+        }
+
+        /**
+         * Deliver one batch of events, a transaction at a time.
+         *
+         * @return 0 if the batch was full and delivered, -1 if the queue
+         *         was emptied or another process holds the lease, or else
+         *         the attempts made so far at the transaction that failed
+         */
+        private int deliverBatch() throws Exception
+        {
+            Context ctx = new Context();
+            try
+            {
+                ctx.turnOffAuthorisationSystem();
+
+                if (!claim(ctx))
+                {
+                    return -1;
+                }
+
+                List<TableRow> rows = read(ctx);
+                int i = 0;
+                while (i < rows.size())
+                {
+                    // make sure the lease has not run out
+                    if (i > 0 && !claim(ctx))
+                    {
+                        log.warn("Lost the lease of \"" + name + "\" while delivering, "
+                                + "event.queue.lease may be too short");
+                        return -1;
+                    }
+
+                    // the events of one transaction
+                    String tid = rows.get(i).getStringColumn("transaction_id");
+                    int j = i + 1;
+                    while (j < rows.size() && tid != null
+                            && tid.equals(rows.get(j).getStringColumn("transaction_id")))
+                    {
+                        j++;
+                    }
+
+                    // a transaction cut short by the batch size waits for the next batch
+                    if (j == rows.size() && i > 0 && rows.size() == batchSize)
+                    {
+                        break;
+                    }
+
+                    List<TableRow> transaction = rows.subList(i, j);
+                    if (!deliver(ctx, transaction))
+                    {
+                        return transaction.get(0).getIntColumn("attempts") + 1;
+                    }
+                    i = j;
+                }
+
+                if (rows.size() < batchSize)
+                {
+                    // let other processes deliver what they queue
+                    release(ctx);
+                    ctx.complete();
+                    return -1;
+                }
+
+                ctx.complete();
+                return 0;
+            }
+            finally
+            {
+                if (ctx.isValid())
+                {
+                    ctx.abort();
+                }
+            }
+        }
+
+        /**
+         * Take the consumer's lease, or renew it if this worker holds it
+         * already, and commit.
+         *
+         * @return true if this worker holds the lease
+         */
+        private boolean claim(Context ctx) throws SQLException
+        {
+            long now = System.currentTimeMillis();
+            Timestamp until = new Timestamp(now + lease);
+
+            int updated = DatabaseManager.updateQuery(ctx,
+                    "UPDATE " + LEASE_TABLE + " SET owner = ?, lease_until = ?"
+                            + " WHERE consumer = ? AND (owner = ? OR lease_until < ?)",
+                    owner, until, name, owner, new Timestamp(now));
+            if (updated == 0)
+            {
+                TableRow row = DatabaseManager.querySingle(ctx,
+                        "SELECT count(*) AS held FROM " + LEASE_TABLE + " WHERE consumer = ?", name);
+                if (row.getLongColumn("held") > 0)
+                {
+                    // another process holds it
+                    rollback(ctx);
+                    return false;
+                }
+
+                try
+                {
+                    DatabaseManager.updateQuery(ctx,
+                            "INSERT INTO " + LEASE_TABLE + " (consumer, owner, lease_until) VALUES (?, ?, ?)",
+                            name, owner, until);
+                }
+                catch (SQLException e)
+                {
+                    // another process took it first
+                    rollback(ctx);
+                    return false;
+                }
+            }
+
+            ctx.commit();
+            return true;
+        }
+
+        /**
+         * Give up the consumer's lease, if this worker holds it, and commit.
+         */
+        private void release(Context ctx) throws SQLException
+        {
+            DatabaseManager.updateQuery(ctx,
+                    "DELETE FROM " + LEASE_TABLE + " WHERE consumer = ? AND owner = ?", name, owner);
+            ctx.commit();
+        }
+
+        /**
+         * Roll back the worker's transaction, and with it the events that
+         * consumers raised in it.
+         */
+        private void rollback(Context ctx) throws SQLException
+        {
+            ctx.getDBConnection().rollback();
+            while (ctx.pollEvent() != null)
+            {
+                // dropped
+            }
+        }
+
+        private List<TableRow> read(Context ctx) throws SQLException
+        {
+            String query = "SELECT * FROM " + TABLE + " WHERE consumer = ? AND attempts < ?"
+                    + " ORDER BY eventqueue_id";
+            if (DatabaseManager.isOracle())
+            {
+                query = "SELECT * FROM (" + query + ") WHERE rownum <= " + batchSize;
+            }
+            else
+            {
+                query = query + " LIMIT " + batchSize;
+            }
+
+            List<TableRow> rows = new ArrayList<TableRow>();
+            TableRowIterator tri = DatabaseManager.queryTable(ctx, TABLE, query, name, attempts);
+            try
+            {
+                while (tri.hasNext())
+                {
+                    rows.add(tri.next());
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+
+            return rows;
+        }
+
+        /**
+         * Deliver the events of one transaction, and remove them from the
+         * queue. On failure, count the attempt instead.
+         *
+         * @return true if the events were delivered
+         */
+        private boolean deliver(Context ctx, List<TableRow> transaction) throws Exception
+        {
+            List<Object[]> ids = new ArrayList<Object[]>();
+            try
+            {
+                if (consumer == null)
+                {
+                    consumer = ConsumerProfile.makeConsumerProfile(name).getConsumer();
+                    consumer.initialize();
+                }
+
+                int eperson = transaction.get(0).getIntColumn("eperson_id");
+                ctx.setCurrentUser(eperson < 0 ? null : EPerson.find(ctx, eperson));
+
+                for (TableRow row : transaction)
+                {
+                    consumer.consume(ctx, toEvent(row));
+                    ids.add(new Object[] { Integer.valueOf(row.getIntColumn("eventqueue_id")) });
+                }
+                consumer.end(ctx);
+
+                DatabaseManager.updateQueryBatch(ctx,
+                        "DELETE FROM " + TABLE + " WHERE eventqueue_id = ?", ids);
+                ctx.commit();
+                ctx.clearCache();
+
+                delivered.addAndGet(ids.size());
+                return true;
+            }
+            catch (Exception e)
+            {
+                rollback(ctx);
+                ctx.clearCache();
+
+                // whatever the consumer had gathered is suspect
+                consumer = null;
+                retried.incrementAndGet();
+
+                ids.clear();
+                for (TableRow row : transaction)
+                {
+                    ids.add(new Object[] { Integer.valueOf(row.getIntColumn("eventqueue_id")) });
+                }
+                DatabaseManager.updateQueryBatch(ctx,
+                        "UPDATE " + TABLE + " SET attempts = attempts + 1 WHERE eventqueue_id = ?", ids);
+                ctx.commit();
+
+                int made = transaction.get(0).getIntColumn("attempts") + 1;
+                if (made >= attempts)
+                {
+                    log.error("Giving up delivering transaction "
+                            + transaction.get(0).getStringColumn("transaction_id") + " to \"" + name
+                            + "\" after " + made + " attempts, its events are left in the "
+                            + TABLE + " table", e);
+                }
+                else
+                {
+                    log.warn("Delivering transaction "
+                            + transaction.get(0).getStringColumn("transaction_id") + " to \"" + name
+                            + "\" failed, attempt " + made + " of " + attempts, e);
+                }
+                return false;
+            }
+        }
+
+        private static Event toEvent(TableRow row)
+        {
+            Event event;
+            if (row.getIntColumn("object_type") < 0)
+            {
+                event = new Event(row.getIntColumn("event_type"),
+                        row.getIntColumn("subject_type"), row.getIntColumn("subject_id"),
+                        row.getStringColumn("detail"));
+            }
+            else
+            {
+                event = new Event(row.getIntColumn("event_type"),
+                        row.getIntColumn("subject_type"), row.getIntColumn("subject_id"),
+                        row.getIntColumn("object_type"), row.getIntColumn("object_id"),
+                        row.getStringColumn("detail"));
+            }
+            event.setTransactionID(row.getStringColumn("transaction_id"));
+            event.setCurrentUser(row.getIntColumn("eperson_id"));
+            event.setTimeStamp(row.getDateColumn("queued").getTime());
+            return event;
+        }
+    }
+}
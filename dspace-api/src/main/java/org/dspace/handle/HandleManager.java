@@ -9,7 +9,9 @@ package org.dspace.handle;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.Collection;
@@ -45,6 +47,9 @@ public class HandleManager
     /** Prefix registered to no one */
     static final String EXAMPLE_PREFIX = "123456789";
 
+    /** Maximum number of resource IDs in a single IN (...) list */
+    private static final int MAX_IN_LIST = 500;
+
     /** Private Constructor */
     private HandleManager()
     {
@@ -433,6 +438,68 @@ public class HandleManager
         }
     }
 
+    /**
+     * Return the handles of many objects of the same type at once, choosing
+     * between several handles of an object the same way as
+     * {@link #findHandle(Context, DSpaceObject)}.
+     *
+     * @param context
+     *            DSpace context
+     * @param type
+     *            The type of the objects
+     * @param ids
+     *            The IDs of the objects
+     * @return A map from object ID to handle. Objects without a handle are
+     *         not in the map.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static Map<Integer, String> findHandles(Context context, int type, List<Integer> ids)
+            throws SQLException
+    {
+        Map<Integer, String> handles = new HashMap<Integer, String>();
+
+        for (int start = 0; start < ids.size(); start += MAX_IN_LIST)
+        {
+            List<Integer> block = ids.subList(start, Math.min(start + MAX_IN_LIST, ids.size()));
+
+            StringBuilder query = new StringBuilder("SELECT * FROM Handle WHERE resource_type_id = ? " +
+                    "AND resource_id IN (");
+            List<Object> parameters = new ArrayList<Object>();
+            parameters.add(type);
+            for (int i = 0; i < block.size(); i++)
+            {
+                query.append(i == 0 ? "?" : ", ?");
+                parameters.add(block.get(i));
+            }
+            query.append(")");
+
+            TableRowIterator rows = DatabaseManager.queryTable(context, "Handle",
+                    query.toString(), parameters.toArray());
+            try
+            {
+                while (rows.hasNext())
+                {
+                    TableRow row = rows.next();
+                    Integer id = row.getIntColumn("resource_id");
+                    String handle = row.getStringColumn("handle");
+
+                    //Prefer a handle that doesn't look like this 12346/213.{version}
+                    if (!handles.containsKey(id) || !handle.matches(".*/.*\\.\\d+"))
+                    {
+                        handles.put(id, handle);
+                    }
+                }
+            }
+            finally
+            {
+                rows.close();
+            }
+        }
+
+        return handles;
+    }
+
     /**
      * Return all the handles which start with prefix.
      *
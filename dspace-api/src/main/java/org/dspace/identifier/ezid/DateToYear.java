@@ -9,10 +9,10 @@
 package org.dspace.identifier.ezid;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import org.dspace.core.ThreadSafeDateFormat;
 
 /**
  * Convert a date-time string to the year thereof.
@@ -22,11 +22,11 @@ import java.util.GregorianCalendar;
 public class DateToYear
         implements Transform
 {
-    private static final SimpleDateFormat parser
-            = new SimpleDateFormat("yyyy'-'MM'-'dd");
+    private static final ThreadSafeDateFormat parser
+            = new ThreadSafeDateFormat("yyyy'-'MM'-'dd");
 
     @Override
-    public synchronized String transform(String from)
+    public String transform(String from)
             throws ParseException
     {
         Date when = parser.parse(from);
@@ -9,7 +9,6 @@ package org.dspace.statistics;
 
 import au.com.bytecode.opencsv.CSVReader;
 import au.com.bytecode.opencsv.CSVWriter;
-import com.maxmind.geoip.Location;
 import com.maxmind.geoip.LookupService;
 
 import java.io.*;
@@ -22,6 +21,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateFormatUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
@@ -42,10 +42,9 @@ import org.dspace.content.Collection;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.core.ThreadSafeDateFormat;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
-import org.dspace.statistics.util.DnsLookup;
-import org.dspace.statistics.util.LocationUtils;
 import org.dspace.statistics.util.SpiderDetector;
 import org.dspace.usage.UsageWorkflowEvent;
 
@@ -53,8 +52,8 @@ import javax.servlet.http.HttpServletRequest;
 import java.net.URLEncoder;
 import java.sql.SQLException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Static holder for a HttpSolrClient connection pool to issue
@@ -75,8 +74,30 @@ public class SolrLogger
 
     public static final String DATE_FORMAT_DCDATE = "yyyy-MM-dd'T'HH:mm:ss'Z'";
 
+    /** Formats shared by all threads, see getDateView */
+    private static final ThreadSafeDateFormat format8601 = new ThreadSafeDateFormat(DATE_FORMAT_8601);
+
+    private static final ThreadSafeDateFormat formatDCDate = new ThreadSafeDateFormat(DATE_FORMAT_DCDATE);
+
+    private static final ThreadSafeDateFormat dayView = new ThreadSafeDateFormat("dd-MM-yyyy");
+
+    private static final ThreadSafeDateFormat monthView = new ThreadSafeDateFormat("MMMM yyyy");
+
+    private static final ThreadSafeDateFormat yearView = new ThreadSafeDateFormat("yyyy");
+
     private static final LookupService locationService;
 
+    /** Adds the client's host name and location to usage events */
+    private static final UsageEventEnricher enricher;
+
+    /** Sends usage events to Solr in batches */
+    private static final UsageEventBuffer buffer;
+
+    /** Stores the queued usage events when a command line tool exits */
+    private static final Thread shutdownHook;
+
+    private static final AtomicBoolean shutDown = new AtomicBoolean();
+
     private static final boolean useProxies;
 
     private static List<String> statisticYearCores = new ArrayList<String>();
@@ -167,6 +188,20 @@ public class SolrLogger
             log.error("The required 'dbfile' configuration is missing in solr-statistics.cfg!");
         }
         locationService = service;
+        enricher = new UsageEventEnricher(service);
+        buffer = new UsageEventBuffer(server);
+
+        // give queued events a chance to be stored when e.g. a command
+        // line tool that logs usage exits; web applications call shutdown()
+        // themselves, when they are stopped
+        shutdownHook = new Thread("usage-event-shutdown")
+        {
+            public void run()
+            {
+                stopThreads();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
 
         if ("true".equals(ConfigurationManager.getProperty("useProxies")))
         {
@@ -212,8 +247,9 @@ public class SolrLogger
 
         try
         {
-            SolrInputDocument doc1 = getCommonSolrDoc(dspaceObject, request, currentUser);
-            if (doc1 == null) return;
+            UsageEventEnricher.Request event = getCommonSolrDoc(dspaceObject, request, currentUser);
+            if (event == null) return;
+            SolrInputDocument doc1 = event.getDocument();
             if(dspaceObject instanceof Bitstream)
             {
                 Bitstream bit = (Bitstream) dspaceObject;
@@ -225,10 +261,7 @@ public class SolrLogger
 
             doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
-
-            solr.add(doc1);
-            //commits are executed automatically using the solr autocommit
-//            solr.commit(false, false);
+            enricher.submit(event);
 
         }
         catch (RuntimeException re)
@@ -248,10 +281,11 @@ public class SolrLogger
 		}
 
 		try {
-			SolrInputDocument doc1 = getCommonSolrDoc(dspaceObject, ip, userAgent, xforwarderfor,
+			UsageEventEnricher.Request event = getCommonSolrDoc(dspaceObject, ip, userAgent, xforwarderfor,
 					currentUser);
-			if (doc1 == null)
+			if (event == null)
 				return;
+			SolrInputDocument doc1 = event.getDocument();
 			if (dspaceObject instanceof Bitstream) {
 				Bitstream bit = (Bitstream) dspaceObject;
 				Bundle[] bundles = bit.getBundles();
@@ -262,9 +296,7 @@ public class SolrLogger
 
 			doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
-			solr.add(doc1);
-			// commits are executed automatically using the solr autocommit
-			// solr.commit(false, false);
+			enricher.submit(event);
 
 		} catch (RuntimeException re) {
 			throw re;
@@ -276,14 +308,16 @@ public class SolrLogger
 
     /**
      * Returns a solr input document containing common information about the statistics
-     * regardless if we are logging a search or a view of a DSpace object
+     * regardless if we are logging a search or a view of a DSpace object.
+     * The client's host name and location are not looked up here, but when
+     * the returned event is handed to the enricher.
      * @param dspaceObject the object used.
      * @param request the current request context.
      * @param currentUser the current session's user.
-     * @return a solr input document
+     * @return the event holding a solr input document, or null if it should not be logged
      * @throws SQLException in case of a database exception
      */
-    private static SolrInputDocument getCommonSolrDoc(DSpaceObject dspaceObject, HttpServletRequest request, EPerson currentUser) throws SQLException {
+    private static UsageEventEnricher.Request getCommonSolrDoc(DSpaceObject dspaceObject, HttpServletRequest request, EPerson currentUser) throws SQLException {
         boolean isSpiderBot = request != null && SpiderDetector.isSpider(request);
         if(isSpiderBot &&
                 !ConfigurationManager.getBooleanProperty("usage-statistics", "logBots", true))
@@ -293,9 +327,11 @@ public class SolrLogger
 
         SolrInputDocument doc1 = new SolrInputDocument();
         // Save our basic info that we already have
+        String ip = null;
+        String userAgent = null;
 
         if(request != null){
-            String ip = request.getRemoteAddr();
+            ip = request.getRemoteAddr();
 
             if (isUseProxies() && request.getHeader("X-Forwarded-For") != null) {
                 /* This header is a comma delimited list */
@@ -317,48 +353,7 @@ public class SolrLogger
                 doc1.addField("referrer", request.getHeader("referer"));
             }
 
-            try
-            {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
-            }
-
-            // Save the location information if valid, save the event without
-            // location information if not valid
-            if(locationService != null)
-            {
-                Location location = locationService.getLocation(ip);
-                if (location != null
-                        && !("--".equals(location.countryCode)
-                        && location.latitude == -180 && location.longitude == -180))
-                {
-                    try
-                    {
-                        doc1.addField("continent", LocationUtils
-                                .getContinentCode(location.countryCode));
-                    }
-                    catch (Exception e)
-                    {
-                        System.out
-                                .println("COUNTRY ERROR: " + location.countryCode);
-                    }
-                    doc1.addField("countryCode", location.countryCode);
-                    doc1.addField("city", location.city);
-                    doc1.addField("latitude", location.latitude);
-                    doc1.addField("longitude", location.longitude);
-                    doc1.addField("isBot",isSpiderBot);
-
-                    if(request.getHeader("User-Agent") != null)
-                    {
-                        doc1.addField("userAgent", request.getHeader("User-Agent"));
-                    }
-                }
-            }
+            userAgent = request.getHeader("User-Agent");
         }
 
         if(dspaceObject != null){
@@ -373,10 +368,10 @@ public class SolrLogger
             doc1.addField("epersonid", currentUser.getID());
         }
 
-        return doc1;
+        return new UsageEventEnricher.Request(doc1, ip, isSpiderBot, userAgent);
     }
 
-    private static SolrInputDocument getCommonSolrDoc(DSpaceObject dspaceObject, String ip, String userAgent, String xforwarderfor, EPerson currentUser) throws SQLException {
+    private static UsageEventEnricher.Request getCommonSolrDoc(DSpaceObject dspaceObject, String ip, String userAgent, String xforwarderfor, EPerson currentUser) throws SQLException {
         boolean isSpiderBot = SpiderDetector.isSpider(ip);
         if(isSpiderBot &&
                 !ConfigurationManager.getBooleanProperty("usage-statistics", "logBots", true))
@@ -386,6 +381,7 @@ public class SolrLogger
 
         SolrInputDocument doc1 = new SolrInputDocument();
         // Save our basic info that we already have
+        String lookupIp = null;
 
 
             if (isUseProxies() && xforwarderfor != null) {
@@ -401,49 +397,7 @@ public class SolrLogger
                 }
 
             doc1.addField("ip", ip);
-
-            try
-            {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
-            }
-
-            // Save the location information if valid, save the event without
-            // location information if not valid
-            if(locationService != null)
-            {
-                Location location = locationService.getLocation(ip);
-                if (location != null
-                        && !("--".equals(location.countryCode)
-                        && location.latitude == -180 && location.longitude == -180))
-                {
-                    try
-                    {
-                        doc1.addField("continent", LocationUtils
-                                .getContinentCode(location.countryCode));
-                    }
-                    catch (Exception e)
-                    {
-                        System.out
-                                .println("COUNTRY ERROR: " + location.countryCode);
-                    }
-                    doc1.addField("countryCode", location.countryCode);
-                    doc1.addField("city", location.city);
-                    doc1.addField("latitude", location.latitude);
-                    doc1.addField("longitude", location.longitude);
-                    doc1.addField("isBot",isSpiderBot);
-
-                    if(userAgent != null)
-                    {
-                        doc1.addField("userAgent", userAgent);
-                    }
-                }
-            }
+            lookupIp = ip;
         }
 
         if(dspaceObject != null){
@@ -458,7 +412,7 @@ public class SolrLogger
             doc1.addField("epersonid", currentUser.getID());
         }
 
-        return doc1;
+        return new UsageEventEnricher.Request(doc1, lookupIp, isSpiderBot, userAgent);
     }
 
     
@@ -466,8 +420,9 @@ public class SolrLogger
                                  List<String> queries, int rpp, String sortBy, String order, int page, DSpaceObject scope) {
         try
         {
-            SolrInputDocument solrDoc = getCommonSolrDoc(resultObject, request, currentUser);
-            if (solrDoc == null) return;
+            UsageEventEnricher.Request event = getCommonSolrDoc(resultObject, request, currentUser);
+            if (event == null) return;
+            SolrInputDocument solrDoc = event.getDocument();
 
             for (String query : queries) {
                 solrDoc.addField("query", query);
@@ -500,7 +455,7 @@ public class SolrLogger
                 solrDoc.addField("page", page);
             }
 
-            solr.add(solrDoc);
+            enricher.submit(event);
         }
         catch (RuntimeException re)
         {
@@ -514,7 +469,8 @@ public class SolrLogger
 
     public static void postWorkflow(UsageWorkflowEvent usageWorkflowEvent) throws SQLException {
         try {
-            SolrInputDocument solrDoc = getCommonSolrDoc(usageWorkflowEvent.getObject(), null, null);
+            UsageEventEnricher.Request event = getCommonSolrDoc(usageWorkflowEvent.getObject(), null, null);
+            SolrInputDocument solrDoc = event.getDocument();
 
             //Log the current collection & the scope !
             solrDoc.addField("owningColl", usageWorkflowEvent.getScope().getID());
@@ -550,7 +506,7 @@ public class SolrLogger
                 solrDoc.addField("actor", usageWorkflowEvent.getActor().getID());
             }
 
-            solr.add(solrDoc);
+            enricher.submit(event);
         }
         catch (Exception e)
         {
@@ -628,6 +584,63 @@ public class SolrLogger
         }
     }
 
+    /**
+     * Queue a usage event document to be sent to Solr with others.
+     *
+     * @param doc the enriched usage event
+     */
+    static void store(SolrInputDocument doc)
+    {
+        buffer.add(doc);
+    }
+
+    /**
+     * Store the usage events still queued and stop the background threads.
+     * Called when a web application is stopped, so that the threads do not
+     * outlive it; command line tools need not call it. Events logged
+     * afterwards are stored as they come, without the host name and
+     * location.
+     */
+    public static void shutdown()
+    {
+        try
+        {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        catch (IllegalStateException e)
+        {
+            // the JVM is exiting, and the hook is running or has run
+        }
+        stopThreads();
+    }
+
+    private static void stopThreads()
+    {
+        if (shutDown.compareAndSet(false, true))
+        {
+            enricher.shutdown();
+            buffer.shutdown();
+        }
+    }
+
+    /**
+     * @return a one line summary of the host name and location lookups of
+     *         usage events: cache hit rate, queue depth and lag
+     */
+    public static String getEnrichmentReport()
+    {
+        return enricher.getReport();
+    }
+
+    /**
+     * @return a one line summary of the sending of usage events to Solr:
+     *         events enqueued, flushed, waiting and dropped
+     */
+    public static String getBufferReport()
+    {
+        return buffer.getReport();
+    }
+
     public static boolean isUseProxies()
     {
         return useProxies;
@@ -751,7 +764,7 @@ public class SolrLogger
                 };
 
                 /* query for ip, exclude results previously set as bots. */
-                processor.execute("ip:"+ip+ "* AND -isBot:true");
+                processor.execute("ip:" + ClientUtils.escapeQueryChars(ip) + "* AND -isBot:true");
 
                 solr.commit();
 
@@ -798,7 +811,7 @@ public class SolrLogger
     public static void deleteIP(String ip)
     {
         try {
-            solr.deleteByQuery("ip:"+ip + "*");
+            solr.deleteByQuery("ip:" + ClientUtils.escapeQueryChars(ip) + "*");
         } catch (Exception e) {
             log.error(e.getMessage(),e);
         }
@@ -1046,8 +1059,7 @@ public class SolrLogger
             Date date = null;
             try
             {
-                SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT_8601);
-                date = format.parse(name);
+                date = format8601.parse(name);
             }
             catch (ParseException e)
             {
@@ -1055,9 +1067,7 @@ public class SolrLogger
                 {
                     // We should use the dcdate (the dcdate is used when
                     // generating random data)
-                    SimpleDateFormat format = new SimpleDateFormat(
-                            DATE_FORMAT_DCDATE);
-                    date = format.parse(name);
+                    date = formatDCDate.parse(name);
                 }
                 catch (ParseException e1)
                 {
@@ -1065,22 +1075,15 @@ public class SolrLogger
                 }
                 // e.printStackTrace();
             }
-            String dateformatString = "dd-MM-yyyy";
-            if ("DAY".equals(type))
+            ThreadSafeDateFormat simpleFormat = dayView;
+            if ("MONTH".equals(type))
             {
-                dateformatString = "dd-MM-yyyy";
-            }
-            else if ("MONTH".equals(type))
-            {
-                dateformatString = "MMMM yyyy";
-
+                simpleFormat = monthView;
             }
             else if ("YEAR".equals(type))
             {
-                dateformatString = "yyyy";
+                simpleFormat = yearView;
             }
-            SimpleDateFormat simpleFormat = new SimpleDateFormat(
-                    dateformatString);
             if (date != null)
             {
                 name = simpleFormat.format(date);
@@ -1197,8 +1200,10 @@ public class SolrLogger
         QueryResponse response;
         try
         {
-            // solr.set
-            response = solr.query(solrQuery);
+            // The facet queries of a report can make the request too long
+            // to send as a GET
+            response = solr.query(solrQuery, facetQueries != null && 0 < facetQueries.size()
+                    ? SolrRequest.METHOD.POST : SolrRequest.METHOD.GET);
         }
         catch (SolrServerException e)
         {
@@ -1227,7 +1232,12 @@ public class SolrLogger
                     first = false;
                 }
 
-                query.append(" NOT(ip: ").append(ip).append(")");
+                // the first parts of a block match every address in it
+                query.append(" NOT(ip: ").append(ClientUtils.escapeQueryChars(ip));
+                if (ip.endsWith(".") || StringUtils.countMatches(ip, ".") < 3) {
+                    query.append("*");
+                }
+                query.append(")");
             }
             filterQuery = query.toString();
         }
@@ -0,0 +1,313 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Collects usage event documents and sends them to the statistics core in
+ * batches from a background thread, rather than with one request to Solr per
+ * event from the thread that logged it. A batch is sent when it has reached
+ * the batch size, or when its first event has waited the flush interval.
+ * <P>
+ * The buffer holds a bounded number of events. When it is full, an event is
+ * either dropped at once, or the thread logging it waits up to a time limit
+ * for room and drops it only then. Configured in solr-statistics.cfg:
+ *
+ * <pre>
+ *  buffer.size = 10000
+ *  buffer.batch = 250
+ *  buffer.interval = 1000
+ *  buffer.policy = block
+ *  buffer.block.timeout = 500
+ * </pre>
+ *
+ * A buffer size of 0 turns the buffer off: each event is sent as it is
+ * logged.
+ *
+ * @version $Revision$
+ */
+class UsageEventBuffer implements Runnable
+{
+    private static final Logger log = Logger.getLogger(UsageEventBuffer.class);
+
+    /** How many events are flushed between reports of the statistics */
+    private static final long REPORT_INTERVAL = 10000;
+
+    private final SolrServer solr;
+
+    /** Events waiting to be sent, null if the buffer is off */
+    private final BlockingQueue<SolrInputDocument> queue;
+
+    private final int batchSize;
+
+    private final long interval;
+
+    /** Milliseconds to wait for room when full, 0 to drop at once */
+    private final long blockTimeout;
+
+    private final Thread flusher;
+
+    private volatile boolean stopping = false;
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private final AtomicLong flushed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * @param solr
+     *            the statistics core, null if it is not available
+     */
+    UsageEventBuffer(SolrServer solr)
+    {
+        this.solr = solr;
+
+        int size = ConfigurationManager.getIntProperty("solr-statistics", "buffer.size", 10000);
+        batchSize = Math.max(1, ConfigurationManager.getIntProperty("solr-statistics", "buffer.batch", 250));
+        interval = Math.max(1, ConfigurationManager.getLongProperty("solr-statistics", "buffer.interval", 1000));
+
+        String policy = ConfigurationManager.getProperty("solr-statistics", "buffer.policy");
+        if (policy == null || "block".equalsIgnoreCase(policy.trim()))
+        {
+            blockTimeout = Math.max(0, ConfigurationManager.getLongProperty("solr-statistics", "buffer.block.timeout", 500));
+        }
+        else
+        {
+            if (!"drop".equalsIgnoreCase(policy.trim()))
+            {
+                log.warn("Unknown solr-statistics buffer.policy \"" + policy + "\", dropping events when full");
+            }
+            blockTimeout = 0;
+        }
+
+        if (solr != null && size > 0)
+        {
+            queue = new ArrayBlockingQueue<SolrInputDocument>(size);
+            flusher = new Thread(this, "usage-event-buffer");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        else
+        {
+            queue = null;
+            flusher = null;
+        }
+    }
+
+    /**
+     * Queue an event to be sent to Solr.
+     *
+     * @param doc
+     *            the usage event
+     */
+    void add(SolrInputDocument doc)
+    {
+        if (solr == null)
+        {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        if (queue == null || stopping)
+        {
+            enqueued.incrementAndGet();
+            List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(1);
+            batch.add(doc);
+            send(batch);
+            return;
+        }
+
+        boolean queued;
+        try
+        {
+            queued = blockTimeout > 0
+                    ? queue.offer(doc, blockTimeout, TimeUnit.MILLISECONDS)
+                    : queue.offer(doc);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+
+        if (queued)
+        {
+            enqueued.incrementAndGet();
+        }
+        else if (dropped.incrementAndGet() % REPORT_INTERVAL == 1)
+        {
+            log.warn("The usage event buffer is full, events are being dropped. " + getReport());
+        }
+    }
+
+    /**
+     * Send events in batches until stopped and empty.
+     */
+    public void run()
+    {
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        long deadline = 0;
+
+        while (true)
+        {
+            try
+            {
+                long wait = batch.isEmpty() ? interval : deadline - System.currentTimeMillis();
+                if (wait > 0 && !stopping)
+                {
+                    SolrInputDocument doc = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (doc != null)
+                    {
+                        if (batch.isEmpty())
+                        {
+                            deadline = System.currentTimeMillis() + interval;
+                        }
+                        batch.add(doc);
+                    }
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+
+                if (!batch.isEmpty()
+                        && (batch.size() >= batchSize || stopping
+                                || System.currentTimeMillis() >= deadline))
+                {
+                    send(batch);
+                    batch.clear();
+                }
+
+                if (stopping && batch.isEmpty() && queue.isEmpty())
+                {
+                    return;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                stopping = true;
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Unexpected error in the usage event buffer: " + e.getMessage(), e);
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<SolrInputDocument> batch)
+    {
+        try
+        {
+            // commits are executed automatically using the solr autocommit
+            solr.add(batch);
+            batches.incrementAndGet();
+            long before = flushed.get();
+            if ((flushed.addAndGet(batch.size()) / REPORT_INTERVAL) != (before / REPORT_INTERVAL))
+            {
+                log.info(getReport());
+            }
+        }
+        catch (Exception e)
+        {
+            failed.addAndGet(batch.size());
+            log.error("Unable to store " + batch.size() + " usage events: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Send what is buffered and stop the background thread, waiting at most
+     * ten seconds.
+     */
+    void shutdown()
+    {
+        stopping = true;
+        if (flusher != null)
+        {
+            try
+            {
+                flusher.join(10000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (flusher.isAlive())
+            {
+                log.warn(queue.size() + " usage events were not stored");
+            }
+        }
+    }
+
+    /**
+     * @return events accepted into the buffer
+     */
+    long getEnqueuedCount()
+    {
+        return enqueued.get();
+    }
+
+    /**
+     * @return events sent to Solr
+     */
+    long getFlushedCount()
+    {
+        return flushed.get();
+    }
+
+    /**
+     * @return events dropped because the buffer was full or there is no
+     *         statistics core
+     */
+    long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return events Solr did not accept
+     */
+    long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return events waiting to be sent
+     */
+    int getDepth()
+    {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return a one line summary of the statistics
+     */
+    String getReport()
+    {
+        return "Usage event buffer: enqueued=" + getEnqueuedCount()
+                + ", flushed=" + getFlushedCount()
+                + " in " + batches.get() + " batches"
+                + ", waiting=" + getDepth()
+                + ", dropped=" + getDroppedCount()
+                + ", failed=" + getFailedCount();
+    }
+}
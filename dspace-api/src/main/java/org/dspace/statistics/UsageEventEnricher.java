@@ -0,0 +1,362 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.statistics.util.IPLookupCache;
+import org.dspace.statistics.util.LocationUtils;
+
+import com.maxmind.geoip.Location;
+import com.maxmind.geoip.LookupService;
+
+/**
+ * Adds the host name and location of the client to usage events before they
+ * are stored. The lookups go through an {@link IPLookupCache}, and are done by
+ * background threads so that a slow DNS resolver does not hold up the request
+ * being logged: the request thread only queues the event. If the queue is
+ * full the event is stored as it is, without the host name and location,
+ * rather than letting the queue grow without bound, losing the event or
+ * making the request wait for the lookups.
+ * <P>
+ * Configured in usage-statistics.cfg:
+ *
+ * <pre>
+ *  enrichment.async = true
+ *  enrichment.threads = 2
+ *  enrichment.queue = 10000
+ *  enrichment.cache.size = 10000
+ *  enrichment.cache.ttl = 86400
+ *  enrichment.cache.negative.ttl = 900
+ * </pre>
+ *
+ * @version $Revision$
+ */
+class UsageEventEnricher
+{
+    private static final Logger log = Logger.getLogger(UsageEventEnricher.class);
+
+    /** How many events are enriched between reports of the statistics */
+    private static final long REPORT_INTERVAL = 10000;
+
+    /**
+     * A usage event waiting to have the client's host name and location
+     * added.
+     */
+    static class Request
+    {
+        private final SolrInputDocument doc;
+
+        private final String ip;
+
+        private final boolean bot;
+
+        private final String userAgent;
+
+        private final long created = System.currentTimeMillis();
+
+        /**
+         * @param doc
+         *            the event document
+         * @param ip
+         *            the client address, or null if there is no client
+         * @param bot
+         *            whether the client is a spider
+         * @param userAgent
+         *            the client's User-Agent, may be null
+         */
+        Request(SolrInputDocument doc, String ip, boolean bot, String userAgent)
+        {
+            this.doc = doc;
+            this.ip = ip;
+            this.bot = bot;
+            this.userAgent = userAgent;
+        }
+
+        SolrInputDocument getDocument()
+        {
+            return doc;
+        }
+    }
+
+    private final IPLookupCache cache;
+
+    /** Background threads, null if the lookups are done by the caller */
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong enriched = new AtomicLong();
+
+    private final AtomicLong inline = new AtomicLong();
+
+    private final AtomicLong unenriched = new AtomicLong();
+
+    private final AtomicLong totalLag = new AtomicLong();
+
+    private final AtomicLong maxLag = new AtomicLong();
+
+    UsageEventEnricher(LookupService locationService)
+    {
+        int size = ConfigurationManager.getIntProperty("usage-statistics", "enrichment.cache.size", 10000);
+        long ttl = ConfigurationManager.getLongProperty("usage-statistics", "enrichment.cache.ttl", 86400);
+        long negativeTTL = ConfigurationManager.getLongProperty("usage-statistics", "enrichment.cache.negative.ttl", 900);
+        cache = new IPLookupCache(locationService, size, ttl * 1000, negativeTTL * 1000);
+
+        if (ConfigurationManager.getBooleanProperty("usage-statistics", "enrichment.async", true))
+        {
+            int threads = Math.max(1, ConfigurationManager.getIntProperty("usage-statistics", "enrichment.threads", 2));
+            int queue = Math.max(1, ConfigurationManager.getIntProperty("usage-statistics", "enrichment.queue", 10000));
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "usage-event-enricher");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new RejectedExecutionHandler()
+                    {
+                        public void rejectedExecution(Runnable task, ThreadPoolExecutor pool)
+                        {
+                            // the queue is full, or the threads have been shut down
+                            unenriched.incrementAndGet();
+                            store(((EnrichTask) task).request);
+                        }
+                    });
+        }
+        else
+        {
+            executor = null;
+        }
+    }
+
+    /**
+     * Enrich an event and store it, in the background if configured to.
+     *
+     * @param request
+     *            the event
+     */
+    void submit(final Request request)
+    {
+        if (executor == null)
+        {
+            inline.incrementAndGet();
+            process(request);
+            return;
+        }
+
+        executor.execute(new EnrichTask(request));
+    }
+
+    /**
+     * Enriches and stores an event on one of the background threads.
+     */
+    private class EnrichTask implements Runnable
+    {
+        private final Request request;
+
+        EnrichTask(Request request)
+        {
+            this.request = request;
+        }
+
+        public void run()
+        {
+            process(request);
+        }
+    }
+
+    private void process(Request request)
+    {
+        try
+        {
+            enrich(request);
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Unable to enrich usage event: " + e.getMessage(), e);
+        }
+        store(request);
+    }
+
+    private void store(Request request)
+    {
+        try
+        {
+            SolrLogger.store(request.getDocument());
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Unable to store usage event: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add the host name and location of the client to an event.
+     *
+     * @param request
+     *            the event
+     */
+    void enrich(Request request)
+    {
+        if (request.ip != null)
+        {
+            SolrInputDocument doc1 = request.getDocument();
+            IPLookupCache.IPInfo info = cache.lookup(request.ip);
+
+            if (info.getDns() != null)
+            {
+                doc1.addField("dns", info.getDns());
+            }
+
+            // Save the location information if valid, save the event without
+            // location information if not valid
+            Location location = info.getLocation();
+            if (location != null)
+            {
+                try
+                {
+                    doc1.addField("continent", LocationUtils
+                            .getContinentCode(location.countryCode));
+                }
+                catch (Exception e)
+                {
+                    log.warn("COUNTRY ERROR: " + location.countryCode);
+                }
+                doc1.addField("countryCode", location.countryCode);
+                doc1.addField("city", location.city);
+                doc1.addField("latitude", location.latitude);
+                doc1.addField("longitude", location.longitude);
+                doc1.addField("isBot", request.bot);
+
+                if (request.userAgent != null)
+                {
+                    doc1.addField("userAgent", request.userAgent);
+                }
+            }
+        }
+
+        long lag = System.currentTimeMillis() - request.created;
+        totalLag.addAndGet(lag);
+        long max = maxLag.get();
+        while (lag > max && !maxLag.compareAndSet(max, lag))
+        {
+            max = maxLag.get();
+        }
+
+        if (enriched.incrementAndGet() % REPORT_INTERVAL == 0)
+        {
+            log.info(getReport());
+        }
+    }
+
+    /**
+     * Stop the background threads once the queued events are stored.
+     */
+    void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdown();
+            try
+            {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                {
+                    log.warn(executor.getQueue().size() + " usage events were not stored");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the cache of lookups
+     */
+    IPLookupCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * @return events enriched so far
+     */
+    long getEnrichedCount()
+    {
+        return enriched.get();
+    }
+
+    /**
+     * @return events enriched by the thread that logged them, because
+     *         enrichment is not asynchronous
+     */
+    long getInlineCount()
+    {
+        return inline.get();
+    }
+
+    /**
+     * @return events stored without enrichment, because the queue was full
+     */
+    long getUnenrichedCount()
+    {
+        return unenriched.get();
+    }
+
+    /**
+     * @return events waiting to be enriched
+     */
+    int getQueueDepth()
+    {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @return mean milliseconds between an event being logged and enriched
+     */
+    long getAverageLag()
+    {
+        long n = enriched.get();
+        return n == 0 ? 0 : totalLag.get() / n;
+    }
+
+    /**
+     * @return most milliseconds between an event being logged and enriched
+     */
+    long getMaxLag()
+    {
+        return maxLag.get();
+    }
+
+    /**
+     * @return a one line summary of the statistics
+     */
+    String getReport()
+    {
+        return "Usage event enrichment: enriched=" + getEnrichedCount()
+                + ", inline=" + getInlineCount()
+                + ", unenriched=" + getUnenrichedCount()
+                + ", queued=" + getQueueDepth()
+                + ", lag(avg/max ms)=" + getAverageLag() + "/" + getMaxLag()
+                + ", cache size=" + cache.size()
+                + ", hits=" + cache.getHits()
+                + ", misses=" + cache.getMisses()
+                + ", failed lookups=" + cache.getFailures()
+                + ", hit rate=" + Math.round(cache.getHitRate() * 100) + "%";
+    }
+}
@@ -24,9 +24,16 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.util.ClientUtils;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.io.UnsupportedEncodingException;
@@ -44,6 +51,17 @@ import java.io.UnsupportedEncodingException;
  *  <li>{@link #createDataset(Context)} will run the query and return a result matrix.
  *      Subsequent calls skip the query and return the same matrix.</li>
  * </ol>
+ * <p>
+ * Datasets are cached for a short while, so that the same report asked for
+ * again, e.g. by reloading a statistics page, is not computed again. The
+ * date facets of the top objects of a report are queried in parallel.
+ * Configured in usage-statistics.cfg:
+ *
+ * <pre>
+ *  dataset.cache.size = 100
+ *  dataset.cache.ttl = 300
+ *  dataset.query.threads = 4
+ * </pre>
  *
  * @author kevinvandevelde at atmire.com
  * Date: 23-feb-2009
@@ -51,6 +69,49 @@ import java.io.UnsupportedEncodingException;
  */
 public class StatisticsDataVisits extends StatisticsData
 {
+    /** Most datasets cached */
+    private static final int CACHE_SIZE = ConfigurationManager.getIntProperty(
+            "usage-statistics", "dataset.cache.size", 100);
+
+    /** Milliseconds a dataset is cached for */
+    private static final long CACHE_TTL = ConfigurationManager.getLongProperty(
+            "usage-statistics", "dataset.cache.ttl", 300) * 1000;
+
+    /** Recently computed datasets, by a description of their queries */
+    private static final Map<String, CachedDataset> datasetCache =
+            new LinkedHashMap<String, CachedDataset>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedDataset> eldest)
+                {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /** Threads running independent queries, null to run them one by one */
+    private static final ExecutorService queryExecutor;
+
+    static
+    {
+        int threads = ConfigurationManager.getIntProperty("usage-statistics", "dataset.query.threads", 4);
+        if (1 < threads)
+        {
+            queryExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "statistics-dataset-query");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        else
+        {
+            queryExecutor = null;
+        }
+    }
+
     /** Current DSpaceObject for which to generate the statistics. */
     private DSpaceObject currentDso;
 
@@ -169,8 +230,15 @@ public class StatisticsDataVisits extends StatisticsData
 
 //        System.out.println("FILTERQUERY: " + filterQuery);
 
+        // The same report may have been computed a moment ago
+        String cacheKey = getCacheKey(datasetQueries, filterQuery, dateFacet, showTotal, context);
+        Dataset dataset = getCachedDataset(cacheKey);
+        if (dataset != null)
+        {
+            return dataset;
+        }
+
         // We determine our values on the queries resolved above
-        Dataset dataset = null;
 
         // Run over our queries.
         // First how many queries do we have ?
@@ -198,10 +266,11 @@ public class StatisticsDataVisits extends StatisticsData
                     }else{
                         // We need to get the max objects and the next part of the query on them (next part beeing the datasettimequery
                         ObjectCount[] maxObjectCounts = SolrLogger.queryFacetField(query, filterQuery, dataSetQuery.getFacetField(), dataSetQuery.getMax(), false, null);
+                        List<ObjectCount[]> dateFacetCounts = queryFacetDates(maxObjectCounts, dataSetQuery, query, filterQuery, dateFacet, showTotal);
+                        loadItems(context, dataSetQuery, maxObjectCounts);
                         for (int j = 0; j < maxObjectCounts.length; j++) {
                             ObjectCount firstCount = maxObjectCounts[j];
-                            String newQuery = dataSetQuery.getFacetField() + ": " + ClientUtils.escapeQueryChars(firstCount.getValue()) + " AND " + query;
-                            ObjectCount[] maxDateFacetCounts = SolrLogger.queryFacetDate(newQuery, filterQuery, dataSetQuery.getMax(), dateFacet.getDateType(), dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal);
+                            ObjectCount[] maxDateFacetCounts = dateFacetCounts.get(j);
 
 
                             // Make sure we have a dataSet
@@ -270,9 +339,43 @@ public class StatisticsDataVisits extends StatisticsData
 
                     facetQueries.add(facetQuery);
                 }
+                List<String> rowQueries = new ArrayList<String>();
+                for (ObjectCount count1 : topCounts1) {
+                    String query = firsDataset.getFacetField() + ":" + ClientUtils.escapeQueryChars(count1.getValue());
+                    // Check if we also have a type present (if so this should be put into the query)
+                    if("id".equals(firsDataset.getFacetField()) && firsDataset.getQueries().get(0).getDsoType() != -1)
+                    {
+                        query += " AND type:" + firsDataset.getQueries().get(0).getDsoType();
+                    }
+                    rowQueries.add(query);
+                }
+
+                // Count every combination of the two in one request, rather
+                // than one request per object of the first
+                Map<String, Integer> facetResult = null;
+                if (0 < rowQueries.size() && 0 < facetQueries.size())
+                {
+                    StringBuilder query = new StringBuilder();
+                    List<String> cellQueries = new ArrayList<String>();
+                    for (String rowQuery : rowQueries)
+                    {
+                        if (0 < query.length())
+                        {
+                            query.append(" OR ");
+                        }
+                        query.append("(").append(rowQuery).append(")");
+                        for (String facetQuery : facetQueries)
+                        {
+                            cellQueries.add(getCellQuery(rowQuery, facetQuery));
+                        }
+                    }
+                    facetResult = SolrLogger.queryFacetQuery(query.toString(), filterQuery, cellQueries);
+                }
+
+                loadItems(context, firsDataset, topCounts1);
+                loadItems(context, secondDataSet, topCounts2);
                 for (int i = 0; i < topCounts1.length; i++){
                     ObjectCount count1 = topCounts1[i];
-                    ObjectCount[] currentResult = new ObjectCount[topCounts2.length];
 
                     // Make sure we have a dataSet
                     if(dataset == null)
@@ -282,16 +385,6 @@ public class StatisticsDataVisits extends StatisticsData
                     dataset.setColLabel(i, getResultName(count1.getValue(), firsDataset, context));
                     dataset.setColLabelAttr(i, getAttributes(count1.getValue(), firsDataset, context));
 
-                    String query = firsDataset.getFacetField() + ":" + ClientUtils.escapeQueryChars(count1.getValue());
-                    // Check if we also have a type present (if so this should be put into the query)
-                    if("id".equals(firsDataset.getFacetField()) && firsDataset.getQueries().get(0).getDsoType() != -1)
-                    {
-                        query += " AND type:" + firsDataset.getQueries().get(0).getDsoType();
-                    }
-
-                    Map<String, Integer> facetResult = SolrLogger.queryFacetQuery(query, filterQuery, facetQueries);
-                    
-                    
                     // TODO: the show total
                     // No need to add this many times
                     // TODO: dit vervangen door te displayen value
@@ -303,12 +396,7 @@ public class StatisticsDataVisits extends StatisticsData
 
                         }
                         // Get our value the value is the same as the query
-                        String facetQuery = secondDataSet.getFacetField() + ":" + ClientUtils.escapeQueryChars(count2.getValue());
-                        // Check if we also have a type present (if so this should be put into the query
-                        if ("id".equals(secondDataSet.getFacetField()) && secondDataSet.getQueries().get(0).getDsoType() != -1)
-                        {
-                            facetQuery += " AND type:" + secondDataSet.getQueries().get(0).getDsoType();
-                        }
+                        String facetQuery = getCellQuery(rowQueries.get(i), facetQueries.get(j));
 
                         // We got our query so now get the value
                         dataset.addValueToMatrix(j, i, facetResult.get(facetQuery));
@@ -348,6 +436,7 @@ public class StatisticsDataVisits extends StatisticsData
             } else{
                 // Make sure we have a dataSet
                 dataset = new Dataset(1, topCounts1.length);
+                loadItems(context, firsDataset, topCounts1);
                 for (int i = 0; i < topCounts1.length; i++) {
                     ObjectCount count = topCounts1[i];
                     dataset.setColLabel(i, getResultName(count.getValue(), firsDataset, context));
@@ -364,9 +453,227 @@ public class StatisticsDataVisits extends StatisticsData
         {
             dataset = new Dataset(0, 0);
         }
+        cacheDataset(cacheKey, dataset);
         return dataset;
     }
 
+    /**
+     * Describe a report by everything its dataset is computed from: the object
+     * it is about, the queries and facets of its axes, its filters and the
+     * locale its labels are in.
+     *
+     * @return the key of the report's dataset in the cache, or null if
+     *         datasets are not cached
+     */
+    private String getCacheKey(List<DatasetQuery> datasetQueries, String filterQuery,
+            DatasetTimeGenerator dateFacet, boolean showTotal, Context context)
+    {
+        if (CACHE_SIZE <= 0 || CACHE_TTL <= 0)
+        {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        if (currentDso != null)
+        {
+            key.append(currentDso.getType()).append('/').append(currentDso.getID());
+        }
+        for (DatasetQuery datasetQuery : datasetQueries)
+        {
+            key.append("|").append(datasetQuery.getName())
+                    .append(',').append(datasetQuery.getFacetField())
+                    .append(',').append(datasetQuery.getMax());
+            for (Query query : datasetQuery.getQueries())
+            {
+                key.append(",[").append(query.getQuery())
+                        .append(',').append(query.getDsoType())
+                        .append(',').append(query.getDsoId())
+                        .append(',').append(query.getDsoLength()).append(']');
+            }
+        }
+        key.append("|").append(filterQuery);
+        if (dateFacet != null)
+        {
+            key.append("|").append(dateFacet.getDateType())
+                    .append(',').append(dateFacet.getStartDate())
+                    .append(',').append(dateFacet.getEndDate())
+                    .append(',').append(getDatasetGenerators().get(0) instanceof DatasetTimeGenerator);
+        }
+        key.append("|").append(showTotal)
+                .append("|").append(context.getCurrentLocale());
+        return key.toString();
+    }
+
+    private static Dataset getCachedDataset(String key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+        synchronized (datasetCache)
+        {
+            CachedDataset cached = datasetCache.get(key);
+            if (cached == null)
+            {
+                return null;
+            }
+            if (cached.expires < System.currentTimeMillis())
+            {
+                datasetCache.remove(key);
+                return null;
+            }
+            return cached.dataset;
+        }
+    }
+
+    private static void cacheDataset(String key, Dataset dataset)
+    {
+        if (key != null)
+        {
+            synchronized (datasetCache)
+            {
+                datasetCache.put(key, new CachedDataset(dataset,
+                        System.currentTimeMillis() + CACHE_TTL));
+            }
+        }
+    }
+
+    /**
+     * @return the query counting what matches both an object of the first
+     *         axis and one of the second
+     */
+    private static String getCellQuery(String rowQuery, String facetQuery)
+    {
+        return "(" + rowQuery + ") AND (" + facetQuery + ")";
+    }
+
+    /**
+     * Query the date facet of each of the top objects of an axis, in parallel
+     * if there are threads for it.
+     *
+     * @return the date facet counts, in the order of the objects
+     */
+    private static List<ObjectCount[]> queryFacetDates(ObjectCount[] objectCounts,
+            DatasetQuery dataSetQuery, String query, final String filterQuery,
+            final DatasetTimeGenerator dateFacet, final boolean showTotal)
+            throws SolrServerException
+    {
+        final int max = dataSetQuery.getMax();
+        List<ObjectCount[]> results = new ArrayList<ObjectCount[]>();
+        if (queryExecutor == null || objectCounts.length < 2)
+        {
+            for (ObjectCount objectCount : objectCounts)
+            {
+                String newQuery = dataSetQuery.getFacetField() + ": " + ClientUtils.escapeQueryChars(objectCount.getValue()) + " AND " + query;
+                results.add(SolrLogger.queryFacetDate(newQuery, filterQuery, max, dateFacet.getDateType(), dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal));
+            }
+            return results;
+        }
+
+        List<Future<ObjectCount[]>> futures = new ArrayList<Future<ObjectCount[]>>();
+        for (ObjectCount objectCount : objectCounts)
+        {
+            final String newQuery = dataSetQuery.getFacetField() + ": " + ClientUtils.escapeQueryChars(objectCount.getValue()) + " AND " + query;
+            futures.add(queryExecutor.submit(new Callable<ObjectCount[]>()
+            {
+                public ObjectCount[] call() throws SolrServerException
+                {
+                    return SolrLogger.queryFacetDate(newQuery, filterQuery, max, dateFacet.getDateType(), dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal);
+                }
+            }));
+        }
+        try
+        {
+            for (Future<ObjectCount[]> future : futures)
+            {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new SolrServerException("Interrupted while querying statistics", e);
+        }
+        catch (ExecutionException e)
+        {
+            cancel(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof SolrServerException)
+            {
+                throw (SolrServerException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new SolrServerException(cause);
+        }
+        return results;
+    }
+
+    private static void cancel(List<? extends Future<?>> futures)
+    {
+        for (Future<?> future : futures)
+        {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Read the items an axis on item ids is labelled with from the database
+     * all at once, rather than one by one as each label is made. They are
+     * kept in the context's cache, where labelling finds them.
+     */
+    private void loadItems(Context context, DatasetQuery datasetQuery,
+            ObjectCount[] objectCounts) throws SQLException
+    {
+        if ("continent".equals(datasetQuery.getName())
+                || "countryCode".equals(datasetQuery.getName())
+                || datasetQuery.getQueries().get(0).getDsoType() != Constants.ITEM)
+        {
+            return;
+        }
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (ObjectCount objectCount : objectCounts)
+        {
+            try
+            {
+                ids.add(Integer.parseInt(objectCount.getValue()));
+            }
+            catch (NumberFormatException e)
+            {
+                // not an id, so not labelled with an item
+            }
+        }
+        if (1 < ids.size())
+        {
+            int[] array = new int[ids.size()];
+            for (int i = 0; i < array.length; i++)
+            {
+                array[i] = ids.get(i);
+            }
+            Item.findAll(context, array);
+        }
+    }
+
+    /**
+     * A dataset and when it stops being fresh enough to be shown.
+     */
+    private static class CachedDataset
+    {
+        private final Dataset dataset;
+
+        private final long expires;
+
+        CachedDataset(Dataset dataset, long expires)
+        {
+            this.dataset = dataset;
+            this.expires = expires;
+        }
+    }
+
     private void processAxis(DatasetGenerator datasetGenerator, List<DatasetQuery> queries) throws SQLException {
         if(datasetGenerator instanceof DatasetDSpaceObjectGenerator){
             DatasetDSpaceObjectGenerator dspaceObjAxis = (DatasetDSpaceObjectGenerator) datasetGenerator;
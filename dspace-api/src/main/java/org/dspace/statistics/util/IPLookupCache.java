@@ -0,0 +1,246 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.maxmind.geoip.Location;
+import com.maxmind.geoip.LookupService;
+
+/**
+ * Remembers what the reverse DNS and GeoIP lookups of recently seen client IP
+ * addresses gave, so that a visitor browsing the repository costs one lookup
+ * rather than one per page. The cache holds at most a fixed number of
+ * addresses, dropping the least recently used, and forgets an answer after a
+ * while so that changed names and locations are picked up.
+ * <P>
+ * Failed lookups (a DNS timeout, no PTR record, an address the GeoIP database
+ * does not know) are cached too, for a shorter time, so that a run of requests
+ * from an unresolvable address does not wait on the resolver each time.
+ *
+ * @version $Revision$
+ */
+public class IPLookupCache
+{
+    private static final Logger log = Logger.getLogger(IPLookupCache.class);
+
+    /** What the lookups of one address gave */
+    public static class IPInfo
+    {
+        private final String dns;
+
+        private final Location location;
+
+        private final long expires;
+
+        IPInfo(String dns, Location location, long expires)
+        {
+            this.dns = dns;
+            this.location = location;
+            this.expires = expires;
+        }
+
+        /**
+         * @return the lower cased host name, the address itself if it has no
+         *         name, or null if the lookup failed
+         */
+        public String getDns()
+        {
+            return dns;
+        }
+
+        /**
+         * @return the location, or null if it is not known
+         */
+        public Location getLocation()
+        {
+            return location;
+        }
+    }
+
+    private final LookupService locationService;
+
+    private final long ttl;
+
+    private final long negativeTTL;
+
+    private final Map<String, IPInfo> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param locationService
+     *            GeoIP database, or null to look up host names only
+     * @param size
+     *            most addresses to remember
+     * @param ttl
+     *            milliseconds to remember a successful lookup for
+     * @param negativeTTL
+     *            milliseconds to remember a failed lookup for
+     */
+    public IPLookupCache(LookupService locationService, final int size,
+            long ttl, long negativeTTL)
+    {
+        this.locationService = locationService;
+        this.ttl = ttl;
+        this.negativeTTL = negativeTTL;
+        this.cache = new LinkedHashMap<String, IPInfo>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IPInfo> eldest)
+            {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Get the host name and location of an address, from the cache if it was
+     * looked up recently enough.
+     *
+     * @param ip
+     *            the client address
+     * @return what is known about it, never null
+     */
+    public IPInfo lookup(String ip)
+    {
+        long now = System.currentTimeMillis();
+
+        synchronized (cache)
+        {
+            IPInfo info = cache.get(ip);
+            if (info != null && info.expires > now)
+            {
+                hits.incrementAndGet();
+                return info;
+            }
+        }
+
+        // Look up outside the lock, a slow resolver must not hold up
+        // the addresses that are cached already
+        misses.incrementAndGet();
+        boolean failed = false;
+
+        String dns = null;
+        try
+        {
+            dns = DnsLookup.reverseDns(ip).toLowerCase();
+            if (dns.equals(ip.toLowerCase()))
+            {
+                failed = true;
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("Failed DNS Lookup for IP:" + ip);
+            log.debug(e.getMessage(), e);
+            failed = true;
+        }
+
+        Location location = null;
+        if (locationService != null)
+        {
+            try
+            {
+                location = locationService.getLocation(ip);
+            }
+            catch (Exception e)
+            {
+                log.debug("Failed GeoIP lookup for IP:" + ip, e);
+            }
+
+            // the database answers this for addresses it does not know
+            if (location != null && "--".equals(location.countryCode)
+                    && location.latitude == -180 && location.longitude == -180)
+            {
+                location = null;
+            }
+            if (location == null)
+            {
+                failed = true;
+            }
+        }
+
+        if (failed)
+        {
+            failures.incrementAndGet();
+        }
+
+        IPInfo info = new IPInfo(dns, location, now + (failed ? negativeTTL : ttl));
+        synchronized (cache)
+        {
+            cache.put(ip, info);
+        }
+        return info;
+    }
+
+    /**
+     * Forget all addresses.
+     */
+    public void clear()
+    {
+        synchronized (cache)
+        {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return the number of addresses remembered
+     */
+    public int size()
+    {
+        synchronized (cache)
+        {
+            return cache.size();
+        }
+    }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return lookups that had to ask the resolver and GeoIP database
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return lookups where the host name or the location could not be found
+     */
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache, 0 if there
+     *         were none
+     */
+    public double getHitRate()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+}
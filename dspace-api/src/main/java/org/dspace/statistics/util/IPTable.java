@@ -7,184 +7,353 @@
  */
 package org.dspace.statistics.util;
 
-import java.util.HashMap;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
- * A Spare v4 IPTable implementation that uses nested HashMaps
- * to optimize IP address matching over ranges of IP addresses.
+ * A table of IPv4 and IPv6 address blocks, for matching an address against
+ * many ranges at once. Each block is a prefix of the address bits, and the
+ * blocks are held in a binary prefix tree per address family, kept in arrays
+ * of ints, so that a lookup follows at most 32 (IPv4) or 128 (IPv6) links
+ * whatever the number of blocks.
+ * <P>
+ * Blocks can be given as
+ * <ul>
+ *  <li>a single address: {@code 192.168.2.1}, {@code 2001:db8::1}</li>
+ *  <li>the first three parts of an IPv4 address, meaning the whole /24:
+ *      {@code 192.168.2}</li>
+ *  <li>a CIDR block: {@code 192.168.0.0/16}, {@code 2001:db8::/32}</li>
+ *  <li>an IPv4 range: {@code 192.168.2.1 - 192.168.3.254}</li>
+ * </ul>
  *
  * @author mdiggory at atmire.com
  */
 public class IPTable {
 
-    /* A lookup tree for IP addresses and SubnetRanges */
-    private Map<String, Map<String, Map<String, Set<String>>>> map =
-            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+    private final PrefixTree v4 = new PrefixTree(32);
+
+    private final PrefixTree v6 = new PrefixTree(128);
 
     /**
-     * Can be full v4 IP, subnet or range string
+     * Can be full v4 or v6 IP, v4 subnet, CIDR block or v4 range string
      *
      * @param ip
      */
     public void add(String ip) throws IPFormatException {
 
-        String[] start;
-
-        String[] end;
-
         String[] range = ip.split("-");
 
         if (range.length >= 2) {
 
-            start = range[0].trim().split("/")[0].split("\\.");
-            end = range[1].trim().split("/")[0].split("\\.");
+            // need to ignore CIDR notation in ranges
+            long start = toLong(parseV4(range[0].trim().split("/")[0], ip));
+            long end = toLong(parseV4(range[1].trim().split("/")[0], ip));
 
-            if (start.length != 4 || end.length != 4)
+            if (start > end)
             {
-                throw new IPFormatException(ip + " - Ranges need to be full IPv4 Addresses");
+                throw new IPFormatException(ip + " - The start of a range must not be after its end");
             }
 
-            if (!(start[0].equals(end[0]) && start[1].equals(end[1]) && start[2].equals(end[2]))) {
-                throw new IPFormatException(ip + " - Ranges can only be across the last subnet x.y.z.0 - x.y.z.254");
+            // cover the range with the largest aligned blocks that fit
+            while (start <= end) {
+                int size = Long.numberOfTrailingZeros(start | (1L << 32));
+                while (size > 0 && start + (1L << size) - 1 > end) {
+                    size--;
+                }
+                v4.add(toBytes(start), 32 - size);
+                start += 1L << size;
             }
+            return;
+        }
 
-        } else {
-            //need to ignore CIDR notation for the moment.
-            //ip = ip.split("\\/")[0];
+        String address = ip.trim();
+        int prefix = -1;
+        int slash = address.indexOf('/');
+        if (slash >= 0) {
+            try {
+                prefix = Integer.parseInt(address.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IPFormatException(ip + " - Invalid CIDR prefix length");
+            }
+            address = address.substring(0, slash).trim();
+        }
 
-            String[] subnets = ip.split("\\.");
+        byte[] bytes;
+        if (address.indexOf(':') >= 0) {
+            bytes = parseV6(address, ip);
+        } else {
+            String[] subnets = address.split("\\.");
 
-            if (subnets.length < 3) {
+            if (subnets.length == 3 && prefix < 0) {
+                address = address + ".0";
+                prefix = 24;
+            } else if (subnets.length < 3) {
                 throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
-
             }
 
-            start = subnets;
-            end = subnets;
+            bytes = parseV4(address, ip);
         }
 
-        if (start.length >= 3) {
-
+        int bits = bytes.length * 8;
+        if (prefix < 0) {
+            prefix = bits;
+        } else if (prefix > bits) {
+            throw new IPFormatException(ip + " - CIDR prefix length is longer than the address");
+        }
 
-            Map<String, Map<String, Set<String>>> first = map.get(start[0]);
+        (bytes.length == 4 ? v4 : v6).add(bytes, prefix);
+    }
 
-            if (first == null) {
-                first = new HashMap<String, Map<String, Set<String>>>();
-                map.put(start[0], first);
-            }
+    /** Check whether a given address is contained in this netblock.
+     *
+     * @param ip the address to be tested
+     * @return true if {@code ip} is within this table's limits
+     * @throws IPFormatException
+     */
+    public boolean contains(String ip) throws IPFormatException {
 
-            Map<String, Set<String>> second = first.get(start[1]);
+        String address = ip.trim();
+        if (address.indexOf(':') < 0) {
+            return v4.contains(toLong(address, ip));
+        }
 
+        byte[] bytes = parseV6(address, ip);
+        return bytes.length == 4 ? v4.contains(toLong(bytes)) : v6.contains(bytes);
+    }
 
-            if (second == null) {
-                second = new HashMap<String, Set<String>>();
-                first.put(start[1], second);
-            }
+    /** Convert to a Set, of the prefixes the statistics query on.
+     * IPv4 blocks smaller than a /24 are given as their single addresses,
+     * blocks of a /24 up to a /16 as the first three parts of each /24 in
+     * them, and larger blocks as the first two or one parts of each /16 or
+     * /8 in them, followed by a dot. IPv6 addresses are left out: the
+     * statistics cannot query on them.
+     * @return this table's IPv4 content as a Set
+     */
+    public Set<String> toSet() {
+        HashSet<String> set = new HashSet<String>();
+        v4.collect(set);
+        return set;
+    }
 
-            Set<String> third = second.get(start[2]);
+    /**
+     * Parse a dotted quad IPv4 address, without going to the DNS.
+     */
+    private static byte[] parseV4(String address, String ip) throws IPFormatException {
+        return toBytes(toLong(address.trim(), ip));
+    }
 
-            if (third == null) {
-                third = new HashSet<String>();
-                second.put(start[2], third);
+    /**
+     * Parse a dotted quad IPv4 address to its 32 bits, without allocating.
+     */
+    private static long toLong(String address, String ip) throws IPFormatException {
+        long value = 0;
+        int part = -1;
+        int parts = 0;
+
+        for (int i = 0; i <= address.length(); i++) {
+            char c = i < address.length() ? address.charAt(i) : '.';
+            if (c == '.') {
+                if (part < 0 || ++parts > 4) {
+                    break;
+                }
+                value = (value << 8) | part;
+                part = -1;
+            } else if (c >= '0' && c <= '9') {
+                part = (part < 0 ? 0 : part * 10) + (c - '0');
+                if (part > 255) {
+                    throw new IPFormatException(ip + " - is not an IPv4 address");
+                }
+            } else {
+                throw new IPFormatException(ip + " - is not an IPv4 address");
             }
+        }
 
-            //now populate fourth place (* or value 0-254);
-
-            if (start.length == 3) {
-                third.add("*");
-            }
+        if (parts != 4 || part >= 0) {
+            throw new IPFormatException(ip + " - needs to be a single IP address");
+        }
+        return value;
+    }
 
-            if (third.contains("*")) {
-                return;
+    /**
+     * Parse an IPv6 address literal. An IPv4 mapped address gives the IPv4
+     * address.
+     */
+    private static byte[] parseV6(String address, String ip) throws IPFormatException {
+        // a literal of these characters is parsed, never looked up
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (Character.digit(c, 16) < 0 && c != ':' && c != '.') {
+                throw new IPFormatException(ip + " - is not an IPv6 address");
             }
+        }
 
-            if (start.length >= 4) {
-                int s = Integer.valueOf(start[3]);
-                int e = Integer.valueOf(end[3]);
-                for (int i = s; i <= e; i++) {
-                    third.add(String.valueOf(i));
-                }
+        try {
+            InetAddress inet = InetAddress.getByName(address);
+            byte[] bytes = inet.getAddress();
+            if (inet instanceof Inet4Address || bytes.length == 16) {
+                return bytes;
             }
+        } catch (UnknownHostException e) {
+            // fall through
+        } catch (SecurityException e) {
+            // fall through
         }
+        throw new IPFormatException(ip + " - is not an IPv6 address");
     }
 
-    /** Check whether a given address is contained in this netblock.
-     * 
-     * @param ip the address to be tested
-     * @return true if {@code ip} is within this table's limits
-     * @throws IPFormatException
+    private static long toLong(byte[] bytes) {
+        return ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16)
+                | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+    }
+
+    private static byte[] toBytes(long address) {
+        return new byte[] { (byte) (address >> 24), (byte) (address >> 16),
+                (byte) (address >> 8), (byte) address };
+    }
+
+    /**
+     * Binary prefix tree over the bits of addresses of one length. Node 0 is
+     * the root; a node's children are at {@code children[2 * node]} (bit 0)
+     * and {@code children[2 * node + 1]} (bit 1), 0 meaning none. A node is
+     * terminal when the path to it is a whole block in the table, and then
+     * has no children.
      */
-    public boolean contains(String ip) throws IPFormatException {
+    private static class PrefixTree {
 
-        String[] subnets = ip.split("\\.");
+        private final int bits;
 
-        if (subnets.length != 4)
-        {
-            throw new IPFormatException("needs to be a single IP address");
-        }
+        private int[] children = new int[64];
 
-        Map<String, Map<String, Set<String>>> first = map.get(subnets[0]);
+        private boolean[] terminal = new boolean[32];
 
-        if (first == null)
-        {
-            return false;
-        }
+        private int nodes = 1;
 
-        Map<String, Set<String>> second = first.get(subnets[1]);
+        PrefixTree(int bits) {
+            this.bits = bits;
+        }
 
-        if (second == null)
-        {
-            return false;
+        private static int bit(byte[] address, int i) {
+            return (address[i >> 3] >> (7 - (i & 7))) & 1;
         }
 
-        Set<String> third = second.get(subnets[2]);
+        void add(byte[] address, int prefix) {
+            int node = 0;
+            for (int i = 0; i < prefix; i++) {
+                if (terminal[node]) {
+                    // already covered by a larger block
+                    return;
+                }
+                int slot = 2 * node + bit(address, i);
+                if (children[slot] == 0) {
+                    // not children[slot] = newNode(), which may replace the array
+                    int child = newNode();
+                    children[slot] = child;
+                }
+                node = children[slot];
+            }
 
-        if (third == null)
-        {
-            return false;
+            // this block covers any smaller ones already under it
+            terminal[node] = true;
+            children[2 * node] = 0;
+            children[2 * node + 1] = 0;
         }
 
-        return third.contains(subnets[3]) || third.contains("*");
-
-    }
+        private int newNode() {
+            if (nodes == terminal.length) {
+                terminal = Arrays.copyOf(terminal, nodes * 2);
+                children = Arrays.copyOf(children, nodes * 4);
+            }
+            return nodes++;
+        }
 
-    /** Convert to a Set.
-     * @return this table's content as a Set
-     */
-    public Set<String> toSet() {
-        HashSet<String> set = new HashSet<String>();
+        boolean contains(long address) {
+            int node = 0;
+            for (int i = 0; i < bits; i++) {
+                if (terminal[node]) {
+                    return true;
+                }
+                node = children[2 * node + (int) ((address >>> (bits - 1 - i)) & 1)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return terminal[node];
+        }
 
-        for (Map.Entry<String, Map<String, Map<String, Set<String>>>> first : map.entrySet()) {
-            String firstString = first.getKey();
-            Map<String, Map<String, Set<String>>> secondMap = first.getValue();
+        boolean contains(byte[] address) {
+            int node = 0;
+            for (int i = 0; i < bits; i++) {
+                if (terminal[node]) {
+                    return true;
+                }
+                node = children[2 * node + bit(address, i)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return terminal[node];
+        }
 
-            for (Map.Entry<String, Map<String, Set<String>>> second : secondMap.entrySet()) {
-                String secondString = second.getKey();
-                Map<String, Set<String>> thirdMap = second.getValue();
+        /**
+         * Add the blocks of an IPv4 tree to a set, as {@link IPTable#toSet()}
+         * gives them.
+         */
+        void collect(Set<String> set) {
+            collect(0, new byte[bits / 8], 0, set);
+        }
 
-                for (Map.Entry<String, Set<String>> third : thirdMap.entrySet()) {
-                    String thirdString = third.getKey();
-                    Set<String> fourthSet = third.getValue();
+        private void collect(int node, byte[] path, int depth, Set<String> set) {
+            if (terminal[node]) {
+                set.addAll(format(path, depth));
+                return;
+            }
+            for (int b = 0; b < 2; b++) {
+                int child = children[2 * node + b];
+                if (child != 0) {
+                    int mask = 1 << (7 - (depth & 7));
+                    if (b == 1) {
+                        path[depth >> 3] |= mask;
+                    }
+                    collect(child, path, depth + 1, set);
+                    path[depth >> 3] &= ~mask;
+                }
+            }
+        }
 
-                    if (fourthSet.contains("*")) {
-                        set.add(firstString + "." + secondString + "." + thirdString);
+        private Set<String> format(byte[] path, int prefix) {
+            Set<String> set = new HashSet<String>();
+            long address = toLong(path);
+            if (prefix > 24) {
+                String first = (address >> 24) + "." + ((address >> 16) & 0xFF)
+                        + "." + ((address >> 8) & 0xFF) + ".";
+                for (long i = 0; i < (1L << (32 - prefix)); i++) {
+                    set.add(first + ((address & 0xFF) + i));
+                }
+            } else {
+                // the whole /24s, /16s or /8s the block is made of
+                int step = (prefix > 16) ? 24 : (prefix > 8) ? 16 : 8;
+                for (long i = 0; i < (1L << (step - prefix)); i++) {
+                    long block = address + (i << (32 - step));
+                    String parts = String.valueOf(block >> 24);
+                    if (step >= 16) {
+                        parts += "." + ((block >> 16) & 0xFF);
+                    }
+                    if (step == 24) {
+                        parts += "." + ((block >> 8) & 0xFF);
                     } else {
-                        for (String fourth : fourthSet) {
-                            set.add(firstString + "." + secondString + "." + thirdString + "." + fourth);
-                        }
+                        parts += ".";
                     }
-
+                    set.add(parts);
                 }
             }
+            return set;
         }
-
-        return set;
     }
 
-
     /**
      * Exception Class to deal with IPFormat errors.
      */
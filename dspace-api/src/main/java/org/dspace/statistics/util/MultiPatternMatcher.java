@@ -0,0 +1,428 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds whether a string contains a match for any of a set of regular
+ * expressions, without trying each expression in turn.
+ * <P>
+ * Most spider patterns require some literal text, e.g. {@code Googlebot} or
+ * {@code Brutus/AET} for {@code Brutus\/AET}. The longest such literal of each
+ * pattern is compiled, together with those of all other patterns, into one
+ * Aho-Corasick automaton, which finds every literal occurring in a string in
+ * a single pass over it. Only the patterns whose literal occurs are then
+ * tried, so a string matching none of them, such as an ordinary browser's
+ * User-Agent, usually costs one pass and no regular expression at all.
+ * Patterns with no usable literal (alternations at the top level, case
+ * insensitive flags, ...) are always tried.
+ * <P>
+ * Instances are immutable and may be shared between threads.
+ *
+ * @version $Revision$
+ */
+class MultiPatternMatcher
+{
+    private static final Logger log = LoggerFactory.getLogger(MultiPatternMatcher.class);
+
+    /** Shortest literal worth prefiltering on */
+    private static final int MIN_LITERAL = 3;
+
+    /** Escapes standing for a class or a boundary, with nothing after the letter */
+    private static final String SIMPLE_ESCAPES = "dDsSwWbBAzZG";
+
+    /** Patterns found through the automaton, by literal number */
+    private final Pattern[] filtered;
+
+    /** Patterns tried on every string */
+    private final Pattern[] unfiltered;
+
+    // The automaton. Node 0 is the root; node n's transitions are on
+    // keys[n][i] to targets[n][i], keys sorted, fail[n] is the node for the
+    // longest proper suffix of n's path that is also a path, and output[n]
+    // the literal numbers ending at n, including through fail links.
+    private final char[][] keys;
+
+    private final int[][] targets;
+
+    private final int[] fail;
+
+    private final int[][] output;
+
+    /**
+     * Compile a set of patterns. A pattern that is not a valid regular
+     * expression is logged and left out.
+     *
+     * @param patterns
+     *            the regular expressions
+     */
+    MultiPatternMatcher(Collection<String> patterns)
+    {
+        List<Pattern> withLiteral = new ArrayList<Pattern>();
+        List<String> literals = new ArrayList<String>();
+        List<Pattern> without = new ArrayList<Pattern>();
+
+        for (String pattern : patterns)
+        {
+            Pattern compiled;
+            try
+            {
+                compiled = Pattern.compile(pattern);
+            }
+            catch (PatternSyntaxException e)
+            {
+                log.error("Not loading pattern {}:  {}", pattern, e.getMessage());
+                continue;
+            }
+
+            String literal = requiredLiteral(pattern);
+            if (literal != null && literal.length() >= MIN_LITERAL)
+            {
+                withLiteral.add(compiled);
+                literals.add(literal);
+            }
+            else
+            {
+                without.add(compiled);
+            }
+        }
+
+        filtered = withLiteral.toArray(new Pattern[withLiteral.size()]);
+        unfiltered = without.toArray(new Pattern[without.size()]);
+
+        // goto function: a trie of the literals
+        List<char[]> keyList = new ArrayList<char[]>();
+        List<int[]> targetList = new ArrayList<int[]>();
+        List<int[]> outputList = new ArrayList<int[]>();
+        keyList.add(new char[0]);
+        targetList.add(new int[0]);
+        outputList.add(new int[0]);
+
+        for (int l = 0; l < literals.size(); l++)
+        {
+            String literal = literals.get(l);
+            int node = 0;
+            for (int i = 0; i < literal.length(); i++)
+            {
+                char c = literal.charAt(i);
+                char[] k = keyList.get(node);
+                int slot = Arrays.binarySearch(k, c);
+                if (slot >= 0)
+                {
+                    node = targetList.get(node)[slot];
+                    continue;
+                }
+
+                int child = keyList.size();
+                keyList.add(new char[0]);
+                targetList.add(new int[0]);
+                outputList.add(new int[0]);
+
+                slot = -slot - 1;
+                int[] t = targetList.get(node);
+                char[] nk = new char[k.length + 1];
+                int[] nt = new int[t.length + 1];
+                System.arraycopy(k, 0, nk, 0, slot);
+                System.arraycopy(t, 0, nt, 0, slot);
+                nk[slot] = c;
+                nt[slot] = child;
+                System.arraycopy(k, slot, nk, slot + 1, k.length - slot);
+                System.arraycopy(t, slot, nt, slot + 1, t.length - slot);
+                keyList.set(node, nk);
+                targetList.set(node, nt);
+
+                node = child;
+            }
+            outputList.set(node, append(outputList.get(node), l));
+        }
+
+        keys = keyList.toArray(new char[keyList.size()][]);
+        targets = targetList.toArray(new int[targetList.size()][]);
+        output = outputList.toArray(new int[outputList.size()][]);
+        fail = new int[keys.length];
+
+        // failure function, breadth first
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int child : targets[0])
+        {
+            queue.add(child);
+        }
+        while (!queue.isEmpty())
+        {
+            int node = queue.removeFirst();
+            for (int i = 0; i < keys[node].length; i++)
+            {
+                char c = keys[node][i];
+                int child = targets[node][i];
+                queue.add(child);
+
+                int f = fail[node];
+                int next;
+                while ((next = step(f, c)) < 0 && f != 0)
+                {
+                    f = fail[f];
+                }
+                fail[child] = next < 0 || next == child ? 0 : next;
+                if (output[fail[child]].length > 0)
+                {
+                    int[] merged = Arrays.copyOf(output[child],
+                            output[child].length + output[fail[child]].length);
+                    System.arraycopy(output[fail[child]], 0, merged,
+                            output[child].length, output[fail[child]].length);
+                    output[child] = merged;
+                }
+            }
+        }
+    }
+
+    private static int[] append(int[] array, int value)
+    {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    /**
+     * @return the node reached from {@code node} on {@code c}, or -1
+     */
+    private int step(int node, char c)
+    {
+        int slot = Arrays.binarySearch(keys[node], c);
+        return slot < 0 ? -1 : targets[node][slot];
+    }
+
+    /**
+     * Check whether any of the patterns is found in a string.
+     *
+     * @param s
+     *            the string
+     * @return true if any pattern's {@code Matcher.find()} would be true
+     */
+    boolean find(String s)
+    {
+        if (filtered.length > 0)
+        {
+            boolean[] tried = null;
+            int node = 0;
+            for (int i = 0; i < s.length(); i++)
+            {
+                char c = s.charAt(i);
+                int next;
+                while ((next = step(node, c)) < 0 && node != 0)
+                {
+                    node = fail[node];
+                }
+                node = next < 0 ? 0 : next;
+
+                for (int l : output[node])
+                {
+                    if (tried == null)
+                    {
+                        tried = new boolean[filtered.length];
+                    }
+                    if (!tried[l])
+                    {
+                        tried[l] = true;
+                        if (filtered[l].matcher(s).find())
+                        {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Pattern pattern : unfiltered)
+        {
+            if (pattern.matcher(s).find())
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Find the longest run of literal text that every match of a pattern
+     * must contain. Only simple patterns are analysed: one with an
+     * alternation outside any group, or with flags or quoting that would
+     * change what a literal means, gives null.
+     *
+     * @param pattern
+     *            a valid regular expression
+     * @return the literal, or null if none is known
+     */
+    static String requiredLiteral(String pattern)
+    {
+        if (pattern.contains("(?") || pattern.contains("\\Q"))
+        {
+            return null;
+        }
+
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int n = pattern.length();
+        int i = 0;
+        while (i < n)
+        {
+            // the next atom, and the character it stands for if it is one
+            char c = pattern.charAt(i);
+            int literal = -1;
+            if (c == '\\')
+            {
+                char e = pattern.charAt(i + 1);
+                if (!Character.isLetterOrDigit(e))
+                {
+                    // an escaped character such as \/ or \.
+                    literal = e;
+                }
+                else if (SIMPLE_ESCAPES.indexOf(e) < 0)
+                {
+                    // a code point, control character, back reference or
+                    // property, whose arguments are not literal text
+                    return null;
+                }
+                i += 2;
+            }
+            else if (c == '[')
+            {
+                i = skipClass(pattern, i);
+            }
+            else if (c == '(')
+            {
+                i = skipGroup(pattern, i);
+            }
+            else if (c == '|')
+            {
+                return null;
+            }
+            else if (c == '.' || c == '^' || c == '$')
+            {
+                i++;
+            }
+            else
+            {
+                literal = c;
+                i++;
+            }
+
+            // its quantifier: may it be absent, or repeated?
+            boolean optional = false;
+            boolean quantified = false;
+            if (i < n)
+            {
+                char q = pattern.charAt(i);
+                if (q == '?' || q == '*' || q == '+' || q == '{')
+                {
+                    quantified = true;
+                    optional = q == '?' || q == '*' || pattern.startsWith("{0", i);
+                    i = (q == '{') ? pattern.indexOf('}', i) + 1 : i + 1;
+                    if (i < n && (pattern.charAt(i) == '?' || pattern.charAt(i) == '+'))
+                    {
+                        // lazy or possessive
+                        i++;
+                    }
+                }
+            }
+
+            if (literal >= 0 && !optional)
+            {
+                run.append((char) literal);
+            }
+            if (literal < 0 || quantified)
+            {
+                best = longer(best, run);
+                run.setLength(0);
+            }
+        }
+
+        best = longer(best, run);
+        return best.length() > 0 ? best : null;
+    }
+
+    /**
+     * @return the index after the character class starting at {@code i}
+     */
+    private static int skipClass(String pattern, int i)
+    {
+        int j = i + 1;
+        if (j < pattern.length() && pattern.charAt(j) == '^')
+        {
+            j++;
+        }
+        if (j < pattern.length() && pattern.charAt(j) == ']')
+        {
+            // a ']' first is literal
+            j++;
+        }
+        while (j < pattern.length() && pattern.charAt(j) != ']')
+        {
+            char c = pattern.charAt(j);
+            if (c == '\\')
+            {
+                j++;
+            }
+            else if (c == '[')
+            {
+                // a nested class, as in [a-z&&[^q]]
+                j = skipClass(pattern, j) - 1;
+            }
+            j++;
+        }
+        return j + 1;
+    }
+
+    /**
+     * @return the index after the group starting at {@code i}
+     */
+    private static int skipGroup(String pattern, int i)
+    {
+        int depth = 0;
+        int j = i;
+        while (j < pattern.length())
+        {
+            char c = pattern.charAt(j);
+            if (c == '\\')
+            {
+                j += 2;
+                continue;
+            }
+            if (c == '[')
+            {
+                j = skipClass(pattern, j);
+                continue;
+            }
+            if (c == '(')
+            {
+                depth++;
+            }
+            else if (c == ')' && --depth == 0)
+            {
+                return j + 1;
+            }
+            j++;
+        }
+        return j;
+    }
+
+    private static String longer(String best, CharSequence run)
+    {
+        return run.length() > best.length() ? run.toString() : best;
+    }
+}
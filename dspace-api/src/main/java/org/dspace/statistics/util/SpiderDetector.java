@@ -11,11 +11,10 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import org.dspace.core.ConfigurationManager;
 import org.slf4j.Logger;
@@ -37,15 +36,32 @@ public class SpiderDetector {
     private static Boolean useProxies;
 
     /**
-     * Sparse HashTable structure to hold IP address ranges.
+     * Prefix tree structure to hold IP address ranges.
      */
-    private static IPTable table = null;
+    private static volatile IPTable table = null;
 
-    /** Collection of regular expressions to match known spiders' agents. */
-    private static List<Pattern> agents = new ArrayList<Pattern>();
+    /** Regular expressions to match known spiders' agents, compiled together. */
+    private static volatile MultiPatternMatcher agents = null;
 
-    /** Collection of regular expressions to match known spiders' domain names. */
-    private static List<Pattern> domains = new ArrayList<Pattern>();
+    /** Regular expressions to match known spiders' domain names, compiled together. */
+    private static volatile MultiPatternMatcher domains = null;
+
+    /** Most User-Agent strings to remember the verdict for */
+    private static final int AGENT_CACHE_SIZE = ConfigurationManager.getIntProperty(
+            "usage-statistics", "spider.agent.cache", 1000);
+
+    /** Longest User-Agent string to remember the verdict for */
+    private static final int AGENT_CACHE_LENGTH = 512;
+
+    /** Recently seen User-Agent strings and whether they are spiders' */
+    private static final Map<String, Boolean> agentCache = new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+        {
+            return size() > AGENT_CACHE_SIZE;
+        }
+    };
 
     /**
      * Utility method which reads lines from a file & returns them in a Set.
@@ -98,10 +114,10 @@ public class SpiderDetector {
      *  private loader to populate the table from files.
      */
 
-    private static void loadSpiderIpAddresses() {
+    private static synchronized void loadSpiderIpAddresses() {
 
         if (table == null) {
-            table = new IPTable();
+            IPTable table = new IPTable();
 
             String filePath = ConfigurationManager.getProperty("dspace.dir");
 
@@ -137,6 +153,7 @@ public class SpiderDetector {
                 log.error("Error Loading Spiders:" + e.getMessage(), e);
             }
 
+            SpiderDetector.table = table;
         }
 
     }
@@ -147,11 +164,11 @@ public class SpiderDetector {
      * @param directory simple directory name (e.g. "agents").
      *      "${dspace.dir}/config/spiders" will be prepended to yield the path to
      *      the directory of pattern files.
-     * @param patternList patterns read from the files in {@code directory} will
-     *      be added to this List.
+     * @return the patterns read from the files in {@code directory}, compiled together.
      */
-    private static void loadPatterns(String directory, List<Pattern> patternList)
+    private static MultiPatternMatcher loadPatterns(String directory)
     {
+        Set<String> patternList = new HashSet<String>();
         String dspaceHome = ConfigurationManager.getProperty("dspace.dir");
         File spidersDir = new File(dspaceHome, "config/spiders");
         File patternsDir = new File(spidersDir, directory);
@@ -169,10 +186,7 @@ public class SpiderDetector {
                             file.getPath(), ex.getMessage());
                     continue;
                 }
-                for (String pattern : patterns)
-                {
-                    patternList.add(Pattern.compile(pattern));
-                }
+                patternList.addAll(patterns);
                 log.info("Loaded pattern file:  {}", file.getPath());
             }
         }
@@ -180,13 +194,65 @@ public class SpiderDetector {
         {
             log.info("No patterns loaded from {}", patternsDir.getPath());
         }
+
+        return new MultiPatternMatcher(patternList);
+    }
+
+    private static synchronized MultiPatternMatcher getAgents()
+    {
+        if (agents == null)
+        {
+            agents = loadPatterns("agents");
+        }
+        return agents;
+    }
+
+    private static synchronized MultiPatternMatcher getDomains()
+    {
+        if (domains == null)
+        {
+            domains = loadPatterns("domains");
+        }
+        return domains;
+    }
+
+    /**
+     * Check whether a User-Agent string is a known spider's, remembering the
+     * verdict for strings seen recently.
+     *
+     * @param agent User-Agent header value.
+     * @return true if the agent matches a spider agent pattern.
+     */
+    private static boolean isSpiderAgent(String agent)
+    {
+        Boolean spider;
+        synchronized (agentCache)
+        {
+            spider = agentCache.get(agent);
+        }
+
+        if (spider == null)
+        {
+            MultiPatternMatcher matcher = agents;
+            spider = (matcher != null ? matcher : getAgents()).find(agent);
+            if (agent.length() <= AGENT_CACHE_LENGTH)
+            {
+                synchronized (agentCache)
+                {
+                    agentCache.put(agent, spider);
+                }
+            }
+        }
+
+        return spider;
     }
 
     /**
      * Static Service Method for testing spiders against existing spider files.
      * <p>
-     * In future spiders HashSet may be optimized as byte offset array to
-     * improve performance and memory footprint further.
+     * The agent and domain patterns are each compiled into a
+     * {@link MultiPatternMatcher}, the addresses are held in a prefix tree of
+     * address blocks, and the verdict for recently seen agents is remembered.
      *
      * @param clientIP address of the client.
      * @param proxyIPs comma-list of X-Forwarded-For addresses, or null.
@@ -198,18 +264,9 @@ public class SpiderDetector {
             String hostname, String agent)
     {
         // See if any agent patterns match
-        if (null != agent)
+        if (null != agent && isSpiderAgent(agent))
         {
-            if (agents.isEmpty())
-                loadPatterns("agents", agents);
-
-            for (Pattern candidate : agents)
-            {
-                if (candidate.matcher(agent).find())
-                {
-                    return true;
-                }
-            }
+            return true;
         }
 
         // No.  See if any IP addresses match
@@ -229,17 +286,10 @@ public class SpiderDetector {
         // No.  See if any DNS names match
         if (null != hostname)
         {
-            if (domains.isEmpty())
-            {
-                loadPatterns("domains", domains);
-            }
-
-            for (Pattern candidate : domains)
+            MultiPatternMatcher matcher = domains;
+            if ((matcher != null ? matcher : getDomains()).find(hostname))
             {
-                if (candidate.matcher(hostname).find())
-                {
-                    return true;
-                }
+                return true;
             }
         }
 
@@ -272,6 +322,7 @@ public class SpiderDetector {
         if (table == null) {
             SpiderDetector.loadSpiderIpAddresses();
         }
+        IPTable table = SpiderDetector.table;
 
         try {
             if (table.contains(ip)) {
@@ -0,0 +1,130 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.dspace.storage.rdbms.TableRow;
+
+/**
+ * A place where the bits of bitstreams are kept. Each asset store configured
+ * in dspace.cfg (<code>assetstore.dir</code>, <code>assetstore.dir.1</code>,
+ * <code>srb.host.2</code>...) is served by one BitStore, chosen by its store
+ * number; see {@link BitstreamStorageManager}.
+ * <P>
+ * A store locates the bits of a bitstream through the columns of its row in
+ * the <code>bitstream</code> table, chiefly <code>internal_id</code>. Rows
+ * are handed to the store as they are; it is up to
+ * {@link BitstreamStorageManager} to write them back to the database.
+ * <P>
+ * Implementations must have a public no-argument constructor, and must be
+ * safe for use by several threads at once.
+ *
+ * @version $Revision$
+ */
+public interface BitStore
+{
+    /** Attribute of {@link #about}: size of the bits, a Long */
+    public static final String SIZE_BYTES = "size_bytes";
+
+    /** Attribute of {@link #about}: checksum of the bits, a String */
+    public static final String CHECKSUM = "checksum";
+
+    /** Attribute of {@link #about}: algorithm of the checksum, a String */
+    public static final String CHECKSUM_ALGORITHM = "checksum_algorithm";
+
+    /** Attribute of {@link #about}: stronger checksum of the bits, a String */
+    public static final String STRONG_CHECKSUM = "strong_checksum";
+
+    /** Attribute of {@link #about}: algorithm of the stronger checksum, a String */
+    public static final String STRONG_CHECKSUM_ALGORITHM = "strong_checksum_algorithm";
+
+    /** Attribute of {@link #about}: time the bits were last written, a Long */
+    public static final String MODIFIED = "modified";
+
+    /**
+     * Set up the store from the configuration of the given asset store.
+     *
+     * @param storeNumber
+     *            number of the asset store, 0 for the default one
+     * @throws IOException
+     *             if the store cannot be reached
+     */
+    public void init(int storeNumber) throws IOException;
+
+    /**
+     * Store the bits of a new bitstream. On return the row holds the size and
+     * checksums of the bits (see {@link MultiDigest}). A store may also change the row's
+     * <code>internal_id</code>, e.g. to share the bits with an existing
+     * bitstream.
+     *
+     * @param bitstream
+     *            the bitstream row, with a fresh <code>internal_id</code>
+     * @param in
+     *            the bits; the stream is closed on return
+     * @throws IOException
+     *             if the bits could not be stored
+     */
+    public void put(TableRow bitstream, InputStream in) throws IOException;
+
+    /**
+     * Read the bits of a bitstream.
+     *
+     * @param bitstream
+     *            the bitstream row
+     * @return the bits, or null if the store does not hold them
+     * @throws IOException
+     *             if the bits could not be read
+     */
+    public InputStream get(TableRow bitstream) throws IOException;
+
+    /**
+     * Open a channel on the bits of a bitstream, so that any range of them
+     * can be read directly.
+     *
+     * @param bitstream
+     *            the bitstream row
+     * @return a channel on the bits, or null if the bits are not held by the
+     *         store or the store cannot provide channels
+     * @throws IOException
+     *             if the bits could not be read
+     */
+    public FileChannel getChannel(TableRow bitstream) throws IOException;
+
+    /**
+     * Describe the bits of a bitstream.
+     *
+     * @param bitstream
+     *            the bitstream row
+     * @param computeChecksum
+     *            whether to work out the {@link #CHECKSUM} of the bits, which
+     *            may involve reading them all
+     * @return the {@link #SIZE_BYTES}, {@link #MODIFIED} time and, if asked
+     *         for, {@link #CHECKSUM} and {@link #CHECKSUM_ALGORITHM} of the
+     *         bits, with their {@link #STRONG_CHECKSUM} if the store can work
+     *         it out; or null if the store does not hold them
+     * @throws IOException
+     *             if the bits could not be examined
+     */
+    public Map<String, Object> about(TableRow bitstream, boolean computeChecksum) throws IOException;
+
+    /**
+     * Delete the bits of a bitstream. The caller has made sure that no other
+     * bitstream refers to the same bits.
+     *
+     * @param bitstream
+     *            the bitstream row
+     * @return true if the bits were deleted
+     * @throws IOException
+     *             if the bits could not be deleted
+     */
+    public boolean remove(TableRow bitstream) throws IOException;
+}
@@ -7,16 +7,14 @@
  */
 package org.dspace.storage.bitstore;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.checker.BitstreamInfoDAO;
@@ -26,14 +24,6 @@ import org.dspace.core.Utils;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 
-import edu.sdsc.grid.io.FileFactory;
-import edu.sdsc.grid.io.GeneralFile;
-import edu.sdsc.grid.io.GeneralFileOutputStream;
-import edu.sdsc.grid.io.local.LocalFile;
-import edu.sdsc.grid.io.srb.SRBAccount;
-import edu.sdsc.grid.io.srb.SRBFile;
-import edu.sdsc.grid.io.srb.SRBFileSystem;
-
 /**
  * <P>
  * Stores, retrieves and deletes bitstreams.
@@ -49,6 +39,13 @@ import edu.sdsc.grid.io.srb.SRBFileSystem;
  * </P>
  * 
  * <P>
+ * Each asset store is served by a {@link BitStore}, chosen by its store
+ * number: a {@link LocalBitStore} for <code>assetstore.dir.N</code>, an
+ * {@link SRBBitStore} for <code>srb.host.N</code>, or the class named by
+ * <code>assetstore.class.N</code>, e.g. a {@link ContentAddressedBitStore}.
+ * </P>
+ * 
+ * <P>
  * Mods by David Little, UCSD Libraries 12/21/04 to allow the registration of
  * files (bitstreams) into DSpace.
  * </P>
@@ -67,42 +64,15 @@ public class BitstreamStorageManager
     /** log4j log */
     private static Logger log = Logger.getLogger(BitstreamStorageManager.class);
 
-	/**
-	 * The asset store locations. The information for each GeneralFile in the
-	 * array comes from dspace.cfg, so see the comments in that file.
-	 *
-	 * If an array element refers to a conventional (non_SRB) asset store, the
-	 * element will be a LocalFile object (similar to a java.io.File object)
-	 * referencing a local directory under which the bitstreams are stored.
-	 *
-	 * If an array element refers to an SRB asset store, the element will be an
-	 * SRBFile object referencing an SRB 'collection' (directory) under which
-	 * the bitstreams are stored.
-	 *
-	 * An SRBFile object is obtained by (1) using dspace.cfg properties to
-	 * create an SRBAccount object (2) using the account to create an
-	 * SRBFileSystem object (similar to a connection) (3) using the
-	 * SRBFileSystem object to create an SRBFile object
-	 */
-	private static GeneralFile[] assetStores;
+    /**
+     * The asset stores, by store number. An element is null if that store
+     * could not be set up; the problem has been logged.
+     */
+    private static BitStore[] stores;
 
     /** The asset store to use for new bitstreams */
     private static int incoming;
 
-    // These settings control the way an identifier is hashed into
-    // directory and file names
-    //
-    // With digitsPerLevel 2 and directoryLevels 3, an identifier
-    // like 12345678901234567890 turns into the relative name
-    // /12/34/56/12345678901234567890.
-    //
-    // You should not change these settings if you have data in the
-    // asset store, as the BitstreamStorageManager will be unable
-    // to find your existing data.
-    private static final int digitsPerLevel = 2;
-
-    private static final int directoryLevels = 3;
-
 	/**
 	 * This prefix string marks registered bitstreams in internal_id
 	 */
@@ -111,104 +81,91 @@ public class BitstreamStorageManager
     /* Read in the asset stores from the config. */
     static
     {
-        List<Object> stores = new ArrayList<Object>();
-
-		// 'assetstore.dir' is always store number 0
-		String sAssetstoreDir = ConfigurationManager
-				.getProperty("assetstore.dir");
- 
-		// see if conventional assetstore or srb
-		if (sAssetstoreDir != null) {
-			stores.add(sAssetstoreDir); // conventional (non-srb)
-		} else if (ConfigurationManager.getProperty("srb.host") != null) {
-			stores.add(new SRBAccount( // srb
-					ConfigurationManager.getProperty("srb.host"),
-					ConfigurationManager.getIntProperty("srb.port"),
-					ConfigurationManager.getProperty("srb.username"),
-					ConfigurationManager.getProperty("srb.password"),
-					ConfigurationManager.getProperty("srb.homedirectory"),
-					ConfigurationManager.getProperty("srb.mdasdomainname"),
-					ConfigurationManager
-							.getProperty("srb.defaultstorageresource"),
-					ConfigurationManager.getProperty("srb.mcatzone")));
-		} else {
-			log.error("No default assetstore");
-		}
+        List<BitStore> storeList = new ArrayList<BitStore>();
 
-		// read in assetstores .1, .2, ....
-		for (int i = 1;; i++) { // i == 0 is default above
-			sAssetstoreDir = ConfigurationManager.getProperty("assetstore.dir."
-					+ i);
-
-			// see if 'i' conventional assetstore or srb
-			if (sAssetstoreDir != null) { 		// conventional (non-srb)
-				stores.add(sAssetstoreDir);
-			} else if (ConfigurationManager.getProperty("srb.host." + i)
-					!= null) { // srb
-				stores.add(new SRBAccount(
-						ConfigurationManager.getProperty("srb.host." + i),
-						ConfigurationManager.getIntProperty("srb.port." + i),
-						ConfigurationManager.getProperty("srb.username." + i),
-						ConfigurationManager.getProperty("srb.password." + i),
-						ConfigurationManager
-								.getProperty("srb.homedirectory." + i),
-						ConfigurationManager
-								.getProperty("srb.mdasdomainname." + i),
-						ConfigurationManager
-								.getProperty("srb.defaultstorageresource." + i),
-						ConfigurationManager.getProperty("srb.mcatzone." + i)));
-			} else {
-				break; // must be at the end of the assetstores
-			}
-		}
+        // 'assetstore.dir' is always store number 0, then .1, .2, ...
+        for (int i = 0;; i++)
+        {
+            String suffix = (i == 0) ? "" : "." + i;
+            String storeClass = ConfigurationManager.getProperty("assetstore.class" + suffix);
 
-		// convert list to array
-		// the elements (objects) in the list are class
-		//   (1) String - conventional non-srb assetstore
-		//   (2) SRBAccount - srb assetstore
-		assetStores = new GeneralFile[stores.size()];
-		for (int i = 0; i < stores.size(); i++) {
-			Object o = stores.get(i);
-			if (o == null) { // I don't know if this can occur
-				log.error("Problem with assetstore " + i);
-			}
-			if (o instanceof String) {
-				assetStores[i] = new LocalFile((String) o);
-			} else if (o instanceof SRBAccount) {
-				SRBFileSystem srbFileSystem = null;
-				try {
-					srbFileSystem = new SRBFileSystem((SRBAccount) o);
-				} catch (NullPointerException e) {
-					log.error("No SRBAccount for assetstore " + i);
-				} catch (IOException e) {
-					log.error("Problem getting SRBFileSystem for assetstore"
-							+ i);
-				}
-				if (srbFileSystem == null) {
-					log.error("SRB FileSystem is null for assetstore " + i);
-				}
-				String sSRBAssetstore = null;
-				if (i == 0) { // the zero (default) assetstore has no suffix
-					sSRBAssetstore = ConfigurationManager
-							.getProperty("srb.parentdir");
-				} else {
-					sSRBAssetstore = ConfigurationManager
-							.getProperty("srb.parentdir." + i);
-				}
-				if (sSRBAssetstore == null) {
-					log.error("srb.parentdir is undefined for assetstore " + i);
-				}
-				assetStores[i] = new SRBFile(srbFileSystem, sSRBAssetstore);
-			} else {
-				log.error("Unexpected " + o.getClass().toString()
-						+ " with assetstore " + i);
-			}
-		}
+            // Should there be any conflict, the local directory wins
+            if (storeClass == null)
+            {
+                if (ConfigurationManager.getProperty("assetstore.dir" + suffix) != null)
+                {
+                    storeClass = LocalBitStore.class.getName();
+                }
+                else if (ConfigurationManager.getProperty("srb.host" + suffix) != null)
+                {
+                    storeClass = SRBBitStore.class.getName();
+                }
+            }
+
+            if (storeClass == null)
+            {
+                if (i == 0)
+                {
+                    log.error("No default assetstore");
+                    storeList.add(null);
+                    continue;
+                }
+                break; // must be at the end of the assetstores
+            }
+
+            BitStore store = null;
+            try
+            {
+                store = (BitStore) Class.forName(storeClass.trim()).newInstance();
+                store.init(i);
+            }
+            catch (Exception e)
+            {
+                log.error("Problem with assetstore " + i + " (" + storeClass + ")", e);
+                store = null;
+            }
+            storeList.add(store);
+        }
+
+        stores = storeList.toArray(new BitStore[storeList.size()]);
 
         // Read asset store to put new files in. Default is 0.
         incoming = ConfigurationManager.getIntProperty("assetstore.incoming");
     }
 
+    /**
+     * Get the store serving an asset store number.
+     * 
+     * @param storeNumber
+     *            the store number, -1 meaning the default store 0
+     * @return the store
+     * @exception IOException
+     *                If there is no such store, or it could not be set up
+     */
+    public static BitStore getStore(int storeNumber) throws IOException
+    {
+        // Default to zero ('assetstore.dir') for backwards compatibility
+        if (storeNumber == -1)
+        {
+            storeNumber = 0;
+        }
+
+        if (storeNumber < 0 || storeNumber >= stores.length || stores[storeNumber] == null)
+        {
+            throw new IOException("Assetstore " + storeNumber + " is not available");
+        }
+
+        return stores[storeNumber];
+    }
+
+    /**
+     * Get the store holding a bitstream.
+     */
+    private static BitStore getStore(TableRow bitstream) throws IOException
+    {
+        return getStore(bitstream.getIntColumn("store_number"));
+    }
+
     /**
      * Store a stream of bits.
      * 
@@ -285,60 +242,14 @@ public class BitstreamStorageManager
             throw sqle;
         }
 
-        // Where on the file system will this new bitstream go?
-		GeneralFile file = getFile(bitstream);
-
-        // Make the parent dirs if necessary
-		GeneralFile parent = file.getParentFile();
-
-        if (!parent.exists())
-        {
-            parent.mkdirs();
-        }
-
-        //Create the corresponding file and open it
-        file.createNewFile();
-
-		GeneralFileOutputStream fos = FileFactory.newFileOutputStream(file);
-
-		// Read through a digest input stream that will work out the MD5
-        DigestInputStream dis = null;
-
-        try
-        {
-            dis = new DigestInputStream(is, MessageDigest.getInstance("MD5"));
-        }
-        // Should never happen
-        catch (NoSuchAlgorithmException nsae)
-        {
-            log.warn("Caught NoSuchAlgorithmException", nsae);
-        }
-
-        Utils.bufferedCopy(dis, fos);
-        fos.close();
-        is.close();
+        // Store the bits; this works out their size and checksum, and may
+        // change the internal ID if the store shares identical bits
+        getStore(bitstream).put(bitstream, is);
 
-        bitstream.setColumn("size_bytes", file.length());
-
-        if (dis != null)
-        {
-            bitstream.setColumn("checksum", Utils.toHex(dis.getMessageDigest()
-                    .digest()));
-            bitstream.setColumn("checksum_algorithm", "MD5");
-        }
-        
         bitstream.setColumn("deleted", false);
         DatabaseManager.update(context, bitstream);
 
-        int bitstreamId = bitstream.getIntColumn("bitstream_id");
-
-        if (log.isDebugEnabled())
-        {
-            log.debug("Stored bitstream " + bitstreamId + " in file "
-                    + file.getAbsolutePath());
-        }
-
-        return bitstreamId;
+        return bitstream.getIntColumn("bitstream_id");
     }
 
 	/**
@@ -382,104 +293,37 @@ public class BitstreamStorageManager
 			throw sqle;
 		}
 
-		// get a reference to the file
-		GeneralFile file = getFile(bitstream);
-
-		// read through a DigestInputStream that will work out the MD5
+		// work out the size and the MD5 checksum of the file
 		//
 		// DSpace refers to checksum, writes it in METS, and uses it as an
 		// AIP filename (!), but never seems to validate with it. Furthermore,
 		// DSpace appears to hardcode the algorithm to MD5 in some places--see 
-		// METSExport.java.
-		//
-		// To remain compatible with DSpace we calculate an MD5 checksum on 
-		// LOCAL registered files. But for REMOTE (e.g. SRB) files we 
-		// calculate an MD5 on just the fileNAME. The reasoning is that in the 
-		// case of a remote file, calculating an MD5 on the file itself will
-		// generate network traffic to read the file's bytes. In this case it 
-		// would be better have a proxy process calculate MD5 and store it as 
-		// an SRB metadata attribute so it can be retrieved simply from SRB.
-		//
-		// TODO set this up as a proxy server process so no net activity
-		
-		// FIXME this is a first class HACK! for the reasons described above
-		if (file instanceof LocalFile) 
-		{
-
-			// get MD5 on the file for local file
-			DigestInputStream dis = null;
-			try 
-			{
-				dis = new DigestInputStream(FileFactory.newFileInputStream(file), 
-						MessageDigest.getInstance("MD5"));
-			} 
-			catch (NoSuchAlgorithmException e) 
-			{
-				log.warn("Caught NoSuchAlgorithmException", e);
-				throw new IOException("Invalid checksum algorithm", e);
-			}
-			catch (IOException e) 
-			{
-				log.error("File: " + file.getAbsolutePath() 
-						+ " to be registered cannot be opened - is it "
-						+ "really there?");
-				throw e;
-			}
-			final int BUFFER_SIZE = 1024 * 4;
-			final byte[] buffer = new byte[BUFFER_SIZE];
-			while (true) 
-			{
-				final int count = dis.read(buffer, 0, BUFFER_SIZE);
-				if (count == -1) 
-				{
-					break;
-				}
-			}
-			bitstream.setColumn("checksum", Utils.toHex(dis.getMessageDigest()
-					.digest()));
-			dis.close();
-		} 
-		else if (file instanceof SRBFile)
+		// METSExport.java. Stores that cannot read the bits cheaply may
+		// work out the checksum some other way, see SRBBitStore.
+		Map<String, Object> about = getStore(bitstream).about(bitstream, true);
+		if (about == null)
 		{
-			if (!file.exists())
-			{
-				log.error("File: " + file.getAbsolutePath() 
-						+ " is not in SRB MCAT");
-				throw new IOException("File is not in SRB MCAT");
-			}
-
-			// get MD5 on just the filename (!) for SRB file
-			int iLastSlash = bitstreamPath.lastIndexOf('/');
-			String sFilename = bitstreamPath.substring(iLastSlash + 1);
-			MessageDigest md = null;
-			try 
-			{
-				md = MessageDigest.getInstance("MD5");
-			} 
-			catch (NoSuchAlgorithmException e) 
-			{
-				log.error("Caught NoSuchAlgorithmException", e);
-				throw new IOException("Invalid checksum algorithm", e);
-			}
-			bitstream.setColumn("checksum", 
-					Utils.toHex(md.digest(sFilename.getBytes())));
+			log.error("File: " + bitstreamPath + " in assetstore " + assetstore
+					+ " to be registered cannot be found - is it really there?");
+			throw new IOException("File to be registered cannot be found");
 		}
-		else
+
+		bitstream.setColumn("checksum", (String) about.get(BitStore.CHECKSUM));
+		bitstream.setColumn("checksum_algorithm", (String) about.get(BitStore.CHECKSUM_ALGORITHM));
+		bitstream.setColumn("size_bytes", ((Long) about.get(BitStore.SIZE_BYTES)).longValue());
+		if (about.containsKey(BitStore.STRONG_CHECKSUM) && bitstream.hasColumn("strong_checksum"))
 		{
-			throw new IOException("Unrecognized file type - "
-					+ "not local, not SRB");
+			bitstream.setColumn("strong_checksum", (String) about.get(BitStore.STRONG_CHECKSUM));
+			bitstream.setColumn("strong_checksum_algorithm", (String) about.get(BitStore.STRONG_CHECKSUM_ALGORITHM));
 		}
-
-		bitstream.setColumn("checksum_algorithm", "MD5");
-		bitstream.setColumn("size_bytes", file.length());
 		bitstream.setColumn("deleted", false);
 		DatabaseManager.update(context, bitstream);
 
 		int bitstreamId = bitstream.getIntColumn("bitstream_id");
 		if (log.isDebugEnabled()) 
 		{
-			log.debug("Stored bitstream " + bitstreamId + " in file "
-					+ file.getAbsolutePath());
+			log.debug("Registered bitstream " + bitstreamId + " as "
+					+ bitstreamPath + " in assetstore " + assetstore);
 		}
 		return bitstreamId;
 	}
@@ -520,9 +364,35 @@ public class BitstreamStorageManager
     {
         TableRow bitstream = DatabaseManager.find(context, "bitstream", id);
 
-		GeneralFile file = getFile(bitstream);
+		return (bitstream != null) ? getStore(bitstream).get(bitstream) : null;
+    }
+
+    /**
+     * Open a channel on the bits of the bitstream with ID, if its asset store
+     * can provide one. A channel allows the bits to be read from any
+     * position, and to be handed to another channel with
+     * {@link FileChannel#transferTo} without passing through a buffer of our
+     * own. Bitstreams held in SRB cannot be read this way; use
+     * {@link #retrieve} for those.
+     * 
+     * @param context
+     *            The current context
+     * @param id
+     *            The ID of the bitstream to retrieve
+     * @exception IOException
+     *                If a problem occurs while retrieving the bits
+     * @exception SQLException
+     *                If a problem occurs accessing the RDBMS
+     * 
+     * @return A channel to read the bits from, or null if the bitstream does
+     *         not exist or its store cannot provide channels
+     */
+    public static FileChannel retrieveChannel(Context context, int id)
+            throws SQLException, IOException
+    {
+        TableRow bitstream = DatabaseManager.find(context, "bitstream", id);
 
-		return (file != null) ? FileFactory.newFileInputStream(file) : null;
+		return (bitstream != null) ? getStore(bitstream).getChannel(bitstream) : null;
     }
 
     /**
@@ -587,10 +457,11 @@ public class BitstreamStorageManager
                 TableRow row = iterator.next();
                 int bid = row.getIntColumn("bitstream_id");
 
-				GeneralFile file = getFile(row);
+                BitStore store = getStore(row);
+                Map<String, Object> about = store.about(row, false);
 
                 // Make sure entries which do not exist are removed
-                if (file == null || !file.exists())
+                if (about == null)
                 {
                     log.debug("file is null");
                     if (deleteDbRecords)
@@ -612,7 +483,7 @@ public class BitstreamStorageManager
 
                 // This is a small chance that this is a file which is
                 // being stored -- get it next time.
-                if (isRecent(file))
+                if (isRecent(((Long) about.get(BitStore.MODIFIED)).longValue()))
                 {
                 	log.debug("file is recent");
                     continue;
@@ -638,14 +509,15 @@ public class BitstreamStorageManager
 				}
 
 
-                // Since versioning allows for multiple bitstreams, check if the internal identifier isn't used on another place
-                TableRow duplicateBitRow = DatabaseManager.querySingleTable(context, "Bitstream", "SELECT * FROM Bitstream WHERE internal_id = ? AND bitstream_id <> ?", row.getStringColumn("internal_id"), bid);
-                if(duplicateBitRow == null)
+                // Since versioning allows for multiple bitstreams, and content
+                // addressed stores share identical bits, the file may still be
+                // referenced by other bitstreams: only delete it with the last
+                if (countReferences(context, row) == 0)
                 {
-                    boolean success = file.delete();
+                    boolean success = store.remove(row);
 
-                    String message = ("Deleted bitstream " + bid + " (file "
-                                + file.getAbsolutePath() + ") with result "
+                    String message = ("Deleted bitstream " + bid + " (internal id "
+                                + row.getStringColumn("internal_id") + ") with result "
                                 + success);
                     if (log.isDebugEnabled())
                     {
@@ -655,18 +527,6 @@ public class BitstreamStorageManager
                     {
                         System.out.println(message);
                     }
-
-                    // if the file was deleted then
-                    // try deleting the parents
-                    // Otherwise the cleanup script is set to
-                    // leave the db records then the file
-                    // and directories have already been deleted
-                    // if this is turned off then it still looks like the
-                    // file exists
-                    if( success )
-                    {
-                        deleteParents(file);
-                    }
                 }
 
                 // Make sure to commit our outstanding work every 100
@@ -728,15 +588,14 @@ public class BitstreamStorageManager
     ////////////////////////////////////////
 
     /**
-     * Return true if this file is too recent to be deleted, false otherwise.
+     * Return true if a file is too recent to be deleted, false otherwise.
      * 
-     * @param file
-     *            The file to check
+     * @param lastmod
+     *            The time the file was last modified
      * @return True if this file is too recent to be deleted
      */
-    private static boolean isRecent(GeneralFile file)
+    private static boolean isRecent(long lastmod)
     {
-        long lastmod = file.lastModified();
         long now = new java.util.Date().getTime();
 
         if (lastmod >= now)
@@ -749,144 +608,22 @@ public class BitstreamStorageManager
     }
 
     /**
-     * Delete empty parent directories.
-     * 
-     * @param file
-     *            The file with parent directories to delete
-     */
-    private static synchronized void deleteParents(GeneralFile file)
-    {
-        if (file == null )
-        {
-            return;
-        }
- 
-		GeneralFile tmp = file;
-
-        for (int i = 0; i < directoryLevels; i++)
-        {
-
-			GeneralFile directory = tmp.getParentFile();
-			GeneralFile[] files = directory.listFiles();
-
-            // Only delete empty directories
-            if (files.length != 0)
-            {
-                break;
-            }
-
-            directory.delete();
-            tmp = directory;
-        }
-    }
-
-    /**
-     * Return the file corresponding to a bitstream. It's safe to pass in
-     * <code>null</code>.
+     * Count the other bitstreams sharing the bits of a bitstream, i.e. those
+     * with the same internal ID. Deleted bitstreams count too, they still
+     * refer to the bits until cleanup removes them.
      * 
+     * @param context
+     *            The current context
      * @param bitstream
-     *            the database table row for the bitstream. Can be
-     *            <code>null</code>
-     * 
-     * @return The corresponding file in the file system, or <code>null</code>
-     * 
-     * @exception IOException
-     *                If a problem occurs while determining the file
+     *            The bitstream row
+     * @return The number of other bitstreams sharing its bits
      */
-    private static GeneralFile getFile(TableRow bitstream) throws IOException
+    private static long countReferences(Context context, TableRow bitstream)
+            throws SQLException
     {
-        // Check that bitstream is not null
-        if (bitstream == null)
-        {
-            return null;
-        }
-
-        // Get the store to use
-        int storeNumber = bitstream.getIntColumn("store_number");
-
-        // Default to zero ('assetstore.dir') for backwards compatibility
-        if (storeNumber == -1)
-        {
-            storeNumber = 0;
-        }
-
-		GeneralFile assetstore = assetStores[storeNumber];
-
-		// turn the internal_id into a file path relative to the assetstore
-		// directory
-		String sInternalId = bitstream.getStringColumn("internal_id");
-
-		// there are 4 cases:
-		// -conventional bitstream, conventional storage
-		// -conventional bitstream, srb storage
-		// -registered bitstream, conventional storage
-		// -registered bitstream, srb storage
-		// conventional bitstream - dspace ingested, dspace random name/path
-		// registered bitstream - registered to dspace, any name/path
-		String sIntermediatePath = null;
-		if (isRegisteredBitstream(sInternalId)) {
-			sInternalId = sInternalId.substring(REGISTERED_FLAG.length());
-			sIntermediatePath = "";
-		} else {
-			
-			// Sanity Check: If the internal ID contains a
-			// pathname separator, it's probably an attempt to
-			// make a path traversal attack, so ignore the path
-			// prefix.  The internal-ID is supposed to be just a
-			// filename, so this will not affect normal operation.
-			if (sInternalId.indexOf(File.separator) != -1)
-            {
-                sInternalId = sInternalId.substring(sInternalId.lastIndexOf(File.separator) + 1);
-            }
-			
-			sIntermediatePath = getIntermediatePath(sInternalId);
-		}
-
-		StringBuffer bufFilename = new StringBuffer();
-		if (assetstore instanceof LocalFile) {
-			bufFilename.append(assetstore.getCanonicalPath());
-			bufFilename.append(File.separator);
-			bufFilename.append(sIntermediatePath);
-			bufFilename.append(sInternalId);
-			if (log.isDebugEnabled()) {
-				log.debug("Local filename for " + sInternalId + " is "
-						+ bufFilename.toString());
-			}
-			return new LocalFile(bufFilename.toString());
-		}
-		if (assetstore instanceof SRBFile) {
-			bufFilename.append(sIntermediatePath);
-			bufFilename.append(sInternalId);
-			if (log.isDebugEnabled()) {
-				log.debug("SRB filename for " + sInternalId + " is "
-						+ ((SRBFile) assetstore).toString()
-						+ bufFilename.toString());
-			}
-			return new SRBFile((SRBFile) assetstore, bufFilename.toString());
-		}
-		return null;
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT COUNT(*) AS refs FROM Bitstream WHERE internal_id = ? AND bitstream_id <> ?",
+                bitstream.getStringColumn("internal_id"), bitstream.getIntColumn("bitstream_id"));
+        return (row == null) ? 0 : row.getLongColumn("refs");
     }
-
-	/**
-	 * Return the intermediate path derived from the internal_id. This method
-	 * splits the id into groups which become subdirectories.
-	 *
-	 * @param iInternalId
-	 *            The internal_id
-	 * @return The path based on the id without leading or trailing separators
-	 */
-	private static String getIntermediatePath(String iInternalId) {
-		StringBuffer buf = new StringBuffer();
-		for (int i = 0; i < directoryLevels; i++) {
-			int digits = i * digitsPerLevel;
-			if (i > 0) {
-				buf.append(File.separator);
-			}
-			buf.append(iInternalId.substring(digits, digits
-							+ digitsPerLevel));
-		}
-		buf.append(File.separator);
-		return buf.toString();
-	}
-
 }
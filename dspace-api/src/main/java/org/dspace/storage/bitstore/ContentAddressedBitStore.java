@@ -0,0 +1,142 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import org.apache.log4j.Logger;
+import org.dspace.storage.rdbms.TableRow;
+
+/**
+ * A local asset store that files bitstreams under the SHA-256 digest of their
+ * content, so that identical bitstreams (the same license text, a thesis
+ * deposited twice...) are stored only once. The digest becomes the
+ * <code>internal_id</code> of every bitstream with that content, and the
+ * files are laid out as in a {@link LocalBitStore}, so registered bitstreams
+ * and all the other operations behave exactly as they do there.
+ * <P>
+ * Shared files are reference counted by their bitstream rows:
+ * {@link BitstreamStorageManager#cleanup} only deletes a file once no other
+ * bitstream row refers to it. A new bitstream that turns out to be a
+ * duplicate refreshes the modification time of the existing file, which
+ * keeps a concurrent cleanup from deleting it while the new row is not yet
+ * committed.
+ * <P>
+ * To use it for asset store N, set in dspace.cfg:
+ * <pre>
+ * assetstore.dir.N = /path/to/store
+ * assetstore.class.N = org.dspace.storage.bitstore.ContentAddressedBitStore
+ * </pre>
+ * An existing local store can be switched over: bitstreams already in it
+ * keep their random internal IDs and are still found, only new bitstreams
+ * are filed by content.
+ *
+ * @version $Revision$
+ */
+public class ContentAddressedBitStore extends LocalBitStore
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(ContentAddressedBitStore.class);
+
+    /** Directory, within the store, where incoming bits are written first */
+    private static final String INCOMING_DIR = "incoming";
+
+    /** Digest the bits are filed under */
+    private static final String SHA256 = "SHA-256";
+
+    public void put(TableRow bitstream, InputStream in) throws IOException
+    {
+        // The SHA-256 digest files the bits, whatever the strong checksum is
+        String strongAlgorithm = MultiDigest.getStrongAlgorithm();
+        MultiDigest digest = newDigest(SHA256, strongAlgorithm);
+
+        // Write to a temporary file on the same file system first, we only
+        // know where the bits belong once we have seen them all
+        File incoming = new File(rootPath, INCOMING_DIR);
+        if (!incoming.exists())
+        {
+            incoming.mkdirs();
+        }
+        File temp = new File(incoming, bitstream.getStringColumn("internal_id"));
+
+        FileOutputStream out = new FileOutputStream(temp);
+        try
+        {
+            digest.copy(Channels.newChannel(in), out.getChannel());
+        }
+        catch (IOException e)
+        {
+            out.close();
+            temp.delete();
+            throw e;
+        }
+        finally
+        {
+            out.close();
+            in.close();
+        }
+
+        bitstream.setColumn("internal_id", digest.getDigest(SHA256));
+        File target = new File(getFile(bitstream).getAbsolutePath());
+
+        if (target.exists() || !moveTo(temp, target))
+        {
+            // Already held: keep the existing copy, and mark it as in use
+            temp.delete();
+            target.setLastModified(System.currentTimeMillis());
+
+            if (log.isDebugEnabled())
+            {
+                log.debug("Bitstream " + bitstream.getIntColumn("bitstream_id")
+                        + " shares file " + target.getAbsolutePath());
+            }
+        }
+        else if (log.isDebugEnabled())
+        {
+            log.debug("Stored bitstream " + bitstream.getIntColumn("bitstream_id")
+                    + " in file " + target.getAbsolutePath());
+        }
+
+        setChecksums(bitstream, digest, strongAlgorithm);
+    }
+
+    /**
+     * Move a freshly written file to its place in the store.
+     *
+     * @return true if it was moved, false if another copy got there first
+     * @throws IOException
+     *             if the file could not be moved
+     */
+    private boolean moveTo(File temp, File target) throws IOException
+    {
+        File parent = target.getParentFile();
+        if (!parent.exists())
+        {
+            parent.mkdirs();
+        }
+
+        if (temp.renameTo(target))
+        {
+            return true;
+        }
+
+        // Some platforms will not rename over an existing file
+        if (target.exists())
+        {
+            return false;
+        }
+
+        temp.delete();
+        throw new IOException("Could not move " + temp.getAbsolutePath()
+                + " to " + target.getAbsolutePath());
+    }
+}
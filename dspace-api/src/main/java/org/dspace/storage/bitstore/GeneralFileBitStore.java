@@ -0,0 +1,361 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.storage.rdbms.TableRow;
+
+import edu.sdsc.grid.io.FileFactory;
+import edu.sdsc.grid.io.GeneralFile;
+import edu.sdsc.grid.io.GeneralFileOutputStream;
+
+/**
+ * Base of the stores that keep each bitstream in a file of its own, under a
+ * directory tree derived from its <code>internal_id</code>. The files are
+ * reached through the Jargon {@link GeneralFile} abstraction, so that the
+ * same layout serves both local directories and SRB collections.
+ * <P>
+ * Registered bitstreams (see
+ * {@link BitstreamStorageManager#isRegisteredBitstream}) are found at the
+ * path they were registered with, relative to the root of the store.
+ *
+ * @version $Revision$
+ */
+public abstract class GeneralFileBitStore implements BitStore
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(GeneralFileBitStore.class);
+
+    // These settings control the way an identifier is hashed into
+    // directory and file names
+    //
+    // With digitsPerLevel 2 and directoryLevels 3, an identifier
+    // like 12345678901234567890 turns into the relative name
+    // /12/34/56/12345678901234567890.
+    //
+    // You should not change these settings if you have data in the
+    // asset store, as the BitstreamStorageManager will be unable
+    // to find your existing data.
+    protected static final int digitsPerLevel = 2;
+
+    protected static final int directoryLevels = 3;
+
+    /** This prefix string marks registered bitstreams in internal_id */
+    protected static final String REGISTERED_FLAG = "-R";
+
+    /** Number of the asset store this is */
+    protected int storeNumber;
+
+    /**
+     * Get a setting of this asset store from dspace.cfg. The settings of
+     * store 0 have no suffix, those of the others are suffixed with the
+     * store number, e.g. <code>assetstore.dir.1</code>.
+     *
+     * @param name
+     *            name of the setting, without suffix
+     * @return the value, or null if it is not set
+     */
+    protected String getProperty(String name)
+    {
+        return ConfigurationManager.getProperty((storeNumber == 0) ? name : name + "." + storeNumber);
+    }
+
+    /**
+     * Get the file at a path relative to the root of the store.
+     *
+     * @param relativePath
+     *            the path, without a leading separator
+     * @return the file
+     */
+    protected abstract GeneralFile getFile(String relativePath) throws IOException;
+
+    public void put(TableRow bitstream, InputStream in) throws IOException
+    {
+        // Where on the file system will this new bitstream go?
+        GeneralFile file = getFile(bitstream);
+
+        // Make the parent dirs if necessary
+        GeneralFile parent = file.getParentFile();
+
+        if (!parent.exists())
+        {
+            parent.mkdirs();
+        }
+
+        //Create the corresponding file and open it
+        file.createNewFile();
+
+        GeneralFileOutputStream fos = FileFactory.newFileOutputStream(file);
+
+        // Work out the size and checksums while the bits go by
+        String strongAlgorithm = MultiDigest.getStrongAlgorithm();
+        MultiDigest digest = newDigest(strongAlgorithm);
+
+        try
+        {
+            digest.copy(in, fos);
+        }
+        finally
+        {
+            fos.close();
+            in.close();
+        }
+
+        setChecksums(bitstream, digest, strongAlgorithm);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Stored bitstream " + bitstream.getIntColumn("bitstream_id")
+                    + " in file " + file.getAbsolutePath());
+        }
+    }
+
+    public InputStream get(TableRow bitstream) throws IOException
+    {
+        GeneralFile file = getFile(bitstream);
+
+        return (file != null) ? FileFactory.newFileInputStream(file) : null;
+    }
+
+    /**
+     * Channels are only available from local files.
+     */
+    public FileChannel getChannel(TableRow bitstream) throws IOException
+    {
+        return null;
+    }
+
+    public Map<String, Object> about(TableRow bitstream, boolean computeChecksum) throws IOException
+    {
+        GeneralFile file = getFile(bitstream);
+        if (file == null || !file.exists())
+        {
+            return null;
+        }
+
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(SIZE_BYTES, Long.valueOf(file.length()));
+        attrs.put(MODIFIED, Long.valueOf(file.lastModified()));
+
+        if (computeChecksum)
+        {
+            computeChecksums(file, attrs);
+        }
+
+        return attrs;
+    }
+
+    /**
+     * Work out the checksums of a file held in this store, reading it once.
+     *
+     * @param file
+     *            the file
+     * @param attrs
+     *            where to put the {@link #CHECKSUM} and
+     *            {@link #STRONG_CHECKSUM} and their algorithms
+     */
+    protected void computeChecksums(GeneralFile file, Map<String, Object> attrs) throws IOException
+    {
+        String strongAlgorithm = MultiDigest.getStrongAlgorithm();
+        MultiDigest digest = newDigest(strongAlgorithm);
+
+        InputStream in = FileFactory.newFileInputStream(file);
+        try
+        {
+            digest.copy(in, null);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        attrs.put(CHECKSUM, digest.getDigest(MultiDigest.MD5));
+        attrs.put(CHECKSUM_ALGORITHM, MultiDigest.MD5);
+        if (strongAlgorithm != null)
+        {
+            attrs.put(STRONG_CHECKSUM, digest.getDigest(strongAlgorithm));
+            attrs.put(STRONG_CHECKSUM_ALGORITHM, strongAlgorithm);
+        }
+    }
+
+    /**
+     * Set up the digests of a bitstream: MD5, and the given ones.
+     */
+    protected static MultiDigest newDigest(String... algorithms) throws IOException
+    {
+        String[] all = new String[algorithms.length + 1];
+        all[0] = MultiDigest.MD5;
+        System.arraycopy(algorithms, 0, all, 1, algorithms.length);
+
+        try
+        {
+            return new MultiDigest(all);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            log.warn("Caught NoSuchAlgorithmException", e);
+            throw new IOException("Invalid checksum algorithm", e);
+        }
+    }
+
+    /**
+     * Record the size and checksums of freshly stored bits in their row.
+     *
+     * @param bitstream
+     *            the bitstream row
+     * @param digest
+     *            the digest the bits were read through
+     * @param strongAlgorithm
+     *            the strong checksum algorithm, or null
+     */
+    protected static void setChecksums(TableRow bitstream, MultiDigest digest, String strongAlgorithm)
+    {
+        bitstream.setColumn("size_bytes", digest.getSize());
+        bitstream.setColumn("checksum", digest.getDigest(MultiDigest.MD5));
+        bitstream.setColumn("checksum_algorithm", MultiDigest.MD5);
+
+        // The columns are missing if the database has not been upgraded yet
+        if (strongAlgorithm != null && bitstream.hasColumn("strong_checksum"))
+        {
+            bitstream.setColumn("strong_checksum", digest.getDigest(strongAlgorithm));
+            bitstream.setColumn("strong_checksum_algorithm", strongAlgorithm);
+        }
+    }
+
+    public boolean remove(TableRow bitstream) throws IOException
+    {
+        GeneralFile file = getFile(bitstream);
+        if (file == null)
+        {
+            return false;
+        }
+
+        boolean success = file.delete();
+
+        // if the file was deleted then
+        // try deleting the parents
+        if (success)
+        {
+            deleteParents(file);
+        }
+
+        return success;
+    }
+
+    /**
+     * Return the file corresponding to a bitstream. It's safe to pass in
+     * <code>null</code>.
+     *
+     * @param bitstream
+     *            the database table row for the bitstream. Can be
+     *            <code>null</code>
+     *
+     * @return The corresponding file, or <code>null</code>
+     *
+     * @exception IOException
+     *                If a problem occurs while determining the file
+     */
+    protected GeneralFile getFile(TableRow bitstream) throws IOException
+    {
+        // Check that bitstream is not null
+        if (bitstream == null)
+        {
+            return null;
+        }
+
+        // turn the internal_id into a file path relative to the assetstore
+        // directory
+        String sInternalId = bitstream.getStringColumn("internal_id");
+
+        // registered bitstream - registered to dspace, any name/path
+        if (BitstreamStorageManager.isRegisteredBitstream(sInternalId))
+        {
+            return getFile(sInternalId.substring(REGISTERED_FLAG.length()));
+        }
+
+        // conventional bitstream - dspace ingested, dspace random name/path
+        //
+        // Sanity Check: If the internal ID contains a
+        // pathname separator, it's probably an attempt to
+        // make a path traversal attack, so ignore the path
+        // prefix.  The internal-ID is supposed to be just a
+        // filename, so this will not affect normal operation.
+        if (sInternalId.indexOf(File.separator) != -1)
+        {
+            sInternalId = sInternalId.substring(sInternalId.lastIndexOf(File.separator) + 1);
+        }
+
+        return getFile(getIntermediatePath(sInternalId) + sInternalId);
+    }
+
+    /**
+     * Delete empty parent directories.
+     *
+     * @param file
+     *            The file with parent directories to delete
+     */
+    protected synchronized void deleteParents(GeneralFile file)
+    {
+        if (file == null)
+        {
+            return;
+        }
+
+        GeneralFile tmp = file;
+
+        for (int i = 0; i < directoryLevels; i++)
+        {
+            GeneralFile directory = tmp.getParentFile();
+            GeneralFile[] files = directory.listFiles();
+
+            // Only delete empty directories
+            if (files == null || files.length != 0)
+            {
+                break;
+            }
+
+            directory.delete();
+            tmp = directory;
+        }
+    }
+
+    /**
+     * Return the intermediate path derived from the internal_id. This method
+     * splits the id into groups which become subdirectories.
+     *
+     * @param iInternalId
+     *            The internal_id
+     * @return The path based on the id without leading separator, but with a
+     *         trailing one
+     */
+    protected static String getIntermediatePath(String iInternalId)
+    {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < directoryLevels; i++)
+        {
+            int digits = i * digitsPerLevel;
+            if (i > 0)
+            {
+                buf.append(File.separator);
+            }
+            buf.append(iInternalId.substring(digits, digits
+                            + digitsPerLevel));
+        }
+        buf.append(File.separator);
+        return buf.toString();
+    }
+}
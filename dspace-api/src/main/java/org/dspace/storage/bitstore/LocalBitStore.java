@@ -0,0 +1,65 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+import org.dspace.storage.rdbms.TableRow;
+
+import edu.sdsc.grid.io.GeneralFile;
+import edu.sdsc.grid.io.local.LocalFile;
+
+/**
+ * The native DSpace asset store: one file per bitstream, in a local (or
+ * mounted) directory given by <code>assetstore.dir</code> (store 0) or
+ * <code>assetstore.dir.N</code> (store N).
+ *
+ * @version $Revision$
+ */
+public class LocalBitStore extends GeneralFileBitStore
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(LocalBitStore.class);
+
+    /** Canonical path of the directory holding the store */
+    protected String rootPath;
+
+    public void init(int storeNumber) throws IOException
+    {
+        this.storeNumber = storeNumber;
+
+        String dir = getProperty("assetstore.dir");
+        if (dir == null)
+        {
+            throw new IOException("No directory configured for assetstore " + storeNumber);
+        }
+
+        rootPath = new File(dir).getCanonicalPath();
+    }
+
+    protected GeneralFile getFile(String relativePath) throws IOException
+    {
+        String filename = rootPath + File.separator + relativePath;
+        if (log.isDebugEnabled())
+        {
+            log.debug("Local filename for " + relativePath + " is " + filename);
+        }
+        return new LocalFile(filename);
+    }
+
+    public FileChannel getChannel(TableRow bitstream) throws IOException
+    {
+        GeneralFile file = getFile(bitstream);
+
+        return (file != null) ? new FileInputStream(file.getAbsolutePath()).getChannel() : null;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
+
+/**
+ * Works out several message digests of a stream of bits, and counts them, in
+ * a single pass, optionally copying the bits somewhere on the way. The bits
+ * go through a direct buffer that is kept per thread and reused, so storing
+ * or checking many bitstreams does not churn the heap.
+ * <P>
+ * Every bitstream gets an MD5 checksum, which is what the rest of DSpace
+ * expects. The stronger checksum stored alongside it is configured in
+ * dspace.cfg:
+ * <pre>
+ * checksum.strong.algorithm = SHA-256
+ * </pre>
+ * Leave it empty to only compute MD5.
+ *
+ * @version $Revision$
+ */
+public class MultiDigest
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(MultiDigest.class);
+
+    /** The checksum algorithm the rest of DSpace relies on */
+    public static final String MD5 = "MD5";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>()
+    {
+        @Override
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /** The digests being worked out, by algorithm */
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<String, MessageDigest>();
+
+    /** The results, in hex, once the bits are all read */
+    private final Map<String, String> results = new LinkedHashMap<String, String>();
+
+    private long size = 0;
+
+    /**
+     * Work out the given digests. Algorithms that are null, empty or repeated
+     * are ignored.
+     *
+     * @param algorithms
+     *            names of the algorithms, as known to {@link MessageDigest}
+     * @throws NoSuchAlgorithmException
+     *             if one of the algorithms is not available
+     */
+    public MultiDigest(String... algorithms) throws NoSuchAlgorithmException
+    {
+        for (String algorithm : algorithms)
+        {
+            if (algorithm != null && algorithm.length() > 0 && !digests.containsKey(algorithm))
+            {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            }
+        }
+    }
+
+    /**
+     * Get the configured strong checksum algorithm.
+     *
+     * @return the algorithm, or null if only MD5 checksums are wanted
+     */
+    public static String getStrongAlgorithm()
+    {
+        String algorithm = ConfigurationManager.getProperty("checksum.strong.algorithm");
+        if (algorithm == null)
+        {
+            return "SHA-256";
+        }
+
+        algorithm = algorithm.trim();
+        if (algorithm.length() == 0 || MD5.equalsIgnoreCase(algorithm))
+        {
+            return null;
+        }
+
+        try
+        {
+            MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            log.error("Unknown checksum.strong.algorithm " + algorithm + ", only MD5 will be computed");
+            return null;
+        }
+
+        return algorithm;
+    }
+
+    /**
+     * Read all the bits of a stream, copying them to another one.
+     *
+     * @param in
+     *            the bits; the stream is not closed
+     * @param out
+     *            where to copy them, or null to only digest them
+     * @return the number of bytes read
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException
+    {
+        return copy(Channels.newChannel(in), (out != null) ? Channels.newChannel(out) : null);
+    }
+
+    /**
+     * Read all the bits of a channel, copying them to another one.
+     *
+     * @param in
+     *            the bits; the channel is not closed
+     * @param out
+     *            where to copy them, or null to only digest them
+     * @return the number of bytes read
+     */
+    public long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException
+    {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+
+        long count = 0;
+        while (in.read(buffer) != -1)
+        {
+            buffer.flip();
+            count += buffer.remaining();
+
+            for (MessageDigest digest : digests.values())
+            {
+                int position = buffer.position();
+                digest.update(buffer);
+                buffer.position(position);
+            }
+
+            if (out != null)
+            {
+                while (buffer.hasRemaining())
+                {
+                    out.write(buffer);
+                }
+            }
+
+            buffer.clear();
+        }
+
+        size += count;
+        return count;
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Get the digest of the bits read. Once a digest has been asked for, no
+     * more bits should be read.
+     *
+     * @param algorithm
+     *            one of the algorithms given to the constructor
+     * @return the digest in hex, or null if it was not worked out
+     */
+    public String getDigest(String algorithm)
+    {
+        if (algorithm == null)
+        {
+            return null;
+        }
+
+        if (!results.containsKey(algorithm))
+        {
+            MessageDigest digest = digests.get(algorithm);
+            results.put(algorithm, (digest != null) ? Utils.toHex(digest.digest()) : null);
+        }
+
+        return results.get(algorithm);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
+
+import edu.sdsc.grid.io.GeneralFile;
+import edu.sdsc.grid.io.srb.SRBAccount;
+import edu.sdsc.grid.io.srb.SRBFile;
+import edu.sdsc.grid.io.srb.SRBFileSystem;
+
+/**
+ * An asset store held in SRB (Storage Resource Broker - see
+ * http://www.sdsc.edu/srb/). The files are laid out as in a local store,
+ * under the SRB collection given by <code>srb.parentdir</code>. The account
+ * is configured with the <code>srb.*</code> settings of dspace.cfg.
+ *
+ * @version $Revision$
+ */
+public class SRBBitStore extends GeneralFileBitStore
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(SRBBitStore.class);
+
+    /** The SRB collection under which the bitstreams are stored */
+    protected SRBFile root;
+
+    public void init(int storeNumber) throws IOException
+    {
+        this.storeNumber = storeNumber;
+
+        // An SRBFile object is obtained by (1) using dspace.cfg properties to
+        // create an SRBAccount object (2) using the account to create an
+        // SRBFileSystem object (similar to a connection) (3) using the
+        // SRBFileSystem object to create an SRBFile object
+        SRBAccount account = new SRBAccount(
+                getProperty("srb.host"),
+                ConfigurationManager.getIntProperty((storeNumber == 0) ? "srb.port" : "srb.port." + storeNumber),
+                getProperty("srb.username"),
+                getProperty("srb.password"),
+                getProperty("srb.homedirectory"),
+                getProperty("srb.mdasdomainname"),
+                getProperty("srb.defaultstorageresource"),
+                getProperty("srb.mcatzone"));
+
+        SRBFileSystem srbFileSystem = new SRBFileSystem(account);
+
+        String parentDir = getProperty("srb.parentdir");
+        if (parentDir == null)
+        {
+            throw new IOException("srb.parentdir is undefined for assetstore " + storeNumber);
+        }
+
+        root = new SRBFile(srbFileSystem, parentDir);
+    }
+
+    protected GeneralFile getFile(String relativePath) throws IOException
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("SRB filename for " + relativePath + " is "
+                    + root.toString() + relativePath);
+        }
+        return new SRBFile(root, relativePath);
+    }
+
+    /**
+     * Work out an MD5 checksum on just the file name (!) of an SRB file.
+     * <P>
+     * DSpace refers to checksum, writes it in METS, and uses it as an AIP
+     * filename (!), but never seems to validate with it. Calculating an MD5
+     * on a remote file would generate network traffic to read the file's
+     * bytes. It would be better to have a proxy process calculate the MD5
+     * and store it as an SRB metadata attribute so it can be retrieved
+     * simply from SRB.
+     */
+    protected void computeChecksums(GeneralFile file, Map<String, Object> attrs) throws IOException
+    {
+        MessageDigest md = null;
+        try
+        {
+            md = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            log.error("Caught NoSuchAlgorithmException", e);
+            throw new IOException("Invalid checksum algorithm", e);
+        }
+        attrs.put(CHECKSUM, Utils.toHex(md.digest(file.getName().getBytes())));
+        attrs.put(CHECKSUM_ALGORITHM, MultiDigest.MD5);
+    }
+}
@@ -412,6 +412,7 @@ public class DatabaseManager
         {        	
         	statement = context.getDBConnection().prepareStatement(query);
         	loadParameters(statement, parameters);
+        	context.setPendingWrites();
         	
         	return statement.executeUpdate();
         }
@@ -468,8 +469,30 @@ public class DatabaseManager
     {
         String ctable = canonicalize(table);
 
-        return findByUnique(context, ctable, getPrimaryKeyColumn(ctable),
+        // Rows written by this (uncommitted) transaction must come from the
+        // database, and must not be shared with anyone else
+        TableRowCache cache = TableRowCache.getInstance();
+        boolean cacheable = cache.isCached(ctable) && !context.hasPendingWrites();
+
+        if (cacheable)
+        {
+            TableRow cached = cache.get(ctable, id);
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+
+        long generation = cache.getGeneration();
+        TableRow row = findByUnique(context, ctable, getPrimaryKeyColumn(ctable),
                 Integer.valueOf(id));
+
+        if (cacheable && row != null)
+        {
+            cache.put(ctable, id, row, generation);
+        }
+
+        return row;
     }
 
     /**
@@ -527,6 +550,7 @@ public class DatabaseManager
             throws SQLException
     {
         String ctable = canonicalize(table);
+        TableRowCache.getInstance().invalidate(ctable, id);
 
         return deleteByValue(context, ctable, getPrimaryKeyColumn(ctable),
                 Integer.valueOf(id));
@@ -660,6 +684,165 @@ public class DatabaseManager
         }
 
         row.setColumn(getPrimaryKeyColumn(row), newID);
+        context.setPendingWrites();
+    }
+
+    /**
+     * Insert several rows of one table into the RDBMS as a single JDBC batch.
+     * New primary keys are assigned by the database but, unlike
+     * {@link #insert(Context, TableRow)}, are not read back into the rows, so
+     * this is meant for rows nobody refers to by ID, such as mapping tables.
+     * 
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The table the rows belong to
+     * @param rows
+     *            The rows to insert
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static void insertBatch(Context context, String table, List<TableRow> rows) throws SQLException
+    {
+        if (rows.isEmpty())
+        {
+            return;
+        }
+
+        String ctable = canonicalize(table);
+        Collection<ColumnInfo> info = getColumnInfo(ctable);
+        List<ColumnInfo> params = new ArrayList<ColumnInfo>();
+
+        StringBuilder insertBuilder = new StringBuilder("INSERT INTO ").append(ctable).append(" ( ");
+        StringBuilder valuesBuilder = new StringBuilder(") VALUES ( ");
+        boolean firstColumn = true;
+        boolean foundPrimaryKey = false;
+        for (ColumnInfo col : info)
+        {
+            if (firstColumn)
+            {
+                firstColumn = false;
+            }
+            else
+            {
+                insertBuilder.append(",");
+                valuesBuilder.append(",");
+            }
+
+            insertBuilder.append(col.getName());
+
+            if (!foundPrimaryKey && col.isPrimaryKey())
+            {
+                if (isOracle)
+                {
+                    valuesBuilder.append(ctable).append("_seq.nextval");
+                }
+                else
+                {
+                    valuesBuilder.append("getnextid('").append(ctable).append("')");
+                }
+                foundPrimaryKey = true;
+            }
+            else
+            {
+                valuesBuilder.append('?');
+                params.add(col);
+            }
+        }
+        String sql = insertBuilder.append(valuesBuilder.toString()).append(")").toString();
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running batch of " + rows.size() + " \"" + sql + "\"");
+        }
+
+        PreparedStatement statement = null;
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(sql);
+            for (TableRow row : rows)
+            {
+                loadParameters(statement, params, row);
+                statement.addBatch();
+            }
+            context.setPendingWrites();
+            statement.executeBatch();
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException sqle)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute an update, insert or delete query once for each set of
+     * parameters, as a single JDBC batch.
+     * 
+     * @param context
+     *            Current DSpace context
+     * @param query
+     *            The SQL query to execute
+     * @param parameters
+     *            One array of SQL parameters per execution of the query
+     * @return The total number of rows affected, if the driver reports it
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static int updateQueryBatch(Context context, String query, List<Object[]> parameters) throws SQLException
+    {
+        if (parameters.isEmpty())
+        {
+            return 0;
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running batch of " + parameters.size() + " \"" + query + "\"");
+        }
+
+        PreparedStatement statement = null;
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(query);
+            for (Object[] batch : parameters)
+            {
+                loadParameters(statement, batch);
+                statement.addBatch();
+            }
+            context.setPendingWrites();
+
+            int total = 0;
+            for (int count : statement.executeBatch())
+            {
+                if (count > 0)
+                {
+                    total += count;
+                }
+            }
+            return total;
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException sqle)
+                {
+                }
+            }
+        }
     }
 
     /**
@@ -706,6 +889,9 @@ public class DatabaseManager
             sql.append(" where ").append(pk.getName()).append(" = ?");
             columns.add(pk);
 
+            TableRowCache.getInstance().invalidate(canonicalize(table), row.getIntColumn(pk.getName()));
+            context.setPendingWrites();
+
             return executeUpdate(context.getDBConnection(), sql.toString(), columns, row);
         }
 
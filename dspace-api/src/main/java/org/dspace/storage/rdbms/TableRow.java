@@ -58,6 +58,41 @@ public class TableRow
         }
     }
 
+    /**
+     * Copy constructor, see {@link #copy()}.
+     * 
+     * @param original
+     *            The row to copy
+     */
+    private TableRow(TableRow original)
+    {
+        this.table = original.table;
+
+        for (Map.Entry<String, Object> entry : original.data.entrySet())
+        {
+            Object value = entry.getValue();
+            if (value instanceof java.util.Date)
+            {
+                value = ((java.util.Date) value).clone();
+            }
+            data.put(entry.getKey(), value);
+        }
+
+        changed.putAll(original.changed);
+    }
+
+    /**
+     * Return an independent copy of this row. Dates are the only mutable
+     * column values, so they are cloned; changes made to the copy are never
+     * visible in the original row and vice versa.
+     * 
+     * @return A copy of this row
+     */
+    TableRow copy()
+    {
+        return new TableRow(this);
+    }
+
     /**
      * Return the name of the table containing this row, or null if this row is
      * not associated with a database table.
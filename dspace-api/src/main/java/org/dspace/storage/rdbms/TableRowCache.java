@@ -0,0 +1,317 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * JVM-wide, size bounded cache of table rows fetched by primary key through
+ * {@link DatabaseManager#find}. It sits beneath the per-request object cache
+ * of {@link org.dspace.core.Context}: DSpaceObjects hold on to the Context
+ * (and hence the connection) that loaded them, so they cannot be shared
+ * between requests, but the rows they are built from can. Every lookup
+ * returns a private copy of the cached row, so callers are free to modify it.
+ * <P>
+ * Entries are evicted in least-recently-used order once the cache is full,
+ * and are discarded when older than the configured time to live. Rows are
+ * invalidated when they are updated or deleted through DatabaseManager, and
+ * again once the change is committed, by {@link TableRowCacheConsumer}.
+ * <P>
+ * Configuration (dspace.cfg):
+ * <ul>
+ * <li><code>db.cache.enabled</code> - turn the cache on (default false)</li>
+ * <li><code>db.cache.tables</code> - comma separated list of tables to cache</li>
+ * <li><code>db.cache.size</code> - maximum number of rows held (default 10000)</li>
+ * <li><code>db.cache.ttl</code> - maximum age of a row, in seconds (default 300)</li>
+ * </ul>
+ *
+ * @version $Revision$
+ */
+public class TableRowCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(TableRowCache.class);
+
+    /** Tables cached when db.cache.tables is not set */
+    private static final String DEFAULT_TABLES = "item, collection, community, epersongroup, eperson";
+
+    /** The shared instance */
+    private static TableRowCache instance = null;
+
+    /** Whether the cache is in use at all */
+    private final boolean enabled;
+
+    /** Canonicalized names of the cached tables */
+    private final Set<String> tables = new HashSet<String>();
+
+    /** Maximum number of entries */
+    private final int maxSize;
+
+    /** Time to live of an entry, in milliseconds */
+    private final long ttl;
+
+    /** The cached rows, least recently used first. Guarded by "this". */
+    private final Map<String, CachedRow> rows;
+
+    /** Incremented on every invalidation, see {@link #put} */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Get the shared cache, configuring it on first use.
+     *
+     * @return the table row cache
+     */
+    public static synchronized TableRowCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new TableRowCache(
+                    ConfigurationManager.getBooleanProperty("db.cache.enabled", false),
+                    ConfigurationManager.getProperty("db.cache.tables"),
+                    ConfigurationManager.getIntProperty("db.cache.size", 10000),
+                    ConfigurationManager.getIntProperty("db.cache.ttl", 300) * 1000L);
+        }
+
+        return instance;
+    }
+
+    TableRowCache(boolean enabled, String tableList, int maxSize, long ttl)
+    {
+        this.enabled = enabled && maxSize > 0;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+
+        if (tableList == null)
+        {
+            tableList = DEFAULT_TABLES;
+        }
+
+        for (String table : tableList.split(","))
+        {
+            if (table.trim().length() > 0)
+            {
+                tables.add(DatabaseManager.canonicalize(table.trim()));
+            }
+        }
+
+        rows = new LinkedHashMap<String, CachedRow>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRow> eldest)
+            {
+                if (size() > TableRowCache.this.maxSize)
+                {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+
+        if (this.enabled)
+        {
+            log.info("Shared table row cache enabled for " + tables
+                    + ", size=" + maxSize + ", ttl=" + ttl + "ms");
+        }
+    }
+
+    /**
+     * Is the given table held in this cache?
+     *
+     * @param table
+     *            canonicalized table name
+     * @return true if rows of this table are cached
+     */
+    public boolean isCached(String table)
+    {
+        return enabled && tables.contains(table);
+    }
+
+    /**
+     * Get a copy of a cached row.
+     *
+     * @param table
+     *            canonicalized table name
+     * @param id
+     *            primary key of the row
+     * @return a copy of the cached row, or null if the row is not cached
+     */
+    public TableRow get(String table, int id)
+    {
+        String key = key(table, id);
+        CachedRow cached;
+
+        synchronized (this)
+        {
+            cached = rows.get(key);
+            if (cached != null && cached.isExpired(ttl))
+            {
+                rows.remove(key);
+                evictions.incrementAndGet();
+                cached = null;
+            }
+        }
+
+        if (cached == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return cached.row.copy();
+    }
+
+    /**
+     * Get the current invalidation generation. Callers read it before going
+     * to the database and hand it back to {@link #put}, so that a row read
+     * concurrently with an invalidation is not cached.
+     *
+     * @return the current generation
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Cache a copy of a row freshly read from the database.
+     *
+     * @param table
+     *            canonicalized table name
+     * @param id
+     *            primary key of the row
+     * @param row
+     *            the row, as read from the database
+     * @param readGeneration
+     *            the result of {@link #getGeneration} before the row was read
+     */
+    public void put(String table, int id, TableRow row, long readGeneration)
+    {
+        TableRow copy = row.copy();
+
+        synchronized (this)
+        {
+            // Something was invalidated while we were reading, the row may
+            // be stale already
+            if (readGeneration != generation.get())
+            {
+                return;
+            }
+
+            rows.put(key(table, id), new CachedRow(copy));
+        }
+    }
+
+    /**
+     * Discard a row from the cache.
+     *
+     * @param table
+     *            canonicalized table name
+     * @param id
+     *            primary key of the row
+     */
+    public void invalidate(String table, int id)
+    {
+        if (!isCached(table))
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            generation.incrementAndGet();
+            rows.remove(key(table, id));
+        }
+    }
+
+    /**
+     * Discard all rows from the cache.
+     */
+    public synchronized void clear()
+    {
+        generation.incrementAndGet();
+        rows.clear();
+    }
+
+    /**
+     * @return the number of rows currently cached
+     */
+    public synchronized int size()
+    {
+        return rows.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to go to the database
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of rows dropped because the cache was full or the
+     *         row had expired
+     */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    public String toString()
+    {
+        return "TableRowCache[size=" + size() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+
+    private static String key(String table, int id)
+    {
+        return table + ":" + id;
+    }
+
+    /**
+     * A cached row and the time it was loaded.
+     */
+    private static class CachedRow
+    {
+        private final TableRow row;
+
+        private final long loaded = System.currentTimeMillis();
+
+        CachedRow(TableRow row)
+        {
+            this.row = row;
+        }
+
+        boolean isExpired(long ttl)
+        {
+            return ttl > 0 && System.currentTimeMillis() - loaded > ttl;
+        }
+    }
+}
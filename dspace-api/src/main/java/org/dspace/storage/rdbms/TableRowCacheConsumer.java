@@ -0,0 +1,91 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Consumer that discards rows from the shared {@link TableRowCache} once the
+ * transaction that changed them has been committed. Both the subject and the
+ * object of an event are invalidated, since e.g. adding an item to a
+ * collection changes the collection as well.
+ *
+ * Recommended filter: All+All
+ *
+ * @version $Revision$
+ */
+public class TableRowCacheConsumer implements Consumer
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(TableRowCacheConsumer.class);
+
+    public void initialize() throws Exception
+    {
+
+    }
+
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        TableRowCache cache = TableRowCache.getInstance();
+
+        invalidate(cache, event.getSubjectType(), event.getSubjectID());
+        invalidate(cache, event.getObjectType(), event.getObjectID());
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug(TableRowCache.getInstance().toString());
+        }
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+
+    }
+
+    private void invalidate(TableRowCache cache, int type, int id)
+    {
+        String table = tableFor(type);
+        if (table != null && id >= 0)
+        {
+            cache.invalidate(DatabaseManager.canonicalize(table), id);
+        }
+    }
+
+    /**
+     * Map a DSpace object type to the table holding its rows.
+     */
+    private static String tableFor(int type)
+    {
+        switch (type)
+        {
+            case Constants.ITEM:
+                return "item";
+            case Constants.COLLECTION:
+                return "collection";
+            case Constants.COMMUNITY:
+                return "community";
+            case Constants.GROUP:
+                return "epersongroup";
+            case Constants.EPERSON:
+                return "eperson";
+            case Constants.BUNDLE:
+                return "bundle";
+            case Constants.BITSTREAM:
+                return "bitstream";
+            default:
+                return null;
+        }
+    }
+}
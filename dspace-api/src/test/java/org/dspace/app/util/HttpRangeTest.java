@@ -0,0 +1,115 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the parsing and sending of HTTP byte ranges.
+ */
+public class HttpRangeTest
+{
+    /**
+     * Test of parse for headers that should be ignored.
+     */
+    @Test
+    public void testParseIgnored()
+    {
+        assertNull(HttpRange.parse(null, 100));
+        assertNull(HttpRange.parse("items=0-10", 100));
+        assertNull(HttpRange.parse("bytes=abc", 100));
+        assertNull(HttpRange.parse("bytes=10-5", 100));
+        assertNull(HttpRange.parse("bytes=0-10", 0));
+    }
+
+    /**
+     * Test of parse for single ranges.
+     */
+    @Test
+    public void testParseSingle()
+    {
+        List<HttpRange> ranges = HttpRange.parse("bytes=0-9", 100);
+        assertEquals(1, ranges.size());
+        assertEquals("0-9", ranges.get(0).toString());
+
+        // open ended
+        assertEquals("90-99", HttpRange.parse("bytes=90-", 100).get(0).toString());
+
+        // suffix
+        assertEquals("80-99", HttpRange.parse("bytes=-20", 100).get(0).toString());
+        assertEquals("0-99", HttpRange.parse("bytes=-200", 100).get(0).toString());
+
+        // past the end
+        assertEquals("50-99", HttpRange.parse("bytes=50-500", 100).get(0).toString());
+        assertEquals("bytes 50-99/100", HttpRange.parse("bytes=50-500", 100).get(0).getContentRange(100));
+    }
+
+    /**
+     * Test of parse for ranges that cannot be satisfied.
+     */
+    @Test
+    public void testParseUnsatisfiable()
+    {
+        assertTrue(HttpRange.parse("bytes=100-200", 100).isEmpty());
+        assertTrue(HttpRange.parse("bytes=-0", 100).isEmpty());
+    }
+
+    /**
+     * Test of parse sorting and merging several ranges.
+     */
+    /**
+     * Test telling the start of a download from a seek or a resumption.
+     */
+    @Test
+    public void testIsFromStart()
+    {
+        assertTrue(HttpRange.isFromStart(null));
+        assertTrue(HttpRange.isFromStart(HttpRange.parse("bytes=0-", 100)));
+        assertTrue(HttpRange.isFromStart(HttpRange.parse("bytes=50-59, 0-9", 100)));
+        assertFalse(HttpRange.isFromStart(HttpRange.parse("bytes=10-", 100)));
+        assertFalse(HttpRange.isFromStart(HttpRange.parse("bytes=-10", 100)));
+        assertFalse(HttpRange.isFromStart(HttpRange.parse("bytes=100-200", 100)));
+    }
+
+    @Test
+    public void testParseMultiple()
+    {
+        List<HttpRange> ranges = HttpRange.parse("bytes=50-59, 0-9, 5-14, 15-19, 200-300", 100);
+        assertEquals(2, ranges.size());
+        assertEquals("0-19", ranges.get(0).toString());
+        assertEquals("50-59", ranges.get(1).toString());
+    }
+
+    /**
+     * Test of send for a stream, with several ranges.
+     */
+    @Test
+    public void testSendStream() throws Exception
+    {
+        byte[] data = "0123456789abcdefghij".getBytes("US-ASCII");
+        List<HttpRange> ranges = HttpRange.parse("bytes=2-4,10-11", data.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpRange.send(new ByteArrayInputStream(data), ranges, "text/plain", data.length, out);
+        String body = out.toString("US-ASCII");
+
+        assertEquals(HttpRange.getContentLength(ranges, "text/plain", data.length), out.size());
+        assertTrue(body.contains("Content-Range: bytes 2-4/20\r\n\r\n234\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 10-11/20\r\n\r\nab\r\n"));
+        assertTrue(body.endsWith("--" + HttpRange.BOUNDARY + "--\r\n"));
+
+        out = new ByteArrayOutputStream();
+        ranges = HttpRange.parse("bytes=-3", data.length);
+        HttpRange.send(new ByteArrayInputStream(data), ranges, "text/plain", data.length, out);
+        assertEquals("hij", out.toString("US-ASCII"));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ISO 8601 date handling of Utils.
+ */
+public class UtilsTest
+{
+    /**
+     * Test of parseISO8601Date for each of the accepted forms.
+     */
+    @Test
+    public void testParseISO8601Date()
+    {
+        Date d = Utils.parseISO8601Date("2009-07-16T13:59:21Z");
+        assertEquals(1247752761000L, d.getTime());
+
+        assertEquals(1247752761123L, Utils.parseISO8601Date("2009-07-16T13:59:21.123Z").getTime());
+        assertEquals(1247752761000L, Utils.parseISO8601Date("2009-07-16T15:59:21+02:00").getTime());
+        assertEquals(1247752761123L, Utils.parseISO8601Date("2009-07-16T08:59:21.123-05:00").getTime());
+
+        // no time zone, the default one
+        assertNotNull(Utils.parseISO8601Date("2009-07-16T13:59:21"));
+        assertNotNull(Utils.parseISO8601Date("2009-07-16T13:59:21.123"));
+
+        assertNull(Utils.parseISO8601Date("not a date at all"));
+    }
+
+    /**
+     * Test of formatISO8601Date, with and without milliseconds.
+     */
+    @Test
+    public void testFormatISO8601Date()
+    {
+        Date whole = new Date(1247752761000L);
+        String s = Utils.formatISO8601Date(whole);
+        assertTrue(s, s.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}[+-]\\d{2}:\\d{2}"));
+        assertEquals(whole, Utils.parseISO8601Date(s));
+
+        Date millis = new Date(1247752761123L);
+        s = Utils.formatISO8601Date(millis);
+        assertTrue(s, s.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.123[+-]\\d{2}:\\d{2}"));
+        assertEquals(millis, Utils.parseISO8601Date(s));
+
+        // before the epoch
+        Date early = new Date(-1500L);
+        assertEquals(early, Utils.parseISO8601Date(Utils.formatISO8601Date(early)));
+    }
+
+    /**
+     * Test that many threads formatting and parsing at once get the same
+     * results as one would alone.
+     */
+    @Test
+    public void testConcurrentUse() throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++)
+            {
+                final long base = 1247752761000L + t * 86400123L;
+                results.add(pool.submit(new Callable<Boolean>()
+                {
+                    public Boolean call()
+                    {
+                        for (int i = 0; i < 2000; i++)
+                        {
+                            Date d = new Date(base + i * 3600007L);
+                            if (!d.equals(Utils.parseISO8601Date(Utils.formatISO8601Date(d))))
+                            {
+                                return Boolean.FALSE;
+                            }
+                        }
+                        return Boolean.TRUE;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results)
+            {
+                assertTrue(result.get());
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
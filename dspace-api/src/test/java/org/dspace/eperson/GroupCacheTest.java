@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the incremental computation of the group2groupcache rows in Group.
+ */
+public class GroupCacheTest
+{
+    private Map<Integer, Set<Integer>> children;
+
+    private Map<Integer, Set<Integer>> cached;
+
+    @Before
+    public void setUp()
+    {
+        children = new HashMap<Integer, Set<Integer>>();
+        cached = new HashMap<Integer, Set<Integer>>();
+    }
+
+    private static Set<Integer> ids(Integer... ids)
+    {
+        return new HashSet<Integer>(Arrays.asList(ids));
+    }
+
+    /**
+     * Test of computeDescendants for a chain of affected groups.
+     */
+    @Test
+    public void testChain()
+    {
+        // 1 -> 2 -> 3, all affected
+        children.put(1, ids(2));
+        children.put(2, ids(3));
+
+        Map<Integer, Set<Integer>> result = Group.computeDescendants(ids(1, 2, 3), children, cached);
+
+        assertEquals(ids(2, 3), result.get(1));
+        assertEquals(ids(3), result.get(2));
+        assertEquals(ids(), result.get(3));
+    }
+
+    /**
+     * Test of computeDescendants reusing cached descendants of unaffected
+     * groups.
+     */
+    @Test
+    public void testUnaffectedChildren()
+    {
+        // 1 -> 2 -> 10, with 10 -> 11 -> 12 cached
+        children.put(1, ids(2));
+        children.put(2, ids(10));
+        cached.put(10, ids(11, 12));
+
+        Map<Integer, Set<Integer>> result = Group.computeDescendants(ids(1, 2), children, cached);
+
+        assertEquals(ids(2, 10, 11, 12), result.get(1));
+        assertEquals(ids(10, 11, 12), result.get(2));
+    }
+
+    /**
+     * Test of computeDescendants after an edge has been removed.
+     */
+    @Test
+    public void testRemovedEdge()
+    {
+        // 1 -> 2, and 2 no longer has 10 as a child
+        children.put(1, ids(2));
+
+        Map<Integer, Set<Integer>> result = Group.computeDescendants(ids(1, 2), children, cached);
+
+        assertEquals(ids(2), result.get(1));
+        assertEquals(ids(), result.get(2));
+    }
+
+    /**
+     * Test of computeDescendants with a cycle.
+     */
+    @Test
+    public void testCycle()
+    {
+        // 1 -> 2 -> 1
+        children.put(1, ids(2));
+        children.put(2, ids(1));
+
+        Map<Integer, Set<Integer>> result = Group.computeDescendants(ids(1, 2), children, cached);
+
+        assertEquals(ids(1, 2), result.get(1));
+        assertEquals(ids(1, 2), result.get(2));
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.io.IOException;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the caching of host name lookups, with a resolver that answers
+ * without going to the network.
+ */
+public class IPLookupCacheTest
+{
+    private static int lookups;
+
+    @Before
+    public void setUp()
+    {
+        lookups = 0;
+        new MockDnsLookup();
+    }
+
+    /**
+     * Test that a second lookup of an address is answered from the cache.
+     */
+    @Test
+    public void testHit()
+    {
+        IPLookupCache cache = new IPLookupCache(null, 10, 60000, 60000);
+
+        assertEquals("host.example.com", cache.lookup("10.0.0.1").getDns());
+        assertEquals("host.example.com", cache.lookup("10.0.0.1").getDns());
+        assertNull(cache.lookup("10.0.0.1").getLocation());
+
+        assertEquals(1, lookups);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getFailures());
+    }
+
+    /**
+     * Test that failed lookups are cached for the negative time to live only.
+     */
+    @Test
+    public void testNegative()
+    {
+        IPLookupCache cache = new IPLookupCache(null, 10, 60000, 60000);
+        assertNull(cache.lookup("10.0.0.2").getDns());
+        assertNull(cache.lookup("10.0.0.2").getDns());
+        assertEquals(1, lookups);
+        assertEquals(1, cache.getFailures());
+
+        // no PTR record, the address is its own name
+        assertEquals("10.0.0.3", cache.lookup("10.0.0.3").getDns());
+        assertEquals(2, cache.getFailures());
+
+        cache = new IPLookupCache(null, 10, 60000, -1);
+        cache.lookup("10.0.0.2");
+        cache.lookup("10.0.0.2");
+        cache.lookup("10.0.0.1");
+        cache.lookup("10.0.0.1");
+        assertEquals(5, lookups);
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Test that the least recently used address is dropped when the cache is
+     * full.
+     */
+    @Test
+    public void testEviction()
+    {
+        IPLookupCache cache = new IPLookupCache(null, 2, 60000, 60000);
+        cache.lookup("10.0.0.1");
+        cache.lookup("10.0.0.3");
+        cache.lookup("10.0.0.1");
+        cache.lookup("10.0.0.4");
+        assertEquals(2, cache.size());
+        assertEquals(3, lookups);
+
+        // 10.0.0.3 was dropped, 10.0.0.1 kept
+        cache.lookup("10.0.0.1");
+        assertEquals(3, lookups);
+        cache.lookup("10.0.0.3");
+        assertEquals(4, lookups);
+        assertEquals(1.0 / 3, cache.getHitRate(), 0.001);
+    }
+
+    /**
+     * Resolver answering from a fixed table.
+     */
+    public static class MockDnsLookup
+            extends MockUp<DnsLookup>
+    {
+        @Mock
+        public String reverseDns(String hostIp) throws IOException
+        {
+            lookups++;
+            if ("10.0.0.1".equals(hostIp))
+            {
+                return "Host.Example.COM";
+            }
+            if ("10.0.0.2".equals(hostIp))
+            {
+                throw new IOException("timed out");
+            }
+            return hostIp;
+        }
+    }
+}
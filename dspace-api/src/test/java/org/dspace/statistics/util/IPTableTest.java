@@ -0,0 +1,175 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the address blocks an IPTable accepts and matches.
+ */
+public class IPTableTest
+{
+    /**
+     * Test single addresses and the three part /24 form.
+     */
+    @Test
+    public void testAddresses() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("192.168.2.1");
+        table.add("10.1.2");
+
+        assertTrue(table.contains("192.168.2.1"));
+        assertFalse(table.contains("192.168.2.2"));
+        assertTrue(table.contains("10.1.2.0"));
+        assertTrue(table.contains("10.1.2.255"));
+        assertFalse(table.contains("10.1.3.0"));
+
+        Set<String> set = table.toSet();
+        assertEquals(2, set.size());
+        assertTrue(set.contains("192.168.2.1"));
+        assertTrue(set.contains("10.1.2"));
+    }
+
+    /**
+     * Test CIDR blocks of any length.
+     */
+    @Test
+    public void testCIDR() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("66.249.64.0/19");
+        table.add("8.8.8.8/32");
+        table.add("172.16.0.0/12");
+
+        assertTrue(table.contains("66.249.64.0"));
+        assertTrue(table.contains("66.249.95.255"));
+        assertFalse(table.contains("66.249.96.0"));
+        assertFalse(table.contains("66.249.63.255"));
+        assertTrue(table.contains("8.8.8.8"));
+        assertFalse(table.contains("8.8.8.9"));
+        assertTrue(table.contains("172.31.255.255"));
+        assertFalse(table.contains("172.32.0.0"));
+
+        // larger blocks are listed as the prefixes the statistics query on
+        Set<String> set = table.toSet();
+        assertTrue(set.contains("66.249.64"));
+        assertTrue(set.contains("66.249.95"));
+        assertFalse(set.contains("66.249.96"));
+        assertTrue(set.contains("8.8.8.8"));
+        assertTrue(set.contains("172.16."));
+        assertTrue(set.contains("172.31."));
+        assertEquals(32 + 1 + 16, set.size());
+    }
+
+    /**
+     * Test ranges, which need not be aligned nor within one /24.
+     */
+    @Test
+    public void testRanges() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("192.168.1.5 - 192.168.1.9");
+        table.add("10.0.0.250-10.0.1.3");
+
+        assertFalse(table.contains("192.168.1.4"));
+        for (int i = 5; i <= 9; i++)
+        {
+            assertTrue(table.contains("192.168.1." + i));
+        }
+        assertFalse(table.contains("192.168.1.10"));
+        assertTrue(table.contains("10.0.0.255"));
+        assertTrue(table.contains("10.0.1.3"));
+        assertFalse(table.contains("10.0.1.4"));
+
+        // small blocks are listed address by address, as they were given
+        Set<String> set = table.toSet();
+        assertTrue(set.contains("192.168.1.5"));
+        assertTrue(set.contains("192.168.1.9"));
+        assertEquals(5 + 10, set.size());
+    }
+
+    /**
+     * Test IPv6 addresses and blocks.
+     */
+    @Test
+    public void testIPv6() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("2001:db8::/32");
+        table.add("2a03:2880::1");
+
+        assertTrue(table.contains("2001:db8::1"));
+        assertTrue(table.contains("2001:0db8:ffff::"));
+        assertFalse(table.contains("2001:db9::1"));
+        assertTrue(table.contains("2a03:2880:0:0:0:0:0:1"));
+        assertFalse(table.contains("2a03:2880::2"));
+
+        // an IPv4 mapped address is the IPv4 address
+        table.add("127.0.0.1");
+        assertTrue(table.contains("::ffff:127.0.0.1"));
+
+        // the statistics cannot query on IPv6 addresses
+        Set<String> set = table.toSet();
+        assertEquals(1, set.size());
+        assertTrue(set.contains("127.0.0.1"));
+    }
+
+    /**
+     * Test that a larger block covers smaller ones, whichever comes first.
+     */
+    @Test
+    public void testOverlap() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("10.0.0.1");
+        table.add("10.0.0.0/8");
+        table.add("10.2.3.4");
+
+        assertTrue(table.contains("10.200.0.1"));
+        assertEquals(1, table.toSet().size());
+        assertTrue(table.toSet().contains("10."));
+    }
+
+    /**
+     * Test that malformed entries and addresses are refused.
+     */
+    @Test
+    public void testInvalid()
+    {
+        String[] entries = { "10.0", "10.0.0.256", "10.0.0.0/33", "10.0.0.9 - 10.0.0.1",
+                "2001:db8::/129", "not.an.ip.address", "host:name" };
+        IPTable table = new IPTable();
+        for (String entry : entries)
+        {
+            try
+            {
+                table.add(entry);
+                fail(entry + " was accepted");
+            }
+            catch (IPTable.IPFormatException e)
+            {
+                // expected
+            }
+        }
+
+        try
+        {
+            table.contains("10.0.0");
+            fail("10.0.0 was looked up");
+        }
+        catch (IPTable.IPFormatException e)
+        {
+            // expected
+        }
+    }
+}
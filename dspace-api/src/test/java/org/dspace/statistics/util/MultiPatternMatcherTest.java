@@ -0,0 +1,144 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that matching a set of patterns at once agrees with trying each.
+ */
+public class MultiPatternMatcherTest
+{
+    private static final List<String> PATTERNS = Arrays.asList(
+            "Googlebot",
+            "^msnbot",
+            "Brutus\\/AET",
+            "FDM(\\s|\\+)1",
+            "redalert|robozilla",
+            "bot[0-9]+\\.example",
+            "(?i)slurp",
+            "(ab)\\1cd",
+            "[unclosed");
+
+    /**
+     * Test the literal text found to be required by a pattern.
+     */
+    @Test
+    public void testRequiredLiteral()
+    {
+        assertEquals("Brutus/AET", MultiPatternMatcher.requiredLiteral("Brutus\\/AET"));
+        assertEquals("FDM", MultiPatternMatcher.requiredLiteral("FDM(\\s|\\+)1"));
+        assertEquals("msnbot", MultiPatternMatcher.requiredLiteral("^msnbot"));
+        assertEquals(".crawl.baidu.com",
+                MultiPatternMatcher.requiredLiteral("^baiduspider-.*\\.crawl\\.baidu\\.com"));
+
+        // quantified characters
+        assertEquals("cde", MultiPatternMatcher.requiredLiteral("ab?cde"));
+        assertEquals("abc", MultiPatternMatcher.requiredLiteral("abc+d"));
+        assertEquals("yz", MultiPatternMatcher.requiredLiteral("x{0,2}yz"));
+        assertEquals("def", MultiPatternMatcher.requiredLiteral("[abc]defg*"));
+        assertEquals("barbaz", MultiPatternMatcher.requiredLiteral("\\bfoo\\d+barbaz"));
+
+        // nothing every match must contain, as far as is known
+        assertNull(MultiPatternMatcher.requiredLiteral("redalert|robozilla"));
+        assertNull(MultiPatternMatcher.requiredLiteral("(?i)googlebot"));
+        assertNull(MultiPatternMatcher.requiredLiteral(".*"));
+
+        // escapes whose arguments are not literal text
+        assertNull(MultiPatternMatcher.requiredLiteral("foo\\x2Fbar"));
+        assertNull(MultiPatternMatcher.requiredLiteral("\\u00e9t\\u00e9"));
+        assertNull(MultiPatternMatcher.requiredLiteral("line\\cMbreak"));
+        assertNull(MultiPatternMatcher.requiredLiteral("char\\0101acter"));
+        assertNull(MultiPatternMatcher.requiredLiteral("(ab)cde\\1"));
+        assertNull(MultiPatternMatcher.requiredLiteral("\\p{Alpha}+bot"));
+    }
+
+    /**
+     * Test that patterns with escapes the literal cannot be found for are
+     * still tried.
+     */
+    @Test
+    public void testEscapes()
+    {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(Arrays.asList(
+                "foo\\x2Fbar",
+                "\\u00e9t\\u00e9bot",
+                "(?<n>ab)\\k<n>cde"));
+
+        assertTrue(matcher.find("a foo/bar crawler"));
+        assertTrue(matcher.find("\u00e9t\u00e9bot/1.0"));
+        assertTrue(matcher.find("ababcde"));
+        assertFalse(matcher.find("foo2Fbar"));
+    }
+
+    /**
+     * Test that the matcher finds what the patterns tried one by one find.
+     */
+    @Test
+    public void testFind()
+    {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(PATTERNS);
+
+        String[] candidates = {
+            "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+            "msnbot/2.0b",
+            "not msnbot at the start",
+            "Brutus/AET",
+            "FDM 1", "FDM+1", "FDM-1",
+            "robozilla/1.0", "RedAlert",
+            "bot42.example.com", "bot.example.com",
+            "Yahoo! SLURP",
+            "ababcd", "abcd",
+            "Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101 Firefox/60.0",
+            ""
+        };
+
+        for (String candidate : candidates)
+        {
+            boolean expected = false;
+            for (String pattern : PATTERNS)
+            {
+                try
+                {
+                    if (Pattern.compile(pattern).matcher(candidate).find())
+                    {
+                        expected = true;
+                    }
+                }
+                catch (Exception e)
+                {
+                    // the invalid pattern is left out
+                }
+            }
+            assertEquals("'" + candidate + "'", expected, matcher.find(candidate));
+        }
+    }
+
+    /**
+     * Test literals that overlap and share prefixes and suffixes.
+     */
+    @Test
+    public void testOverlappingLiterals()
+    {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(
+                Arrays.asList("abcd", "bcx", "cdef", "xabcz"));
+
+        assertTrue(matcher.find("zzabcdzz"));
+        assertTrue(matcher.find("abcx"));
+        assertTrue(matcher.find("abcdef"));
+        assertTrue(matcher.find("xabxabcz"));
+        assertFalse(matcher.find("abcabc"));
+        assertFalse(matcher.find("xabc"));
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.Arrays;
+import org.dspace.AbstractUnitTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.* ;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests TableRowCache class
+ */
+public class TableRowCacheTest extends AbstractUnitTest
+{
+    /**
+     * Object to use in the tests
+     */
+    private TableRowCache cache;
+
+    private String table;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        table = DatabaseManager.canonicalize("item");
+        cache = new TableRowCache(true, "item", 2, 0);
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        cache = null;
+        super.destroy();
+    }
+
+    private TableRow row(int id, String handle)
+    {
+        TableRow row = new TableRow(table, Arrays.asList("item_id", "handle"));
+        row.setColumn("item_id", id);
+        row.setColumn("handle", handle);
+        return row;
+    }
+
+    /**
+     * Test of isCached method, of class TableRowCache.
+     */
+    @Test
+    public void testIsCached()
+    {
+        assertTrue("testIsCached 0", cache.isCached(table));
+        assertFalse("testIsCached 1", cache.isCached(DatabaseManager.canonicalize("bitstream")));
+
+        TableRowCache disabled = new TableRowCache(false, "item", 2, 0);
+        assertFalse("testIsCached 2", disabled.isCached(table));
+    }
+
+    /**
+     * Test of get and put methods, of class TableRowCache.
+     */
+    @Test
+    public void testGetPut()
+    {
+        assertThat("testGetPut 0", cache.get(table, 1), nullValue());
+
+        cache.put(table, 1, row(1, "a"), cache.getGeneration());
+        TableRow cached = cache.get(table, 1);
+        assertThat("testGetPut 1", cached.getStringColumn("handle"), equalTo("a"));
+
+        // modifying the returned copy must not change the cached row
+        cached.setColumn("handle", "b");
+        assertThat("testGetPut 2", cache.get(table, 1).getStringColumn("handle"), equalTo("a"));
+
+        assertThat("testGetPut 3", cache.getHits(), equalTo(2L));
+        assertThat("testGetPut 4", cache.getMisses(), equalTo(1L));
+    }
+
+    /**
+     * Test of put after an invalidation, of class TableRowCache.
+     */
+    @Test
+    public void testPutStaleGeneration()
+    {
+        long generation = cache.getGeneration();
+        cache.invalidate(table, 1);
+        cache.put(table, 1, row(1, "a"), generation);
+
+        assertThat("testPutStaleGeneration 0", cache.get(table, 1), nullValue());
+    }
+
+    /**
+     * Test of invalidate method, of class TableRowCache.
+     */
+    @Test
+    public void testInvalidate()
+    {
+        cache.put(table, 1, row(1, "a"), cache.getGeneration());
+        cache.invalidate(table, 1);
+
+        assertThat("testInvalidate 0", cache.get(table, 1), nullValue());
+    }
+
+    /**
+     * Test of LRU eviction, of class TableRowCache.
+     */
+    @Test
+    public void testEviction()
+    {
+        cache.put(table, 1, row(1, "a"), cache.getGeneration());
+        cache.put(table, 2, row(2, "b"), cache.getGeneration());
+        // touch 1, so that 2 is the least recently used
+        cache.get(table, 1);
+        cache.put(table, 3, row(3, "c"), cache.getGeneration());
+
+        assertThat("testEviction 0", cache.size(), equalTo(2));
+        assertThat("testEviction 1", cache.get(table, 2), nullValue());
+        assertThat("testEviction 2", cache.get(table, 1), notNullValue());
+        assertThat("testEviction 3", cache.getEvictions(), equalTo(1L));
+    }
+}
@@ -156,6 +156,8 @@ CREATE TABLE Bitstream
    size_bytes              BIGINT,
    checksum                VARCHAR(64),
    checksum_algorithm      VARCHAR(32),
+   strong_checksum         VARCHAR(128),
+   strong_checksum_algorithm VARCHAR(32),
    description             TEXT,
    user_format_description TEXT,
    source                  VARCHAR(256),
@@ -808,6 +810,33 @@ CREATE TABLE versionitem
 CREATE SEQUENCE versionitem_seq;
 CREATE SEQUENCE versionhistory_seq;
 
+-------------------------------------------------------
+-- Queue of events for asynchronous consumers
+-------------------------------------------------------
+CREATE SEQUENCE eventqueue_seq;
 
+CREATE TABLE eventqueue
+(
+  eventqueue_id   INTEGER PRIMARY KEY,
+  consumer        VARCHAR(64),
+  transaction_id  VARCHAR(64),
+  event_type      INTEGER,
+  subject_type    INTEGER,
+  subject_id      INTEGER,
+  object_type     INTEGER,
+  object_id       INTEGER,
+  detail          TEXT,
+  eperson_id      INTEGER,
+  queued          TIMESTAMP,
+  attempts        INTEGER
+);
 
+CREATE INDEX eventqueue_consumer_idx ON eventqueue(consumer, eventqueue_id);
 
+-- Which worker delivers each consumer's queued events
+CREATE TABLE eventqueue_lease
+(
+  consumer        VARCHAR(64) PRIMARY KEY,
+  owner           VARCHAR(128),
+  lease_until     TIMESTAMP
+);
@@ -36,6 +36,7 @@ import org.dspace.app.webui.search.SearchRequestProcessor;
 import org.dspace.app.webui.util.JSPManager;
 import org.dspace.app.webui.util.UIUtil;
 import org.dspace.authorize.AuthorizeManager;
+import org.dspace.browse.BrowseItem;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
 import org.dspace.content.DSpaceObject;
@@ -252,6 +253,10 @@ public class DiscoverySearchRequestProcessor implements SearchRequestProcessor
                 request, scope, true);
 
         queryArgs.setSpellCheck(discoveryConfiguration.isSpellCheckEnabled()); 
+
+        // The metadata export needs the items themselves
+        queryArgs.setIndexOnly(ConfigurationManager.getBooleanProperty("discovery", "results.index-only", false)
+                && !"submit_export_metadata".equals(UIUtil.getSubmitButton(request, "submit")));
         
         List<DiscoverySearchFilterFacet> availableFacet = discoveryConfiguration
                 .getSidebarFacets();
@@ -372,11 +377,17 @@ public class DiscoverySearchRequestProcessor implements SearchRequestProcessor
             resultsCollections = resultsListColl.toArray(resultsCollections);
             resultsItems = resultsListItem.toArray(resultsItems);
 
+            BrowseItem[] resultsBrowseItems = new BrowseItem[qResults.getIndexedObjects().size()];
+            for (int i = 0; i < resultsBrowseItems.length; i++)
+            {
+                resultsBrowseItems[i] = new BrowseItem(context, qResults.getIndexedObjects().get(i));
+            }
+
             // Log
             log.info(LogManager.getHeader(context, "search", "scope=" + scope
                     + ",query=\"" + query + "\",results=("
                     + resultsCommunities.length + ","
-                    + resultsCollections.length + "," + resultsItems.length
+                    + resultsCollections.length + "," + (resultsItems.length + resultsBrowseItems.length)
                     + ")"));
 
             // Pass in some page qualities
@@ -397,6 +408,7 @@ public class DiscoverySearchRequestProcessor implements SearchRequestProcessor
 
             // Pass the results to the display JSP
             request.setAttribute("items", resultsItems);
+            request.setAttribute("browseItems", resultsBrowseItems);
             request.setAttribute("communities", resultsCommunities);
             request.setAttribute("collections", resultsCollections);
 
@@ -8,8 +8,8 @@
 package org.dspace.app.webui.servlet;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.sql.SQLException;
+import java.util.List;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -17,9 +17,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.dspace.app.util.HttpRange;
 import org.dspace.app.webui.util.JSPManager;
 import org.dspace.app.webui.util.UIUtil;
 import org.dspace.authorize.AuthorizeException;
+import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.Bitstream;
 import org.dspace.content.Bundle;
 import org.dspace.content.DSpaceObject;
@@ -28,7 +30,6 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
-import org.dspace.core.Utils;
 import org.dspace.handle.HandleManager;
 import org.dspace.usage.UsageEvent;
 import org.dspace.utils.DSpace;
@@ -37,6 +38,8 @@ import org.dspace.utils.DSpace;
  * Servlet for retrieving bitstreams. The bits are simply piped to the user. If
  * there is an <code>If-Modified-Since</code> header, only a 304 status code
  * is returned if the containing item has not been modified since that date.
+ * Single and multiple byte ranges may be requested with a <code>Range</code>
+ * header.
  * <P>
  * <code>/bitstream/handle/sequence_id/filename</code>
  * 
@@ -169,16 +172,29 @@ public class BitstreamServlet extends DSpaceServlet
 
         log.info(LogManager.getHeader(context, "view_bitstream",
                 "bitstream_id=" + bitstream.getID()));
-        
-        //new UsageEvent().fire(request, context, AbstractUsageEvent.VIEW,
-		//		Constants.BITSTREAM, bitstream.getID());
-
-        new DSpace().getEventService().fireEvent(
-        		new UsageEvent(
-        				UsageEvent.Action.VIEW, 
-        				request, 
-        				context, 
-        				bitstream));
+
+        // Partial downloads, so that media can be seeked and downloads resumed
+        long size = bitstream.getSize();
+        response.setHeader("Accept-Ranges", "bytes");
+        List<HttpRange> ranges = HttpRange.parse(request.getHeader("Range"), size);
+        if (ranges != null && !isRangeCurrent(request, item))
+        {
+            ranges = null;
+        }
+
+        // A seek or a resumed download is part of a view already counted
+        if (HttpRange.isFromStart(ranges))
+        {
+            //new UsageEvent().fire(request, context, AbstractUsageEvent.VIEW,
+            //		Constants.BITSTREAM, bitstream.getID());
+
+            new DSpace().getEventService().fireEvent(
+                    new UsageEvent(
+                            UsageEvent.Action.VIEW,
+                            request,
+                            context,
+                            bitstream));
+        }
         
         // Modification date
         // Only use last-modified if this is an anonymous access
@@ -203,23 +219,66 @@ public class BitstreamServlet extends DSpaceServlet
             }
         }
         
-        // Pipe the bits
-        InputStream is = bitstream.retrieve();
-     
-		// Set the response MIME type
-        response.setContentType(bitstream.getFormat().getMIMEType());
+        // Check we may read the bits before committing to a response
+        AuthorizeManager.authorizeAction(context, bitstream, Constants.READ);
 
-        // Response length
-        response.setHeader("Content-Length", String
-                .valueOf(bitstream.getSize()));
+        String mimeType = bitstream.getFormat().getMIMEType();
 
-		if(threshold != -1 && bitstream.getSize() >= threshold)
+        if (ranges != null && ranges.isEmpty())
+        {
+            response.setHeader("Content-Range", "bytes */" + size);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+		if(threshold != -1 && size >= threshold)
 		{
 			UIUtil.setBitstreamDisposition(bitstream.getName(), request, response);
 		}
 
-        Utils.bufferedCopy(is, response.getOutputStream());
-        is.close();
-        response.getOutputStream().flush();
+        if (ranges == null)
+        {
+            // Set the response MIME type
+            response.setContentType(mimeType);
+
+            // Response length
+            response.setHeader("Content-Length", String.valueOf(size));
+
+            HttpRange.sendAll(bitstream, response.getOutputStream());
+        }
+        else
+        {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(HttpRange.getContentType(ranges, mimeType));
+            response.setHeader("Content-Length", String.valueOf(
+                    HttpRange.getContentLength(ranges, mimeType, size)));
+            if (ranges.size() == 1)
+            {
+                response.setHeader("Content-Range", ranges.get(0).getContentRange(size));
+            }
+
+            HttpRange.send(bitstream, ranges, response.getOutputStream());
+        }
+    }
+
+    /**
+     * Should the Range header of a request be honoured? Not if it carries an
+     * If-Range header naming a different version of the bitstream.
+     */
+    private boolean isRangeCurrent(HttpServletRequest request, Item item)
+    {
+        long ifRange;
+        try
+        {
+            ifRange = request.getDateHeader("If-Range");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // An entity tag; we never send those, so it cannot match
+            return false;
+        }
+
+        // HTTP dates only have a precision of one second
+        return ifRange == -1 || item.getLastModified().getTime() / 1000 <= ifRange / 1000;
     }
 }
@@ -27,6 +27,8 @@
   -   spellcheck	   - the suggested spell check query (if any)
   -   qResults		   - the discovery results
   -   items            - the results.  An array of Items, most relevant first
+  -   browseItems      - the results built from the index only, if
+  -                      discovery.results.index-only is set. BrowseItem[]
   -   communities      - results, Community[]
   -   collections      - results, Collection[]
   -
@@ -60,6 +62,7 @@
 <%@ page import="org.dspace.content.Community"   %>
 <%@ page import="org.dspace.content.Collection"  %>
 <%@ page import="org.dspace.content.Item"        %>
+<%@ page import="org.dspace.browse.BrowseItem"   %>
 <%@ page import="org.dspace.search.QueryResults" %>
 <%@ page import="org.dspace.sort.SortOption" %>
 <%@ page import="java.util.Enumeration" %>
@@ -408,6 +411,11 @@
 
 DiscoverResult qResults = (DiscoverResult)request.getAttribute("queryresults");
 Item      [] items       = (Item[]      )request.getAttribute("items");
+BrowseItem[] browseItems = (BrowseItem[])request.getAttribute("browseItems");
+if (browseItems == null)
+{
+    browseItems = new BrowseItem[0];
+}
 Community [] communities = (Community[] )request.getAttribute("communities");
 Collection[] collections = (Collection[])request.getAttribute("collections");
 
@@ -551,9 +559,16 @@ else if( qResults != null)
     <dspace:itemlist items="<%= items %>" authorLimit="<%= etAl %>" />
     </div>
 <% } %>
+
+<% if (browseItems.length > 0) { %>
+    <div class="panel panel-info">
+    <div class="panel-heading"><fmt:message key="jsp.search.results.itemhits"/></div>
+    <dspace:browselist items="<%= browseItems %>" />
+    </div>
+<% } %>
 </div>
 <%-- if the result page is enought long... --%>
-<% if ((communities.length + collections.length + items.length) > 10) {%>
+<% if ((communities.length + collections.length + items.length + browseItems.length) > 10) {%>
 <%-- show again the navigation info/links --%>
 <div class="discovery-result-pagination row container">
     <%-- <p align="center">Results <//%=qResults.getStart()+1%>-<//%=qResults.getStart()+qResults.getHitHandles().size()%> of --%>
@@ -23,6 +23,7 @@ import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.dspace.app.util.IndexingProgress;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.*;
@@ -30,6 +31,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
 import org.dspace.xoai.exceptions.CompilingException;
 import org.dspace.xoai.services.api.cache.XOAICacheService;
@@ -55,10 +57,19 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.lyncode.xoai.dataprovider.core.Granularity.Second;
-import static org.dspace.content.Item.find;
 import static org.dspace.xoai.util.ItemUtils.retrieveMetadata;
 
 /**
@@ -68,6 +79,9 @@ import static org.dspace.xoai.util.ItemUtils.retrieveMetadata;
 public class XOAI {
     private static Logger log = LogManager.getLogger(XOAI.class);
 
+    /** Maximum number of item IDs in a single IN (...) list */
+    private static final int MAX_IN_LIST = 500;
+
     private Context context;
     private boolean optimize;
     private boolean verbose;
@@ -203,32 +217,57 @@ public class XOAI {
 
     private int index(TableRowIterator iterator)
             throws DSpaceSolrIndexerException {
+        int threads = Math.max(1, ConfigurationManager.getIntProperty("oai", "import.threads", 1));
+        int batchSize = Math.max(1, ConfigurationManager.getIntProperty("oai", "import.batch.size", 100));
+
+        SolrServer server = solrServerResolver.getServer();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Semaphore queued = new Semaphore(threads * 2);
+        IndexingProgress progress = new IndexingProgress(batchSize * threads * 10) {
+            @Override
+            protected void report(long indexed) {
+                System.out.println(indexed + " items imported so far (" + getRate() + " items/s)...");
+            }
+        };
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        System.out.println("Indexing with " + threads + " thread(s), batches of " + batchSize + " items");
         try {
-            int i = 0;
-            SolrServer server = solrServerResolver.getServer();
-            while (iterator.hasNext()) {
-                try {
-                    server.add(this.index(find(context, iterator.next().getIntColumn("item_id"))));
-                    context.clearCache();
-                } catch (SQLException ex) {
-                    log.error(ex.getMessage(), ex);
-                } catch (MetadataBindException e) {
-                    log.error(e.getMessage(), e);
-                } catch (ParseException e) {
-                    log.error(e.getMessage(), e);
-                } catch (XMLStreamException e) {
-                    log.error(e.getMessage(), e);
-                } catch (WritingXmlException e) {
-                    log.error(e.getMessage(), e);
+            // filled as the collections of the items are met
+            Map<Integer, CollectionInfo> collections = new ConcurrentHashMap<Integer, CollectionInfo>();
+
+            try {
+                List<Integer> ids = new ArrayList<Integer>(batchSize);
+                while (iterator.hasNext() && failure.get() == null) {
+                    ids.add(iterator.next().getIntColumn("item_id"));
+                    if (ids.size() == batchSize) {
+                        queued.acquire();
+                        workers.execute(new BatchIndexingTask(ids, collections, server, queued, progress, failure));
+                        ids = new ArrayList<Integer>(batchSize);
+                    }
+                }
+                if (!ids.isEmpty() && failure.get() == null) {
+                    queued.acquire();
+                    workers.execute(new BatchIndexingTask(ids, collections, server, queued, progress, failure));
                 }
-                i++;
-                if (i % 100 == 0) System.out.println(i + " items imported so far...");
+            } finally {
+                iterator.close();
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
             }
-            System.out.println("Total: " + i + " items");
+
+            if (failure.get() != null) {
+                throw new DSpaceSolrIndexerException(failure.get().getMessage(), failure.get());
+            }
+
+            System.out.println("Total: " + progress.getCount() + " items in "
+                    + progress.getElapsedSeconds() + "s (" + progress.getRate() + " items/s)");
             server.commit();
-            return i;
+            return (int) progress.getCount();
         } catch (SQLException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         } catch (SolrServerException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         } catch (IOException ex) {
@@ -236,22 +275,87 @@ public class XOAI {
         }
     }
 
-    private SolrInputDocument index(Item item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
+    /**
+     * Get the handle and the (flattened) parent communities of a collection,
+     * reading them the first time the collection is met during an import.
+     *
+     * @return the collection's names, or null if it no longer exists
+     */
+    private CollectionInfo getCollectionInfo(Context context, int collectionID,
+                                             Map<Integer, CollectionInfo> collections) throws SQLException {
+        CollectionInfo col = collections.get(collectionID);
+        if (col == null) {
+            Collection collection = Collection.find(context, collectionID);
+            if (collection == null) {
+                return null;
+            }
+            col = new CollectionInfo(collection, collectionsService.flatParentCommunities(collection));
+            collections.put(collectionID, col);
+        }
+        return col;
+    }
+
+    /**
+     * Find the collections of a batch of items.
+     *
+     * @return the collection ids of each item
+     */
+    private static Map<Integer, List<Integer>> findCollectionIDs(Context context, List<Integer> itemIDs) throws SQLException {
+        Map<Integer, List<Integer>> result = new HashMap<Integer, List<Integer>>();
+        for (int start = 0; start < itemIDs.size(); start += MAX_IN_LIST) {
+            List<Integer> block = itemIDs.subList(start, Math.min(start + MAX_IN_LIST, itemIDs.size()));
+            StringBuilder query = new StringBuilder("SELECT item_id, collection_id FROM collection2item WHERE item_id IN (");
+            for (int i = 0; i < block.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+
+            TableRowIterator rows = DatabaseManager.query(context, query.toString(), block.toArray());
+            try {
+                while (rows.hasNext()) {
+                    TableRow row = rows.next();
+                    int itemID = row.getIntColumn("item_id");
+                    List<Integer> collectionIDs = result.get(itemID);
+                    if (collectionIDs == null) {
+                        collectionIDs = new ArrayList<Integer>();
+                        result.put(itemID, collectionIDs);
+                    }
+                    collectionIDs.add(row.getIntColumn("collection_id"));
+                }
+            } finally {
+                rows.close();
+            }
+        }
+        return result;
+    }
+
+    private SolrInputDocument index(Context context, Item item, List<Integer> collectionIDs, Map<Integer, CollectionInfo> collections)
+            throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
         SolrInputDocument doc = new SolrInputDocument();
         doc.addField("item.id", item.getID());
-        boolean pub = this.isPublic(item);
+        boolean pub = this.isPublic(context, item);
         doc.addField("item.public", pub);
         String handle = item.getHandle();
         doc.addField("item.handle", handle);
         doc.addField("item.lastmodified", item.getLastModified());
         doc.addField("item.submitter", item.getSubmitter().getEmail());
         doc.addField("item.deleted", item.isWithdrawn() ? "true" : "false");
-        for (Collection col : item.getCollections())
-            doc.addField("item.collections",
-                    "col_" + col.getHandle().replace("/", "_"));
-        for (Community com : collectionsService.flatParentCommunities(item))
-            doc.addField("item.communities",
-                    "com_" + com.getHandle().replace("/", "_"));
+
+        Set<String> communities = new LinkedHashSet<String>();
+        if (collectionIDs != null) {
+            for (Integer collectionID : collectionIDs) {
+                CollectionInfo col = getCollectionInfo(context, collectionID, collections);
+                if (col == null) {
+                    log.warn("Item " + item.getID() + " is mapped to collection " + collectionID
+                            + ", which does not exist; not indexing it under that collection");
+                    continue;
+                }
+                doc.addField("item.collections", col.getName());
+                communities.addAll(col.getCommunityNames());
+            }
+        }
+        for (String com : communities)
+            doc.addField("item.communities", com);
 
         DCValue[] allData = item.getMetadata(Item.ANY, Item.ANY, Item.ANY,
                 Item.ANY);
@@ -272,10 +376,10 @@ public class XOAI {
         }
 
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        XmlOutputContext context = XmlOutputContext.emptyContext(out, Second);
-        retrieveMetadata(item).write(context);
-        context.getWriter().flush();
-        context.getWriter().close();
+        XmlOutputContext xmlContext = XmlOutputContext.emptyContext(out, Second);
+        retrieveMetadata(item).write(xmlContext);
+        xmlContext.getWriter().flush();
+        xmlContext.getWriter().close();
         doc.addField("item.compile", out.toString());
 
         if (verbose) {
@@ -286,7 +390,7 @@ public class XOAI {
         return doc;
     }
 
-    private boolean isPublic(Item item) {
+    private boolean isPublic(Context context, Item item) {
         try {
             AuthorizeManager.authorizeAction(context, item, Constants.READ);
             for (Bundle b : item.getBundles())
@@ -300,6 +404,99 @@ public class XOAI {
         return false;
     }
 
+    /**
+     * The names a collection and its parent communities are indexed with.
+     */
+    private static class CollectionInfo {
+        private final String name;
+        private final List<String> communityNames = new ArrayList<String>();
+
+        CollectionInfo(Collection collection, List<Community> parents) {
+            name = "col_" + collection.getHandle().replace("/", "_");
+            for (Community com : parents)
+                communityNames.add("com_" + com.getHandle().replace("/", "_"));
+        }
+
+        String getName() {
+            return name;
+        }
+
+        List<String> getCommunityNames() {
+            return communityNames;
+        }
+    }
+
+    /**
+     * Indexes a batch of items in its own Context, sending the documents to
+     * Solr in a single request.
+     */
+    private class BatchIndexingTask implements Runnable {
+        private final List<Integer> ids;
+        private final Map<Integer, CollectionInfo> collections;
+        private final SolrServer server;
+        private final Semaphore queued;
+        private final IndexingProgress progress;
+        private final AtomicReference<Exception> failure;
+
+        BatchIndexingTask(List<Integer> ids, Map<Integer, CollectionInfo> collections, SolrServer server,
+                          Semaphore queued, IndexingProgress progress, AtomicReference<Exception> failure) {
+            this.ids = ids;
+            this.collections = collections;
+            this.server = server;
+            this.queued = queued;
+            this.progress = progress;
+            this.failure = failure;
+        }
+
+        public void run() {
+            Context batchContext = null;
+            try {
+                if (failure.get() != null) {
+                    return;
+                }
+
+                batchContext = new Context();
+                Map<Integer, List<Integer>> collectionIDs = findCollectionIDs(batchContext, ids);
+                int[] itemIDs = new int[ids.size()];
+                for (int i = 0; i < itemIDs.length; i++) {
+                    itemIDs[i] = ids.get(i);
+                }
+
+                List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(ids.size());
+                for (Item item : Item.findAll(batchContext, itemIDs)) {
+                    if (item == null) {
+                        continue;
+                    }
+                    try {
+                        docs.add(index(batchContext, item, collectionIDs.get(item.getID()), collections));
+                    } catch (SQLException ex) {
+                        log.error(ex.getMessage(), ex);
+                    } catch (MetadataBindException e) {
+                        log.error(e.getMessage(), e);
+                    } catch (ParseException e) {
+                        log.error(e.getMessage(), e);
+                    } catch (XMLStreamException e) {
+                        log.error(e.getMessage(), e);
+                    } catch (WritingXmlException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                }
+
+                if (!docs.isEmpty()) {
+                    server.add(docs);
+                }
+                progress.add(ids.size());
+            } catch (Exception ex) {
+                log.error(ex.getMessage(), ex);
+                failure.compareAndSet(null, ex);
+            } finally {
+                if (batchContext != null) {
+                    batchContext.abort();
+                }
+                queued.release();
+            }
+        }
+    }
 
     private static boolean getKnownExplanation(Throwable t) {
         if (t instanceof ConnectException) {
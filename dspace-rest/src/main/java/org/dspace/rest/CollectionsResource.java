@@ -10,7 +10,13 @@ package org.dspace.rest;
 
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeManager;
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.ItemIterator;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.rest.common.Collection;
@@ -24,8 +30,15 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 /*
 The "Path" annotation indicates the URI this class will be available at relative to your base URL.  For
@@ -38,6 +51,9 @@ http://localhost:8080/<webapp>/collections
 public class CollectionsResource {
     private static Logger log = Logger.getLogger(CollectionsResource.class);
 
+    /** Media type of newline delimited JSON */
+    public static final String NDJSON = "application/x-ndjson";
+
     @javax.ws.rs.core.Context ServletContext servletContext;
     
     private static final boolean writeStatistics;
@@ -92,6 +108,7 @@ public class CollectionsResource {
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
     public org.dspace.rest.common.Collection getCollection(@PathParam("collection_id") Integer collection_id, @QueryParam("expand") String expand, 
     		@QueryParam("limit") @DefaultValue("100") Integer limit, @QueryParam("offset") @DefaultValue("0") Integer offset,
+    		@QueryParam("after") Integer after,
     		@QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent, @QueryParam("xforwarderfor") String xforwarderfor,
     		@Context HttpHeaders headers, @Context HttpServletRequest request) {
         org.dspace.core.Context context = null;
@@ -103,7 +120,7 @@ public class CollectionsResource {
             	if(writeStatistics){
     				writeStats(context, collection_id, user_ip, user_agent, xforwarderfor, headers, request);
     			}
-                return new org.dspace.rest.common.Collection(collection, expand, context, limit, offset);
+                return new org.dspace.rest.common.Collection(collection, expand, context, limit, offset, after);
             } else {
                 throw new WebApplicationException(Response.Status.UNAUTHORIZED);
             }
@@ -121,6 +138,99 @@ public class CollectionsResource {
         }
     }
     
+    /**
+     * Stream all the readable items of a collection as newline delimited JSON,
+     * one item per line. The collection is walked in pages by item ID, each
+     * page being loaded and authorized in bulk and dropped from the context
+     * cache once written, so memory use does not depend on the size of the
+     * collection.
+     */
+    @GET
+    @Path("/{collection_id}/items.ndjson")
+    @Produces(NDJSON)
+    public Response streamItems(@PathParam("collection_id") final Integer collection_id, @QueryParam("expand") final String expand,
+            @QueryParam("after") @DefaultValue("-1") final Integer after) {
+        org.dspace.core.Context context = null;
+        try {
+            context = new org.dspace.core.Context();
+
+            org.dspace.content.Collection collection = org.dspace.content.Collection.find(context, collection_id);
+            if(collection == null) {
+                throw new WebApplicationException(Response.Status.NOT_FOUND);
+            }
+            if(!AuthorizeManager.authorizeActionBoolean(context, collection, org.dspace.core.Constants.READ)) {
+                throw new WebApplicationException(Response.Status.UNAUTHORIZED);
+            }
+        } catch (SQLException e) {
+            log.error(e.getMessage());
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            if(context != null) {
+                try {
+                    context.complete();
+                } catch (SQLException e) {
+                    log.error(e.getMessage() + " occurred while trying to close");
+                }
+            }
+        }
+
+        StreamingOutput output = new StreamingOutput() {
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                writeItems(collection_id, expand, after, out);
+            }
+        };
+        return Response.ok(output, NDJSON).build();
+    }
+
+    private void writeItems(int collection_id, String expand, int after, OutputStream out) throws IOException {
+        int batchSize = ConfigurationManager.getIntProperty("rest", "stream.batch.size", 100);
+        ObjectWriter writer = new ObjectMapper()
+                .setAnnotationIntrospector(new AnnotationIntrospector.Pair(new JacksonAnnotationIntrospector(), new JaxbAnnotationIntrospector()))
+                .writer();
+        Writer lines = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+
+        org.dspace.core.Context context = null;
+        try {
+            context = new org.dspace.core.Context();
+            org.dspace.content.Collection collection = org.dspace.content.Collection.find(context, collection_id);
+
+            int last = after;
+            List<Integer> itemIDs = new ArrayList<Integer>();
+            do {
+                itemIDs.clear();
+                ItemIterator page = collection.getItemsAfter(last, batchSize);
+                try {
+                    while(page.hasNext()) {
+                        itemIDs.add(page.nextID());
+                    }
+                } finally {
+                    page.close();
+                }
+
+                for(org.dspace.content.Item item : Collection.findReadableItems(context, itemIDs)) {
+                    lines.write(writer.writeValueAsString(new org.dspace.rest.common.Item(item, expand, context)));
+                    lines.write('\n');
+                }
+                lines.flush();
+
+                if(!itemIDs.isEmpty()) {
+                    last = itemIDs.get(itemIDs.size() - 1);
+                }
+
+                // Keep the collection, drop everything loaded for this page
+                context.clearCache();
+                context.cache(collection, collection.getID());
+            } while(itemIDs.size() == batchSize);
+        } catch (SQLException e) {
+            log.error(e.getMessage());
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            if(context != null) {
+                context.abort();
+            }
+        }
+    }
+
     private void writeStats(org.dspace.core.Context context, Integer collection_id, String user_ip, String user_agent,
 			String xforwarderfor, HttpHeaders headers,
 			HttpServletRequest request) {
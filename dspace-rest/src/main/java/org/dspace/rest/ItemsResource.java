@@ -17,10 +17,14 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.ItemIterator;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
+import org.dspace.rest.common.Collection;
 import org.dspace.usage.UsageEvent;
 import org.dspace.utils.DSpace;
 
@@ -35,14 +39,78 @@ import org.dspace.utils.DSpace;
 public class ItemsResource {
 	
 	private static final boolean writeStatistics;
+
+	/** most items listed in one page */
+	private static final int maxLimit;
 	
 	static{
 		writeStatistics=ConfigurationManager.getBooleanProperty("rest","stats",false);
+		maxLimit=Math.max(ConfigurationManager.getIntProperty("rest","items.limit.max",1000),1);
 	}
 	
 	 /** log4j category */
     private static final Logger log = Logger.getLogger(ItemsResource.class);
-    //ItemList - Not Implemented
+
+    /**
+     * List the readable items in the archive, in ascending order of item ID.
+     * Paging is by key rather than by offset: pass the ID of the last item of
+     * one page as "after" to get the next one. A limit above rest.items.limit.max
+     * is lowered to it.
+     */
+    @GET
+    @Path("/")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public org.dspace.rest.common.Item[] list(@QueryParam("expand") String expand, @QueryParam("limit") @DefaultValue("100") Integer limit,
+            @QueryParam("after") @DefaultValue("-1") Integer after) throws WebApplicationException {
+        if(limit == null || limit <= 0) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        limit = Math.min(limit, maxLimit);
+
+        org.dspace.core.Context context = null;
+        try {
+            context = new org.dspace.core.Context();
+
+            List<org.dspace.rest.common.Item> items = new ArrayList<org.dspace.rest.common.Item>();
+            List<Integer> itemIDs = new ArrayList<Integer>();
+            int last = (after == null) ? -1 : after;
+
+            // Keep going until the page is full, so that a run of restricted
+            // items does not look like the end of the archive
+            do {
+                itemIDs.clear();
+                ItemIterator page = org.dspace.content.Item.findAllAfter(context, last, limit - items.size());
+                try {
+                    while(page.hasNext()) {
+                        itemIDs.add(page.nextID());
+                    }
+                } finally {
+                    page.close();
+                }
+
+                for(org.dspace.content.Item item : Collection.findReadableItems(context, itemIDs)) {
+                    items.add(new org.dspace.rest.common.Item(item, expand, context));
+                }
+
+                if(!itemIDs.isEmpty()) {
+                    last = itemIDs.get(itemIDs.size() - 1);
+                }
+            } while(items.size() < limit && !itemIDs.isEmpty());
+
+            return items.toArray(new org.dspace.rest.common.Item[0]);
+        } catch (SQLException e)  {
+            log.error(e.getMessage());
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            if(context != null) {
+                try {
+                    context.complete();
+                } catch (SQLException e) {
+                    log.error(e.getMessage() + " occurred while trying to close");
+                }
+            }
+        }
+    }
 
     @GET
     @Path("/{item_id}")
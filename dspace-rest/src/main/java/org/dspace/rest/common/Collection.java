@@ -45,14 +45,21 @@ public class Collection extends DSpaceObject {
     //Calculated
     private Integer numberItems;
 
+    //Keyset paging: pass as "after" to get the next page of items
+    private Integer nextAfter;
+
     public Collection(){}
 
     public Collection(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset) throws SQLException, WebApplicationException{
+        this(collection, expand, context, limit, offset, null);
+    }
+
+    public Collection(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset, Integer after) throws SQLException, WebApplicationException{
         super(collection);
-        setup(collection, expand, context, limit, offset);
+        setup(collection, expand, context, limit, offset, after);
     }
 
-    private void setup(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset) throws SQLException{
+    private void setup(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset, Integer after) throws SQLException{
         List<String> expandFields = new ArrayList<String>();
         if(expand != null) {
             expandFields = Arrays.asList(expand.split(","));
@@ -79,21 +86,29 @@ public class Collection extends DSpaceObject {
             this.addExpand("parentCommunity");
         }
 
-        //TODO: Item paging. limit, offset/page
         if(expandFields.contains("items") || expandFields.contains("all")) {
             ItemIterator childItems;
-            if(limit != null && limit >= 0 && offset != null && offset >= 0) {
+            if(after != null && after >= 0 && limit != null && limit >= 0) {
+                childItems = collection.getItemsAfter(after, limit);
+            } else if(limit != null && limit >= 0 && offset != null && offset >= 0) {
                 childItems = collection.getItems(limit, offset);
             } else {
                 childItems = collection.getItems();
             }
 
-            items = new ArrayList<Item>();
+            List<Integer> childItemIDs = new ArrayList<Integer>();
             while(childItems.hasNext()) {
-                org.dspace.content.Item item = childItems.next();
-                if(AuthorizeManager.authorizeActionBoolean(context, item, org.dspace.core.Constants.READ)) {
-                    items.add(new Item(item, null, context));
-                }
+                childItemIDs.add(childItems.nextID());
+            }
+
+            items = new ArrayList<Item>();
+            for(org.dspace.content.Item item : findReadableItems(context, childItemIDs)) {
+                items.add(new Item(item, null, context));
+            }
+
+            // A full page in keyset mode may be followed by more items
+            if(after != null && after >= 0 && limit != null && limit > 0 && childItemIDs.size() == limit) {
+                nextAfter = childItemIDs.get(childItemIDs.size() - 1);
             }
         } else {
             this.addExpand("items");
@@ -121,6 +136,37 @@ public class Collection extends DSpaceObject {
         this.setNumberItems(collection.countItems());
     }
 
+    /**
+     * Load the given items and check their READ policies in bulk, rather than
+     * one by one.
+     *
+     * @param context DSpace context
+     * @param itemIDs IDs of the items to load, in the order they are wanted
+     * @return the items that exist and may be read, in the given order
+     */
+    public static List<org.dspace.content.Item> findReadableItems(Context context, List<Integer> itemIDs) throws SQLException {
+        int[] ids = new int[itemIDs.size()];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = itemIDs.get(i);
+        }
+
+        List<org.dspace.content.Item> itemList = new ArrayList<org.dspace.content.Item>();
+        for(org.dspace.content.Item item : org.dspace.content.Item.findAll(context, ids)) {
+            if(item != null) {
+                itemList.add(item);
+            }
+        }
+        boolean[] authorized = AuthorizeManager.authorizeActionBoolean(context, itemList, org.dspace.core.Constants.READ);
+
+        List<org.dspace.content.Item> readable = new ArrayList<org.dspace.content.Item>();
+        for(int i = 0; i < itemList.size(); i++) {
+            if(authorized[i]) {
+                readable.add(itemList.get(i));
+            }
+        }
+        return readable;
+    }
+
     public Bitstream getLogo() {
         return logo;
     }
@@ -133,6 +179,14 @@ public class Collection extends DSpaceObject {
         this.numberItems = numberItems;
     }
 
+    public Integer getNextAfter() {
+        return nextAfter;
+    }
+
+    public void setNextAfter(Integer nextAfter) {
+        this.nextAfter = nextAfter;
+    }
+
     public Community getParentCommunity() {
         return parentCommunity;
     }
@@ -28,6 +28,7 @@ import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.*;
 import org.dspace.content.Collection;
 import org.dspace.content.Item;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.LogManager;
 import org.dspace.discovery.*;
@@ -169,6 +170,10 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
                     }
                 }
 
+                for (DiscoverResult.IndexedObject indexedObject : this.queryResults.getIndexedObjects()) {
+                    validity.add(indexedObject.getHandle() + ":" + indexedObject.getLastIndexed());
+                }
+
                 Map<String, List<DiscoverResult.FacetResult>> facetResults = this.queryResults.getFacetResults();
                 for(String facetField : facetResults.keySet()){
                     List<DiscoverResult.FacetResult> facetValues = facetResults.get(facetField);
@@ -297,7 +302,7 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
 
         if(queryResults != null && 0 < queryResults.getTotalSearchResults())
         {
-            displayedResults = queryResults.getDspaceObjects().size();
+            displayedResults = queryResults.getDspaceObjects().size() + queryResults.getIndexedObjects().size();
             totalResults = queryResults.getTotalSearchResults();
             searchTime = ((float) queryResults.getSearchTime() / 1000) % 60;
 
@@ -315,13 +320,13 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
             }
         }
 
-        if (queryResults != null && 0 < queryResults.getDspaceObjects().size())
+        if (queryResults != null && 0 < queryResults.getDspaceObjects().size() + queryResults.getIndexedObjects().size())
         {
 
             // Pagination variables.
             int itemsTotal = (int) queryResults.getTotalSearchResults();
             int firstItemIndex = (int) this.queryResults.getStart() + 1;
-            int lastItemIndex = (int) this.queryResults.getStart() + queryResults.getDspaceObjects().size();
+            int lastItemIndex = (int) this.queryResults.getStart() + queryResults.getDspaceObjects().size() + queryResults.getIndexedObjects().size();
 
             //if (itemsTotal < lastItemIndex)
             //    lastItemIndex = itemsTotal;
@@ -380,7 +385,7 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
                 }
             }
 
-            if(CollectionUtils.isNotEmpty(itemList))
+            if(CollectionUtils.isNotEmpty(itemList) || CollectionUtils.isNotEmpty(queryResults.getIndexedObjects()))
             {
                 org.dspace.app.xmlui.wing.element.List itemWingList = dspaceObjectsList.addList("item-result-list");
                 if(CollectionUtils.isNotEmpty(commCollList))
@@ -393,6 +398,10 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
                     DiscoverResult.DSpaceObjectHighlightResult highlightedResults = queryResults.getHighlightedResults(resultDso);
                     renderItem(itemWingList, resultDso, highlightedResults);
                 }
+                for (DiscoverResult.IndexedObject indexedObject : queryResults.getIndexedObjects())
+                {
+                    renderIndexedItem(itemWingList, indexedObject);
+                }
             }
 
         } else {
@@ -467,6 +476,62 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
             }
         }
 
+        renderFullTextSnippets(itemList, item.getHandle(), highlightedResults);
+    }
+
+    /**
+     * Render an item found by an index-only search, using the metadata stored
+     * in the index rather than the item itself, see discovery.results.index-only
+     * @param dspaceObjectsList a list of DSpace objects
+     * @param item the search result to be rendered
+     * @throws WingException
+     * @throws SQLException Database failure in services this calls
+     */
+    protected void renderIndexedItem(org.dspace.app.xmlui.wing.element.List dspaceObjectsList, DiscoverResult.IndexedObject item) throws WingException, SQLException {
+        org.dspace.app.xmlui.wing.element.List itemList = dspaceObjectsList.addList(item.getHandle() + ":item");
+        DiscoverResult.DSpaceObjectHighlightResult highlightedResults = item.getHighlightedResults();
+
+        //Group the stored values by metadata field
+        Map<String, List<String>> fieldValues = new LinkedHashMap<String, List<String>>();
+        for (DCValue metadataValue : item.getMetadata())
+        {
+            //Check if our field isn't hidden
+            if (MetadataExposure.isHidden(context, metadataValue.schema, metadataValue.element, metadataValue.qualifier))
+            {
+                continue;
+            }
+
+            String metadataKey = metadataValue.schema + "." + metadataValue.element
+                    + (metadataValue.qualifier != null ? "." + metadataValue.qualifier : "");
+            List<String> values = fieldValues.get(metadataKey);
+            if (values == null)
+            {
+                values = new ArrayList<String>();
+                fieldValues.put(metadataKey, values);
+            }
+            values.add(metadataValue.value);
+        }
+
+        for (Map.Entry<String, List<String>> field : fieldValues.entrySet())
+        {
+            org.dspace.app.xmlui.wing.element.List metadataFieldList = itemList.addList(item.getHandle() + ":" + field.getKey());
+            for (String value : field.getValue())
+            {
+                addMetadataField(highlightedResults, field.getKey(), metadataFieldList, value);
+            }
+        }
+
+        renderFullTextSnippets(itemList, item.getHandle(), highlightedResults);
+    }
+
+    /**
+     * Add the highlighted full text snippets of an item, if any
+     * @param itemList the list the metadata of the item is rendered in
+     * @param handle the handle of the item
+     * @param highlightedResults the highlighted results
+     * @throws WingException
+     */
+    protected void renderFullTextSnippets(org.dspace.app.xmlui.wing.element.List itemList, String handle, DiscoverResult.DSpaceObjectHighlightResult highlightedResults) throws WingException {
         //Check our highlighted results, we may need to add non-metadata (like our full text)
         if(highlightedResults != null)
         {
@@ -475,7 +540,7 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
             if(CollectionUtils.isNotEmpty(fullSnippets))
             {
                 StringBuilder itemName = new StringBuilder();
-                itemName.append(item.getHandle()).append(":").append("fulltext");
+                itemName.append(handle).append(":").append("fulltext");
 
                 org.dspace.app.xmlui.wing.element.List fullTextFieldList = itemList.addList(itemName.toString());
 
@@ -741,6 +806,7 @@ public abstract class AbstractSearch extends AbstractDSpaceTransformer implement
 
 
         this.queryArgs = new DiscoverQuery();
+        queryArgs.setIndexOnly(ConfigurationManager.getBooleanProperty("discovery", "results.index-only", false));
 
         //Add the configured default filter queries
         DiscoveryConfiguration discoveryConfiguration = SearchUtils.getDiscoveryConfiguration(scope);
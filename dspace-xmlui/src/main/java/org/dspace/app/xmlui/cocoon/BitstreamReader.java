@@ -11,7 +11,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
 
 import javax.mail.internet.MimeUtility;
@@ -26,10 +28,9 @@ import org.apache.cocoon.environment.Request;
 import org.apache.cocoon.environment.Response;
 import org.apache.cocoon.environment.SourceResolver;
 import org.apache.cocoon.environment.http.HttpEnvironment;
-import org.apache.cocoon.environment.http.HttpResponse;
 import org.apache.cocoon.reading.AbstractReader;
-import org.apache.cocoon.util.ByteRange;
 import org.apache.commons.lang.StringUtils;
+import org.dspace.app.util.HttpRange;
 import org.dspace.app.xmlui.utils.AuthenticationUtil;
 import org.dspace.app.xmlui.utils.ContextUtil;
 import org.dspace.authorize.AuthorizeException;
@@ -136,8 +137,17 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     /** The Cocoon request */
     protected Request request;
 
-    /** The bitstream file */
+    /** The bitstream file, if it could not be opened as a channel */
     protected InputStream bitstreamInputStream;
+
+    /** The bitstream file, if it is held in a local asset store */
+    protected FileChannel bitstreamChannel;
+
+    /** The byte ranges requested, or null to send the whole bitstream */
+    protected List<HttpRange> byteRanges;
+
+    /** Whether byte ranges are offered (xmlui.bitstream.ranges) */
+    protected boolean rangesEnabled;
     
     /** The bitstream's reported size */
     protected long bitstreamSize;
@@ -320,9 +330,27 @@ public class BitstreamReader extends AbstractReader implements Recyclable
                 
             // Success, bitstream found and the user has access to read it.
             // Store these for later retrieval:
-            this.bitstreamInputStream = bitstream.retrieve();
+            this.bitstreamChannel = bitstream.retrieveChannel();
+            if (this.bitstreamChannel == null)
+            {
+                this.bitstreamInputStream = bitstream.retrieve();
+            }
             this.bitstreamSize = bitstream.getSize();
             this.bitstreamMimeType = bitstream.getFormat().getMIMEType();
+
+            // Partial downloads, so that media can be seeked and downloads
+            // resumed, unless turned off: some Windows PDF viewers cannot
+            // handle them
+            this.rangesEnabled = ConfigurationManager.getBooleanProperty("xmlui.bitstream.ranges", true);
+            this.byteRanges = null;
+            if (this.rangesEnabled)
+            {
+                this.byteRanges = HttpRange.parse(request.getHeader("Range"), this.bitstreamSize);
+                if (this.byteRanges != null && !isRangeCurrent())
+                {
+                    this.byteRanges = null;
+                }
+            }
             this.bitstreamName = bitstream.getName();
             if (context.getCurrentUser() == null)
             {
@@ -356,13 +384,17 @@ public class BitstreamReader extends AbstractReader implements Recyclable
             }
             
             // Log that the bitstream has been viewed, this is non-cached and the complexity
-            // of adding it to the sitemap for every possible bitstream uri is not very tractable
-            new DSpace().getEventService().fireEvent(
+            // of adding it to the sitemap for every possible bitstream uri is not very tractable.
+            // A seek or a resumed download is part of a view already counted.
+            if (HttpRange.isFromStart(this.byteRanges))
+            {
+                new DSpace().getEventService().fireEvent(
                                 new UsageEvent(
                                                 UsageEvent.Action.VIEW,
                                                 ObjectModelHelper.getRequest(objectModel),
                                                 ContextUtil.obtainContext(ObjectModelHelper.getRequest(objectModel)),
                                                 bitstream));
+            }
             
             // If we created the database connection close it, otherwise leave it open.
             if (BitstreamReaderOpenedContext)
@@ -507,7 +539,7 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     public void generate() throws IOException, SAXException,
             ProcessingException
     {
-        if (this.bitstreamInputStream == null)
+        if (this.bitstreamInputStream == null && this.bitstreamChannel == null)
         {
             return;
         }
@@ -547,9 +579,6 @@ public class BitstreamReader extends AbstractReader implements Recyclable
             throw new ProcessingException(e);
         }
 
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int length = -1;
-
         // Only encourage caching if this is not a restricted resource, i.e.
         // if it is accessed anonymously or is readable by Anonymous:
         if (isAnonymouslyReadable)
@@ -582,90 +611,68 @@ public class BitstreamReader extends AbstractReader implements Recyclable
                 response.setHeader("Content-Disposition", "attachment;filename=" + '"' + name + '"');
         }
 
-        ByteRange byteRange = null;
-
-        // Turn off partial downloads, they cause problems
-        // and are only rarely used. Specifically some windows pdf
-        // viewers are incapable of handling this request. You can
-        // uncomment the following lines to turn this feature back on.
-
-//        response.setHeader("Accept-Ranges", "bytes");
-//        String ranges = request.getHeader("Range");
-//        if (ranges != null)
-//        {
-//            try
-//            {
-//                ranges = ranges.substring(ranges.indexOf('=') + 1);
-//                byteRange = new ByteRange(ranges);
-//            }
-//            catch (NumberFormatException e)
-//            {
-//                byteRange = null;
-//                if (response instanceof HttpResponse)
-//                {
-//                    // Respond with status 416 (Request range not
-//                    // satisfiable)
-//                    response.setStatus(416);
-//                }
-//            }
-//        }
+        if (rangesEnabled)
+        {
+            response.setHeader("Accept-Ranges", "bytes");
+        }
+        if (byteRanges != null && byteRanges.isEmpty())
+        {
+            // Respond with status 416 (Request range not satisfiable)
+            response.setHeader("Content-Range", "bytes */" + this.bitstreamSize);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            closeBitstream();
+            return;
+        }
 
         try
         {
-            if (byteRange != null)
+            if (byteRanges != null)
             {
-                String entityLength;
-                String entityRange;
-                if (this.bitstreamSize != -1)
+                // Response with status 206 (Partial content)
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Length", String.valueOf(
+                        HttpRange.getContentLength(byteRanges, bitstreamMimeType, bitstreamSize)));
+                if (byteRanges.size() == 1)
                 {
-                    entityLength = "" + this.bitstreamSize;
-                    entityRange = byteRange.intersection(
-                            new ByteRange(0, this.bitstreamSize)).toString();
-                }
-                else
-                {
-                    entityLength = "*";
-                    entityRange = byteRange.toString();
+                    response.setHeader("Content-Range", byteRanges.get(0).getContentRange(bitstreamSize));
                 }
 
-                response.setHeader("Content-Range", entityRange + "/" + entityLength);
-                if (response instanceof HttpResponse)
+                if (this.bitstreamChannel != null)
                 {
-                    // Response with status 206 (Partial content)
-                    response.setStatus(206);
+                    HttpRange.send(this.bitstreamChannel, byteRanges, bitstreamMimeType, bitstreamSize, out);
                 }
-
-                int pos = 0;
-                int posEnd;
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
+                else
                 {
-                    posEnd = pos + length - 1;
-                    ByteRange intersection = byteRange.intersection(new ByteRange(pos, posEnd));
-                    if (intersection != null)
-                    {
-                        out.write(buffer, (int) intersection.getStart() - pos, (int) intersection.length());
-                    }
-                    pos += length;
+                    HttpRange.send(this.bitstreamInputStream, byteRanges, bitstreamMimeType, bitstreamSize, out);
                 }
             }
             else
             {
                 response.setHeader("Content-Length", String.valueOf(this.bitstreamSize));
 
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
+                if (this.bitstreamChannel != null)
                 {
-                    out.write(buffer, 0, length);
+                    HttpRange.sendAll(this.bitstreamChannel, out);
+                }
+                else
+                {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int length = -1;
+                    while ((length = this.bitstreamInputStream.read(buffer)) > -1)
+                    {
+                        out.write(buffer, 0, length);
+                    }
+                    out.flush();
                 }
-                out.flush();
             }
         }
         finally
         {
             try
             {
-                // Close the bitstream input stream so that we don't leak a file descriptor
-                this.bitstreamInputStream.close();
-                
+                // Close the bitstream so that we don't leak a file descriptor
+                closeBitstream();
+
                 // Close the output stream as per Cocoon docs: http://cocoon.apache.org/2.2/core-modules/core/2.2/681_1_1.html
                 out.close();
             } 
@@ -680,10 +687,56 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     }
 
     /**
-     * Returns the mime-type of the bitstream.
+     * Should the Range header of the request be honoured? Not if it carries
+     * an If-Range header naming a different version of the bitstream.
+     */
+    private boolean isRangeCurrent()
+    {
+        long ifRange;
+        try
+        {
+            ifRange = request.getDateHeader("If-Range");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // An entity tag; we never send those, so it cannot match
+            return false;
+        }
+
+        if (ifRange == -1)
+        {
+            return true;
+        }
+
+        // HTTP dates only have a precision of one second
+        return item != null && item.getLastModified().getTime() / 1000 <= ifRange / 1000;
+    }
+
+    /**
+     * Close whichever of the bitstream channel or stream is open.
+     */
+    private void closeBitstream() throws IOException
+    {
+        if (this.bitstreamChannel != null)
+        {
+            this.bitstreamChannel.close();
+        }
+        if (this.bitstreamInputStream != null)
+        {
+            this.bitstreamInputStream.close();
+        }
+    }
+
+    /**
+     * Returns the mime-type of the response: the bitstream's, unless several
+     * byte ranges were requested.
      */
     public String getMimeType()
     {
+        if (this.byteRanges != null && !this.byteRanges.isEmpty())
+        {
+            return HttpRange.getContentType(this.byteRanges, this.bitstreamMimeType);
+        }
         return this.bitstreamMimeType;
     }
     
@@ -694,6 +747,8 @@ public class BitstreamReader extends AbstractReader implements Recyclable
         this.response = null;
         this.request = null;
         this.bitstreamInputStream = null;
+        this.bitstreamChannel = null;
+        this.byteRanges = null;
         this.bitstreamSize = 0;
         this.bitstreamMimeType = null;
     }
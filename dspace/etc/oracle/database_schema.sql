@@ -113,6 +113,8 @@ CREATE TABLE Bitstream
    size_bytes              INTEGER,
    checksum                VARCHAR2(64),
    checksum_algorithm      VARCHAR2(32),
+   strong_checksum         VARCHAR2(128),
+   strong_checksum_algorithm VARCHAR2(32),
    description             VARCHAR2(2000),
    user_format_description VARCHAR2(2000),
    source                  VARCHAR2(256),
@@ -798,3 +800,33 @@ CREATE TABLE requestitem
   CONSTRAINT requestitem_token_key UNIQUE (token)
 );
 
+-------------------------------------------------------
+-- Queue of events for asynchronous consumers
+-------------------------------------------------------
+CREATE SEQUENCE eventqueue_seq;
+
+CREATE TABLE eventqueue
+(
+  eventqueue_id   INTEGER PRIMARY KEY,
+  consumer        VARCHAR2(64),
+  transaction_id  VARCHAR2(64),
+  event_type      INTEGER,
+  subject_type    INTEGER,
+  subject_id      INTEGER,
+  object_type     INTEGER,
+  object_id       INTEGER,
+  detail          CLOB,
+  eperson_id      INTEGER,
+  queued          TIMESTAMP,
+  attempts        INTEGER
+);
+
+CREATE INDEX eventqueue_consumer_idx ON eventqueue(consumer, eventqueue_id);
+
+-- Which worker delivers each consumer's queued events
+CREATE TABLE eventqueue_lease
+(
+  consumer        VARCHAR2(64) PRIMARY KEY,
+  owner           VARCHAR2(128),
+  lease_until     TIMESTAMP
+);
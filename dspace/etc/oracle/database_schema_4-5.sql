@@ -13,5 +13,42 @@ START TRANSACTION;
 ------------------------------------------------------
 ALTER TABLE requestitem ADD request_message TEXT;
 
+------------------------------------------------------
+-- Stronger checksum of bitstreams, alongside MD5
+------------------------------------------------------
+ALTER TABLE bitstream ADD strong_checksum VARCHAR2(128);
+ALTER TABLE bitstream ADD strong_checksum_algorithm VARCHAR2(32);
+
+------------------------------------------------------
+-- Queue of events for asynchronous consumers
+------------------------------------------------------
+CREATE SEQUENCE eventqueue_seq;
+
+CREATE TABLE eventqueue
+(
+  eventqueue_id   INTEGER PRIMARY KEY,
+  consumer        VARCHAR2(64),
+  transaction_id  VARCHAR2(64),
+  event_type      INTEGER,
+  subject_type    INTEGER,
+  subject_id      INTEGER,
+  object_type     INTEGER,
+  object_id       INTEGER,
+  detail          CLOB,
+  eperson_id      INTEGER,
+  queued          TIMESTAMP,
+  attempts        INTEGER
+);
+
+CREATE INDEX eventqueue_consumer_idx ON eventqueue(consumer, eventqueue_id);
+
+-- Which worker delivers each consumer's queued events
+CREATE TABLE eventqueue_lease
+(
+  consumer        VARCHAR2(64) PRIMARY KEY,
+  owner           VARCHAR2(128),
+  lease_until     TIMESTAMP
+);
+
 
 COMMIT;
\ No newline at end of file